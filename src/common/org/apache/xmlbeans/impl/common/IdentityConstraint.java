@@ -23,6 +23,9 @@ import java.util.*;
 /**
  * Identity constraint engine. Performs streaming validation of identity constraints.
  * This includes key, keyref, & unique, as well as ID & IDRef.
+ *
+ * Values are kept as fingerprints in KeyTables, which spill to temporary
+ * files past a limit, so the memory used does not grow with the document.
  */
 public class IdentityConstraint {
 
@@ -31,10 +34,21 @@ public class IdentityConstraint {
     private Collection _errorListener;
     private boolean _invalid;
     private boolean _trackIdrefs; // We only track idrefs if validating from the root element
+    private int _keyLimit;
+    private List _spilledTables = new ArrayList();
 
     public IdentityConstraint(Collection  errorListener, boolean trackIdrefs) {
+        this(errorListener, trackIdrefs, 0);
+    }
+
+    /**
+     * @param keyLimit the number of values each key table holds in memory
+     * before spilling to a temporary file, or 0 for the default
+     */
+    public IdentityConstraint(Collection  errorListener, boolean trackIdrefs, int keyLimit) {
         _errorListener = errorListener;
         _trackIdrefs = trackIdrefs;
+        _keyLimit = keyLimit;
     }
 
     public void element(Event e, SchemaType st, SchemaIdentityConstraint[] ics) {
@@ -68,6 +82,22 @@ public class IdentityConstraint {
         for (ConstraintState cs = _constraintStack ; cs != null ; cs = cs._next)
             cs.endElement(e);
 
+        // At the end of the document, nothing needs the spilled values
+        if (_elementStack == null)
+            disposeSpilledTables();
+    }
+
+    private void disposeSpilledTables()
+    {
+        for (Iterator it = _spilledTables.iterator() ; it.hasNext() ; )
+            ((KeyTable)it.next()).dispose();
+
+        _spilledTables.clear();
+    }
+
+    private KeyTable newTable(boolean labelled)
+    {
+        return new KeyTable(_keyLimit, labelled, _spilledTables);
     }
 
     public void attr(Event e, QName name, SchemaType st, String value) {
@@ -188,11 +218,12 @@ public class IdentityConstraint {
 
     public class SelectorState extends ConstraintState {
         SchemaIdentityConstraint _constraint;
-        Set _values = new LinkedHashSet();
+        KeyTable _values;
         XPath.ExecutionContext _context;
 
         SelectorState(SchemaIdentityConstraint constraint, Event e, SchemaType st) {
             _constraint = constraint;
+            _values = newTable(constraint.getConstraintCategory() == SchemaIdentityConstraint.CC_KEYREF);
             _context = new XPath.ExecutionContext();
             _context.init((XPath)_constraint.getSelectorPath());
 
@@ -202,12 +233,14 @@ public class IdentityConstraint {
 
         void addFields(XmlObjectList fields, Event e) 
         {
+            // Values with missing fields never equal anything
+            if (fields.unfilled() >= 0)
+                return;
+
             if (_constraint.getConstraintCategory() == SchemaIdentityConstraint.CC_KEYREF)
-                _values.add(fields);
-            else if (_values.contains(fields)) 
+                _values.add(fields.fingerprint(), fields.toString());
+            else if (! _values.add(fields.fingerprint(), null))
                 emitError(e, "Duplicate key '" + fields + "' for key or unique constraint " + QNameHelper.pretty(_constraint.getName()));
-            else
-                _values.add(fields);
         }
 
         void element(Event e, SchemaType st) 
@@ -226,6 +259,13 @@ public class IdentityConstraint {
         }
 
         void remove(Event e) {
+            // Values which spilled to disk are only checked for duplicates now
+            if (_constraint.getConstraintCategory() != SchemaIdentityConstraint.CC_KEYREF &&
+                _values.countDuplicates() > 0)
+            {
+                emitError(e, "Duplicate key for key or unique constraint " + QNameHelper.pretty(_constraint.getName()));
+            }
+
             // Bubble up key, unique values to keyrefs
             for (ConstraintState cs = _next ; cs != null ; cs = cs._next )
             {
@@ -243,16 +283,17 @@ public class IdentityConstraint {
     }
 
     public class KeyrefState extends SelectorState {
-        Set _keyValues = new HashSet();
+        // The tables of the keys in scope, which are looked in, not copied
+        List _keyValues = new ArrayList();
 
         KeyrefState(SchemaIdentityConstraint constraint, Event e, SchemaType st) {
             super(constraint, e, st);
         }
 
-        void addKeyValues(final Set values)
+        void addKeyValues(KeyTable values)
         {
-            // BUG: remove duplicates
-            _keyValues.addAll(values);
+            if (! _keyValues.contains(values))
+                _keyValues.add(values);
         }
 
         void remove(Event e) {
@@ -270,15 +311,15 @@ public class IdentityConstraint {
 
 
             // validate all values have been seen
-            for (Iterator it = _values.iterator() ; it.hasNext() ; )
+            KeyTable.Scan missing = _values.missingFrom(_keyValues);
+            try
             {
-
-                XmlObjectList fields = (XmlObjectList)it.next();
-                if (fields.unfilled() < 0 && ! _keyValues.contains(fields))
-                {
-                    emitError(e, "Key '" + fields + "' not found (keyRef " + QNameHelper.pretty(_constraint.getName()) + ")");
-                    return;
-                }
+                if (missing.next())
+                    emitError(e, "Key '" + missing.label() + "' not found (keyRef " + QNameHelper.pretty(_constraint.getName()) + ")");
+            }
+            finally
+            {
+                missing.close();
             }
         }
     }
@@ -423,7 +464,7 @@ public class IdentityConstraint {
 
     public class IdState extends ConstraintState
     {
-        Set _values = new LinkedHashSet();
+        KeyTable _values = newTable(false);
 
         IdState() { }
 
@@ -462,28 +503,37 @@ public class IdentityConstraint {
 
                 xmlValue.set(o, 0);
 
-                if (_values.contains(xmlValue))
+                if (! _values.add(xmlValue.fingerprint(), null))
                     emitError(e, "Duplicate ID value '" + value + "'");
-                else
-                    _values.add(xmlValue);
             }
         }
 
         void element(Event e, SchemaType st) {}
         void endElement(Event e){}
-        void remove(Event e){}
+
+        void remove(Event e)
+        {
+            // Values which spilled to disk are only checked for duplicates now
+            if (_values.countDuplicates() > 0)
+                emitError(e, "Duplicate ID value");
+        }
 
     }
 
     public class IdRefState extends ConstraintState
     {
         IdState _ids;
-        List _values;
+        KeyTable _values;
 
         IdRefState(IdState ids)
         {
             _ids = ids;
-            _values = new ArrayList();
+            _values = newTable(true);
+        }
+
+        private void addValue(XmlObjectList xmlValue)
+        {
+            _values.add(xmlValue.fingerprint(), xmlValue.toString());
         }
 
         private void handleValue(Event e, SchemaType st, String value)
@@ -511,7 +561,7 @@ public class IdentityConstraint {
                     XmlObjectList xmlValue = new XmlObjectList(1);
                     XmlIDREF idref = (XmlIDREF)l.get(i);
                     xmlValue.set(idref, 0);
-                    _values.add(xmlValue);
+                    addValue(xmlValue);
                 }
             }
             else if (XmlIDREF.type.isAssignableFrom(st))
@@ -523,7 +573,7 @@ public class IdentityConstraint {
                 if (idref == null) return;
 
                 xmlValue.set(idref, 0);
-                _values.add(xmlValue);
+                addValue(xmlValue);
             }
         }
 
@@ -541,13 +591,15 @@ public class IdentityConstraint {
         void remove(Event e) 
         { 
             // Validate each ref has a corresponding ID
-            for (Iterator it = _values.iterator() ; it.hasNext() ; )
+            KeyTable.Scan missing = _values.missingFrom(Collections.singletonList(_ids._values));
+            try
             {
-                Object o = it.next();
-                if (! _ids._values.contains(o))
-                {
-                    emitError(e, "ID not found for IDRef value '" + o + "'");
-                }
+                while (missing.next())
+                    emitError(e, "ID not found for IDRef value '" + missing.label() + "'");
+            }
+            finally
+            {
+                missing.close();
             }
         }
         void element(Event e, SchemaType st) { }
@@ -0,0 +1,590 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+import org.apache.xmlbeans.XmlRuntimeException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A set of identity constraint values, held as the 64 bit fingerprints of
+ * their canonical values (see XmlObjectList.fingerprint) rather than as
+ * XmlObjects.  The fingerprints are kept in insertion order in a long
+ * array, indexed by an open addressed hash of int slots.
+ *
+ * Once the table holds its limit of values they are sorted and written out
+ * to a temporary file as a run, and the table starts over empty, so memory
+ * stays bounded however large the document.  A labelled table also keeps a
+ * display string for each value, for error messages.
+ *
+ * Spilled values are never looked up one at a time.  Duplicates across runs
+ * are found by countDuplicates, and references without a value by
+ * missingFrom, both in one sorted merge of all the runs.
+ *
+ * Fingerprints are not checked against the values they stand for, so two
+ * different values collide with a chance of about n*n / 2^65.
+ */
+final class KeyTable
+{
+    static final int DEFAULT_LIMIT = 1 << 18;
+
+    private static final int MAX_LABEL = 256;
+
+    /**
+     * @param limit  the number of values held in memory before spilling
+     * @param labelled  whether to keep a label with each value
+     * @param spilled  the list to add this table to when it first spills,
+     *                 so that its files can be disposed of
+     */
+    KeyTable ( int limit, boolean labelled, List spilled )
+    {
+        _limit = limit <= 0 ? DEFAULT_LIMIT : limit;
+        _labelled = labelled;
+        _spilled = spilled;
+
+        clear();
+    }
+
+    /**
+     * Adds the value, returning false if it is already held in memory.  A
+     * value which matches one already spilled is added again; see
+     * countDuplicates.
+     */
+    boolean add ( long fingerprint, String label )
+    {
+        int slot = find( fingerprint );
+
+        if (_slots[ slot ] != 0)
+            return false;
+
+        if (_count == _values.length)
+        {
+            long[] values = new long [ _count * 2 ];
+            System.arraycopy( _values, 0, values, 0, _count );
+            _values = values;
+
+            if (_labelled)
+            {
+                String[] labels = new String [ _count * 2 ];
+                System.arraycopy( _labels, 0, labels, 0, _count );
+                _labels = labels;
+            }
+        }
+
+        _values[ _count ] = fingerprint;
+
+        if (_labelled)
+        {
+            _labels[ _count ] =
+                label == null || label.length() <= MAX_LABEL
+                    ? label : label.substring( 0, MAX_LABEL );
+        }
+
+        _slots[ slot ] = ++_count;
+
+        if (_count >= _limit)
+            spill();
+        else if (_count * 2 > _slots.length)
+            rehash( _slots.length * 2 );
+
+        return true;
+    }
+
+    /**
+     * Returns the number of values held more than once.  Only values which
+     * were spilled can be held more than once.
+     */
+    int countDuplicates ( )
+    {
+        if (_runs.isEmpty())
+            return 0;
+
+        Scan values = sorted();
+        int duplicates = 0;
+
+        try
+        {
+            boolean first = true;
+            long last = 0;
+
+            while ( values.next() )
+            {
+                if (!first && values.fingerprint() == last)
+                    duplicates++;
+
+                first = false;
+                last = values.fingerprint();
+            }
+        }
+        finally
+        {
+            values.close();
+        }
+
+        return duplicates;
+    }
+
+    /**
+     * Returns a scan over the values of this labelled table which are in
+     * none of the given tables, with their labels.  When nothing has
+     * spilled the values come in the order they were added; otherwise
+     * they come in fingerprint order, from one merge of this table's runs
+     * against the others'.  The scan must be closed.
+     */
+    Scan missingFrom ( final List tables )
+    {
+        assert _labelled;
+
+        boolean spilled = !_runs.isEmpty();
+
+        for ( int i = 0 ; i < tables.size() ; i++ )
+            spilled = spilled || !((KeyTable) tables.get( i ))._runs.isEmpty();
+
+        if (!spilled)
+        {
+            return
+                new Scan()
+                {
+                    boolean next ( )
+                    {
+                        while ( _index < _count )
+                        {
+                            long fingerprint = _values[ _index ];
+                            String label = _labels[ _index ];
+
+                            _index++;
+
+                            if (!anyHolds( tables, fingerprint ))
+                                return found( fingerprint, label );
+                        }
+
+                        return false;
+                    }
+
+                    private int _index;
+                };
+        }
+
+        Scan[] keys = new Scan [ tables.size() ];
+
+        for ( int i = 0 ; i < keys.length ; i++ )
+            keys[ i ] = ((KeyTable) tables.get( i )).sorted();
+
+        return new MissingScan( sorted(), new MergeScan( keys ) );
+    }
+
+    private static boolean anyHolds ( List tables, long fingerprint )
+    {
+        for ( int i = 0 ; i < tables.size() ; i++ )
+        {
+            KeyTable table = (KeyTable) tables.get( i );
+
+            if (table._slots[ table.find( fingerprint ) ] != 0)
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Deletes any files this table spilled to.
+     */
+    void dispose ( )
+    {
+        for ( int i = 0 ; i < _runs.size() ; i++ )
+            ((Run) _runs.get( i )).dispose();
+
+        _runs.clear();
+    }
+
+    /**
+     * One pass over values, with their labels if the table keeps them.
+     */
+    static abstract class Scan
+    {
+        /**
+         * Moves to the next value, returning false when there are no more.
+         */
+        abstract boolean next ( );
+
+        long fingerprint ( )
+        {
+            return _fingerprint;
+        }
+
+        String label ( )
+        {
+            return _label;
+        }
+
+        /**
+         * Closes any files the scan reads.
+         */
+        void close ( )
+        {
+        }
+
+        protected final boolean found ( long fingerprint, String label )
+        {
+            _fingerprint = fingerprint;
+            _label = label;
+            return true;
+        }
+
+        private long   _fingerprint;
+        private String _label;
+    }
+
+    /**
+     * Returns a scan over all the values, spilled or not, in fingerprint
+     * order.
+     */
+    private Scan sorted ( )
+    {
+        Scan[] scans = new Scan [ _runs.size() + 1 ];
+
+        for ( int i = 0 ; i < _runs.size() ; i++ )
+            scans[ i ] = ((Run) _runs.get( i )).scan( _labelled );
+
+        scans[ _runs.size() ] = new MemoryScan();
+
+        return scans.length == 1 ? scans[ 0 ] : new MergeScan( scans );
+    }
+
+    /**
+     * The values held in memory, in fingerprint order.
+     */
+    private final class MemoryScan extends Scan
+    {
+        MemoryScan ( )
+        {
+            _sorted = sortedValues();
+        }
+
+        boolean next ( )
+        {
+            if (_index >= _sorted.length)
+                return false;
+
+            long fingerprint = _sorted[ _index++ ];
+
+            return found( fingerprint, labelOf( fingerprint ) );
+        }
+
+        private final long[] _sorted;
+        private int _index;
+    }
+
+    /**
+     * Merges sorted scans into one sorted scan, keeping values found in
+     * more than one.
+     */
+    private static final class MergeScan extends Scan
+    {
+        MergeScan ( Scan[] scans )
+        {
+            _scans = scans;
+            _live = new boolean [ scans.length ];
+            _started = false;
+        }
+
+        boolean next ( )
+        {
+            if (!_started)
+            {
+                _started = true;
+
+                for ( int i = 0 ; i < _scans.length ; i++ )
+                    _live[ i ] = _scans[ i ].next();
+            }
+            else if (_current >= 0)
+                _live[ _current ] = _scans[ _current ].next();
+
+            _current = -1;
+
+            for ( int i = 0 ; i < _scans.length ; i++ )
+            {
+                if (_live[ i ] &&
+                        (_current < 0 ||
+                            _scans[ i ].fingerprint() < _scans[ _current ].fingerprint()))
+                {
+                    _current = i;
+                }
+            }
+
+            if (_current < 0)
+                return false;
+
+            return
+                found(
+                    _scans[ _current ].fingerprint(), _scans[ _current ].label() );
+        }
+
+        void close ( )
+        {
+            for ( int i = 0 ; i < _scans.length ; i++ )
+                _scans[ i ].close();
+        }
+
+        private final Scan[]    _scans;
+        private final boolean[] _live;
+        private boolean         _started;
+        private int             _current = -1;
+    }
+
+    /**
+     * The values of one sorted scan which are not in another.
+     */
+    private static final class MissingScan extends Scan
+    {
+        MissingScan ( Scan values, Scan keys )
+        {
+            _values = values;
+            _keys = keys;
+            _keysLive = keys.next();
+        }
+
+        boolean next ( )
+        {
+            while ( _values.next() )
+            {
+                long fingerprint = _values.fingerprint();
+
+                // A value spilled in more than one run is reported once
+
+                if (_any && fingerprint == _last)
+                    continue;
+
+                _any = true;
+                _last = fingerprint;
+
+                while ( _keysLive && _keys.fingerprint() < fingerprint )
+                    _keysLive = _keys.next();
+
+                if (!_keysLive || _keys.fingerprint() != fingerprint)
+                    return found( fingerprint, _values.label() );
+            }
+
+            return false;
+        }
+
+        void close ( )
+        {
+            _values.close();
+            _keys.close();
+        }
+
+        private final Scan _values;
+        private final Scan _keys;
+        private boolean    _keysLive;
+        private boolean    _any;
+        private long       _last;
+    }
+
+    private long[] sortedValues ( )
+    {
+        long[] sorted = new long [ _count ];
+        System.arraycopy( _values, 0, sorted, 0, _count );
+        Arrays.sort( sorted );
+        return sorted;
+    }
+
+    /**
+     * Returns the label of a value held in memory, found through the hash
+     * since values in memory are never held twice.
+     */
+    private String labelOf ( long fingerprint )
+    {
+        if (!_labelled)
+            return null;
+
+        int entry = _slots[ find( fingerprint ) ];
+
+        assert entry != 0;
+
+        return _labels[ entry - 1 ];
+    }
+
+    private int find ( long fingerprint )
+    {
+        int mask = _slots.length - 1;
+        int i = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+
+        for ( ; ; )
+        {
+            int entry = _slots[ i ];
+
+            if (entry == 0 || _values[ entry - 1 ] == fingerprint)
+                return i;
+
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void rehash ( int size )
+    {
+        _slots = new int [ size ];
+
+        for ( int i = 0 ; i < _count ; i++ )
+            _slots[ find( _values[ i ] ) ] = i + 1;
+    }
+
+    private void clear ( )
+    {
+        _slots = new int [ 32 ];
+        _values = new long [ 16 ];
+        _labels = _labelled ? new String [ 16 ] : null;
+        _count = 0;
+    }
+
+    private void spill ( )
+    {
+        if (_runs.isEmpty() && _spilled != null)
+            _spilled.add( this );
+
+        File file = null;
+        DataOutputStream output = null;
+
+        try
+        {
+            // Not deleteOnExit: dispose deletes the file, and every path
+            // given to deleteOnExit is kept until the JVM exits
+
+            file = File.createTempFile( "xbean", ".keys" );
+
+            output =
+                new DataOutputStream(
+                    new BufferedOutputStream( new FileOutputStream( file ) ) );
+
+            long[] sorted = sortedValues();
+
+            for ( int i = 0 ; i < sorted.length ; i++ )
+            {
+                output.writeLong( sorted[ i ] );
+
+                if (_labelled)
+                {
+                    String label = labelOf( sorted[ i ] );
+                    output.writeUTF( label == null ? "" : label );
+                }
+            }
+
+            output.close();
+            output = null;
+        }
+        catch ( IOException e )
+        {
+            if (file != null)
+                file.delete();
+
+            throw new XmlRuntimeException( e.getMessage(), e );
+        }
+        finally
+        {
+            if (output != null)
+                try { output.close(); } catch ( IOException e ) { }
+        }
+
+        _runs.add( new Run( file, _count ) );
+
+        clear();
+    }
+
+    /**
+     * One spilled batch of values, sorted by fingerprint.
+     */
+    private static final class Run
+    {
+        Run ( File file, int count )
+        {
+            _file = file;
+            _count = count;
+        }
+
+        Scan scan ( final boolean labelled )
+        {
+            final DataInputStream input;
+
+            try
+            {
+                input =
+                    new DataInputStream(
+                        new BufferedInputStream( new FileInputStream( _file ) ) );
+            }
+            catch ( IOException e )
+            {
+                throw new XmlRuntimeException( e.getMessage(), e );
+            }
+
+            return
+                new Scan()
+                {
+                    boolean next ( )
+                    {
+                        if (_remaining == 0)
+                            return false;
+
+                        _remaining--;
+
+                        try
+                        {
+                            long fingerprint = input.readLong();
+                            return found( fingerprint, labelled ? input.readUTF() : null );
+                        }
+                        catch ( IOException e )
+                        {
+                            throw new XmlRuntimeException( e.getMessage(), e );
+                        }
+                    }
+
+                    void close ( )
+                    {
+                        try { input.close(); } catch ( IOException e ) { }
+                    }
+
+                    private int _remaining = _count;
+                };
+        }
+
+        void dispose ( )
+        {
+            _file.delete();
+        }
+
+        private final File _file;
+        private final int _count;
+    }
+
+    private final int _limit;
+    private final boolean _labelled;
+    private final List _spilled;
+    private final List _runs = new ArrayList();
+
+    private int[] _slots;
+    private long[] _values;
+    private String[] _labels;
+    private int _count;
+}
@@ -0,0 +1,228 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+/**
+ * A bounded pool of objects which are costly to make, such as parsers,
+ * shared by all threads.  An object is taken with acquire and given back
+ * with release once the taker is done with it; it is never used by two
+ * threads at once.  Unlike a thread local, a pool keeps its objects when
+ * the threads which used them go away, so short lived threads don't each
+ * make their own.
+ *
+ * At most size objects are kept idle.  When none is idle, acquire makes a
+ * new one rather than wait, and a release which finds the pool full drops
+ * the object.  Counts of hits, misses and drops are kept to help size the
+ * pool.
+ */
+public abstract class ObjectPool
+{
+    protected ObjectPool ( int size )
+    {
+        _idle = new Object [ Math.max( 0, size ) ];
+    }
+
+    /**
+     * The size of a pool when none is given: the value of the
+     * xmlbean.poolsize system property, or twice the number of processors.
+     */
+    public static int defaultSize ( )
+    {
+        try
+        {
+            String size = System.getProperty( "xmlbean.poolsize" );
+
+            if (size != null)
+                return Math.max( 0, Integer.parseInt( size ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            // fall through to the default
+        }
+        catch ( SecurityException e )
+        {
+            // fall through to the default
+        }
+
+        return 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Makes a new object for the pool.
+     */
+    protected abstract Object create ( );
+
+    /**
+     * Readies an object which has been given back to be used again,
+     * returning false if it should be dropped instead.
+     */
+    protected boolean reset ( Object o )
+    {
+        return true;
+    }
+
+    /**
+     * Takes an idle object, or makes one if none is idle.
+     */
+    public final Object acquire ( )
+    {
+        synchronized ( this )
+        {
+            if (_count > 0)
+            {
+                _hits++;
+
+                Object o = _idle[ --_count ];
+                _idle[ _count ] = null;
+
+                return o;
+            }
+
+            _misses++;
+        }
+
+        // Made outside the lock, so that other threads are not held up
+
+        return create();
+    }
+
+    /**
+     * Gives back an object taken with acquire, once it is no longer used.
+     */
+    public final void release ( Object o )
+    {
+        if (o == null)
+            return;
+
+        if (!reset( o ))
+        {
+            discard( o );
+            return;
+        }
+
+        synchronized ( this )
+        {
+            if (_count < _idle.length)
+            {
+                _idle[ _count++ ] = o;
+                return;
+            }
+
+            _drops++;
+        }
+    }
+
+    /**
+     * Drops an object taken with acquire instead of giving it back, for
+     * when it may have been left unfit for use, say by an exception.
+     */
+    public final void discard ( Object o )
+    {
+        synchronized ( this )
+        {
+            _drops++;
+        }
+    }
+
+    /**
+     * Sets the most objects kept idle, dropping any over it.
+     */
+    public final synchronized void setSize ( int size )
+    {
+        Object[] idle = new Object [ Math.max( 0, size ) ];
+
+        int count = Math.min( _count, idle.length );
+
+        System.arraycopy( _idle, _count - count, idle, 0, count );
+
+        _drops += _count - count;
+        _idle = idle;
+        _count = count;
+    }
+
+    public final synchronized int getSize ( )
+    {
+        return _idle.length;
+    }
+
+    /**
+     * Makes objects until count are idle, or the pool is full, so that the
+     * first uses do not have to.  Returns the number made.
+     */
+    public final int warm ( int count )
+    {
+        int made = 0;
+
+        for ( ; ; )
+        {
+            synchronized ( this )
+            {
+                if (_count >= Math.min( count, _idle.length ))
+                    return made;
+            }
+
+            Object o = create();
+
+            synchronized ( this )
+            {
+                if (_count >= _idle.length)
+                {
+                    _drops++;
+                    return made;
+                }
+
+                _idle[ _count++ ] = o;
+            }
+
+            made++;
+        }
+    }
+
+    public final synchronized int getIdle ( )
+    {
+        return _count;
+    }
+
+    /**
+     * The number of acquires served by an idle object.
+     */
+    public final synchronized long getHits ( )
+    {
+        return _hits;
+    }
+
+    /**
+     * The number of acquires which had to make a new object.
+     */
+    public final synchronized long getMisses ( )
+    {
+        return _misses;
+    }
+
+    /**
+     * The number of objects given back, or made idle, which were dropped.
+     */
+    public final synchronized long getDrops ( )
+    {
+        return _drops;
+    }
+
+    private Object[] _idle;
+    private int      _count;
+    private long     _hits;
+    private long     _misses;
+    private long     _drops;
+}
@@ -0,0 +1,170 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+/**
+ * Runs a batch of independent tasks on a few worker threads and waits for
+ * all of them to finish.  Tasks are handed out in order, but may complete
+ * in any order, so each task should leave its results in its own slot to
+ * be merged by the caller afterwards.
+ *
+ * If a task throws, no further tasks are started and the first exception
+ * is rethrown on the calling thread.
+ */
+public final class ParallelTasks
+{
+    private final Runnable[] _tasks;
+    private int _next;
+    private Throwable _failure;
+
+    private ParallelTasks ( Runnable[] tasks )
+    {
+        _tasks = tasks;
+    }
+
+    /**
+     * The number of threads to use when none is given: the value of the
+     * xmlbean.compilethreads system property, or the number of processors.
+     */
+    public static int defaultThreads ( )
+    {
+        try
+        {
+            String threads = System.getProperty( "xmlbean.compilethreads" );
+
+            if (threads != null)
+                return Math.max( 1, Integer.parseInt( threads ) );
+        }
+        catch ( NumberFormatException e )
+        {
+            // fall through to the default
+        }
+        catch ( SecurityException e )
+        {
+            // fall through to the default
+        }
+
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Runs all the tasks using at most the given number of threads,
+     * including the calling thread.  A thread count of zero or less means
+     * {@link #defaultThreads}.
+     */
+    public static void run ( Runnable[] tasks, int threads )
+    {
+        if (threads <= 0)
+            threads = defaultThreads();
+
+        threads = Math.min( threads, tasks.length );
+
+        if (threads <= 1)
+        {
+            for ( int i = 0 ; i < tasks.length ; i++ )
+                tasks[ i ].run();
+
+            return;
+        }
+
+        new ParallelTasks( tasks ).runAll( threads );
+    }
+
+    private void runAll ( int threads )
+    {
+        Thread[] workers = new Thread [ threads - 1 ];
+
+        for ( int i = 0 ; i < workers.length ; i++ )
+        {
+            workers[ i ] =
+                new Thread( "xmlbeans-worker-" + i )
+                {
+                    public void run ( )
+                    {
+                        work();
+                    }
+                };
+
+            workers[ i ].setDaemon( true );
+            workers[ i ].start();
+        }
+
+        work();
+
+        boolean interrupted = false;
+
+        for ( int i = 0 ; i < workers.length ; i++ )
+        {
+            for ( ; ; )
+            {
+                try
+                {
+                    workers[ i ].join();
+                    break;
+                }
+                catch ( InterruptedException e )
+                {
+                    interrupted = true;
+                }
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+
+        if (_failure instanceof RuntimeException)
+            throw (RuntimeException) _failure;
+
+        if (_failure instanceof Error)
+            throw (Error) _failure;
+
+        if (_failure != null)
+        {
+            IllegalStateException e = new IllegalStateException( _failure.getMessage() );
+            e.initCause( _failure );
+            throw e;
+        }
+    }
+
+    private void work ( )
+    {
+        for ( ; ; )
+        {
+            Runnable task;
+
+            synchronized ( this )
+            {
+                if (_failure != null || _next >= _tasks.length)
+                    return;
+
+                task = _tasks[ _next++ ];
+            }
+
+            try
+            {
+                task.run();
+            }
+            catch ( Throwable e )
+            {
+                synchronized ( this )
+                {
+                    if (_failure == null)
+                        _failure = e;
+                }
+            }
+        }
+    }
+}
@@ -29,4 +29,78 @@ public class ParseUtil
             return xml;
         }
     }
+
+    /**
+     * Returned by lexLong for chars which are not a number it can parse.
+     */
+    public static final long LEX_ERROR = Long.MIN_VALUE;
+
+    /**
+     * Returns true for the chars which whitespace collapsing removes.
+     */
+    public static boolean isWhitespace(char ch)
+    {
+        return ch == ' ' || ch == '\n' || ch == '\t' || ch == '\r';
+    }
+
+    /**
+     * Returns the index of the first char in buf[off, end) which is not
+     * whitespace, or end if there is none.
+     */
+    public static int skipWhitespace(char[] buf, int off, int end)
+    {
+        while (off < end && isWhitespace(buf[off]))
+            off++;
+
+        return off;
+    }
+
+    /**
+     * Returns the index after the last char in buf[off, end) which is not
+     * whitespace, or off if there is none.
+     */
+    public static int trimWhitespace(char[] buf, int off, int end)
+    {
+        while (end > off && isWhitespace(buf[end - 1]))
+            end--;
+
+        return end;
+    }
+
+    /**
+     * Parses an integer with an optional sign and at most 18 digits, which
+     * may have whitespace around it, straight from buf[off, off + cch).
+     * Returns LEX_ERROR if the chars are anything else, including empty or
+     * all whitespace, or longer numbers, which the caller has to parse
+     * some other way.
+     */
+    public static long lexLong(char[] buf, int off, int cch)
+    {
+        int end = off + cch;
+
+        off = skipWhitespace(buf, off, end);
+        end = trimWhitespace(buf, off, end);
+
+        boolean negative = false;
+
+        if (off < end && (buf[off] == '-' || buf[off] == '+'))
+            negative = buf[off++] == '-';
+
+        if (off == end || end - off > 18)
+            return LEX_ERROR;
+
+        long value = 0;
+
+        for ( ; off < end ; off++)
+        {
+            int digit = buf[off] - '0';
+
+            if (digit < 0 || digit > 9)
+                return LEX_ERROR;
+
+            value = value * 10 + digit;
+        }
+
+        return negative ? -value : value;
+    }
 }
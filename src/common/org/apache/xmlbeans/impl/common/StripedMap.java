@@ -0,0 +1,156 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.common;
+
+import java.util.HashMap;
+
+/**
+ * A hash map split into a fixed number of independently locked stripes.
+ * Threads touching keys in different stripes never contend, which makes
+ * this suitable for caches shared by many threads.  Null keys and null
+ * values are permitted; use {@link #containsKey} to tell a cached null
+ * apart from a missing entry.
+ */
+public final class StripedMap
+{
+    private static final int DEFAULT_STRIPES = 16;
+
+    private final HashMap[] _stripes;
+    private final int _mask;
+
+    public StripedMap ( )
+    {
+        this( DEFAULT_STRIPES );
+    }
+
+    /**
+     * @param stripes the number of stripes; rounded up to a power of two
+     */
+    public StripedMap ( int stripes )
+    {
+        int n = 1;
+
+        while ( n < stripes )
+            n <<= 1;
+
+        _stripes = new HashMap [ n ];
+        _mask = n - 1;
+
+        for ( int i = 0 ; i < n ; i++ )
+            _stripes[ i ] = new HashMap();
+    }
+
+    private HashMap stripeFor ( Object key )
+    {
+        if (key == null)
+            return _stripes[ 0 ];
+
+        int h = key.hashCode();
+
+        // Spread the high bits down so that keys with poor low-order
+        // hash codes (e.g. QNames in one namespace) still distribute
+
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+
+        return _stripes[ h & _mask ];
+    }
+
+    public Object get ( Object key )
+    {
+        HashMap stripe = stripeFor( key );
+
+        synchronized ( stripe )
+        {
+            return stripe.get( key );
+        }
+    }
+
+    public boolean containsKey ( Object key )
+    {
+        HashMap stripe = stripeFor( key );
+
+        synchronized ( stripe )
+        {
+            return stripe.containsKey( key );
+        }
+    }
+
+    public Object put ( Object key, Object value )
+    {
+        HashMap stripe = stripeFor( key );
+
+        synchronized ( stripe )
+        {
+            return stripe.put( key, value );
+        }
+    }
+
+    /**
+     * Associates value with key only if key is not already present.
+     * Returns the value which ends up associated with the key.
+     */
+    public Object putIfAbsent ( Object key, Object value )
+    {
+        HashMap stripe = stripeFor( key );
+
+        synchronized ( stripe )
+        {
+            if (stripe.containsKey( key ))
+                return stripe.get( key );
+
+            stripe.put( key, value );
+
+            return value;
+        }
+    }
+
+    public Object remove ( Object key )
+    {
+        HashMap stripe = stripeFor( key );
+
+        synchronized ( stripe )
+        {
+            return stripe.remove( key );
+        }
+    }
+
+    public int size ( )
+    {
+        int size = 0;
+
+        for ( int i = 0 ; i < _stripes.length ; i++ )
+        {
+            synchronized ( _stripes[ i ] )
+            {
+                size += _stripes[ i ].size();
+            }
+        }
+
+        return size;
+    }
+
+    public void clear ( )
+    {
+        for ( int i = 0 ; i < _stripes.length ; i++ )
+        {
+            synchronized ( _stripes[ i ] )
+            {
+                _stripes[ i ].clear();
+            }
+        }
+    }
+}
@@ -18,7 +18,6 @@ package org.apache.xmlbeans.impl.common;
 import javax.xml.namespace.QName;
 
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 import org.apache.xmlbeans.XmlError;
@@ -43,7 +42,6 @@ public class XPath
     {
         public ExecutionContext ( )
         {
-            _stack = new ArrayList();
         }
 
         public static final int HIT     = 0x1;
@@ -59,13 +57,21 @@ public class XPath
                 _paths = new PathContext [ xpath._selector._paths.length ];
                 
                 for ( int i = 0 ; i < _paths.length ; i++ )
-                    _paths[ i ] = new PathContext();
-            }
+                    _paths[ i ] = new PathContext( xpath._selector._paths[ i ] );
+
+                int slots = xpath._predicateSlots;
 
-            _stack.clear();
+                _positionNodes = new Object [ slots ];
+                _positions     = new int    [ slots ];
+                _lastParents   = new Object [ slots ];
+                _lasts         = new int    [ slots ];
+            }
 
             for ( int i = 0 ; i < _paths.length ; i++ )
-                _paths[ i ].init( xpath._selector._paths[ i ] );
+                _paths[ i ].init();
+
+            for ( int i = 0 ; i < _positionNodes.length ; i++ )
+                _positionNodes[ i ] = _lastParents[ i ] = null;
         }
 
         public final int start ( )
@@ -79,15 +85,24 @@ public class XPath
         }
         
         public final int element ( QName name )
+        {
+            return element( name, null );
+        }
+
+        /**
+         * Moves into a child element.  The node is passed back to the
+         * navigation methods below when a step has a predicate, and may be
+         * null for paths compiled without predicates.
+         */
+
+        public final int element ( QName name, Object node )
         {
             assert name != null;
             
-            _stack.add( name );
-            
             int result = 0;
             
             for ( int i = 0 ; i < _paths.length ; i++ )
-                result |= _paths[ i ].element( name );
+                result |= _paths[ i ].element( name, node );
 
             return result;
         }
@@ -104,131 +119,393 @@ public class XPath
 
         public final void end ( )
         {
-            _stack.remove( _stack.size() - 1 );
-            
             for ( int i = 0 ; i < _paths.length ; i++ )
                 _paths[ i ].end();
         }
-        
-        private final class PathContext
+
+        //
+        // Navigation used to evaluate predicates.  Nodes are whatever the
+        // caller passed to element( QName, Object ), and the attributes
+        // returned by firstAttr and nextAttr.  Only paths compiled with
+        // compileSelectPath can have predicates; the defaults here are
+        // never called for others.
+        //
+
+        /** Returns the element or document containing the node. */
+        protected Object parent ( Object node )
         {
-            PathContext ( )
-            {
-                _prev = new ArrayList();
-            }
-            
-            void init ( Step steps )
+            throw new IllegalStateException();
+        }
+
+        /** Returns the first child element of the node, null if none. */
+        protected Object firstChild ( Object node )
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Returns the next sibling element of the node, null if none. */
+        protected Object nextSibling ( Object node )
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Returns the first (non namespace) attribute of the node, null if none. */
+        protected Object firstAttr ( Object node )
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Returns the next (non namespace) attribute after attr, null if none. */
+        protected Object nextAttr ( Object attr )
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Returns the name of an element or attribute. */
+        protected QName name ( Object node )
+        {
+            throw new IllegalStateException();
+        }
+
+        /** Returns true if the string value of the node is value. */
+        protected boolean valueEquals ( Object node, String value )
+        {
+            throw new IllegalStateException();
+        }
+
+        private boolean predicate ( Step step, Object node )
+        {
+            Expr e = step._predicate;
+
+            if (e.isNumeric())
+                return position( e._slot, step, node ) == number( e, step, node );
+
+            return test( e, step, node );
+        }
+
+        private boolean test ( Expr e, Step step, Object node )
+        {
+            switch ( e._kind )
             {
-                _curr = steps;
-                _prev.clear();
+            case Expr.OR      : return test( e._left, step, node ) || test( e._right, step, node );
+            case Expr.AND     : return test( e._left, step, node ) && test( e._right, step, node );
+            case Expr.NOT     : return !test( e._left, step, node );
+            case Expr.COMPARE : return compare( e, step, node );
+            case Expr.LITERAL : return e._literal.length() > 0;
+            case Expr.NODES   : return first( e, node ) != null;
             }
 
-            private QName top ( int i )
+            double d = number( e, step, node );
+
+            return d != 0 && !Double.isNaN( d );
+        }
+
+        private double number ( Expr e, Step step, Object node )
+        {
+            switch ( e._kind )
             {
-                return (QName) ExecutionContext.this._stack.get( _stack.size() - 1 - i );
+            case Expr.NUMBER   : return e._number;
+            case Expr.POSITION : return position( e._slot, step, node );
+            case Expr.LAST     : return last( e._slot, step, node );
+            case Expr.COUNT    :
+            {
+                int n = 0;
+
+                for ( Object o = first( e._left, node ) ; o != null ; o = next( e._left, o ) )
+                    n++;
+
+                return n;
             }
+            }
+
+            assert false : "Not a number expression";
 
-            private void backtrack ( )
+            return Double.NaN;
+        }
+
+        private boolean compare ( Expr e, Step step, Object node )
+        {
+            if (e._left.isNumeric())
             {
-                assert _curr != null;
-                
-                if (_curr._hasBacktrack)
+                double l = number( e._left, step, node );
+                double r = number( e._right, step, node );
+
+                switch ( e._op )
                 {
-                    _curr = _curr._backtrack;
-                    return;
+                case Expr.EQ : return l == r;
+                case Expr.NE : return l != r;
+                case Expr.LT : return l <  r;
+                case Expr.LE : return l <= r;
+                case Expr.GT : return l >  r;
+                case Expr.GE : return l >= r;
                 }
 
-                assert !_curr._deep;
+                assert false : "Unexpected comparison";
+
+                return false;
+            }
+
+            boolean equal = e._op == Expr.EQ;
+
+            if (e._left._kind == Expr.LITERAL && e._right._kind == Expr.LITERAL)
+                return e._left._literal.equals( e._right._literal ) == equal;
+
+            // A node set compared with a string is true if any node in the
+            // set compares true
+
+            Expr nodes   = e._left._kind == Expr.NODES ? e._left : e._right;
+            String value = e._left._kind == Expr.NODES ? e._right._literal : e._left._literal;
+
+            for ( Object o = first( nodes, node ) ; o != null ; o = next( nodes, o ) )
+            {
+                if (valueEquals( o, value ) == equal)
+                    return true;
+            }
+
+            return false;
+        }
+
+        private Object first ( Expr nodes, Object node )
+        {
+            switch ( nodes._axis )
+            {
+            case Expr.SELF  : return node;
+            case Expr.CHILD : return matching( nodes, firstChild( node ) );
+            case Expr.ATTR  : return matching( nodes, firstAttr( node ) );
+            }
 
-                _curr = _curr._prev;
+            assert false : "Unexpected axis";
 
-                search: for ( ; !_curr._deep ; _curr = _curr._prev )
+            return null;
+        }
+
+        private Object next ( Expr nodes, Object node )
+        {
+            switch ( nodes._axis )
+            {
+            case Expr.SELF  : return null;
+            case Expr.CHILD : return matching( nodes, nextSibling( node ) );
+            case Expr.ATTR  : return matching( nodes, nextAttr( node ) );
+            }
+
+            assert false : "Unexpected axis";
+
+            return null;
+        }
+
+        private Object matching ( Expr nodes, Object node )
+        {
+            while ( node != null && !matchName( nodes._name, name( node ) ) )
+                node = nodes._axis == Expr.ATTR ? nextAttr( node ) : nextSibling( node );
+
+            return node;
+        }
+
+        //
+        // The position of a node is its index amongst the siblings which
+        // match the step's name test.  Nodes are visited in document order,
+        // so the last position computed for each predicate is remembered and
+        // the siblings following it are counted from there.  This keeps
+        // predicates like [3] or [last()] linear in the number of siblings.
+        //
+
+        private int position ( int slot, Step step, Object node )
+        {
+            Object parent = parent( node );
+            Object prev = _positionNodes[ slot ];
+            int pos = _positions[ slot ];
+
+            if (prev != null && parent( prev ) == parent)
+            {
+                for ( Object o = prev ; o != null ; )
                 {
-                    int t = 0;
-                    
-                    for ( Step s = _curr ; !s._deep ; s = s._prev )
+                    if (o == node)
                     {
-                        if (!s.match( top( t++ )))
-                            continue search;
+                        _positionNodes[ slot ] = node;
+                        _positions[ slot ] = pos;
+
+                        return pos;
                     }
 
-                    break;
+                    if ((o = nextSibling( o )) != null && step.match( name( o ) ))
+                        pos++;
                 }
             }
-            
-            int start ( )
+
+            pos = 0;
+
+            for ( Object o = firstChild( parent ) ; o != null ; o = nextSibling( o ) )
             {
-                assert _curr != null;
-                assert _curr._prev == null;
+                if (step.match( name( o ) ))
+                    pos++;
 
-                if (_curr._name != null)
-                    return _curr._flags;
+                if (o == node)
+                    break;
+            }
 
-                // If the steps consist on only a terminator, then the path can
-                // only be '.'.  In this case, we get a hit, but there is
-                // nothing else to match.  No need to backtrack.
+            _positionNodes[ slot ] = node;
+            _positions[ slot ] = pos;
+
+            return pos;
+        }
+
+        private int last ( int slot, Step step, Object node )
+        {
+            Object parent = parent( node );
+
+            if (_lastParents[ slot ] == parent)
+                return _lasts[ slot ];
+
+            int n = 0;
+
+            for ( Object o = firstChild( parent ) ; o != null ; o = nextSibling( o ) )
+            {
+                if (step.match( name( o ) ))
+                    n++;
+            }
+
+            _lastParents[ slot ] = parent;
+            _lasts[ slot ] = n;
+
+            return n;
+        }
+
+        //
+        // Each path is run as a set of active steps, kept as a bit mask with
+        // bit i set if the children (or attributes) of the current element
+        // are to be matched against step i.  A step reached with // stays
+        // active in all descendants.  The masks for the open elements are
+        // kept on a stack, so moving in and out of elements allocates
+        // nothing once the stack has grown to the depth of the document.
+        //
+        
+        private final class PathContext
+        {
+            PathContext ( Step steps )
+            {
+                int n = 0;
 
-                _curr = null;
+                for ( Step s = steps ; s != null ; s = s._next )
+                    n++;
+
+                _steps = new Step [ n ];
+
+                n = 0;
+
+                for ( Step s = steps ; s != null ; s = s._next )
+                    _steps[ n++ ] = s;
 
-                return HIT;
+                _states = new long [ 16 ];
             }
             
-            int element ( QName name )
+            void init ( )
             {
-                _prev.add( _curr );
+                _depth = 0;
+            }
 
-                if (_curr == null)
-                    return 0;
+            private void push ( long states )
+            {
+                if (_depth == _states.length)
+                {
+                    long[] newStates = new long [ _depth * 2 ];
+                    System.arraycopy( _states, 0, newStates, 0, _depth );
+                    _states = newStates;
+                }
+
+                _states[ _depth++ ] = states;
+            }
 
-                assert _curr._name != null;
+            private int flags ( long states )
+            {
+                int flags = 0;
 
-                if (!_curr._attr && _curr.match( name ))
+                for ( int i = 0 ; states != 0 ; i++, states >>>= 1 )
                 {
-                    if ((_curr = _curr._next)._name != null)
-                        return _curr._flags;
-                    
-                    backtrack();
-                    
-                    return _curr == null ? HIT : HIT | _curr._flags;
+                    if ((states & 1) != 0)
+                        flags |= _steps[ i ]._flags;
                 }
 
-                for ( ; ; )
+                return flags;
+            }
+
+            int start ( )
+            {
+                // If the steps consist on only a terminator, then the path can
+                // only be '.'.  In this case, we get a hit, but there is
+                // nothing else to match.
+
+                if (_steps[ 0 ]._name == null)
                 {
-                    backtrack();
+                    push( 0 );
+                    return HIT;
+                }
+
+                push( 1 );
 
-                    if (_curr == null)
-                        return 0;
+                return _steps[ 0 ]._flags;
+            }
+            
+            int element ( QName name, Object node )
+            {
+                long states = _depth == 0 ? 0 : _states[ _depth - 1 ];
+                long next = 0;
+                int result = 0;
 
-                    if (_curr.match( name ))
+                for ( int i = 0 ; states != 0 ; i++, states >>>= 1 )
+                {
+                    if ((states & 1) == 0)
+                        continue;
+
+                    Step s = _steps[ i ];
+
+                    if (s._deep)
+                        next |= 1L << i;
+
+                    if (!s._attr && s.match( name ) &&
+                            (s._predicate == null || predicate( s, node )))
                     {
-                        _curr = _curr._next;
-                        break;
+                        if (_steps[ i + 1 ]._name == null)
+                            result |= HIT;
+                        else
+                            next |= 1L << (i + 1);
                     }
-
-                    if (_curr._deep)
-                        break;
                 }
-                
-                return _curr._flags;
+
+                push( next );
+
+                return result | flags( next );
             }
             
             boolean attr ( QName name )
             {
-                return _curr != null && _curr._attr && _curr.match( name );
+                long states = _depth == 0 ? 0 : _states[ _depth - 1 ];
+
+                for ( int i = 0 ; states != 0 ; i++, states >>>= 1 )
+                {
+                    if ((states & 1) != 0 && _steps[ i ]._attr && _steps[ i ].match( name ))
+                        return true;
+                }
+
+                return false;
             }
 
             void end ( )
             {
-                _curr = (Step) _prev.remove( _prev.size() - 1 );
+                _depth--;
             }
             
-            private Step _curr;
-            private List _prev;
+            private final Step[] _steps;
+            private long[]       _states;
+            private int          _depth;
         }
 
         private XPath         _xpath;
-        private ArrayList     _stack;
         private PathContext[] _paths;
+
+        private Object[] _positionNodes;
+        private int[]    _positions;
+        private Object[] _lastParents;
+        private int[]    _lasts;
     }
 
     //
@@ -258,13 +535,31 @@ public class XPath
             throws XPathCompileException
     {
         return
-            new CompilationContext( namespaces, currentNodeVar ).
+            new CompilationContext( namespaces, currentNodeVar, false ).
+                compile( xpath );
+    }
+
+    /**
+     * Compiles a path for selectPath.  Unlike the paths allowed in identity
+     * constraints, these may be absolute and may have a predicate on each
+     * element step.  Predicates are limited to what can be decided by
+     * looking at the element, its attributes and its siblings: a position,
+     * position(), last(), count() of children or attributes, comparisons of
+     * '.', children or attributes with string literals, and, or and not().
+     */
+
+    public static XPath compileSelectPath ( String xpath, String currentNodeVar )
+        throws XPathCompileException
+    {
+        return
+            new CompilationContext( null, currentNodeVar, true ).
                 compile( xpath );
     }
 
     private static class CompilationContext
     {
-        CompilationContext ( Map namespaces, String currentNodeVar )
+        CompilationContext (
+            Map namespaces, String currentNodeVar, boolean selectPath )
         {
             assert
                 _currentNodeVar == null ||
@@ -279,6 +574,8 @@ public class XPath
             
             _externalNamespaces =
                 namespaces == null ? new HashMap() : namespaces;
+
+            _selectPath = selectPath;
         }
 
         XPath compile ( String expr ) throws XPathCompileException
@@ -587,7 +884,13 @@ public class XPath
 
         private Step addStep ( boolean deep, boolean attr, QName name, Step steps )
         {
-            Step step = new Step( deep, attr, name );
+            return addStep( deep, attr, name, null, steps );
+        }
+
+        private Step addStep (
+            boolean deep, boolean attr, QName name, Expr predicate, Step steps )
+        {
+            Step step = new Step( deep, attr, name, predicate );
 
             if (steps == null)
                 return step;
@@ -605,12 +908,30 @@ public class XPath
 
         private Step tokenizeSteps ( ) throws XPathCompileException
         {
-            if (tokenize( "/" ))
-                throw newError( "Absolute paths unsupported" );
+            _absolute = false;
 
             boolean deep;
 
-            if (tokenize( "$", _currentNodeVar, "//" ) || tokenize( ".", "//" ))
+            if (_selectPath && tokenize( "//" ))
+            {
+                _absolute = true;
+                deep = true;
+            }
+            else if (_selectPath && tokenize( "/" ))
+            {
+                _absolute = true;
+                deep = false;
+
+                // A lone '/' selects the document itself
+
+                parseWhitespace();
+
+                if (currChar() == -1 || currChar() == '|')
+                    return addStep( false, false, null, null );
+            }
+            else if (tokenize( "/" ))
+                throw newError( "Absolute paths unsupported" );
+            else if (tokenize( "$", _currentNodeVar, "//" ) || tokenize( ".", "//" ))
                 deep = true;
             else if (tokenize( "$", _currentNodeVar, "/" ) || tokenize( ".", "/" ))
                 deep = false;
@@ -637,10 +958,15 @@ public class XPath
                 
                 if (tokenize( "." ))
                     deepDot = deepDot || deep;
-                else if (tokenize( "child", "::" ) && (name = tokenizeQName()) != null)
-                    steps = addStep( deep, false, name, steps );
-                else if ((name = tokenizeQName()) != null)
-                    steps = addStep( deep, false, name, steps );
+                else
+                {
+                    if (tokenize( "child", "::" ) && (name = tokenizeQName()) != null)
+                        steps = addStep( deep, false, name, tokenizePredicate(), steps );
+                    else if ((name = tokenizeQName()) != null)
+                        steps = addStep( deep, false, name, tokenizePredicate(), steps );
+
+                    deepDot = false;
+                }
 
                 if (tokenize( "//" ))
                 {
@@ -649,8 +975,9 @@ public class XPath
                 }
                 else if (tokenize( "/" ))
                 {
-                    if (deepDot)
-                        deep = true;
+                    // Only a //. carries over to the next step
+                    
+                    deep = deepDot;
                 }
                 else
                     break;
@@ -670,132 +997,22 @@ public class XPath
             return addStep( false, false, null, steps );
         }
 
-        private void computeBacktrack ( Step steps )
+        private void tokenizePath ( ArrayList paths )
             throws XPathCompileException
         {
-            //
-            // Compute static backtrack information
-            //
-            // Note that I use the fact that _hasBacktrack is initialized to
-            // false and _backtrack to null in the following code.
-            //
-
-            Step s, t;
+            _lastDeepDot = false;
             
-            for ( s = steps ; s != null ; s = t )
-            {
-                // Compute the segment from [ s, t )
-                
-                for ( t = s._next ; t != null && !t._deep ; )
-                    t = t._next;
-
-                // If the segment is NOT rooted at //, then the backtrack is
-                // null for the entire segment, including possible attr and/or
-                // sentinal
-
-                if (!s._deep)
-                {
-                    for ( Step u = s ; u != t ; u = u._next )
-                        u._hasBacktrack = true;
-
-                    continue;
-                }
-
-                // Compute the sequence [ s, u ) of length n which contain no
-                // wild steps.
-
-                int n = 0;
-                Step u = s;
-
-                while ( u != t && u._name != null && !u.isWild() && !u._attr )
-                {
-                    n++;
-                    u = u._next;
-                }
-
-                // Now, apply KMP to [ s, u ) for fast backtracking
-
-                QName [] pattern = new QName [ n + 1 ];
-                int [] kmp = new int [ n + 1 ];
-
-                Step v = s;
-                
-                for ( int i = 0 ; i < n ; i++ )
-                {
-                    pattern[ i ] = v._name;
-                    v = v._next;
-                }
-
-                pattern[ n ] = getAnyQName();
-
-                int i = 0;
-                int j = kmp[ 0 ] = -1;
-
-                while ( i < n )
-                {
-                    while ( j > -1 && !pattern[ i ].equals( pattern[ j ] ) )
-                        j = kmp[ j ];
-
-                    if (pattern[ ++i ].equals( pattern[ ++j ] ))
-                        kmp[ i ] = kmp[ j ];
-                    else
-                        kmp[ i ] = j;
-                }
-
-                i = 0;
-                
-                for ( v = s ; v != u ; v = v._next )
-                {
-                    v._hasBacktrack = true;
-                    v._backtrack = s;
-                    
-                    for ( j = kmp[ i ] ; j > 0 ; j-- )
-                        v._backtrack = v._backtrack._next;
-                    
-                    i++;
-                }
-
-                // Compute the success backtrack and stuff it into an attr and
-                // sentinal if they exist for this segment
-                
-                v = s;
-
-                if (n > 1)
-                {
-                    for ( j = kmp[ n - 1 ] ; j > 0 ; j-- )
-                        v = v._next;
-                }
-
-                if (u != t && u._attr)
-                {
-                    u._hasBacktrack = true;
-                    u._backtrack = v;
-                    u = u._next;
-                }
+            Step steps = tokenizeSteps();
 
-                if (u != t && u._name == null)
-                {
-                    u._hasBacktrack = true;
-                    u._backtrack = v;
-                }
+            int n = 0;
 
-                // The first part of a deep segment always backtracks to itself
-                
-                assert s._deep;
+            for ( Step s = steps ; s != null ; s = s._next )
+                n++;
 
-                s._hasBacktrack = true;
-                s._backtrack = s;
-            }
-        }
+            // Paths are run with the active steps in a long
 
-        private void tokenizePath ( ArrayList paths )
-            throws XPathCompileException
-        {
-            _lastDeepDot = false;
-            
-            Step steps = tokenizeSteps();
-            
-            computeBacktrack( steps );
+            if (n > 64)
+                throw newError( "Path has too many steps" );
 
             paths.add( steps );
 
@@ -813,11 +1030,9 @@ public class XPath
                     if (t._next != null && t._next._next == null)
                         s = addStep( t._deep, true, t._name, s );
                     else
-                        s = addStep( t._deep, t._attr, t._name, s );
+                        s = addStep( t._deep, t._attr, t._name, t._predicate, s );
                 }
 
-                computeBacktrack( s );
-
                 paths.add( s );
             }
         }
@@ -828,9 +1043,18 @@ public class XPath
 
             tokenizePath( paths );
 
+            boolean absolute = _absolute;
+
             while ( tokenize( "|" ) )
+            {
                 tokenizePath( paths );
 
+                if (_absolute != absolute)
+                    throw newError( "Cannot mix absolute and relative paths" );
+            }
+
+            _absolute = absolute;
+
             return new Selector( (Step[]) paths.toArray( new Step [ paths.size() ] ) );
         }
 
@@ -897,7 +1121,204 @@ public class XPath
                     "Unexpected char '" + (char) currChar() + "'" );
             }
 
-            return new XPath( selector, _sawDeepDot );
+            return new XPath( selector, _sawDeepDot, _absolute, _predicateSlots );
+        }
+
+        //
+        // Predicates
+        //
+
+        private Expr tokenizePredicate ( ) throws XPathCompileException
+        {
+            if (!_selectPath || !tokenize( "[" ))
+                return null;
+
+            int slot = _predicateSlots++;
+
+            Expr e = tokenizeOrExpr( slot );
+
+            if (!tokenize( "]" ))
+                throw newError( "Expected ']'" );
+
+            return e;
+        }
+
+        private boolean tokenizeKeyword ( String s )
+        {
+            int offset = 0;
+
+            while ( isWhitespace( offset ) )
+                offset++;
+
+            if (!startsWith( s, offset ))
+                return false;
+
+            offset += s.length();
+
+            // Don't take the start of a longer name as the keyword
+
+            if (currChar( offset ) != -1 && XMLChar.isNCName( currChar( offset ) ))
+                return false;
+
+            advance( offset );
+
+            return true;
+        }
+
+        private Expr tokenizeOrExpr ( int slot ) throws XPathCompileException
+        {
+            Expr e = tokenizeAndExpr( slot );
+
+            while ( tokenizeKeyword( "or" ) )
+                e = new Expr( Expr.OR, 0, e, tokenizeAndExpr( slot ), slot );
+
+            return e;
+        }
+
+        private Expr tokenizeAndExpr ( int slot ) throws XPathCompileException
+        {
+            Expr e = tokenizeComparison( slot );
+
+            while ( tokenizeKeyword( "and" ) )
+                e = new Expr( Expr.AND, 0, e, tokenizeComparison( slot ), slot );
+
+            return e;
+        }
+
+        private Expr tokenizeComparison ( int slot ) throws XPathCompileException
+        {
+            Expr left = tokenizePrimary( slot );
+
+            int op;
+
+            if (tokenize( "!=" ))
+                op = Expr.NE;
+            else if (tokenize( "<=" ))
+                op = Expr.LE;
+            else if (tokenize( ">=" ))
+                op = Expr.GE;
+            else if (tokenize( "=" ))
+                op = Expr.EQ;
+            else if (tokenize( "<" ))
+                op = Expr.LT;
+            else if (tokenize( ">" ))
+                op = Expr.GT;
+            else
+                return left;
+
+            Expr right = tokenizePrimary( slot );
+
+            boolean equality = op == Expr.EQ || op == Expr.NE;
+
+            // Node sets are only compared with strings, so that the string
+            // values of the nodes never need to be converted
+
+            if (!(left.isNumeric() && right.isNumeric()) &&
+                    !(equality && left._kind == Expr.LITERAL && right._kind == Expr.LITERAL) &&
+                    !(equality && left._kind == Expr.NODES && right._kind == Expr.LITERAL) &&
+                    !(equality && left._kind == Expr.LITERAL && right._kind == Expr.NODES))
+            {
+                throw newError( "Unsupported comparison" );
+            }
+
+            return new Expr( Expr.COMPARE, op, left, right, slot );
+        }
+
+        private Expr tokenizePrimary ( int slot ) throws XPathCompileException
+        {
+            parseWhitespace();
+
+            if (tokenize( "(" ))
+            {
+                Expr e = tokenizeOrExpr( slot );
+
+                if (!tokenize( ")" ))
+                    throw newError( "Expected ')'" );
+
+                return e;
+            }
+
+            if (currChar() == '"' || currChar() == '\'')
+            {
+                Expr e = new Expr( Expr.LITERAL, 0, null, null, slot );
+                e._literal = tokenizeQuotedUri();
+                return e;
+            }
+
+            if (isDigit( 0 ) || (currChar() == '.' && isDigit( 1 )))
+            {
+                int start = _offset;
+
+                while ( isDigit( 0 ) || currChar() == '.' )
+                    advance();
+
+                Expr e = new Expr( Expr.NUMBER, 0, null, null, slot );
+
+                try
+                {
+                    e._number = Double.parseDouble( _expr.substring( start, _offset ) );
+                }
+                catch ( NumberFormatException ex )
+                {
+                    throw newError( "Invalid number" );
+                }
+
+                return e;
+            }
+
+            if (tokenize( "position", "(", ")" ))
+                return new Expr( Expr.POSITION, 0, null, null, slot );
+
+            if (tokenize( "last", "(", ")" ))
+                return new Expr( Expr.LAST, 0, null, null, slot );
+
+            if (tokenize( "count", "(" ))
+            {
+                Expr nodes = tokenizePrimary( slot );
+
+                if (nodes._kind != Expr.NODES)
+                    throw newError( "Expected nodes to count" );
+
+                if (!tokenize( ")" ))
+                    throw newError( "Expected ')'" );
+
+                return new Expr( Expr.COUNT, 0, nodes, null, slot );
+            }
+
+            if (tokenize( "not", "(" ))
+            {
+                Expr e = tokenizeOrExpr( slot );
+
+                if (!tokenize( ")" ))
+                    throw newError( "Expected ')'" );
+
+                return new Expr( Expr.NOT, 0, e, null, slot );
+            }
+
+            Expr e = new Expr( Expr.NODES, 0, null, null, slot );
+
+            if (tokenize( "attribute", "::" ) || tokenize( "@" ))
+            {
+                e._axis = Expr.ATTR;
+                e._name = tokenizeQName();
+            }
+            else if (tokenize( "." ))
+                e._axis = Expr.SELF;
+            else
+            {
+                tokenize( "child", "::" );
+
+                e._axis = Expr.CHILD;
+                e._name = tokenizeQName();
+            }
+
+            return e;
+        }
+
+        private boolean isDigit ( int offset )
+        {
+            int ch = currChar( offset );
+            return ch >= '0' && ch <= '9';
         }
 
         private String _expr;
@@ -905,6 +1326,10 @@ public class XPath
         private boolean _sawDeepDot;  // Saw one overall
         private boolean _lastDeepDot;
 
+        private boolean _selectPath;
+        private boolean _absolute;
+        private int     _predicateSlots;
+
         private String _currentNodeVar;
         
         private Map _namespaces;
@@ -915,15 +1340,34 @@ public class XPath
         private int _column;
     }
 
+    private static boolean matchName ( QName test, QName name )
+    {
+        String local = test.getLocalPart();
+
+        if (local.length() == 0)
+        {
+            String uri = test.getNamespaceURI();
+
+            if (uri.length() == 0)
+                return true;
+
+            return uri.equals( name.getNamespaceURI() );
+        }
+
+        return test.equals( name );
+    }
+
     private static final class Step
     {
-        Step ( boolean deep, boolean attr, QName name )
+        Step ( boolean deep, boolean attr, QName name, Expr predicate )
         {
             _name = name;
 
             _deep = deep;
             _attr = attr;
 
+            _predicate = predicate;
+
             int flags = 0;
 
             if (_deep || !_attr)
@@ -935,26 +1379,9 @@ public class XPath
             _flags = flags;
         }
 
-        boolean isWild ( )
-        {
-            return _name.getLocalPart().length() == 0;
-        }
-
         boolean match ( QName name )
         {
-            String local = _name.getLocalPart();
-
-            if (local.length() == 0)
-            {
-                String uri = _name.getNamespaceURI();
-
-                if (uri.length() == 0)
-                    return true;
-
-                return uri.equals( name.getNamespaceURI() );
-            }
-
-            return _name.equals( name );
+            return matchName( _name, name );
         }
 
         final boolean _attr;
@@ -964,10 +1391,62 @@ public class XPath
         
         final QName _name;
 
+        final Expr _predicate;
+
         Step _next, _prev;
+    }
 
-        boolean _hasBacktrack;
-        Step    _backtrack;
+    private static final class Expr
+    {
+        static final int OR       = 0;
+        static final int AND      = 1;
+        static final int NOT      = 2;
+        static final int COMPARE  = 3;
+        static final int LITERAL  = 4;
+        static final int NODES    = 5;
+        static final int NUMBER   = 6;
+        static final int POSITION = 7;
+        static final int LAST     = 8;
+        static final int COUNT    = 9;
+
+        static final int EQ = 0;
+        static final int NE = 1;
+        static final int LT = 2;
+        static final int LE = 3;
+        static final int GT = 4;
+        static final int GE = 5;
+
+        static final int SELF  = 0;
+        static final int CHILD = 1;
+        static final int ATTR  = 2;
+
+        Expr ( int kind, int op, Expr left, Expr right, int slot )
+        {
+            _kind = kind;
+            _op = op;
+            _left = left;
+            _right = right;
+            _slot = slot;
+        }
+
+        boolean isNumeric ( )
+        {
+            return _kind >= NUMBER;
+        }
+
+        final int  _kind;
+        final int  _op;
+        final Expr _left;
+        final Expr _right;
+
+        // The predicate this is part of, used to index the position caches
+        // in the execution context
+        final int  _slot;
+
+        String _literal;
+        double _number;
+        int    _axis;
+        QName  _name;
     }
 
     private static final class Selector
@@ -984,10 +1463,14 @@ public class XPath
     //
     //
     
-    private XPath ( Selector selector, boolean sawDeepDot )
+    private XPath (
+        Selector selector, boolean sawDeepDot, boolean absolute,
+        int predicateSlots )
     {
         _selector = selector;
         _sawDeepDot = sawDeepDot;
+        _absolute = absolute;
+        _predicateSlots = predicateSlots;
     }
 
     public boolean sawDeepDot ( )
@@ -995,6 +1478,51 @@ public class XPath
         return _sawDeepDot;
     }
 
+    /**
+     * True if the path starts at the document rather than the current node.
+     */
+
+    public boolean isAbsolute ( )
+    {
+        return _absolute;
+    }
+
+    /**
+     * True if any step of the path has a predicate.
+     */
+
+    public boolean hasPredicates ( )
+    {
+        return _predicateSlots > 0;
+    }
+
+    /**
+     * If the path is a single step of the form "//name" (or ".//name"),
+     * selecting every descendant element with a given name, returns that
+     * name.  Otherwise returns null.
+     */
+
+    public QName getDescendantName ( )
+    {
+        if (_sawDeepDot || _selector._paths.length != 1)
+            return null;
+
+        Step s = _selector._paths[ 0 ];
+
+        if (!s._deep || s._attr || s._name == null || s._predicate != null)
+            return null;
+
+        if (s._name.getLocalPart().length() == 0)
+            return null;
+
+        if (s._next == null || s._next._name != null)
+            return null;
+
+        return s._name;
+    }
+
     private final Selector _selector;
     private final boolean  _sawDeepDot;
+    private final boolean  _absolute;
+    private final int      _predicateSlots;
 }
@@ -17,6 +17,12 @@ package org.apache.xmlbeans.impl.common;
 
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.SimpleValue;
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.GDuration;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.List;
 
 /**
  * A class to hold and compare a list of XmlObjects for use by keys
@@ -102,6 +108,167 @@ public class XmlObjectList
         return h;
     }
     
+    /**
+     * Returns a 64 bit hash of the canonical form of the values.  Lists
+     * which are equal have the same fingerprint, so a table of fingerprints
+     * can stand in for a set of lists.  Only meaningful once filled.
+     */
+    public long fingerprint()
+    {
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0 ; i < _objects.length ; i++)
+        {
+            if (i > 0)
+                h = (h ^ 0xFFFF) * 0x100000001b3L;
+
+            String s = _objects[i] == null ? "" : canonical(_objects[i]);
+
+            for (int j = 0 ; j < s.length() ; j++)
+            {
+                char ch = s.charAt(j);
+                h = (h ^ (ch & 0xFF)) * 0x100000001b3L;
+                h = (h ^ (ch >>> 8)) * 0x100000001b3L;
+            }
+        }
+
+        // Spread the bits, so that the low ones can pick a hash slot
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    /**
+     * A string which is the same for two values exactly when valueEquals
+     * holds for them: values of different primitive types never compare
+     * equal, so the primitive type is part of it.
+     */
+    private static String canonical(XmlObject o)
+    {
+        SimpleValue v = (SimpleValue)o;
+        SchemaType type = v.instanceType();
+
+        if (type == null)
+            return "nil";
+
+        if (type.getSimpleVariety() == SchemaType.LIST)
+        {
+            StringBuffer b = new StringBuffer("list");
+            List items = v.xgetListValue();
+
+            for (int i = 0 ; i < items.size() ; i++)
+                b.append(' ').append(canonical((XmlObject)items.get(i)));
+
+            return b.toString();
+        }
+
+        SchemaType primitive = type.getPrimitiveType();
+        int btc = primitive == null ? SchemaType.BTC_NOT_BUILTIN : primitive.getBuiltinTypeCode();
+        String value;
+
+        switch (btc)
+        {
+            case SchemaType.BTC_BOOLEAN:
+                value = String.valueOf(v.getBooleanValue());
+                break;
+
+            case SchemaType.BTC_FLOAT:
+                value = Integer.toHexString(Float.floatToIntBits(v.getFloatValue()));
+                break;
+
+            case SchemaType.BTC_DOUBLE:
+                value = Long.toHexString(Double.doubleToLongBits(v.getDoubleValue()));
+                break;
+
+            case SchemaType.BTC_DECIMAL:
+                value = canonicalDecimal(v.getBigDecimalValue());
+                break;
+
+            case SchemaType.BTC_BASE_64_BINARY:
+            case SchemaType.BTC_HEX_BINARY:
+            {
+                byte[] bytes = v.getByteArrayValue();
+                StringBuffer b = new StringBuffer(bytes.length * 2);
+                for (int i = 0 ; i < bytes.length ; i++)
+                    b.append(Character.forDigit((bytes[i] >> 4) & 0xF, 16))
+                     .append(Character.forDigit(bytes[i] & 0xF, 16));
+                value = b.toString();
+                break;
+            }
+
+            case SchemaType.BTC_QNAME:
+            case SchemaType.BTC_NOTATION:
+                value = v.getQNameValue().toString();
+                break;
+
+            case SchemaType.BTC_DURATION:
+            {
+                // GDuration.equals compares the fields, fraction scale and all
+                GDuration d = v.getGDurationValue();
+                BigDecimal fs = d.getFraction();
+                value = d.getSign() + " " + d.getYear() + " " + d.getMonth() + " " +
+                    d.getDay() + " " + d.getHour() + " " + d.getMinute() + " " +
+                    d.getSecond() + " " + fs.unscaledValue() + "/" + fs.scale();
+                break;
+            }
+
+            case SchemaType.BTC_DATE_TIME:
+            case SchemaType.BTC_TIME:
+            case SchemaType.BTC_DATE:
+            case SchemaType.BTC_G_YEAR_MONTH:
+            case SchemaType.BTC_G_YEAR:
+            case SchemaType.BTC_G_MONTH_DAY:
+            case SchemaType.BTC_G_DAY:
+            case SchemaType.BTC_G_MONTH:
+                value = v.getGDateValue().canonicalString();
+                break;
+
+            default:
+                value = v.getStringValue();
+                break;
+        }
+
+        return btc + ":" + value;
+    }
+
+    private static final BigInteger TEN = BigInteger.valueOf(10);
+
+    /**
+     * Decimals are equal when they compare equal, whatever their scale, so
+     * trailing zeros are dropped.
+     */
+    private static String canonicalDecimal(BigDecimal d)
+    {
+        BigInteger unscaled = d.unscaledValue();
+        int scale = d.scale();
+
+        if (unscaled.signum() == 0)
+            return "0";
+
+        while (scale > 0)
+        {
+            BigInteger[] qr = unscaled.divideAndRemainder(TEN);
+
+            if (qr[1].signum() != 0)
+                break;
+
+            unscaled = qr[0];
+            scale--;
+        }
+
+        while (scale < 0)
+        {
+            unscaled = unscaled.multiply(TEN);
+            scale++;
+        }
+
+        return unscaled + "/" + scale;
+    }
+
     private static String prettytrim(String s)
     {
         int end;
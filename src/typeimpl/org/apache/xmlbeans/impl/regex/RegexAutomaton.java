@@ -0,0 +1,445 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.regex;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.TreeSet;
+import java.util.Iterator;
+
+/**
+ * A deterministic automaton for an XML Schema regular expression.
+ *
+ * XML Schema patterns have no back references, anchors or lookaround,
+ * so they always describe a regular language and can be matched without
+ * backtracking.  The automaton is built from the token tree produced by
+ * ParserForXMLSchema (Thompson construction followed by the subset
+ * construction) over an alphabet of BMP character classes.  Matching
+ * allocates nothing and takes no locks.
+ *
+ * Only BMP input is handled; for input containing surrogates, match()
+ * reports that the caller has to fall back to the interpreter.
+ */
+final class RegexAutomaton {
+    static final int MATCH = 1;
+    static final int NO_MATCH = 0;
+    static final int UNKNOWN = -1;
+
+    private static final int MAX_NFA_STATES = 4096;
+    private static final int MAX_DFA_STATES = 1024;
+    private static final int MAX_TABLE_SIZE = 1 << 18;
+
+    private static final int BMP_LIMIT = 0x10000;
+    private static final int LATIN1_LIMIT = 0x100;
+
+    /** Start of each character class, ascending; class i is [classStarts[i], classStarts[i+1]) */
+    private final int[] classStarts;
+    /** Direct class lookup for Latin-1 characters */
+    private final int[] latin1Classes;
+    private final int numClasses;
+    /** Next state for state*numClasses+class, or -1 for the dead state */
+    private final int[] transitions;
+    private final boolean[] accepting;
+
+    private RegexAutomaton(int[] classStarts, int[] transitions, boolean[] accepting) {
+        this.classStarts = classStarts;
+        this.numClasses = classStarts.length;
+        this.transitions = transitions;
+        this.accepting = accepting;
+
+        this.latin1Classes = new int[LATIN1_LIMIT];
+        for (int ch = 0;  ch < LATIN1_LIMIT;  ch ++)
+            this.latin1Classes[ch] = this.findClass(ch);
+    }
+
+    /**
+     * Builds an automaton for the token tree, or returns null when the tree
+     * uses constructs outside of XML Schema regular expressions or the
+     * automaton would grow past its size limits.
+     */
+    static RegexAutomaton build(Token tree) {
+        try {
+            TreeSet boundaries = new TreeSet();
+            boundaries.add(new Integer(0));
+            collectBoundaries(tree, boundaries);
+
+            int[] starts = new int[boundaries.size()];
+            int n = 0;
+            for (Iterator it = boundaries.iterator();  it.hasNext(); ) {
+                int b = ((Integer)it.next()).intValue();
+                if (b < BMP_LIMIT)
+                    starts[n++] = b;
+            }
+            if (n != starts.length) {
+                int[] trimmed = new int[n];
+                System.arraycopy(starts, 0, trimmed, 0, n);
+                starts = trimmed;
+            }
+
+            Nfa nfa = new Nfa(starts);
+            int end = nfa.compile(tree, nfa.newState());
+            return nfa.determinize(end);
+        } catch (TooComplexException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns MATCH or NO_MATCH if the whole target does or does not match,
+     * or UNKNOWN if the target has characters this automaton can't handle.
+     */
+    int match(String target) {
+        int state = 0;
+        int numClasses = this.numClasses;
+        int[] transitions = this.transitions;
+        int length = target.length();
+
+        for (int i = 0;  i < length;  i ++) {
+            int ch = target.charAt(i);
+            int cls;
+            if (ch < LATIN1_LIMIT)
+                cls = this.latin1Classes[ch];
+            else if (REUtil.isHighSurrogate(ch) || REUtil.isLowSurrogate(ch))
+                return UNKNOWN;
+            else
+                cls = this.findClass(ch);
+
+            state = transitions[state * numClasses + cls];
+            if (state < 0)
+                return NO_MATCH;
+        }
+
+        return this.accepting[state] ? MATCH : NO_MATCH;
+    }
+
+    private int findClass(int ch) {
+        int lo = 0;
+        int hi = this.classStarts.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (this.classStarts[mid] <= ch)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private static void addBoundary(TreeSet boundaries, int ch) {
+        boundaries.add(new Integer(ch));
+        boundaries.add(new Integer(ch + 1));
+    }
+
+    private static void collectBoundaries(Token tok, TreeSet boundaries) {
+        switch (tok.type) {
+          case Token.CHAR:
+            if (tok.getChar() >= BMP_LIMIT)
+                throw new TooComplexException();
+            addBoundary(boundaries, tok.getChar());
+            break;
+
+          case Token.STRING:
+            String s = tok.getString();
+            for (int i = 0;  i < s.length();  i ++)
+                addBoundary(boundaries, s.charAt(i));
+            break;
+
+          case Token.DOT:
+            addBoundary(boundaries, RegularExpression.LINE_FEED);
+            addBoundary(boundaries, RegularExpression.CARRIAGE_RETURN);
+            addBoundary(boundaries, RegularExpression.LINE_SEPARATOR);
+            addBoundary(boundaries, RegularExpression.PARAGRAPH_SEPARATOR);
+            break;
+
+          case Token.RANGE:
+          case Token.NRANGE:
+            int[] ranges = ((RangeToken)tok).ranges;
+            if (ranges != null) {
+                for (int i = 0;  i < ranges.length;  i += 2) {
+                    boundaries.add(new Integer(ranges[i]));
+                    boundaries.add(new Integer(ranges[i + 1] + 1));
+                }
+            }
+            break;
+
+          case Token.EMPTY:
+            break;
+
+          case Token.CONCAT:
+          case Token.UNION:
+          case Token.CLOSURE:
+          case Token.NONGREEDYCLOSURE:
+          case Token.PAREN:
+            for (int i = 0;  i < tok.size();  i ++)
+                collectBoundaries(tok.getChild(i), boundaries);
+            break;
+
+          default:
+            // Anchors, back references, lookaround etc. are not part of
+            // XML Schema regular expressions
+            throw new TooComplexException();
+        }
+    }
+
+    private static final class TooComplexException extends RuntimeException {
+    }
+
+    /**
+     * A Thompson NFA whose character transitions are labeled with sets of
+     * character classes.
+     */
+    private static final class Nfa {
+        private final int[] classStarts;
+        private int numStates = 0;
+        private final ArrayList edges = new ArrayList();   // of Edge
+
+        Nfa(int[] classStarts) {
+            this.classStarts = classStarts;
+        }
+
+        int newState() {
+            if (this.numStates >= MAX_NFA_STATES)
+                throw new TooComplexException();
+            return this.numStates ++;
+        }
+
+        private void epsilon(int from, int to) {
+            this.edges.add(new Edge(from, to, null));
+        }
+
+        private int step(int from, BitSet classes) {
+            int to = this.newState();
+            this.edges.add(new Edge(from, to, classes));
+            return to;
+        }
+
+        private BitSet classesFor(Token tok) {
+            int n = this.classStarts.length;
+            BitSet classes = new BitSet(n);
+            for (int i = 0;  i < n;  i ++) {
+                int ch = this.classStarts[i];
+                boolean in;
+                if (tok.type == Token.DOT)
+                    in = !(ch == RegularExpression.LINE_FEED || ch == RegularExpression.CARRIAGE_RETURN
+                           || ch == RegularExpression.LINE_SEPARATOR || ch == RegularExpression.PARAGRAPH_SEPARATOR);
+                else
+                    in = tok.match(ch);
+                if (in)
+                    classes.set(i);
+            }
+            return classes;
+        }
+
+        private BitSet classFor(int ch) {
+            BitSet classes = new BitSet(this.classStarts.length);
+            for (int i = this.classStarts.length - 1;  i >= 0;  i --) {
+                if (this.classStarts[i] <= ch) {
+                    classes.set(i);
+                    break;
+                }
+            }
+            return classes;
+        }
+
+        /**
+         * Adds states for tok starting at state from, and returns the
+         * state reached after tok has been matched.
+         */
+        int compile(Token tok, int from) {
+            switch (tok.type) {
+              case Token.EMPTY:
+                return from;
+
+              case Token.CHAR:
+                return this.step(from, this.classFor(tok.getChar()));
+
+              case Token.STRING: {
+                String s = tok.getString();
+                int cur = from;
+                for (int i = 0;  i < s.length();  i ++)
+                    cur = this.step(cur, this.classFor(s.charAt(i)));
+                return cur;
+              }
+
+              case Token.DOT:
+              case Token.RANGE:
+              case Token.NRANGE:
+                return this.step(from, this.classesFor(tok));
+
+              case Token.PAREN:
+                return this.compile(tok.getChild(0), from);
+
+              case Token.CONCAT: {
+                int cur = from;
+                for (int i = 0;  i < tok.size();  i ++)
+                    cur = this.compile(tok.getChild(i), cur);
+                return cur;
+              }
+
+              case Token.UNION: {
+                int to = this.newState();
+                for (int i = 0;  i < tok.size();  i ++) {
+                    int start = this.newState();
+                    this.epsilon(from, start);
+                    this.epsilon(this.compile(tok.getChild(i), start), to);
+                }
+                return to;
+              }
+
+              case Token.CLOSURE:
+              case Token.NONGREEDYCLOSURE: {
+                Token child = tok.getChild(0);
+                int min = tok.getMin() < 0 ? 0 : tok.getMin();
+                int max = tok.getMax();
+                int cur = from;
+                for (int i = 0;  i < min;  i ++)
+                    cur = this.compile(child, cur);
+                if (max < 0) {
+                    // X* : loop back to the start of the body
+                    int loop = this.newState();
+                    this.epsilon(cur, loop);
+                    this.epsilon(this.compile(child, loop), loop);
+                    return loop;
+                }
+                int to = this.newState();
+                for (int i = min;  i < max;  i ++) {
+                    this.epsilon(cur, to);
+                    cur = this.compile(child, cur);
+                }
+                this.epsilon(cur, to);
+                return to;
+              }
+
+              default:
+                throw new TooComplexException();
+            }
+        }
+
+        RegexAutomaton determinize(int accept) {
+            int numClasses = this.classStarts.length;
+
+            // Build adjacency lists from the edge list
+            int[] epsCount = new int[this.numStates];
+            int[] charCount = new int[this.numStates];
+            for (int i = 0;  i < this.edges.size();  i ++) {
+                Edge e = (Edge)this.edges.get(i);
+                if (e.classes == null)
+                    epsCount[e.from] ++;
+                else
+                    charCount[e.from] ++;
+            }
+            int[][] eps = new int[this.numStates][];
+            Edge[][] chars = new Edge[this.numStates][];
+            for (int s = 0;  s < this.numStates;  s ++) {
+                eps[s] = new int[epsCount[s]];
+                chars[s] = new Edge[charCount[s]];
+                epsCount[s] = charCount[s] = 0;
+            }
+            for (int i = 0;  i < this.edges.size();  i ++) {
+                Edge e = (Edge)this.edges.get(i);
+                if (e.classes == null)
+                    eps[e.from][epsCount[e.from] ++] = e.to;
+                else
+                    chars[e.from][charCount[e.from] ++] = e;
+            }
+
+            ArrayList dstates = new ArrayList();      // of BitSet
+            HashMap index = new HashMap();            // BitSet -> Integer
+            BitSet start = new BitSet(this.numStates);
+            start.set(0);
+            closure(start, eps);
+            dstates.add(start);
+            index.put(start, new Integer(0));
+
+            ArrayList rows = new ArrayList();        // of int[]
+            for (int d = 0;  d < dstates.size();  d ++) {
+                if ((d + 1) * numClasses > MAX_TABLE_SIZE)
+                    throw new TooComplexException();
+
+                BitSet set = (BitSet)dstates.get(d);
+                int[] row = new int[numClasses];
+                rows.add(row);
+                for (int c = 0;  c < numClasses;  c ++) {
+                    BitSet target = null;
+                    for (int s = set.nextSetBit(0);  s >= 0;  s = set.nextSetBit(s + 1)) {
+                        Edge[] out = chars[s];
+                        for (int k = 0;  k < out.length;  k ++) {
+                            if (out[k].classes.get(c)) {
+                                if (target == null)
+                                    target = new BitSet(this.numStates);
+                                target.set(out[k].to);
+                            }
+                        }
+                    }
+
+                    int next = -1;
+                    if (target != null) {
+                        closure(target, eps);
+                        Integer known = (Integer)index.get(target);
+                        if (known == null) {
+                            if (dstates.size() >= MAX_DFA_STATES)
+                                throw new TooComplexException();
+                            known = new Integer(dstates.size());
+                            dstates.add(target);
+                            index.put(target, known);
+                        }
+                        next = known.intValue();
+                    }
+                    row[c] = next;
+                }
+            }
+
+            int numDStates = dstates.size();
+            int[] transitions = new int[numDStates * numClasses];
+            for (int d = 0;  d < numDStates;  d ++)
+                System.arraycopy((int[])rows.get(d), 0, transitions, d * numClasses, numClasses);
+            boolean[] accepting = new boolean[numDStates];
+            for (int d = 0;  d < numDStates;  d ++)
+                accepting[d] = ((BitSet)dstates.get(d)).get(accept);
+
+            return new RegexAutomaton(this.classStarts, transitions, accepting);
+        }
+
+        private static void closure(BitSet set, int[][] eps) {
+            int[] stack = new int[eps.length];
+            int top = 0;
+            for (int s = set.nextSetBit(0);  s >= 0;  s = set.nextSetBit(s + 1))
+                stack[top ++] = s;
+            while (top > 0) {
+                int[] out = eps[stack[-- top]];
+                for (int k = 0;  k < out.length;  k ++) {
+                    if (!set.get(out[k])) {
+                        set.set(out[k]);
+                        stack[top ++] = out[k];
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Edge {
+        final int from;
+        final int to;
+        final BitSet classes;               // null for an epsilon transition
+
+        Edge(int from, int to, BitSet classes) {
+            this.from = from;
+            this.to = to;
+            this.classes = classes;
+        }
+    }
+}
@@ -1367,9 +1367,32 @@ public class RegularExpression implements java.io.Serializable {
      * @return true if the target is matched to this regular expression.
      */
     public boolean matches(String  target) {
+        RegexAutomaton automaton = this.automaton;
+        if (automaton != null) {
+            int result = automaton.match(target);
+            if (result != RegexAutomaton.UNKNOWN)
+                return result == RegexAutomaton.MATCH;
+        }
         return this.matches(target, 0,  target .length() , (Match)null);
     }
 
+    /**
+     * Builds a deterministic automaton for this expression, if it is an XML
+     * Schema expression and the automaton stays reasonably small.  After this
+     * call, {@link #matches(String)} runs without backtracking, allocation or
+     * locking whenever it can.  This should be called before the expression
+     * is shared between threads.
+     */
+    public void prepareAutomaton() {
+        synchronized (this) {
+            if (this.automatonPrepared)
+                return;
+            if (isSet(this.options, XMLSCHEMA_MODE))
+                this.automaton = RegexAutomaton.build(this.tokentree);
+            this.automatonPrepared = true;
+        }
+    }
+
     /**
      * Checks whether the <var>target</var> text <strong>contains</strong> this pattern
      * in specified range or not.
@@ -2757,6 +2780,8 @@ public class RegularExpression implements java.io.Serializable {
     transient Op operations = null;
     transient int numberOfClosures;
     transient Context context = null;
+    transient RegexAutomaton automaton = null;
+    transient boolean automatonPrepared = false;
     transient RangeToken firstChar = null;
 
     transient String fixedString = null;
@@ -3001,6 +3026,8 @@ public class RegularExpression implements java.io.Serializable {
 
         this.operations = null;
         this.context = null;
+        this.automaton = null;
+        this.automatonPrepared = false;
     }
     /**
      *
@@ -16,6 +16,7 @@
 package org.apache.xmlbeans.impl.schema;
 
 import java.io.InputStream;
+import java.net.URL;
 
 public class ClassLoaderResourceLoader implements ResourceLoader
 {
@@ -31,5 +32,10 @@ public class ClassLoaderResourceLoader implements ResourceLoader
         return _classLoader.getResourceAsStream(resourceName);
     }
 
+    URL getResource(String resourceName)
+    {
+        return _classLoader.getResource(resourceName);
+    }
+
     public void close() {}
 }
@@ -59,6 +59,15 @@ public class FileResourceLoader implements ResourceLoader
         }
     }
 
+    /**
+     * Returns the file for a resource in a directory, or null if the
+     * resources are in a zip file.
+     */
+    File getResourceFile(String resourceName)
+    {
+        return _directory == null ? null : new File(_directory, resourceName);
+    }
+
     public void close()
     {
         if (_zipfile != null)
@@ -0,0 +1,258 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.schema;
+
+import org.apache.xmlbeans.SchemaParticle;
+import org.apache.xmlbeans.QNameSet;
+
+import javax.xml.namespace.QName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A precompiled form of a content model: a transition table from the
+ * index of an element name to the next state of the content model.
+ *
+ * The states are the distinct configurations the SchemaTypeVisitorImpl
+ * interpreter can reach (particle stack plus occurrence counters), and each
+ * transition is computed by running the interpreter once, so the automaton
+ * accepts exactly what the interpreter accepts.  Once built, the automaton
+ * is immutable and can be shared by any number of threads.
+ *
+ * Element names matched only by wildcards are not part of the alphabet;
+ * visitors fall back to the interpreter when they meet one.
+ */
+final class SchemaContentAutomaton
+{
+    private static final int MAX_STATES = 2048;
+    private static final int MAX_TABLE_SIZE = 1 << 18;
+
+    /** Marker for types whose content model has no automaton */
+    static final SchemaContentAutomaton NONE =
+        new SchemaContentAutomaton(new HashMap(), 0, new int[0], new SchemaParticle[0],
+            new int[0], new SchemaTypeVisitorImpl.Snapshot[0], false);
+
+    private final Map _nameIndex;           // QName -> Integer
+    private final int _alphabetSize;
+    private final int[] _transitions;       // state * _alphabetSize + name -> state, or -1
+    private final SchemaParticle[] _matched;
+    private final int[] _endTransitions;    // state -> state after the end of content, or -1
+    private final SchemaTypeVisitorImpl.Snapshot[] _snapshots;
+    private final boolean _hasWildcards;
+
+    private SchemaContentAutomaton(
+        Map nameIndex, int alphabetSize, int[] transitions, SchemaParticle[] matched,
+        int[] endTransitions, SchemaTypeVisitorImpl.Snapshot[] snapshots, boolean hasWildcards)
+    {
+        _nameIndex = nameIndex;
+        _alphabetSize = alphabetSize;
+        _transitions = transitions;
+        _matched = matched;
+        _endTransitions = endTransitions;
+        _snapshots = snapshots;
+        _hasWildcards = hasWildcards;
+    }
+
+    /**
+     * Returns the index of the name in the alphabet, or -1.
+     */
+    int indexOf(QName name)
+    {
+        Integer index = (Integer)_nameIndex.get(name);
+        return index == null ? -1 : index.intValue();
+    }
+
+    int transition(int state, int index)
+    {
+        return _transitions[state * _alphabetSize + index];
+    }
+
+    SchemaParticle matchedParticle(int state, int index)
+    {
+        return _matched[state * _alphabetSize + index];
+    }
+
+    int endTransition(int state)
+    {
+        return _endTransitions[state];
+    }
+
+    boolean hasWildcards()
+    {
+        return _hasWildcards;
+    }
+
+    SchemaTypeVisitorImpl.Snapshot snapshot(int state)
+    {
+        return _snapshots[state];
+    }
+
+    /**
+     * Builds the automaton for a content model.  Returns NONE if the model
+     * is empty or the automaton would exceed its size limits.
+     */
+    static SchemaContentAutomaton build(SchemaParticle contentModel)
+    {
+        if (contentModel == null)
+            return NONE;
+
+        Map nameIndex = new HashMap();
+        ArrayList alphabet = new ArrayList();
+        boolean hasWildcards = collectNames(contentModel, nameIndex, alphabet);
+
+        int alphabetSize = alphabet.size();
+
+        SchemaTypeVisitorImpl interpreter = new SchemaTypeVisitorImpl(contentModel);
+
+        ArrayList snapshots = new ArrayList();
+        Map stateIndex = new HashMap();
+
+        SchemaTypeVisitorImpl.Snapshot start = interpreter.snapshot();
+        snapshots.add(start);
+        stateIndex.put(start, new Integer(0));
+
+        ArrayList rows = new ArrayList();
+        ArrayList matchedRows = new ArrayList();
+        ArrayList ends = new ArrayList();
+
+        for (int state = 0; state < snapshots.size(); state++)
+        {
+            if ((state + 1) * alphabetSize > MAX_TABLE_SIZE)
+                return NONE;
+
+            SchemaTypeVisitorImpl.Snapshot current =
+                (SchemaTypeVisitorImpl.Snapshot)snapshots.get(state);
+
+            int[] row = new int[alphabetSize];
+            SchemaParticle[] matchedRow = new SchemaParticle[alphabetSize];
+
+            for (int i = 0; i < alphabetSize; i++)
+            {
+                interpreter.restore(current);
+
+                if (!interpreter.visit((QName)alphabet.get(i)))
+                {
+                    row[i] = -1;
+                    continue;
+                }
+
+                row[i] = intern(interpreter.snapshot(), snapshots, stateIndex);
+                matchedRow[i] = interpreter.currentParticle();
+
+                if (row[i] < 0)
+                    return NONE;
+            }
+
+            interpreter.restore(current);
+
+            int end = -1;
+
+            if (interpreter.visit(null))
+            {
+                end = intern(interpreter.snapshot(), snapshots, stateIndex);
+
+                if (end < 0)
+                    return NONE;
+            }
+
+            rows.add(row);
+            matchedRows.add(matchedRow);
+            ends.add(new Integer(end));
+        }
+
+        int numStates = snapshots.size();
+
+        int[] transitions = new int[numStates * alphabetSize];
+        SchemaParticle[] matched = new SchemaParticle[numStates * alphabetSize];
+        int[] endTransitions = new int[numStates];
+
+        for (int state = 0; state < numStates; state++)
+        {
+            System.arraycopy(rows.get(state), 0, transitions, state * alphabetSize, alphabetSize);
+            System.arraycopy(matchedRows.get(state), 0, matched, state * alphabetSize, alphabetSize);
+            endTransitions[state] = ((Integer)ends.get(state)).intValue();
+        }
+
+        return new SchemaContentAutomaton(
+            nameIndex, alphabetSize, transitions, matched, endTransitions,
+            (SchemaTypeVisitorImpl.Snapshot[])snapshots.toArray(new SchemaTypeVisitorImpl.Snapshot[numStates]),
+            hasWildcards);
+    }
+
+    /**
+     * Returns the state number of a snapshot, adding a new state if needed.
+     * Returns -1 if there are too many states.
+     */
+    private static int intern(SchemaTypeVisitorImpl.Snapshot snapshot, ArrayList snapshots, Map stateIndex)
+    {
+        Integer index = (Integer)stateIndex.get(snapshot);
+
+        if (index != null)
+            return index.intValue();
+
+        if (snapshots.size() >= MAX_STATES)
+            return -1;
+
+        index = new Integer(snapshots.size());
+        snapshots.add(snapshot);
+        stateIndex.put(snapshot, index);
+
+        return index.intValue();
+    }
+
+    /**
+     * Collects the element names the particle can accept into the alphabet.
+     * Returns true if some names can only be matched by a wildcard.
+     */
+    private static boolean collectNames(SchemaParticle part, Map nameIndex, ArrayList alphabet)
+    {
+        boolean hasWildcards = false;
+
+        switch (part.getParticleType())
+        {
+            case SchemaParticle.WILDCARD:
+                return true;
+
+            case SchemaParticle.ELEMENT:
+                QNameSet names = part.acceptedStartNames();
+                Set uris = names.includedURIs();
+
+                if (uris == null || !uris.isEmpty())
+                    return true;
+
+                for (Iterator it = names.includedQNamesInExcludedURIs().iterator(); it.hasNext(); )
+                {
+                    QName name = (QName)it.next();
+
+                    if (!nameIndex.containsKey(name))
+                    {
+                        nameIndex.put(name, new Integer(alphabet.size()));
+                        alphabet.add(name);
+                    }
+                }
+                return false;
+
+            default:
+                for (int i = 0; i < part.countOfParticleChild(); i++)
+                    hasWildcards |= collectNames(part.getParticleChild(i), nameIndex, alphabet);
+                return hasWildcards;
+        }
+    }
+}
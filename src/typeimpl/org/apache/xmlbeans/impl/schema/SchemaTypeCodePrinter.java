@@ -258,7 +258,6 @@ public final class SchemaTypeCodePrinter
         indent();
         emit("private " + shortName + "() { }");
         emit("public static final org.apache.xmlbeans.SchemaTypeSystem typeSystem = loadTypeSystem();");
-        emit("static { typeSystem.resolve(); }");
         emit("private static final org.apache.xmlbeans.SchemaTypeSystem loadTypeSystem()");
         emit("{");
         indent();
@@ -1271,6 +1270,26 @@ public final class SchemaTypeCodePrinter
         }
     }
 
+    /**
+     * Returns the XmlComplexContentImpl helper which reads a whole array of
+     * the given java type in one pass over the store, or null if the
+     * array has to be built from a list of XmlObjects.
+     */
+    static String bulkArrayGetterHelper(int javaType)
+    {
+        switch (javaType)
+        {
+            case SchemaProperty.JAVA_INT:
+                return "intArrayGetterHelper";
+            case SchemaProperty.JAVA_LONG:
+                return "longArrayGetterHelper";
+            case SchemaProperty.JAVA_DOUBLE:
+                return "doubleArrayGetterHelper";
+            default:
+                return null;
+        }
+    }
+
     void printJGetArrayValue(int javaType, String type) throws IOException {
         switch (javaType)
         {
@@ -1829,10 +1848,17 @@ public final class SchemaTypeCodePrinter
             startBlock();
             emitImplementationPreamble();
 
-            emit("java.util.List targetList = new java.util.ArrayList();");
-            emit("get_store().find_all_element_users(" + setIdentifier + ", targetList);");
+            String bulkGetter = bulkArrayGetterHelper(javaType);
 
-            printJGetArrayValue(javaType, type);
+            if (bulkGetter != null)
+                emit("return " + bulkGetter + "(" + setIdentifier + ");");
+            else
+            {
+                emit("java.util.List targetList = new java.util.ArrayList();");
+                emit("get_store().find_all_element_users(" + setIdentifier + ", targetList);");
+
+                printJGetArrayValue(javaType, type);
+            }
 
             emitImplementationPostamble();
             endBlock();
@@ -95,6 +95,7 @@ public final class SchemaTypeImpl implements SchemaType, TypeStoreUserFactory
 
     // complex content support
     private SchemaParticle _contentModel;
+    private SchemaContentAutomaton _contentAutomaton;
     private volatile SchemaLocalElement[] _localElts; // lazily computed
     private volatile Map _eltToIndexMap; // lazily computed
     private volatile Map _attrToIndexMap; // lazily computed
@@ -395,7 +396,7 @@ public final class SchemaTypeImpl implements SchemaType, TypeStoreUserFactory
         if (_complexTypeVariety == NOT_COMPLEX_TYPE)
             return new SequencerImpl(null);
 
-        return new SequencerImpl(new SchemaTypeVisitorImpl(_contentModel));
+        return new SequencerImpl(new SchemaTypeVisitorImpl(this));
     }
 
     /** Set the abstract and final flags for a complex type */
@@ -567,6 +568,28 @@ public final class SchemaTypeImpl implements SchemaType, TypeStoreUserFactory
     public SchemaParticle getContentModel()
         { return _contentModel; }
 
+    /**
+     * Returns the precompiled automaton for the content model, building it
+     * on first use, or null if there is none (or the type isn't resolved yet).
+     */
+    SchemaContentAutomaton getContentAutomaton()
+    {
+        // The automaton is immutable, so an unsynchronized read is safe; at
+        // worst two threads build it concurrently and one copy is discarded
+        SchemaContentAutomaton automaton = _contentAutomaton;
+
+        if (automaton == null)
+        {
+            if (!isResolved())
+                return null;
+
+            automaton = SchemaContentAutomaton.build(_contentModel);
+            _contentAutomaton = automaton;
+        }
+
+        return automaton == SchemaContentAutomaton.NONE ? null : automaton;
+    }
+
     private static void buildEltList(List eltList, SchemaParticle contentModel)
     {
         if (contentModel == null)
@@ -1268,7 +1291,14 @@ public final class SchemaTypeImpl implements SchemaType, TypeStoreUserFactory
     }
 
     public void setPatterns(org.apache.xmlbeans.impl.regex.RegularExpression[] list)
-        { assertResolving(); _patterns = list; }
+    {
+        assertResolving();
+        // build the matching automata now, before the type is published
+        if (list != null)
+            for (int i = 0; i < list.length; i++)
+                list[i].prepareAutomaton();
+        _patterns = list;
+    }
 
     public XmlAnySimpleType[] getEnumerationValues()
     {
@@ -17,6 +17,7 @@ package org.apache.xmlbeans.impl.schema;
 
 import org.apache.xmlbeans.impl.common.QNameHelper;
 import org.apache.xmlbeans.impl.values.XmlStore;
+import org.apache.xmlbeans.impl.validator.ValidatingContentHandler;
 import org.apache.xmlbeans.impl.validator.ValidatingXMLInputStream;
 
 import org.apache.xmlbeans.SchemaAttributeGroup;
@@ -40,6 +41,7 @@ import java.io.Reader;
 import java.io.File;
 import java.io.IOException;
 import java.io.FileInputStream;
+import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
 import java.net.URL;
@@ -52,6 +54,7 @@ import java.security.NoSuchAlgorithmException;
 import javax.xml.namespace.QName;
 
 import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 
 import org.apache.xmlbeans.xml.stream.XMLInputStream;
 import org.apache.xmlbeans.xml.stream.XMLStreamException;
@@ -359,6 +362,16 @@ public abstract class SchemaTypeLoaderBase implements SchemaTypeLoader
         return new ValidatingXMLInputStream( xis, this, type, options );
     }
 
+    public Iterator parseIterator ( InputStream is, QName recordName, SchemaType type, XmlOptions options ) throws XmlException, IOException
+    {
+        return createNewStore( null, options ).loadRecords( is, recordName, type, options );
+    }
+
+    public ContentHandler newValidatingContentHandler ( SchemaType type, XmlOptions options )
+    {
+        return new ValidatingContentHandler( this, type, options );
+    }
+
     //
     //
     //
@@ -25,77 +25,84 @@ import org.apache.xmlbeans.SchemaTypeSystem;
 import org.apache.xmlbeans.SchemaIdentityConstraint;
 import org.apache.xmlbeans.impl.common.QNameHelper;
 import org.apache.xmlbeans.impl.common.XBeanDebug;
+import org.apache.xmlbeans.impl.common.StripedMap;
 import javax.xml.namespace.QName;
 
 import java.io.InputStream;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.WeakHashMap;
-import java.util.Collections;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.IdentityHashMap;
 
 import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 
 public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
 {
     private ResourceLoader _resourceLoader;
     private ClassLoader _classLoader;
+    private WeakReference _weakClassLoader;
     private SchemaTypeLoader[] _searchPath;
 
     private Map _classpathTypeSystems;
     private Map _classLoaderTypeSystems;
-    private Map _elementCache;
-    private Map _attributeCache;
-    private Map _modelGroupCache;
-    private Map _attributeGroupCache;
-    private Map _idConstraintCache;
-    private Map _typeCache;
-    private Map _documentCache;
-    private Map _classnameCache;
-
-    // The following maintains a cache of SchemaTypeLoaders per ClassLoader per Thread.
-    // I use soft references to allow the garbage collector to reclain the type loaders
-    // and/pr class loaders at will.
-
-    private static ThreadLocal _cachedTypeSystems =
-        new ThreadLocal() { protected Object initialValue() { return new ArrayList(); } };
+    private StripedMap _elementCache;
+    private StripedMap _attributeCache;
+    private StripedMap _modelGroupCache;
+    private StripedMap _attributeGroupCache;
+    private StripedMap _idConstraintCache;
+    private StripedMap _typeCache;
+    private StripedMap _documentCache;
+    private StripedMap _classnameCache;
+
+    // The following maintains one SchemaTypeLoader per ClassLoader, shared by all
+    // threads.  The class loaders are weakly held and the type loaders softly held.
+    // A shared type loader holds its class loader weakly too, so that the value
+    // does not keep its own key reachable, and a discarded class loader (e.g. a
+    // redeployed webapp) can be collected without waiting for memory pressure.
+    // Type systems found through the class loader still refer to it, so once
+    // types have been loaded from it, its entry lasts until the soft value clears.
+
+    private static final Map _sharedTypeLoaders = new WeakHashMap();
+
+    // Each thread remembers the last shared type loader it used, so the common
+    // case of an unchanged context class loader does not touch the shared map.
+
+    private static ThreadLocal _lastTypeLoader = new ThreadLocal();
 
     public static SchemaTypeLoaderImpl getContextTypeLoader ( )
     {
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
 
-        ArrayList a = (ArrayList) _cachedTypeSystems.get();
+        SoftReference last = (SoftReference) _lastTypeLoader.get();
 
-        int candidate = -1;
-        SchemaTypeLoaderImpl result = null;
-
-        for ( int i = 0 ; i < a.size() ; i++ )
+        if (last != null)
         {
-            SchemaTypeLoaderImpl tl = (SchemaTypeLoaderImpl) ((SoftReference) a.get( i )).get();
+            SchemaTypeLoaderImpl tl = (SchemaTypeLoaderImpl) last.get();
 
-            if (tl == null)
-                a.remove( i-- );
-            else if (tl._classLoader == cl)
-            {
-                candidate = i;
-                result = tl;
-            }
+            if (tl != null && tl.getClassLoader() == cl)
+                return tl;
         }
 
-        if (candidate == -1)
-        {
-            result =  new SchemaTypeLoaderImpl( new SchemaTypeLoader[] { BuiltinSchemaTypeSystem.get() } , null, cl );
-            a.add( new SoftReference( result ) );
-            candidate = a.size() - 1;
-        }
+        SchemaTypeLoaderImpl result;
 
-        if (candidate > 0)
+        synchronized ( _sharedTypeLoaders )
         {
-            Object t = a.get( 0 );
-            a.set( 0, a.get( candidate ) );
-            a.set( candidate, t );
+            SoftReference ref = (SoftReference) _sharedTypeLoaders.get( cl );
+
+            result = ref == null ? null : (SchemaTypeLoaderImpl) ref.get();
+
+            if (result == null)
+            {
+                result = new SchemaTypeLoaderImpl( new SchemaTypeLoader[] { BuiltinSchemaTypeSystem.get() } , null, null );
+                result._weakClassLoader = new WeakReference( cl );
+                ref = new SoftReference( result );
+                _sharedTypeLoaders.put( cl, ref );
+            }
+
+            _lastTypeLoader.set( ref );
         }
 
         return result;
@@ -120,7 +127,7 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
                 else
                 {
                     SchemaTypeLoaderImpl sub = (SchemaTypeLoaderImpl)searchPath[i];
-                    if (sub._classLoader != null || sub._resourceLoader != null)
+                    if (sub.getClassLoader() != null || sub._resourceLoader != null)
                         list.add(sub);
                     else for (int j = 0; j < sub._searchPath.length; j++)
                         list.add(sub._searchPath[j]);
@@ -191,16 +198,28 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
      */
     private final void initCaches()
     {
-        _classpathTypeSystems = Collections.synchronizedMap(new HashMap());
-        _classLoaderTypeSystems = Collections.synchronizedMap(new HashMap());
-        _elementCache = Collections.synchronizedMap(new HashMap());
-        _attributeCache = Collections.synchronizedMap(new HashMap());
-        _modelGroupCache = Collections.synchronizedMap(new HashMap());
-        _attributeGroupCache = Collections.synchronizedMap(new HashMap());
-        _idConstraintCache = Collections.synchronizedMap(new HashMap());
-        _typeCache = Collections.synchronizedMap(new HashMap());
-        _documentCache = Collections.synchronizedMap(new HashMap());
-        _classnameCache = Collections.synchronizedMap(new HashMap());
+        _classpathTypeSystems = new HashMap();
+        _classLoaderTypeSystems = new HashMap();
+        _elementCache = new StripedMap();
+        _attributeCache = new StripedMap();
+        _modelGroupCache = new StripedMap();
+        _attributeGroupCache = new StripedMap();
+        _idConstraintCache = new StripedMap();
+        _typeCache = new StripedMap();
+        _documentCache = new StripedMap();
+        _classnameCache = new StripedMap();
+    }
+
+    /**
+     * Returns the class loader to look in, or null if there is none or a
+     * weakly held one has been collected.
+     */
+    private ClassLoader getClassLoader()
+    {
+        if (_weakClassLoader != null)
+            return (ClassLoader)_weakClassLoader.get();
+
+        return _classLoader;
     }
 
     SchemaTypeSystemImpl typeSystemForComponent(String searchdir, QName name)
@@ -211,8 +230,9 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
         if (_resourceLoader != null)
             tsname = crackEntry(_resourceLoader, searchfor);
 
-        if (_classLoader != null)
-            tsname = crackEntry(_classLoader, searchfor);
+        ClassLoader classLoader = getClassLoader();
+        if (classLoader != null)
+            tsname = crackEntry(classLoader, searchfor);
 
         if (tsname != null)
             return (SchemaTypeSystemImpl)typeSystemForName(tsname);
@@ -229,7 +249,7 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
                 return result;
         }
 
-        if (_classLoader != null)
+        if (getClassLoader() != null)
         {
             SchemaTypeSystem result = getTypeSystemOnClassloader(name);
             if (result != null)
@@ -249,9 +269,10 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
                 return getTypeSystemOnClasspath(tsname);
         }
 
-        if (_classLoader != null)
+        ClassLoader classLoader = getClassLoader();
+        if (classLoader != null)
         {
-            String tsname = crackEntry(_classLoader, searchfor);
+            String tsname = crackEntry(classLoader, searchfor);
             if (tsname != null)
                 return getTypeSystemOnClassloader(tsname);
         }
@@ -261,11 +282,24 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
 
     SchemaTypeSystemImpl getTypeSystemOnClasspath(String name)
     {
-        SchemaTypeSystemImpl result = (SchemaTypeSystemImpl)_classpathTypeSystems.get(name);
+        SchemaTypeSystemImpl result;
+        synchronized (_classpathTypeSystems)
+        {
+            result = (SchemaTypeSystemImpl)_classpathTypeSystems.get(name);
+        }
         if (result == null)
         {
+            // Not created under the lock: loading a type system may reenter
+            // this loader from other threads.  If two threads race, the
+            // first one to register wins so the type system stays unique.
             result = new SchemaTypeSystemImpl(_resourceLoader, name, this);
-            _classpathTypeSystems.put(name, result);
+            synchronized (_classpathTypeSystems)
+            {
+                SchemaTypeSystemImpl other = (SchemaTypeSystemImpl)_classpathTypeSystems.get(name);
+                if (other != null)
+                    return other;
+                _classpathTypeSystems.put(name, result);
+            }
         }
         return result;
     }
@@ -273,12 +307,22 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
     SchemaTypeSystemImpl getTypeSystemOnClassloader(String name)
     {
         XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Finding type system " + name + " on classloader", 0);
-        SchemaTypeSystemImpl result = (SchemaTypeSystemImpl)_classLoaderTypeSystems.get(name);
+        SchemaTypeSystemImpl result;
+        synchronized (_classLoaderTypeSystems)
+        {
+            result = (SchemaTypeSystemImpl)_classLoaderTypeSystems.get(name);
+        }
         if (result == null)
         {
             XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Type system " + name + " not cached - consulting field", 0);
-            result = SchemaTypeSystemImpl.forName(name, _classLoader);
-            _classLoaderTypeSystems.put(name, result);
+            ClassLoader classLoader = getClassLoader();
+            if (classLoader == null)
+                return null;
+            result = SchemaTypeSystemImpl.forName(name, classLoader);
+            synchronized (_classLoaderTypeSystems)
+            {
+                _classLoaderTypeSystems.put(name, result);
+            }
         }
         return result;
     }
@@ -524,8 +568,9 @@ public class SchemaTypeLoaderImpl extends SchemaTypeLoaderBase
         if (_resourceLoader != null)
             result = _resourceLoader.getResourceAsStream("schema/src" + sourceName);
 
-        if (result == null && _classLoader != null)
-            return _classLoader.getResourceAsStream("schema/src" + sourceName);
+        ClassLoader classLoader = getClassLoader();
+        if (result == null && classLoader != null)
+            return classLoader.getResourceAsStream("schema/src" + sourceName);
 
         return result;
     }
@@ -22,13 +22,13 @@ import org.apache.xmlbeans.SchemaTypeSystem;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
-import java.util.Arrays;
 import java.net.URI;
 
 import org.w3.x2001.xmlSchema.SchemaDocument.Schema;
 import org.w3.x2001.xmlSchema.SchemaDocument;
 import org.apache.xml.xmlbeans.x2004.x02.xbean.config.ConfigDocument.Config;
 import org.apache.xml.xmlbeans.x2004.x02.xbean.config.ConfigDocument;
+import org.apache.xmlbeans.impl.common.ParallelTasks;
 import org.apache.xmlbeans.impl.common.XmlErrorWatcher;
 import org.apache.xmlbeans.impl.config.SchemaConfig;
 
@@ -169,23 +169,9 @@ public class SchemaTypeSystemCompiler
             linkTo = SchemaTypeLoaderImpl.build(new SchemaTypeLoader[] { BuiltinSchemaTypeSystem.get(), linkTo }, null, null);
             state.setImportingTypeLoader(linkTo);
 
-            List validSchemas = new ArrayList(schemas.length);
-
             // load all the xsd files into it
-            if (validate)
-            {
-                for (int i = 0; i < schemas.length; i++)
-                {
-                    if (schemas[i].validate(new XmlOptions().setErrorListener(errorWatcher)))
-                        validSchemas.add(schemas[i]);
-                }
-            }
-            else
-            {
-                validSchemas.addAll(Arrays.asList(schemas));
-            }
-
-            Schema[] startWith = (Schema[])validSchemas.toArray(new Schema[validSchemas.size()]);
+            Schema[] startWith = validate ?
+                validateSchemas(schemas, errorWatcher, compileThreads(options)) : schemas;
 
             // deal with imports and includes
             StscImporter.SchemaToProcess[] schemasAndChameleons = StscImporter.resolveImportsAndIncludes(startWith);
@@ -221,5 +207,50 @@ public class SchemaTypeSystemCompiler
         }
     }
 
+    private static int compileThreads(XmlOptions options)
+    {
+        Integer threads = (options == null ? null : (Integer)options.get(XmlOptions.COMPILE_THREADS));
+        return threads == null ? 0 : threads.intValue();
+    }
+
+    /**
+     * Validates the schema documents, several at a time, and returns the
+     * valid ones.  Each document collects its own errors, which are then
+     * reported in document order, so the result does not depend on the
+     * number of threads.
+     */
+    private static Schema[] validateSchemas(final Schema[] schemas, Collection errorWatcher, int threads)
+    {
+        final boolean[] valid = new boolean[schemas.length];
+        final List[] errors = new List[schemas.length];
+        Runnable[] tasks = new Runnable[schemas.length];
+
+        for (int i = 0; i < schemas.length; i++)
+        {
+            final int index = i;
+            tasks[i] = new Runnable()
+            {
+                public void run()
+                {
+                    errors[index] = new ArrayList();
+                    valid[index] = schemas[index].validate(new XmlOptions().setErrorListener(errors[index]));
+                }
+            };
+        }
+
+        ParallelTasks.run(tasks, threads);
+
+        List validSchemas = new ArrayList(schemas.length);
+
+        for (int i = 0; i < schemas.length; i++)
+        {
+            errorWatcher.addAll(errors[i]);
+            if (valid[i])
+                validSchemas.add(schemas[i]);
+        }
+
+        return (Schema[])validSchemas.toArray(new Schema[validSchemas.size()]);
+    }
+
 
 }
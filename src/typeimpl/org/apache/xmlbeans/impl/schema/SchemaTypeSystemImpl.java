@@ -17,7 +17,9 @@ package org.apache.xmlbeans.impl.schema;
 
 import javax.xml.namespace.QName;
 import org.apache.xmlbeans.impl.common.NameUtil;
+import org.apache.xmlbeans.impl.common.ParallelTasks;
 import org.apache.xmlbeans.impl.common.QNameHelper;
+import org.apache.xmlbeans.impl.common.StripedMap;
 import org.apache.xmlbeans.impl.common.XBeanDebug;
 import org.apache.xmlbeans.impl.common.XmlErrorWatcher;
 
@@ -61,6 +63,7 @@ import org.apache.xmlbeans.SchemaIdentityConstraint;
 import org.apache.xmlbeans.SimpleValue;
 import org.apache.xmlbeans.SchemaTypeLoaderException;
 import org.apache.xmlbeans.SchemaField;
+import org.apache.xmlbeans.XmlBeans;
 import org.apache.xmlbeans.soap.SOAPArrayType;
 import org.apache.xmlbeans.soap.SchemaWSDLArrayType;
 import org.apache.xml.xmlbeans.x2004.x02.xbean.config.ConfigDocument.Config;
@@ -150,6 +153,25 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         _resourceLoader = new ClassLoaderResourceLoader(_classloader);
         initFromHeader();
         XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Finished loading type system " + _name, -1);
+
+        if (isWarmUpRequested())
+            warmUp();
+    }
+
+    /**
+     * True if compiled type systems should be resolved in the background as
+     * soon as they are loaded: see the xmlbean.warmup system property.
+     */
+    private static boolean isWarmUpRequested()
+    {
+        try
+        {
+            return "true".equals(System.getProperty("xmlbean.warmup"));
+        }
+        catch (SecurityException e)
+        {
+            return false;
+        }
     }
 
     private static final Schema[] EMPTY_SCHEMA_ARRAY = new Schema[0];
@@ -267,6 +289,16 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         XsbReader reader = null;
         try
         {
+            // If the type system was saved packed, read all of it from the pack
+            try
+            {
+                _pack = XsbPack.open(_resourceLoader, _basePackage + XsbPack.PACK_RESOURCE);
+            }
+            catch (IOException e)
+            {
+                throw new SchemaTypeLoaderException(e.getMessage(), _name, "index", SchemaTypeLoaderException.IO_EXCEPTION, e);
+            }
+
             // Read the index file, which starts with a header.
             reader = new XsbReader("index", FILETYPE_SCHEMAINDEX);
 
@@ -565,6 +597,7 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         _typeRefsByClassname = buildTypeRefsByClassname(state.typesByClassname());
         _identityConstraints = buildComponentRefMap(state.idConstraints());
         _namespaces = new HashSet(Arrays.asList(state.getNamespaces()));
+        _packXsb = state.packXsb();
     }
 
     final SchemaTypeSystemImpl getTypeSystem()
@@ -841,6 +874,13 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
     // the loader for loading .xsb resources
     private ResourceLoader _resourceLoader;
 
+    // all the .xsb resources, if the type system was saved packed
+    private XsbPack _pack;
+
+    // whether to save packed, and the pack being saved
+    private boolean _packXsb;
+    private XsbPack.Writer _packWriter;
+
     // the following is used to link references during load
     SchemaTypeLoader _linker;
 
@@ -874,6 +914,9 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
     {
         _baseSaveDir = classDir;
 
+        if (_packXsb)
+            _packWriter = new XsbPack.Writer();
+
         _localHandles.startWriteMode();
         saveTypesRecursively(globalTypes());
         saveTypesRecursively(documentTypes());
@@ -888,10 +931,42 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         saveModelGroups(redefinedModelGroups());
         saveAttributeGroups(redefinedAttributeGroups());
 
+        if (_packWriter != null)
+        {
+            saveIndex();
+            savePack();
+        }
+
+        // The index is always saved on its own too, since that is how a
+        // type system is found
         saveIndex();
         savePointers();
     }
 
+    void savePack()
+    {
+        XsbPack.Writer writer = _packWriter;
+        _packWriter = null;
+
+        File targetFile = new File(_baseSaveDir, _basePackage + XsbPack.PACK_RESOURCE);
+        OutputStream output = null;
+        try
+        {
+            targetFile.getParentFile().mkdirs();
+            output = new FileOutputStream(targetFile);
+            writer.writeTo(output);
+        }
+        catch (IOException e)
+        {
+            throw new SchemaTypeLoaderException(e.getMessage(), _name, "index", SchemaTypeLoaderException.IO_EXCEPTION);
+        }
+        finally
+        {
+            if (output != null)
+                try { output.close(); } catch (IOException e) {}
+        }
+    }
+
     void saveTypesRecursively(SchemaType[] types)
     {
         for (int i = 0; i < types.length; i++)
@@ -1064,7 +1139,9 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         public XsbReader(String handle, int filetype)
         {
             String resourcename = _basePackage + handle + ".xsb";
-            InputStream rawinput = getLoaderStream(resourcename);
+            InputStream rawinput = _pack == null ? null : _pack.getEntry(handle);
+            if (rawinput == null)
+                rawinput = getLoaderStream(resourcename);
             if (rawinput == null)
                 throw new SchemaTypeLoaderException("XML-BEANS compiled schema: Could not locate compiled schema resource " + resourcename, _name, handle, SchemaTypeLoaderException.NO_RESOURCE);
 
@@ -1388,7 +1465,8 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
             String localname = readString();
             if (localname == null)
                 return null;
-            return new QName(namespace, localname);
+            // Share instances with the names of loaded documents
+            return XmlBeans.getQNameCache().getName(namespace, localname);
         }
 
         void writeQName(QName qname)
@@ -1661,6 +1739,14 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
 
         OutputStream getSaverStream(String name)
         {
+            // Everything in the type system's own directory goes in the pack
+            if (_packWriter != null && name.startsWith(_basePackage) &&
+                name.indexOf('/', _basePackage.length()) < 0)
+            {
+                return _packWriter.entryStream(
+                    name.substring(_basePackage.length(), name.length() - ".xsb".length()));
+            }
+
             File targetFile = new File(_baseSaveDir, name);
             try
             {
@@ -2828,10 +2914,7 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
 
     public SchemaType typeForHandle(String handle)
     {
-        synchronized (_resolvedHandles)
-        {
-            return (SchemaType)_resolvedHandles.get(handle);
-        }
+        return (SchemaType)_resolvedHandles.get(handle);
     }
 
     public SchemaType typeForClassname(String classname)
@@ -2842,12 +2925,8 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
 
     public SchemaComponent resolveHandle(String handle)
     {
-        SchemaComponent result;
+        SchemaComponent result = (SchemaComponent)_resolvedHandles.get(handle);
 
-        synchronized (_resolvedHandles)
-        {
-            result = (SchemaComponent)_resolvedHandles.get(handle);
-        }
         if (result == null)
         {
             XsbReader reader = new XsbReader(handle, -1);
@@ -2882,20 +2961,21 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
                     throw new IllegalStateException("Illegal handle type");
             }
 
-            synchronized (_resolvedHandles)
-            {
-                if (!_resolvedHandles.containsKey(handle))
-                    _resolvedHandles.put(handle, result);
-                else
-                    result = (SchemaComponent)_resolvedHandles.get(handle);
-            }
+            // Handles are resolved without a global lock; if two threads
+            // race, the first component stored wins
+            result = (SchemaComponent)_resolvedHandles.putIfAbsent(handle, result);
         }
         return result;
     }
 
-    private final Map _resolvedHandles = new HashMap();
-    private boolean _allNonGroupHandlesResolved = false;
+    private final StripedMap _resolvedHandles = new StripedMap();
+    private volatile boolean _allNonGroupHandlesResolved = false;
 
+    /**
+     * Components are otherwise resolved one at a time as they are first
+     * used, so a program pays only for the part of the type system it
+     * touches.  resolve() loads everything up front.
+     */
     public void resolve()
     {
         XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Resolve called type system " + _name, 0);
@@ -2904,15 +2984,7 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
 
         XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Resolving all handles for type system " + _name, 1);
 
-        List refs = new ArrayList();
-        refs.addAll(_globalElements.values());
-        refs.addAll(_globalAttributes.values());
-        refs.addAll(_globalTypes.values());
-        refs.addAll(_documentTypes.values());
-        refs.addAll(_attributeTypes.values());
-        refs.addAll(_identityConstraints.values());
-
-        for (Iterator i = refs.iterator(); i.hasNext(); )
+        for (Iterator i = resolvableRefs().iterator(); i.hasNext(); )
         {
             SchemaComponent.Ref ref = (SchemaComponent.Ref)i.next();
             ref.getComponent(); // Forces ref to be resolved
@@ -2922,6 +2994,86 @@ public class SchemaTypeSystemImpl extends SchemaTypeLoaderBase implements Schema
         _allNonGroupHandlesResolved = true;
     }
 
+    /**
+     * Starts a daemon thread which resolves the whole type system, spread
+     * over a few workers (see ParallelTasks), while the caller goes on.
+     * Components are resolved without a global lock, so anything the caller
+     * asks for in the meantime is loaded at most once and not waited for.
+     * Returns the thread, or null if everything is resolved already.
+     */
+    public Thread warmUp()
+    {
+        if (_allNonGroupHandlesResolved)
+            return null;
+
+        Thread thread =
+            new Thread("xmlbeans-warmup-" + _name)
+            {
+                public void run()
+                {
+                    try
+                    {
+                        resolveInParallel();
+                    }
+                    catch (RuntimeException e)
+                    {
+                        // Left for whoever first uses the broken component
+                        XBeanDebug.logException(e);
+                    }
+                    catch (Error e)
+                    {
+                        XBeanDebug.logException(e);
+                    }
+                }
+            };
+
+        thread.setDaemon(true);
+        thread.start();
+
+        return thread;
+    }
+
+    private void resolveInParallel()
+    {
+        XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Warming up type system " + _name, 0);
+
+        final Object[] refs = resolvableRefs().toArray();
+        int threads = Math.max(1, ParallelTasks.defaultThreads());
+        Runnable[] tasks = new Runnable[threads];
+
+        for (int t = 0; t < threads; t++)
+        {
+            final int first = t;
+            final int step = threads;
+
+            tasks[t] = new Runnable()
+            {
+                public void run()
+                {
+                    for (int i = first; i < refs.length; i += step)
+                        ((SchemaComponent.Ref)refs[i]).getComponent();
+                }
+            };
+        }
+
+        ParallelTasks.run(tasks, threads);
+
+        XBeanDebug.trace(XBeanDebug.TRACE_SCHEMA_LOADING, "Finished warming up type system " + _name, 0);
+        _allNonGroupHandlesResolved = true;
+    }
+
+    private List resolvableRefs()
+    {
+        List refs = new ArrayList();
+        refs.addAll(_globalElements.values());
+        refs.addAll(_globalAttributes.values());
+        refs.addAll(_globalTypes.values());
+        refs.addAll(_documentTypes.values());
+        refs.addAll(_attributeTypes.values());
+        refs.addAll(_identityConstraints.values());
+        return refs;
+    }
+
 
     public boolean isNamespaceDefined(String namespace)
     {
@@ -21,6 +21,7 @@ import javax.xml.namespace.QName;
 import org.apache.xmlbeans.SchemaParticle;
 import org.apache.xmlbeans.SchemaLocalElement;
 import org.apache.xmlbeans.SchemaField;
+import org.apache.xmlbeans.SchemaType;
 
 import java.util.Arrays;
 
@@ -38,13 +39,41 @@ public class SchemaTypeVisitorImpl implements TypeStoreVisitor
         init(part);
     }
 
+    /**
+     * Construct it for the content model of a type.  When the type has a
+     * precompiled content automaton, the visitor steps through it instead
+     * of interpreting the particle tree.
+     */
+    public SchemaTypeVisitorImpl(SchemaType type)
+    {
+        init(type);
+    }
+
     public SchemaTypeVisitorImpl()
     {
 
     }
 
+    public void init(SchemaType type)
+    {
+        SchemaContentAutomaton automaton =
+            type instanceof SchemaTypeImpl ?
+                ((SchemaTypeImpl)type).getContentAutomaton() : null;
+
+        if (automaton == null)
+        {
+            init(type.getContentModel());
+            return;
+        }
+
+        _automaton = automaton;
+        _state = 0;
+    }
+
     public void init(SchemaParticle part)
     {
+        _automaton = null;
+
         if (_stack == null)
         {
             _stack = expand(null);
@@ -90,6 +119,11 @@ public class SchemaTypeVisitorImpl implements TypeStoreVisitor
     private VisitorState _top;
     private int _rollbackIndex;
 
+    // When non-null, the visitor is in automaton mode: the current position in
+    // the content model is _state, and the stacks above are not used.
+    private SchemaContentAutomaton _automaton;
+    private int _state;
+
     private static class VisitorState
     {
         public void copy(VisitorState orig)
@@ -100,7 +134,8 @@ public class SchemaTypeVisitorImpl implements TypeStoreVisitor
             _curMax = orig._curMax;
             _processedChildCount = orig._processedChildCount;
             _childCount = orig._childCount;
-            _seen = orig._seen;
+            // the saved copy must not see later changes to the all-group flags
+            _seen = orig._seen == null ? null : (boolean[])orig._seen.clone();
         }
 
         public void init(SchemaParticle part)
@@ -251,6 +286,131 @@ public class SchemaTypeVisitorImpl implements TypeStoreVisitor
         _top = null;
     }
 
+    /**
+     * An immutable copy of the committed traversal stack.  Two visitors with
+     * equal snapshots accept exactly the same continuations, which is what
+     * the content automaton uses to identify its states.
+     */
+    static final class Snapshot
+    {
+        private final SchemaParticle[] _parts;
+        private final int[] _counts;
+        private final int[] _processed;
+        private final boolean[][] _seen;
+        private final int _hashCode;
+
+        private Snapshot(SchemaParticle[] parts, int[] counts, int[] processed, boolean[][] seen, int hashCode)
+        {
+            _parts = parts;
+            _counts = counts;
+            _processed = processed;
+            _seen = seen;
+            _hashCode = hashCode;
+        }
+
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Snapshot))
+                return false;
+
+            Snapshot other = (Snapshot)obj;
+
+            if (other._hashCode != _hashCode || other._parts.length != _parts.length)
+                return false;
+
+            for (int i = 0; i < _parts.length; i++)
+            {
+                if (_parts[i] != other._parts[i] ||
+                    _counts[i] != other._counts[i] ||
+                    _processed[i] != other._processed[i] ||
+                    !Arrays.equals(_seen[i], other._seen[i]))
+                {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
+
+    /**
+     * Captures the committed state of the traversal.  Occurrence counts
+     * of unbounded particles are normalized: past minOccurs + 1 they no
+     * longer influence the traversal, so they are all folded into one.
+     */
+    Snapshot snapshot()
+    {
+        assert _automaton == null;
+
+        int size = _rollbackIndex == 0 ? 0 : _stackSize;
+
+        SchemaParticle[] parts = new SchemaParticle[size];
+        int[] counts = new int[size];
+        int[] processed = new int[size];
+        boolean[][] seen = new boolean[size][];
+        int hash = size;
+
+        for (int i = 0; i < size; i++)
+        {
+            VisitorState state = _stack[i];
+
+            int count = state._curCount;
+
+            if (state._curMax == Integer.MAX_VALUE && count > state._curMin + 1 && count < state._curMax)
+                count = state._curMin + 1;
+
+            parts[i] = state._curPart;
+            counts[i] = count;
+            processed[i] = state._processedChildCount;
+            seen[i] = state._seen == null ? null : (boolean[])state._seen.clone();
+
+            hash = hash * 31 + System.identityHashCode(state._curPart);
+            hash = hash * 31 + count;
+            hash = hash * 31 + state._processedChildCount;
+
+            if (state._seen != null)
+                for (int j = 0; j < state._seen.length; j++)
+                    hash = hash * 2 + (state._seen[j] ? 1 : 0);
+        }
+
+        return new Snapshot(parts, counts, processed, seen, hash);
+    }
+
+    /**
+     * Resets the traversal to a previously captured state.
+     */
+    void restore(Snapshot s)
+    {
+        if (_stack == null)
+            _stack = expand(null);
+        if (_rollback == null)
+            _rollback = expand(null);
+
+        while (_stack.length < s._parts.length)
+            _stack = expand(_stack);
+
+        for (int i = 0; i < s._parts.length; i++)
+        {
+            VisitorState state = _stack[i];
+            state.init(s._parts[i]);
+            state._curCount = s._counts[i];
+            state._processedChildCount = s._processed[i];
+            if (s._seen[i] != null)
+                state._seen = (boolean[])s._seen[i].clone();
+        }
+
+        _automaton = null;
+        _stackSize = s._parts.length;
+        _rollbackIndex = _stackSize;
+        _rollbackSize = 0;
+        _top = null;
+    }
+
     /**
      * When no valid next state can be found, then "notValid"
      * is returned. It rolls back any changes to the state
@@ -314,6 +474,47 @@ public class SchemaTypeVisitorImpl implements TypeStoreVisitor
 
     public boolean visit(QName eltName ,boolean testValidity)
     {
+        if (_automaton != null)
+        {
+            int next;
+            SchemaParticle matched = null;
+
+            if (eltName == null)
+                next = _automaton.endTransition(_state);
+            else
+            {
+                int index = _automaton.indexOf(eltName);
+
+                if (index < 0 && _automaton.hasWildcards())
+                {
+                    // Names outside the automaton's alphabet can only match
+                    // wildcards; interpret from here on
+                    restore(_automaton.snapshot(_state));
+                    return visit(eltName, testValidity);
+                }
+
+                next = index < 0 ? -1 : _automaton.transition(_state, index);
+
+                if (next >= 0)
+                    matched = _automaton.matchedParticle(_state, index);
+            }
+
+            if (next < 0)
+            {
+                _isValid = false;
+                _matchedParticle = null;
+                return false;
+            }
+
+            if (!testValidity)
+            {
+                _state = next;
+                _matchedParticle = matched;
+            }
+
+            return true;
+        }
+
         if (!prepare())
             return notValid();
 
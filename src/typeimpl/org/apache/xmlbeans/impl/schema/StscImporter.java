@@ -27,6 +27,7 @@ import java.util.LinkedList;
 import java.util.Set;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Arrays;
@@ -271,7 +272,7 @@ public class StscImporter
         private Map schemaByNsLocPair = new HashMap();
         private Map schemaByDigestKey = new HashMap();
         private LinkedList scanNeeded = new LinkedList();
-        private Set emptyNamespaceSchemas = new HashSet();
+        private Set emptyNamespaceSchemas = new LinkedHashSet(); // in document order, so output does not depend on hash codes
         private Set scannedAlready = new HashSet();
         private Set failedDownloads = new HashSet();
 
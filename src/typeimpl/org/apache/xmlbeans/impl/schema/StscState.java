@@ -80,6 +80,7 @@ public class StscState
     private Map _idConstraints      = new LinkedHashMap();
     private Set _namespaces         = new HashSet();
     private boolean _noUpa;
+    private boolean _packXsb;
     private boolean _noPvr;
     private Set _mdefNamespaces     = buildDefaultMdefNamespaces();
     private EntityResolver _entityResolver;
@@ -268,6 +269,8 @@ public class StscState
                 !"true".equals(System.getProperty("xmlbean.uniqueparticleattribution", "true"));
         _noPvr = options.hasOption(XmlOptions.COMPILE_NO_PVR_RULE) ? true :
                 !"true".equals(System.getProperty("xmlbean.particlerestriction", "true"));
+        _packXsb = options.hasOption(XmlOptions.COMPILE_PACK_XSB) ? true :
+                "true".equals(System.getProperty("xmlbean.packxsb", "false"));
         _doingDownloads = options.hasOption(XmlOptions.COMPILE_DOWNLOAD_URLS) ? true :
                 "true".equals(System.getProperty("xmlbean.downloadurls", "false"));
         _entityResolver = (EntityResolver)options.get(XmlOptions.ENTITY_RESOLVER);
@@ -304,6 +307,14 @@ public class StscState
         return _noUpa;
     }
     
+    /**
+     * True if the compiled type system should be saved as a single pack
+     */
+    public boolean packXsb()
+    {
+        return _packXsb;
+    }
+
     /**
      * True if no particle valid (restriciton) option is set
      */
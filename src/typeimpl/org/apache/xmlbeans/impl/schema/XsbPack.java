@@ -0,0 +1,280 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.schema;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * All the .xsb files of a type system packed into a single resource.
+ *
+ * The pack starts with a directory of (handle, offset, length) entries,
+ * followed by the unchanged contents of each .xsb file.  When the pack is
+ * a plain file it is memory mapped, otherwise it is read into memory with
+ * a single stream; either way, each handle is then read straight out of
+ * the shared buffer, and any number of threads may do so at once.
+ */
+final class XsbPack
+{
+    static final String PACK_RESOURCE = "packed.xsbp";
+
+    private static final int PACK_MAGIC = 0xDA7A9ACC;
+    private static final int PACK_VERSION = 1;
+
+    private final ByteBuffer _buffer;
+    private final Map _entries;     // handle -> int[] { offset, length }
+
+    private XsbPack(ByteBuffer buffer, Map entries)
+    {
+        _buffer = buffer;
+        _entries = entries;
+    }
+
+    /**
+     * Opens the pack with the given resource name, or returns null if there
+     * is no such resource.
+     */
+    static XsbPack open(ResourceLoader loader, String resourceName) throws IOException
+    {
+        ByteBuffer buffer = null;
+
+        File file = fileForResource(loader, resourceName);
+
+        if (file != null)
+        {
+            FileInputStream input = new FileInputStream(file);
+            try
+            {
+                FileChannel channel = input.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+        else
+        {
+            InputStream input = loader.getResourceAsStream(resourceName);
+
+            if (input == null)
+                return null;
+
+            try
+            {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                for (int n; (n = input.read(chunk)) >= 0; )
+                    bytes.write(chunk, 0, n);
+                buffer = ByteBuffer.wrap(bytes.toByteArray());
+            }
+            finally
+            {
+                input.close();
+            }
+        }
+
+        DataInputStream directory = new DataInputStream(new BufferInputStream(buffer.duplicate()));
+
+        if (directory.readInt() != PACK_MAGIC)
+            throw new IOException("Wrong magic cookie in " + resourceName);
+
+        if (directory.readShort() != PACK_VERSION)
+            throw new IOException("Unsupported version of " + resourceName);
+
+        int count = directory.readInt();
+        Map entries = new HashMap(count * 2);
+
+        for (int i = 0; i < count; i++)
+        {
+            String handle = directory.readUTF();
+            int offset = directory.readInt();
+            int length = directory.readInt();
+
+            if (offset < 0 || length < 0 || offset + length > buffer.limit())
+                throw new IOException("Corrupt entry " + handle + " in " + resourceName);
+
+            entries.put(handle, new int[] { offset, length });
+        }
+
+        return new XsbPack(buffer, entries);
+    }
+
+    /**
+     * Returns the packed .xsb resource for the given handle, or null.
+     */
+    InputStream getEntry(String handle)
+    {
+        int[] entry = (int[])_entries.get(handle);
+
+        if (entry == null)
+            return null;
+
+        // Each reader gets its own view of the shared buffer
+
+        ByteBuffer view = _buffer.duplicate();
+        view.limit(entry[0] + entry[1]);
+        view.position(entry[0]);
+
+        return new BufferInputStream(view);
+    }
+
+    /**
+     * Finds the file behind a resource, if it is a plain file that can be
+     * memory mapped.
+     */
+    private static File fileForResource(ResourceLoader loader, String resourceName)
+    {
+        File file = null;
+
+        if (loader instanceof FileResourceLoader)
+            file = ((FileResourceLoader)loader).getResourceFile(resourceName);
+        else if (loader instanceof ClassLoaderResourceLoader)
+        {
+            URL url = ((ClassLoaderResourceLoader)loader).getResource(resourceName);
+
+            if (url != null && "file".equals(url.getProtocol()))
+            {
+                try
+                {
+                    file = new File(new URI(url.toString()));
+                }
+                catch (Exception e)
+                {
+                    // fall back to reading the resource as a stream
+                }
+            }
+        }
+
+        return file != null && file.isFile() ? file : null;
+    }
+
+    /**
+     * Collects .xsb files as they are saved and writes them out as a pack.
+     */
+    static final class Writer
+    {
+        private final Map _entries = new LinkedHashMap();   // handle -> byte[]
+
+        OutputStream entryStream(final String handle)
+        {
+            return new ByteArrayOutputStream()
+            {
+                public void close() throws IOException
+                {
+                    super.close();
+                    _entries.put(handle, toByteArray());
+                }
+            };
+        }
+
+        void writeTo(OutputStream stream) throws IOException
+        {
+            ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream();
+            DataOutputStream directory = new DataOutputStream(directoryBytes);
+
+            // Lay out the directory once to find its size, then again with
+            // the real offsets
+
+            for (int pass = 0; pass < 2; pass++)
+            {
+                int offset = directoryBytes.size();
+
+                directoryBytes.reset();
+
+                directory.writeInt(PACK_MAGIC);
+                directory.writeShort(PACK_VERSION);
+                directory.writeInt(_entries.size());
+
+                for (Iterator i = _entries.entrySet().iterator(); i.hasNext(); )
+                {
+                    Map.Entry entry = (Map.Entry)i.next();
+                    int length = ((byte[])entry.getValue()).length;
+
+                    directory.writeUTF((String)entry.getKey());
+                    directory.writeInt(offset);
+                    directory.writeInt(length);
+
+                    offset += length;
+                }
+            }
+
+            DataOutputStream output = new DataOutputStream(stream);
+
+            directoryBytes.writeTo(output);
+
+            for (Iterator i = _entries.values().iterator(); i.hasNext(); )
+                output.write((byte[])i.next());
+
+            output.flush();
+        }
+    }
+
+    private static final class BufferInputStream extends InputStream
+    {
+        private final ByteBuffer _view;
+
+        BufferInputStream(ByteBuffer view)
+        {
+            _view = view;
+        }
+
+        public int read()
+        {
+            return _view.hasRemaining() ? _view.get() & 0xFF : -1;
+        }
+
+        public int read(byte[] bytes, int off, int len)
+        {
+            if (len == 0)
+                return 0;
+
+            if (!_view.hasRemaining())
+                return -1;
+
+            len = Math.min(len, _view.remaining());
+            _view.get(bytes, off, len);
+
+            return len;
+        }
+
+        public long skip(long n)
+        {
+            int skipped = (int)Math.max(0, Math.min(n, _view.remaining()));
+            _view.position(_view.position() + skipped);
+            return skipped;
+        }
+
+        public int available()
+        {
+            return _view.remaining();
+        }
+    }
+}
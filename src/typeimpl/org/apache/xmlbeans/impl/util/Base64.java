@@ -285,6 +285,96 @@ public final class  Base64 {
         return decodedData;
     }
 
+    /**
+     * Decodes base64 text as decode(byte[]) does, but reads the chars where
+     * they are, so the decoded bytes are the only thing allocated.
+     * Whitespace anywhere is skipped.  Returns null if the text is not
+     * valid base64.
+     */
+    public static byte[] decodeChars(CharSequence base64Data) {
+
+        int length = base64Data.length();
+        int dataLength = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = base64Data.charAt(i);
+            if (c >= BASELENGTH)
+                return null;
+            if (!isWhiteSpace((byte) c))
+                dataLength++;
+        }
+
+        if (dataLength%FOURBYTE != 0)
+            return null;//should be divisible by four
+
+        if (dataLength == 0)
+            return new byte[0];
+
+        int pads = 0;
+
+        for (int i = length - 1; i >= 0; i--) {
+            char c = base64Data.charAt(i);
+            if (isWhiteSpace((byte) c))
+                continue;
+            if (c != PAD)
+                break;
+            pads++;
+        }
+
+        if (pads > 2)
+            return null;
+
+        byte[] decodedData = new byte[dataLength/FOURBYTE*3 - pads];
+        int encodedIndex = 0;
+        int seen = 0;
+        int quad = 0;
+        int bits = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = base64Data.charAt(i);
+
+            if (isWhiteSpace((byte) c))
+                continue;
+
+            seen++;
+
+            if (c == PAD) {
+                if (seen <= dataLength - pads)
+                    return null;//pads only at the very end
+                bits <<= 6;
+            }
+            else if (base64Alphabet[c] != -1)
+                bits = (bits << 6) | base64Alphabet[c];
+            else
+                return null;
+
+            if (++quad < FOURBYTE)
+                continue;
+
+            if (seen < dataLength || pads == 0) {
+                decodedData[encodedIndex++] = (byte) (bits >> 16);
+                decodedData[encodedIndex++] = (byte) (bits >> 8);
+                decodedData[encodedIndex++] = (byte) bits;
+            }
+            else if (pads == 2) {
+                if ((bits & 0xf000) != 0)//last 4 bits should be zero
+                    return null;
+                decodedData[encodedIndex++] = (byte) (bits >> 16);
+            }
+            else {
+                if ((bits & 0xc0) != 0)//last 2 bits should be zero
+                    return null;
+                decodedData[encodedIndex++] = (byte) (bits >> 16);
+                decodedData[encodedIndex++] = (byte) (bits >> 8);
+            }
+
+            quad = 0;
+            bits = 0;
+        }
+
+        return decodedData;
+    }
+
     /**
      * Decodes Base64 data into octects
      *
@@ -115,6 +115,30 @@ public final class  HexBin {
         return decodedData;
     }
 
+    /**
+     * Decodes hex text as decode(byte[]) does, but reads the chars where
+     * they are, so the decoded bytes are the only thing allocated.
+     * Returns null if the text is not valid hex.
+     */
+    static public byte[] decodeChars(CharSequence binaryData) {
+        int lengthData = binaryData.length();
+        if (lengthData % 2 != 0)
+            return null;
+
+        int lengthDecode = lengthData / 2;
+        byte[] decodedData = new byte[lengthDecode];
+        for( int i = 0; i<lengthDecode; i++ ){
+            char c1 = binaryData.charAt(i*2);
+            char c2 = binaryData.charAt(i*2+1);
+            if (c1 >= BASELENGTH || c2 >= BASELENGTH ||
+                hexNumberTable[c1] == -1 || hexNumberTable[c2] == -1) {
+                return null;
+            }
+            decodedData[i] = (byte)((hexNumberTable[c1] << 4) | hexNumberTable[c2]);
+        }
+        return decodedData;
+    }
+
     /**
      * Decodes Hex data into octects
      *
@@ -0,0 +1,510 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.validator;
+
+import org.apache.xmlbeans.impl.common.Chars;
+import org.apache.xmlbeans.impl.common.ValidatorListener.Event;
+import org.apache.xmlbeans.impl.common.ValidatorListener;
+import org.apache.xmlbeans.impl.common.XmlWhitespace;
+import org.apache.xmlbeans.impl.schema.BuiltinSchemaTypeSystem;
+import org.apache.xmlbeans.QNameCache;
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.SchemaTypeLoader;
+import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.XmlOptions;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.Locator;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.NamespaceSupport;
+import javax.xml.namespace.QName;
+
+/**
+ * Validates a document as a SAX parser reports it, without loading it into
+ * a store.  The parser's callbacks are turned straight into validator
+ * events, using this one object as the event and a single text buffer, so
+ * memory use depends on the depth of the document and its longest run of
+ * text rather than on its size.
+ *
+ * Errors go to the XmlOptions.ERROR_LISTENER, if there is one, located at
+ * the parser's line and column.  Otherwise the first error is thrown as a
+ * SAXParseException.  The parser must be namespace aware.
+ */
+
+public final class ValidatingContentHandler implements ContentHandler, Event
+{
+    public ValidatingContentHandler (
+        SchemaTypeLoader typeLoader, SchemaType sType, XmlOptions options )
+    {
+        options = XmlOptions.maskNull( options );
+
+        _typeLoader = typeLoader;
+
+        SchemaType type = (SchemaType) options.get( XmlOptions.DOCUMENT_TYPE );
+
+        _type = type == null ? sType : type;
+
+        _errorListener = (Collection) options.get( XmlOptions.ERROR_LISTENER );
+
+        // The validator is given the caller's options, but reports to a
+        // listener which locates each error before passing it on
+
+        _options = new XmlOptions( options );
+        _options.setErrorListener( new LocatingErrorListener() );
+    }
+
+    /**
+     * True if no errors have been found in what has been validated so far.
+     */
+
+    public boolean isValid ( )
+    {
+        return _validator != null && _validator.isValid();
+    }
+
+    //
+    // ContentHandler
+    //
+
+    public void setDocumentLocator ( Locator locator )
+    {
+        _locator = locator;
+    }
+
+    public void startDocument ( ) throws SAXException
+    {
+        _validator = null;
+        _depth = 0;
+        _cch = 0;
+        _error = null;
+        _pushedContext = false;
+
+        _namespaces.reset();
+    }
+
+    public void endDocument ( ) throws SAXException
+    {
+        flushText();
+
+        if (_validator != null && _wrapsRoot)
+            nextEvent( ValidatorListener.END );
+    }
+
+    public void startPrefixMapping ( String prefix, String uri )
+        throws SAXException
+    {
+        if (!_pushedContext)
+        {
+            _namespaces.pushContext();
+            _pushedContext = true;
+        }
+
+        _namespaces.declarePrefix( prefix, uri );
+    }
+
+    public void endPrefixMapping ( String prefix ) throws SAXException
+    {
+    }
+
+    public void startElement (
+        String uri, String localName, String qName, Attributes atts )
+            throws SAXException
+    {
+        flushText();
+
+        if (!_pushedContext)
+            _namespaces.pushContext();
+
+        _pushedContext = false;
+
+        QName name = _qnames.getName( uri, localName );
+
+        boolean isRoot = _validator == null;
+
+        if (isRoot)
+            startValidator( name );
+
+        _depth++;
+
+        // The xsi attributes go with the BEGIN; the rest follow as ATTRs
+
+        int n = atts.getLength();
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            if (!_xsi.equals( atts.getURI( i ) ))
+                continue;
+
+            String local = atts.getLocalName( i );
+
+            if (local.equals( "type" ))
+                _xsiType = atts.getValue( i );
+            else if (local.equals( "nil" ))
+                _xsiNil = atts.getValue( i );
+            else if (local.equals( "schemaLocation" ))
+                _xsiLoc = atts.getValue( i );
+            else if (local.equals( "noNamespaceSchemaLocation" ))
+                _xsiNoLoc = atts.getValue( i );
+        }
+
+        // When the document's type is not a document type, the root
+        // element is the thing being validated, so it goes without a name
+
+        _name = isRoot && !_wrapsRoot ? null : name;
+
+        nextEvent( ValidatorListener.BEGIN );
+
+        _xsiType = _xsiNil = _xsiLoc = _xsiNoLoc = null;
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            String attrUri = atts.getURI( i );
+
+            if (_xsi.equals( attrUri ))
+            {
+                String local = atts.getLocalName( i );
+
+                if (local.equals( "type" ) || local.equals( "nil" ) ||
+                        local.equals( "schemaLocation" ) ||
+                        local.equals( "noNamespaceSchemaLocation" ))
+                {
+                    continue;
+                }
+            }
+            else if (_xmlns.equals( attrUri ) ||
+                        (attrUri.length() == 0 &&
+                            atts.getQName( i ).startsWith( "xmlns" )))
+            {
+                continue;
+            }
+
+            _name = _qnames.getName( attrUri, atts.getLocalName( i ) );
+            _attrValue = atts.getValue( i );
+
+            nextEvent( ValidatorListener.ATTR );
+        }
+
+        _attrValue = null;
+
+        nextEvent( ValidatorListener.ENDATTRS );
+    }
+
+    public void endElement ( String uri, String localName, String qName )
+        throws SAXException
+    {
+        flushText();
+
+        nextEvent( ValidatorListener.END );
+
+        _namespaces.popContext();
+
+        _depth--;
+    }
+
+    public void characters ( char ch[], int start, int length )
+        throws SAXException
+    {
+        if (_depth == 0)
+            return;
+
+        if (_cch + length > _buf.length)
+        {
+            char[] newBuf = new char [ Math.max( _buf.length * 2, _cch + length ) ];
+            System.arraycopy( _buf, 0, newBuf, 0, _cch );
+            _buf = newBuf;
+        }
+
+        System.arraycopy( ch, start, _buf, _cch, length );
+
+        _cch += length;
+    }
+
+    public void ignorableWhitespace ( char ch[], int start, int length )
+        throws SAXException
+    {
+        characters( ch, start, length );
+    }
+
+    public void processingInstruction ( String target, String data )
+        throws SAXException
+    {
+    }
+
+    public void skippedEntity ( String name ) throws SAXException
+    {
+    }
+
+    //
+    //
+    //
+
+    private void startValidator ( QName rootName ) throws SAXException
+    {
+        SchemaType type = _type;
+
+        if (type == null)
+        {
+            type = _typeLoader.findDocumentType( rootName );
+
+            if (type == null)
+                type = BuiltinSchemaTypeSystem.ST_ANY_TYPE;
+        }
+
+        _wrapsRoot = type.isDocumentType() || type == BuiltinSchemaTypeSystem.ST_ANY_TYPE;
+
+        _validator =
+            new Validator( type, null, _typeLoader, _options, null );
+
+        // A document type describes the document, whose only content is
+        // the root element
+
+        if (_wrapsRoot)
+        {
+            _name = null;
+            nextEvent( ValidatorListener.BEGIN );
+            nextEvent( ValidatorListener.ENDATTRS );
+        }
+    }
+
+    private void flushText ( ) throws SAXException
+    {
+        if (_cch > 0)
+        {
+            nextEvent( ValidatorListener.TEXT );
+            _cch = 0;
+        }
+    }
+
+    private void nextEvent ( int kind ) throws SAXException
+    {
+        _validator.nextEvent( kind, this );
+
+        if (_error != null)
+        {
+            XmlError error = _error;
+            _error = null;
+
+            throw new SAXParseException( error.getMessage(), _locator );
+        }
+    }
+
+    //
+    // Event
+    //
+
+    public String getNamespaceForPrefix ( String prefix )
+    {
+        if (prefix == null)
+            prefix = "";
+
+        String uri = _namespaces.getURI( prefix );
+
+        return uri == null && prefix.length() == 0 ? "" : uri;
+    }
+
+    public XmlCursor getLocationAsCursor ( )
+    {
+        return null;
+    }
+
+    public boolean getXsiType ( Chars chars )
+    {
+        return setChars( chars, _xsiType );
+    }
+
+    public boolean getXsiNil ( Chars chars )
+    {
+        return setChars( chars, _xsiNil );
+    }
+
+    public boolean getXsiLoc ( Chars chars )
+    {
+        return setChars( chars, _xsiLoc );
+    }
+
+    public boolean getXsiNoLoc ( Chars chars )
+    {
+        return setChars( chars, _xsiNoLoc );
+    }
+
+    private static boolean setChars ( Chars chars, String value )
+    {
+        if (value == null)
+            return false;
+
+        chars.string = value;
+        chars.buffer = null;
+
+        return true;
+    }
+
+    public QName getName ( )
+    {
+        return _name;
+    }
+
+    public void getText ( Chars chars )
+    {
+        if (_attrValue != null)
+        {
+            chars.string = _attrValue;
+            chars.buffer = null;
+        }
+        else
+        {
+            chars.string = null;
+            chars.buffer = _buf;
+            chars.offset = 0;
+            chars.length = _cch;
+        }
+    }
+
+    public void getText ( Chars chars, int wsr )
+    {
+        getText( chars );
+
+        if (wsr == PRESERVE || isCollapsed( chars, wsr ))
+            return;
+
+        chars.string = XmlWhitespace.collapse( chars.asString(), wsr );
+        chars.buffer = null;
+    }
+
+    /**
+     * True if applying the whitespace rule wsr would leave the text as
+     * it is, as it does for most values.
+     */
+
+    private static boolean isCollapsed ( Chars chars, int wsr )
+    {
+        String s = chars.string;
+        int cch = s == null ? chars.length : s.length();
+
+        char prev = ' ';
+
+        for ( int i = 0 ; i < cch ; i++ )
+        {
+            char ch = s == null ? chars.buffer[ chars.offset + i ] : s.charAt( i );
+
+            if (ch == '\n' || ch == '\r' || ch == '\t')
+                return false;
+
+            if (wsr == COLLAPSE && ch == ' ' && prev == ' ')
+                return false;
+
+            prev = ch;
+        }
+
+        return wsr != COLLAPSE || prev != ' ' || cch == 0;
+    }
+
+    public boolean textIsWhitespace ( )
+    {
+        if (_attrValue != null)
+            return XmlWhitespace.isAllSpace( _attrValue );
+
+        for ( int i = 0 ; i < _cch ; i++ )
+        {
+            switch ( _buf[ i ] )
+            {
+                case ' ':
+                case '\n':
+                case '\r':
+                case '\t':
+                    break;
+
+                default :
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Gives errors the parser's location, and sends them on to the error
+     * listener, or keeps the first to be thrown if there is none.
+     */
+
+    private final class LocatingErrorListener extends AbstractCollection
+    {
+        public boolean add ( Object o )
+        {
+            XmlError error = (XmlError) o;
+
+            if (_locator != null && error.getLine() < 0)
+            {
+                error =
+                    XmlError.forLocation(
+                        error.getMessage(), error.getSeverity(),
+                        _locator.getSystemId(), _locator.getLineNumber(),
+                        _locator.getColumnNumber(), -1 );
+            }
+
+            if (_errorListener != null)
+                _errorListener.add( error );
+            else if (_error == null && error.getSeverity() == XmlError.SEVERITY_ERROR)
+                _error = error;
+
+            return false;
+        }
+
+        public Iterator iterator ( )
+        {
+            return Collections.EMPTY_LIST.iterator();
+        }
+
+        public int size ( )
+        {
+            return 0;
+        }
+    }
+
+    private static final String _xsi = "http://www.w3.org/2001/XMLSchema-instance";
+    private static final String _xmlns = "http://www.w3.org/2000/xmlns/";
+
+    private final SchemaTypeLoader _typeLoader;
+    private final SchemaType       _type;
+    private final Collection       _errorListener;
+    private final XmlOptions       _options;
+    private final QNameCache       _qnames = XmlBeans.getQNameCache();
+    private final NamespaceSupport _namespaces = new NamespaceSupport();
+
+    private Validator _validator;
+    private boolean   _wrapsRoot;
+    private Locator   _locator;
+    private XmlError  _error;
+    private int       _depth;
+    private boolean   _pushedContext;
+
+    private QName  _name;
+    private String _attrValue;
+    private String _xsiType;
+    private String _xsiNil;
+    private String _xsiLoc;
+    private String _xsiNoLoc;
+
+    private char[] _buf = new char [ 1024 ];
+    private int    _cch;
+}
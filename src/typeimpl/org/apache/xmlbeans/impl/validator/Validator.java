@@ -63,7 +63,6 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -82,7 +81,11 @@ public final class Validator
         if (_errorListener == null)
             _errorListener = defaultErrorListener;
 
-        _constraintEngine = new IdentityConstraint(_errorListener, type.isDocumentType());
+        int keyLimit = options.hasOption(XmlOptions.VALIDATE_KEY_TABLE_LIMIT)
+            ? ((Integer) options.get(XmlOptions.VALIDATE_KEY_TABLE_LIMIT)).intValue() : 0;
+
+        _constraintEngine =
+            new IdentityConstraint(_errorListener, type.isDocumentType(), keyLimit);
 
         _globalTypes = globalLoader;
         _chars = new Chars();
@@ -963,7 +966,7 @@ public final class Validator
                 state._canHaveElements = particle != null;
 
                 if (state._canHaveElements)
-                    state._visitor = initVisitor( particle );
+                    state._visitor = initVisitor( type );
 
                 break;
 
@@ -992,22 +995,22 @@ public final class Validator
         _stateStack = state;
     }
 
-    private LinkedList _visitorPool = new LinkedList();
+    private ArrayList _visitorPool = new ArrayList();
 
     private void poolVisitor( SchemaTypeVisitorImpl visitor )
     {
         _visitorPool.add( visitor );
     }
 
-    private SchemaTypeVisitorImpl initVisitor( SchemaParticle particle )
+    private SchemaTypeVisitorImpl initVisitor( SchemaType type )
     {
         if (_visitorPool.isEmpty())
-            return new SchemaTypeVisitorImpl( particle );
+            return new SchemaTypeVisitorImpl( type );
 
         SchemaTypeVisitorImpl result =
-            (SchemaTypeVisitorImpl) _visitorPool.removeLast();
+            (SchemaTypeVisitorImpl) _visitorPool.remove( _visitorPool.size() - 1 );
 
-        result.init( particle );
+        result.init( type );
 
         return result;
     }
@@ -0,0 +1,110 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.values;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Helpers shared by the base64Binary and hexBinary holders, whose values
+ * may be large.  A holder never changes the bytes of its value in place;
+ * it replaces the array.  So a reader may be handed the array itself and
+ * still see the value as it was when the reader was made.
+ */
+final class BinaryValues
+{
+    private BinaryValues ( ) { }
+
+    /**
+     * The most bytes looked at when hashing.  Equal values have equal
+     * hashes however they are sampled, and large values are rarely equal
+     * in length and in these bytes without being equal.
+     */
+    private static final int HASH_SAMPLES = 64;
+
+    /**
+     * A hash of the bytes which costs the same for any length of value,
+     * and, unlike the MessageDigest used before, is safe to compute from
+     * many threads at once.
+     */
+    static int hash ( byte[] value )
+    {
+        if (value == null)
+            return 0;
+
+        int n = value.length;
+        int step = n <= HASH_SAMPLES ? 1 : n / HASH_SAMPLES;
+        int h = n;
+
+        for ( int i = 0 ; i < n ; i += step )
+            h = 31 * h + value[ i ];
+
+        return h;
+    }
+
+    /**
+     * Collects the bytes written to it and hands them, uncopied where the
+     * buffer is exactly full, to commit when closed.
+     */
+    static abstract class Writer extends ByteArrayOutputStream
+    {
+        public synchronized void close ( ) throws IOException
+        {
+            if (_closed)
+                return;
+
+            _closed = true;
+
+            byte[] bytes = buf;
+
+            if (count != buf.length)
+            {
+                bytes = new byte [ count ];
+                System.arraycopy( buf, 0, bytes, 0, count );
+            }
+
+            buf = new byte [ 0 ];
+            count = 0;
+
+            commit( bytes );
+        }
+
+        public synchronized void write ( int b )
+        {
+            checkOpen();
+            super.write( b );
+        }
+
+        public synchronized void write ( byte[] b, int off, int len )
+        {
+            checkOpen();
+            super.write( b, off, len );
+        }
+
+        private void checkOpen ( )
+        {
+            if (_closed)
+                throw new IllegalStateException( "Stream closed" );
+        }
+
+        /**
+         * Sets the value to bytes, which belong to the value from then on.
+         */
+        protected abstract void commit ( byte[] bytes );
+
+        private boolean _closed;
+    }
+}
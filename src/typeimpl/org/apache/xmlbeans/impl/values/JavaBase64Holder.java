@@ -24,10 +24,13 @@ import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.impl.common.ValidationContext;
 import org.apache.xmlbeans.impl.common.QNameHelper;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
-import java.io.UnsupportedEncodingException;
 
 public abstract class JavaBase64Holder extends XmlObjectBase
 {
@@ -45,7 +48,6 @@ public abstract class JavaBase64Holder extends XmlObjectBase
     }
     protected void set_text(String s)
     {
-        _hashcached = false;
         if (_validateOnSet())
             _value = validateLexical(s, schemaType(), _voorVc);
         else
@@ -53,22 +55,12 @@ public abstract class JavaBase64Holder extends XmlObjectBase
     }
     protected void set_nil()
     {
-        _hashcached = false;
         _value = null;
     }
 
     public static byte[] lex(String v, ValidationContext c)
     {
-        byte[] vBytes = null;
-        try
-        {
-            vBytes = v.getBytes("UTF-8");
-        }
-        catch(UnsupportedEncodingException uee)
-        {
-            // should never happen - UTF-8 is always supported
-        }
-        final byte[] bytes = Base64.decode(vBytes);
+        final byte[] bytes = Base64.decodeChars(v);
 
         if (bytes == null)
         {
@@ -104,48 +96,87 @@ public abstract class JavaBase64Holder extends XmlObjectBase
         return result;
     }
 
+    /**
+     * Decodes the value straight from the text in the store, skipping the
+     * String and the byte copy of it that set_text goes through.
+     */
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        byte[] bytes = Base64.decodeChars(CharBuffer.wrap(buf, off, cch));
+
+        // Leave empty values, and errors, to set_text
+        if (bytes == null || bytes.length == 0)
+            return false;
+
+        _value = bytes;
+        return true;
+    }
+
+    /**
+     * Returns a stream of the bytes of this value, read where they are
+     * rather than copied out, or null if the value is nil.
+     */
+    public InputStream newInputStream()
+    {
+        synchronized (monitor())
+        {
+            check_dated();
+            return _value == null ? null : new ByteArrayInputStream(_value);
+        }
+    }
+
+    public ReadableByteChannel newReadableChannel()
+    {
+        InputStream in = newInputStream();
+        return in == null ? null : Channels.newChannel(in);
+    }
+
+    /**
+     * Returns a stream whose bytes become this value, without a further
+     * copy, when it is closed.
+     */
+    public OutputStream newOutputStream()
+    {
+        return new BinaryValues.Writer()
+        {
+            protected void commit(byte[] bytes)
+            {
+                set_owned(bytes);
+            }
+        };
+    }
+
     // setters
     protected void set_ByteArray(byte[] ba)
     {
-        _hashcached = false;
         _value = new byte[ba.length];
         System.arraycopy(ba, 0, _value, 0, ba.length);
     }
 
-    // comparators
-    protected boolean equal_to(XmlObject i)
+    protected void set_ByteArrayOwned(byte[] ba)
     {
-        byte[] ival = ((XmlBase64Binary) i).getByteArrayValue();
-        return Arrays.equals(_value, ival);
+        _value = ba;
     }
 
-    //because computing hashcode is expensive we'll cache it
-    protected boolean _hashcached = false;
-    protected int hashcode = 0;
-    protected static MessageDigest md5;
-    static
+    // comparators
+    protected boolean equal_to(XmlObject i)
     {
-        try
-        {
-            md5 = MessageDigest.getInstance("MD5");
-        }
-        catch( NoSuchAlgorithmException e )
+        byte[] ival;
+
+        if (i instanceof JavaBase64Holder)
         {
-            throw new IllegalStateException("Cannot find MD5 hash Algorithm");
+            JavaBase64Holder other = (JavaBase64Holder) i;
+            other.check_dated();
+            ival = other._value;
         }
+        else
+            ival = ((XmlBase64Binary) i).getByteArrayValue();
+
+        return Arrays.equals(_value, ival);
     }
 
     protected int value_hash_code()
     {
-        if( _hashcached )
-            return hashcode;
-
-        _hashcached = true;
-
-        if( _value == null )
-            return hashcode = 0;
-
-        byte[] res = md5.digest(_value);
-        return hashcode = res[0]<<24 + res[1]<<16 + res[2]<<8 + res[3];
+        return BinaryValues.hash(_value);
     }
 }
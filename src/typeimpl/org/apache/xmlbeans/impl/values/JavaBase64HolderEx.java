@@ -46,7 +46,7 @@ public abstract class JavaBase64HolderEx extends JavaBase64Holder
         if (v != null && _validateOnSet())
             validateValue(v, schemaType(), XmlObjectBase._voorVc);
         
-        super.set_ByteArray(v);
+        super.set_ByteArrayOwned(v);
     }
 
     // setters
@@ -58,6 +58,14 @@ public abstract class JavaBase64HolderEx extends JavaBase64Holder
         super.set_ByteArray(v);
     }
 
+    protected void set_ByteArrayOwned(byte[] v)
+    {
+        if (_validateOnSet())
+            validateValue(v, schemaType(), _voorVc);
+
+        super.set_ByteArrayOwned(v);
+    }
+
     public static void validateValue(byte[] v, SchemaType sType, ValidationContext context)
     {
         int i;
@@ -19,6 +19,7 @@ import org.apache.xmlbeans.impl.schema.BuiltinSchemaTypeSystem;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.XmlBoolean;
+import org.apache.xmlbeans.impl.common.ParseUtil;
 import org.apache.xmlbeans.impl.common.ValidationContext;
 
 public abstract class JavaBooleanHolder extends XmlObjectBase
@@ -36,6 +37,34 @@ public abstract class JavaBooleanHolder extends XmlObjectBase
     {
         _value = validateLexical(s, _voorVc);
     }
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        int end = off + cch;
+        off = ParseUtil.skipWhitespace(buf, off, end);
+        end = ParseUtil.trimWhitespace(buf, off, end);
+
+        if (matches(buf, off, end, "true") || matches(buf, off, end, "1"))
+            _value = true;
+        else if (matches(buf, off, end, "false") || matches(buf, off, end, "0"))
+            _value = false;
+        else
+            return false;
+
+        return true;
+    }
+    private static boolean matches(char[] buf, int off, int end, String s)
+    {
+        if (end - off != s.length())
+            return false;
+
+        for (int i = 0; off < end; i++, off++)
+        {
+            if (buf[off] != s.charAt(i))
+                return false;
+        }
+
+        return true;
+    }
     public static boolean validateLexical(String v, ValidationContext context)
     {
         if (v.equals("true") || v.equals("1"))
@@ -20,6 +20,7 @@ import java.math.BigInteger;
 
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.impl.common.ParseUtil;
 import org.apache.xmlbeans.impl.common.ValidationContext;
 import org.apache.xmlbeans.impl.schema.BuiltinSchemaTypeSystem;
 
@@ -47,6 +48,57 @@ public class JavaDecimalHolder extends XmlObjectBase
             _voorVc.invalid("Invalid Decimal");
         }
     }
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        // Only decimals of up to 18 digits, which fit in a long unscaled
+        // value, are parsed here
+
+        int end = off + cch;
+        off = ParseUtil.skipWhitespace(buf, off, end);
+        end = ParseUtil.trimWhitespace(buf, off, end);
+
+        boolean negative = false;
+
+        if (off < end && (buf[off] == '-' || buf[off] == '+'))
+            negative = buf[off++] == '-';
+
+        long unscaled = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+
+        for ( ; off < end ; off++)
+        {
+            char ch = buf[off];
+
+            if (ch == '.' && !sawDot)
+            {
+                sawDot = true;
+                continue;
+            }
+
+            if (ch < '0' || ch > '9')
+                return false;
+
+            sawDigit = true;
+
+            if ((unscaled != 0 || ch != '0') && ++digits > 18)
+                return false;
+
+            unscaled = unscaled * 10 + (ch - '0');
+
+            if (sawDot)
+                scale++;
+        }
+
+        if (!sawDigit)
+            return false;
+
+        set_BigDecimal(BigDecimal.valueOf(negative ? -unscaled : unscaled, scale));
+
+        return true;
+    }
     protected void set_nil()
     {
         _value = null;
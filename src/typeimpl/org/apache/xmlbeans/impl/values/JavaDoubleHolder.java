@@ -18,6 +18,7 @@ package org.apache.xmlbeans.impl.values;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.impl.schema.BuiltinSchemaTypeSystem;
+import org.apache.xmlbeans.impl.common.ParseUtil;
 import org.apache.xmlbeans.impl.common.ValidationContext;
 
 import java.math.BigDecimal;
@@ -50,6 +51,118 @@ public abstract class JavaDoubleHolder extends XmlObjectBase
     {
         set_double(validateLexical(s,_voorVc));
     }
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        double v = lexDouble(buf, off, cch);
+        if (v != v)
+            return false;
+        set_double(v);
+        return true;
+    }
+    /**
+     * Parses the chars exactly as Double.parseDouble would, or returns NaN
+     * if they aren't simple enough to be done quickly.
+     */
+    static double lexDouble(char[] buf, int off, int cch)
+    {
+        // Only numbers with at most 15 significant digits and a power of
+        // ten of at most 22 are parsed here.  Both of those are exact as
+        // doubles, so one multiply or divide rounds the result just as
+        // Double.parseDouble would.  Anything else, INF and NaN included,
+        // is left to the caller.
+
+        int end = off + cch;
+        off = ParseUtil.skipWhitespace(buf, off, end);
+        end = ParseUtil.trimWhitespace(buf, off, end);
+
+        boolean negative = false;
+
+        if (off < end && (buf[off] == '-' || buf[off] == '+'))
+            negative = buf[off++] == '-';
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean sawDigit = false;
+        boolean sawDot = false;
+
+        for ( ; off < end ; off++)
+        {
+            char ch = buf[off];
+
+            if (ch == '.' && !sawDot)
+            {
+                sawDot = true;
+                continue;
+            }
+
+            if (ch < '0' || ch > '9')
+                break;
+
+            sawDigit = true;
+
+            if ((mantissa != 0 || ch != '0') && ++digits > 15)
+                return Double.NaN;
+
+            mantissa = mantissa * 10 + (ch - '0');
+
+            if (sawDot)
+                exponent--;
+        }
+
+        if (!sawDigit)
+            return Double.NaN;
+
+        if (off < end)
+        {
+            if (buf[off] != 'e' && buf[off] != 'E')
+                return Double.NaN;
+
+            off++;
+
+            boolean negativeExponent = false;
+
+            if (off < end && (buf[off] == '-' || buf[off] == '+'))
+                negativeExponent = buf[off++] == '-';
+
+            if (off == end || end - off > 3)
+                return Double.NaN;
+
+            int e = 0;
+
+            for ( ; off < end ; off++)
+            {
+                char ch = buf[off];
+
+                if (ch < '0' || ch > '9')
+                    return Double.NaN;
+
+                e = e * 10 + (ch - '0');
+            }
+
+            exponent += negativeExponent ? -e : e;
+        }
+
+        double v = mantissa;
+
+        if (mantissa != 0)
+        {
+            if (exponent < -22 || exponent > 22)
+                return Double.NaN;
+
+            if (exponent < 0)
+                v /= POWERS_OF_TEN[-exponent];
+            else
+                v *= POWERS_OF_TEN[exponent];
+        }
+
+        return negative ? -v : v;
+    }
+    private static final double[] POWERS_OF_TEN =
+    {
+        1e0,  1e1,  1e2,  1e3,  1e4,  1e5,  1e6,  1e7,  1e8,  1e9,  1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
     public static double validateLexical(String v, ValidationContext context)
     {
         try
@@ -21,8 +21,10 @@ import org.apache.xmlbeans.GDateSpecification;
 import org.apache.xmlbeans.GDateBuilder;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.impl.common.ValidationContext;
+import org.apache.xmlbeans.impl.common.ParseUtil;
 import org.apache.xmlbeans.impl.common.QNameHelper;
 
+import java.nio.CharBuffer;
 import java.util.Date;
 import java.util.Calendar;
 
@@ -60,6 +62,34 @@ public abstract class JavaGDateHolderEx extends XmlObjectBase
         _value = newVal;
     }
 
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        // GDate lexes any CharSequence, so it can read a view of the chars
+        // rather than a String.  Malformed dates are left to set_text.
+
+        if (ParseUtil.skipWhitespace(buf, off, off + cch) == off + cch)
+            return false;
+
+        GDate date;
+
+        try
+        {
+            date = new GDate(CharBuffer.wrap(buf, off, cch));
+        }
+        catch (Exception e)
+        {
+            return false;
+        }
+
+        if (date.getBuiltinTypeCode() != _schemaType.getPrimitiveType().getBuiltinTypeCode() ||
+                !date.isValid())
+            return false;
+
+        _value = date;
+
+        return true;
+    }
+
     public static GDate lex(String v, SchemaType sType, ValidationContext context)
     {
         GDate date = null;
@@ -23,11 +23,15 @@ import org.apache.xmlbeans.XmlHexBinary;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.impl.common.ValidationContext;
 import org.apache.xmlbeans.impl.common.QNameHelper;
-
-import java.security.NoSuchAlgorithmException;
-import java.security.MessageDigest;
+import org.apache.xmlbeans.impl.common.XMLChar;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Arrays;
-import java.io.UnsupportedEncodingException;
 
 public abstract class JavaHexBinaryHolder extends XmlObjectBase
 {
@@ -45,7 +49,6 @@ public abstract class JavaHexBinaryHolder extends XmlObjectBase
     }
     protected void set_text(String s)
     {
-        _hashcached = false;
         if (_validateOnSet())
             _value = validateLexical(s, schemaType(), _voorVc);
         else
@@ -53,22 +56,12 @@ public abstract class JavaHexBinaryHolder extends XmlObjectBase
     }
     protected void set_nil()
     {
-        _hashcached = false;
         _value = null;
     }
 
     public static byte[] lex(String v, ValidationContext context)
     {
-        byte[] vBytes = null;
-        try
-        {
-            vBytes = v.getBytes("UTF-8");
-        }
-        catch(UnsupportedEncodingException uee)
-        {
-            // should never happen - UTF-8 is always supported
-        }
-        byte[] bytes = HexBin.decode(vBytes);
+        byte[] bytes = HexBin.decodeChars(v);
 
         if (bytes == null)
         {
@@ -106,49 +99,96 @@ public abstract class JavaHexBinaryHolder extends XmlObjectBase
         return result;
     }
 
+    /**
+     * Decodes the value straight from the text in the store, skipping the
+     * String and the byte copy of it that set_text goes through.
+     */
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        // hexBinary collapses whitespace, which can only be at the ends
+        while (cch > 0 && XMLChar.isSpace(buf[off]))
+            { off++; cch--; }
+        while (cch > 0 && XMLChar.isSpace(buf[off + cch - 1]))
+            cch--;
+
+        // Leave empty values, and errors, to set_text
+        if (cch == 0)
+            return false;
+
+        byte[] bytes = HexBin.decodeChars(CharBuffer.wrap(buf, off, cch));
+
+        if (bytes == null)
+            return false;
+
+        _value = bytes;
+        return true;
+    }
+
+    /**
+     * Returns a stream of the bytes of this value, read where they are
+     * rather than copied out, or null if the value is nil.
+     */
+    public InputStream newInputStream()
+    {
+        synchronized (monitor())
+        {
+            check_dated();
+            return _value == null ? null : new ByteArrayInputStream(_value);
+        }
+    }
+
+    public ReadableByteChannel newReadableChannel()
+    {
+        InputStream in = newInputStream();
+        return in == null ? null : Channels.newChannel(in);
+    }
+
+    /**
+     * Returns a stream whose bytes become this value, without a further
+     * copy, when it is closed.
+     */
+    public OutputStream newOutputStream()
+    {
+        return new BinaryValues.Writer()
+        {
+            protected void commit(byte[] bytes)
+            {
+                set_owned(bytes);
+            }
+        };
+    }
+
     // setters
     protected void set_ByteArray(byte[] ba)
     {
-        _hashcached = false;
         _value = new byte[ba.length];
         System.arraycopy(ba, 0, _value, 0, ba.length);
     }
 
-    // comparators
-    protected boolean equal_to(XmlObject i)
+    protected void set_ByteArrayOwned(byte[] ba)
     {
-        byte[] ival = ((XmlHexBinary) i).getByteArrayValue();
-        return Arrays.equals(_value, ival);
+        _value = ba;
     }
 
-    //because computing hashcode is expensive we'll cache it
-    protected boolean _hashcached = false;
-    protected int hashcode = 0;
-    protected static MessageDigest md5;
-    static
+    // comparators
+    protected boolean equal_to(XmlObject i)
     {
-        try
-        {
-            md5 = MessageDigest.getInstance("MD5");
-        }
-        catch( NoSuchAlgorithmException e )
+        byte[] ival;
+
+        if (i instanceof JavaHexBinaryHolder)
         {
-            throw new IllegalStateException("Cannot find MD5 hash Algorithm");
+            JavaHexBinaryHolder other = (JavaHexBinaryHolder) i;
+            other.check_dated();
+            ival = other._value;
         }
+        else
+            ival = ((XmlHexBinary) i).getByteArrayValue();
+
+        return Arrays.equals(_value, ival);
     }
 
     protected int value_hash_code()
     {
-        if( _hashcached )
-            return hashcode;
-
-        _hashcached = true;
-
-        if( _value == null )
-            return hashcode = 0;
-
-        byte[] res = md5.digest(_value);
-        return hashcode = res[0]<<24 + res[1]<<16 + res[2]<<8 + res[3];
+        return BinaryValues.hash(_value);
     }
-
 }
@@ -48,9 +48,7 @@ public abstract class JavaHexBinaryHolderEx extends JavaHexBinaryHolder
         if (_validateOnSet() && v != null)
             validateValue(v, schemaType(), XmlObjectBase._voorVc);
         
-        super.set_ByteArray(v);
-
-        _value = v;
+        super.set_ByteArrayOwned(v);
     }
 
     // setters
@@ -62,6 +60,14 @@ public abstract class JavaHexBinaryHolderEx extends JavaHexBinaryHolder
         super.set_ByteArray(v);
     }
 
+    protected void set_ByteArrayOwned(byte[] v)
+    {
+        if (_validateOnSet())
+            validateValue(v, schemaType(), _voorVc);
+
+        super.set_ByteArrayOwned(v);
+    }
+
     public static void validateValue(byte[] v, SchemaType sType, ValidationContext context)
     {
         int i;
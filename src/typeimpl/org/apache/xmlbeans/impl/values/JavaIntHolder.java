@@ -41,6 +41,15 @@ public abstract class JavaIntHolder extends XmlObjectBase
         try { set_int(Integer.parseInt(ParseUtil.trimInitialPlus(s))); }
         catch (Exception e) { throw new XmlValueOutOfRangeException(); }
     }
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        // LEX_ERROR is out of range too
+        long v = ParseUtil.lexLong(buf, off, cch);
+        if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+            return false;
+        set_int((int)v);
+        return true;
+    }
     protected void set_nil()
     {
         _value = 0;
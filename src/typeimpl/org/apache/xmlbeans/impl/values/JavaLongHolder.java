@@ -41,6 +41,14 @@ public abstract class JavaLongHolder extends XmlObjectBase
         try { set_long(Long.parseLong(ParseUtil.trimInitialPlus(s))); }
         catch (Exception e) { throw new XmlValueOutOfRangeException(); }
     }
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        long v = ParseUtil.lexLong(buf, off, cch);
+        if (v == ParseUtil.LEX_ERROR)
+            return false;
+        set_long(v);
+        return true;
+    }
     protected void set_nil()
     {
         _value = 0L;
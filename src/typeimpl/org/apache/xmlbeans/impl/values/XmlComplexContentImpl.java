@@ -28,6 +28,7 @@ import javax.xml.namespace.QName;
 import javax.xml.namespace.QName;
 import org.apache.xmlbeans.impl.schema.SchemaTypeImpl;
 import org.apache.xmlbeans.impl.schema.SchemaTypeVisitorImpl;
+import org.apache.xmlbeans.impl.common.ParseUtil;
 
 public class XmlComplexContentImpl extends XmlObjectBase
 {
@@ -74,26 +75,41 @@ public class XmlComplexContentImpl extends XmlObjectBase
     public void set_nil()
         { /* BUGBUG: what to do? */ }
 
-    // LEFT
+    // DONE
     public boolean equal_to(XmlObject complexObject)
+    {
+        return equal_to(complexObject, null);
+    }
+
+    // DONE
+    protected boolean equal_to(XmlObject complexObject, XmlOptions options)
     {
         if (!_schemaType.equals(complexObject.schemaType()))
             return false;
 
-        // BUGBUG: by-value structure comparison undone
-        return true;
+        int flags = 0;
+
+        if (options != null && options.hasOption(XmlOptions.COMPARE_IGNORE_WHITESPACE))
+            flags |= TypeStore.COMPARE_IGNORE_WHITESPACE;
+
+        if (options != null && options.hasOption(XmlOptions.COMPARE_IGNORE_COMMENTS))
+            flags |= TypeStore.COMPARE_IGNORE_COMMENTS;
+
+        // The structures are walked side by side in the store
+        return get_store().content_equals(underlying(complexObject).get_store(), flags);
     }
 
-    // LEFT
+    // DONE
     protected int value_hash_code()
     {
-        throw new IllegalStateException("Complex types cannot be used as hash keys");
+        long h = get_store().content_fingerprint();
+        return (int)(h ^ (h >>> 32));
     }
 
     // DONE
     public TypeStoreVisitor new_visitor()
     {
-        return new SchemaTypeVisitorImpl(_schemaType.getContentModel());
+        return new SchemaTypeVisitorImpl(_schemaType);
     }
 
     // DONE
@@ -213,25 +229,8 @@ public class XmlComplexContentImpl extends XmlObjectBase
     protected void arraySetterHelper ( double[] sources, QName elemName )
     {
         int n = sources == null ? 0 : sources.length;
-        
-        TypeStore store = get_store();
 
-        int m = store.count_elements( elemName );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( elemName, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-            
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( elemName, i );
-
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, new DoubleArrayVisitor( sources, !_validateOnSet() ) );
     }
     
     protected void arraySetterHelper ( byte[] sources, QName elemName )
@@ -285,49 +284,15 @@ public class XmlComplexContentImpl extends XmlObjectBase
     protected void arraySetterHelper ( int[] sources, QName elemName )
     {
         int n = sources == null ? 0 : sources.length;
-        
-        TypeStore store = get_store();
-
-        int m = store.count_elements( elemName );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( elemName, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-            
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( elemName, i );
 
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, new IntArrayVisitor( sources, !_validateOnSet() ) );
     }
     
     protected void arraySetterHelper ( long[] sources, QName elemName )
     {
         int n = sources == null ? 0 : sources.length;
-        
-        TypeStore store = get_store();
-
-        int m = store.count_elements( elemName );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( elemName, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-            
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( elemName, i );
 
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, new LongArrayVisitor( sources, !_validateOnSet() ) );
     }
     
     protected void arraySetterHelper ( BigDecimal[] sources, QName elemName )
@@ -670,24 +635,7 @@ public class XmlComplexContentImpl extends XmlObjectBase
     {
         int n = sources == null ? 0 : sources.length;
 
-        TypeStore store = get_store();
-
-        int m = store.count_elements( set );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( set, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( set, i );
-
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, set, new DoubleArrayVisitor( sources, !_validateOnSet() ) );
     }
 
     protected void arraySetterHelper ( byte[] sources, QName elemName, QNameSet set )
@@ -742,48 +690,14 @@ public class XmlComplexContentImpl extends XmlObjectBase
     {
         int n = sources == null ? 0 : sources.length;
 
-        TypeStore store = get_store();
-
-        int m = store.count_elements( set );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( set, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( set, i );
-
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, set, new IntArrayVisitor( sources, !_validateOnSet() ) );
     }
 
     protected void arraySetterHelper ( long[] sources, QName elemName, QNameSet set )
     {
         int n = sources == null ? 0 : sources.length;
 
-        TypeStore store = get_store();
-
-        int m = store.count_elements( set );
-
-        for ( ; m > n ; m-- )
-            store.remove_element( set, m - 1 );
-
-        for ( int i = 0 ; i < n ; i++ )
-        {
-            TypeStoreUser user;
-
-            if (i >= m)
-                user = store.add_element_user( elemName );
-            else
-                user = store.find_element_user( set, i );
-
-            ((XmlObjectBase) user).set( sources[ i ] );
-        }
+        get_store().array_setter( n, elemName, set, new LongArrayVisitor( sources, !_validateOnSet() ) );
     }
 
     protected void arraySetterHelper ( BigDecimal[] sources, QName elemName, QNameSet set )
@@ -1079,4 +993,189 @@ public class XmlComplexContentImpl extends XmlObjectBase
         }
     }
 
+
+    //
+    // Bulk array getters and setters for primitive leaves.  The store hands
+    // over the text of each plain leaf in place, and takes the text for
+    // each plain element it sets, so no XmlObject is made for those.
+    //
+
+    protected int[] intArrayGetterHelper ( QName elemName )
+    {
+        TypeStore store = get_store();
+        IntArrayVisitor v = new IntArrayVisitor( new int[ store.count_elements( elemName ) ], !_validateOnSet() );
+        store.find_all_element_values( elemName, v );
+        return v._values;
+    }
+
+    protected int[] intArrayGetterHelper ( QNameSet set )
+    {
+        TypeStore store = get_store();
+        IntArrayVisitor v = new IntArrayVisitor( new int[ store.count_elements( set ) ], !_validateOnSet() );
+        store.find_all_element_values( set, v );
+        return v._values;
+    }
+
+    protected long[] longArrayGetterHelper ( QName elemName )
+    {
+        TypeStore store = get_store();
+        LongArrayVisitor v = new LongArrayVisitor( new long[ store.count_elements( elemName ) ], !_validateOnSet() );
+        store.find_all_element_values( elemName, v );
+        return v._values;
+    }
+
+    protected long[] longArrayGetterHelper ( QNameSet set )
+    {
+        TypeStore store = get_store();
+        LongArrayVisitor v = new LongArrayVisitor( new long[ store.count_elements( set ) ], !_validateOnSet() );
+        store.find_all_element_values( set, v );
+        return v._values;
+    }
+
+    protected double[] doubleArrayGetterHelper ( QName elemName )
+    {
+        TypeStore store = get_store();
+        DoubleArrayVisitor v = new DoubleArrayVisitor( new double[ store.count_elements( elemName ) ], !_validateOnSet() );
+        store.find_all_element_values( elemName, v );
+        return v._values;
+    }
+
+    protected double[] doubleArrayGetterHelper ( QNameSet set )
+    {
+        TypeStore store = get_store();
+        DoubleArrayVisitor v = new DoubleArrayVisitor( new double[ store.count_elements( set ) ], !_validateOnSet() );
+        store.find_all_element_values( set, v );
+        return v._values;
+    }
+
+    // With validate-on-set, text is neither parsed nor stored in place so
+    // that every value goes through the checks of its XmlObject
+
+    private static final class IntArrayVisitor implements TypeStoreArrayVisitor
+    {
+        IntArrayVisitor ( int[] values, boolean inPlace )
+        {
+            _values = values;
+            _inPlace = inPlace;
+        }
+
+        public boolean get_chars ( int i, char[] buf, int off, int cch )
+        {
+            if (!_inPlace)
+                return false;
+
+            // LEX_ERROR is out of range too
+            long v = ParseUtil.lexLong( buf, off, cch );
+
+            if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+                return false;
+
+            _values[ i ] = (int) v;
+
+            return true;
+        }
+
+        public void get_value ( int i, TypeStoreUser user )
+        {
+            _values[ i ] = ((SimpleValue) user).getIntValue();
+        }
+
+        public String set_text ( int i )
+        {
+            return _inPlace ? Long.toString( _values[ i ] ) : null;
+        }
+
+        public void set_value ( int i, TypeStoreUser user )
+        {
+            ((XmlObjectBase) user).set( _values[ i ] );
+        }
+
+        final int[] _values;
+        private final boolean _inPlace;
+    }
+
+    private static final class LongArrayVisitor implements TypeStoreArrayVisitor
+    {
+        LongArrayVisitor ( long[] values, boolean inPlace )
+        {
+            _values = values;
+            _inPlace = inPlace;
+        }
+
+        public boolean get_chars ( int i, char[] buf, int off, int cch )
+        {
+            if (!_inPlace)
+                return false;
+
+            long v = ParseUtil.lexLong( buf, off, cch );
+
+            if (v == ParseUtil.LEX_ERROR)
+                return false;
+
+            _values[ i ] = v;
+
+            return true;
+        }
+
+        public void get_value ( int i, TypeStoreUser user )
+        {
+            _values[ i ] = ((SimpleValue) user).getLongValue();
+        }
+
+        public String set_text ( int i )
+        {
+            return _inPlace ? Long.toString( _values[ i ] ) : null;
+        }
+
+        public void set_value ( int i, TypeStoreUser user )
+        {
+            ((XmlObjectBase) user).set( _values[ i ] );
+        }
+
+        final long[] _values;
+        private final boolean _inPlace;
+    }
+
+    private static final class DoubleArrayVisitor implements TypeStoreArrayVisitor
+    {
+        DoubleArrayVisitor ( double[] values, boolean inPlace )
+        {
+            _values = values;
+            _inPlace = inPlace;
+        }
+
+        public boolean get_chars ( int i, char[] buf, int off, int cch )
+        {
+            if (!_inPlace)
+                return false;
+
+            double v = JavaDoubleHolder.lexDouble( buf, off, cch );
+
+            if (v != v)
+                return false;
+
+            _values[ i ] = v;
+
+            return true;
+        }
+
+        public void get_value ( int i, TypeStoreUser user )
+        {
+            _values[ i ] = ((SimpleValue) user).getDoubleValue();
+        }
+
+        public String set_text ( int i )
+        {
+            return _inPlace ? JavaDoubleHolder.serialize( _values[ i ] ) : null;
+        }
+
+        public void set_value ( int i, TypeStoreUser user )
+        {
+            ((XmlObjectBase) user).set( _values[ i ] );
+        }
+
+        final double[] _values;
+        private final boolean _inPlace;
+    }
+
 }
@@ -32,6 +32,8 @@ import java.io.ObjectOutputStream;
 import java.io.ObjectStreamException;
 import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.lang.reflect.Array;
 import java.util.Date;
 import java.util.List;
@@ -92,7 +94,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         return this;
     }
     
-    private static XmlObjectBase underlying(XmlObject obj)
+    static XmlObjectBase underlying(XmlObject obj)
     {
         if (obj == null)
             return null;
@@ -166,6 +168,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     public void save(Writer w, XmlOptions options) throws IOException
         { XmlCursor cur = newCursorForce(); try { cur.save(w, makeInnerOptions(options)); } finally { cur.dispose(); } }
 
+    public void save(WritableByteChannel channel, XmlOptions options) throws IOException
+        { XmlCursor cur = newCursorForce(); try { cur.save(channel, makeInnerOptions(options)); } finally { cur.dispose(); } }
+
+    public void save(ByteBuffer buffer, XmlOptions options)
+        { XmlCursor cur = newCursorForce(); try { cur.save(buffer, makeInnerOptions(options)); } finally { cur.dispose(); } }
+
     public void save(ContentHandler ch, LexicalHandler lh) throws SAXException
         { save( ch, lh, null ); }
 
@@ -178,6 +186,12 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     public void save(Writer w) throws IOException
         { save( w, null ); }
 
+    public void save(WritableByteChannel channel) throws IOException
+        { save( channel, null ); }
+
+    public void save(ByteBuffer buffer)
+        { save( buffer, null ); }
+
     public XmlCursor newCursorForce()
     {
         synchronized (monitor())
@@ -517,6 +531,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     private static final int FLAG_COMPLEXCONTENT  = 16384;
     private static final int FLAG_NOT_VARIABLE    = 32768;
     private static final int FLAG_VALIDATE_ON_SET = 65536;
+    private static final int FLAG_FROZEN          = 131072;
 
 
     /**
@@ -682,6 +697,22 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         return (_flags & FLAG_IMMUTABLE) != 0;
     }
 
+    public final void freeze()
+    {
+        synchronized (monitor())
+        {
+            check_orphaned();
+
+            if (has_store())
+                get_store().freeze();
+        }
+    }
+
+    public final boolean isFrozen()
+    {
+        return (_flags & FLAG_FROZEN) != 0;
+    }
+
 
 
 
@@ -706,6 +737,9 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
 
         if (store.validate_on_set())
             _flags |= FLAG_VALIDATE_ON_SET;
+
+        if (store.is_frozen())
+            _flags |= FLAG_FROZEN;
     }
 
     /**
@@ -989,7 +1023,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
     {
         if (!_isComplexContent())
             return null;
-        return new SchemaTypeVisitorImpl(schemaType().getContentModel());
+        return new SchemaTypeVisitorImpl(schemaType());
     }
 
     public SchemaField get_attribute_field(QName attrName)
@@ -1074,6 +1108,44 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         _flags &= ~(FLAG_NIL | FLAG_ISDEFAULT);
     }
 
+    /**
+     * Tries to update the value by parsing the text where it sits in the
+     * store, without making a String of it.  Returns false if the value
+     * must be updated from a String after all.
+     */
+    private final boolean update_from_store_chars()
+    {
+        // Validating on set checks the lexical form, which takes a String
+
+        if ((_flags & FLAG_STORE) == 0 || _validateOnSet())
+            return false;
+
+        if (!get_store().fetch_chars(this))
+            return false;
+
+        _flags &= ~(FLAG_NIL | FLAG_ISDEFAULT);
+
+        return true;
+    }
+
+    public final boolean parse_chars(char[] buf, int off, int cch)
+    {
+        return set_chars(buf, off, cch);
+    }
+
+    /**
+     * Types which can parse their value straight from chars override this
+     * to do so, without allocating a String.  The chars have not had
+     * whitespace processing applied.  This should return false for any
+     * text it does not handle, including text which is empty or all
+     * whitespace (so that defaults get applied), and then set_text is
+     * called as usual with the text as a String.
+     */
+    protected boolean set_chars(char[] buf, int off, int cch)
+    {
+        return false;
+    }
+
     /**
      * Types should return false if they don't treat the given
      * whitespace as a default value.
@@ -1160,6 +1232,21 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
      * This method deals with nils, nillability, defaults, etc.
      */
     public final void check_dated()
+    {
+        // A frozen document is read by many threads at once without its
+        // lock, so each object brings itself up to date under its own
+        if ((_flags & FLAG_FROZEN) != 0)
+        {
+            synchronized (this)
+            {
+                update_dated();
+            }
+        }
+        else
+            update_dated();
+    }
+
+    private final void update_dated()
     {
         if ((_flags & FLAGS_DATED) != 0)
         {
@@ -1199,7 +1286,8 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                 _flags &= ~FLAG_NIL_DATED;
             }
 
-            if (!nilled)
+            if (!nilled &&
+                    ((_flags & FLAG_COMPLEXCONTENT) != 0 || !update_from_store_chars()))
             {
                 String text;
 
@@ -1225,6 +1313,8 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
      */
     private final void set_prepare()
     {
+        if ((_flags & FLAG_FROZEN) != 0)
+            throw new IllegalStateException("Document is frozen");
         check_element_dated();
         if ((_flags & FLAG_IMMUTABLE) != 0)
             throw new IllegalStateException();
@@ -1535,6 +1625,13 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         { synchronized (monitor()) { set_prepare(); set_double(v); set_commit(); } }
     public final void set(byte[] obj)
         { if (obj == null) setNil(); else { synchronized (monitor()) { set_prepare(); set_ByteArray(obj); set_commit(); } } }
+
+    /**
+     * Sets the value to bytes which the caller hands over and does not
+     * touch again, so that they need not be copied.
+     */
+    protected final void set_owned(byte[] obj)
+        { if (obj == null) setNil(); else { synchronized (monitor()) { set_prepare(); set_ByteArrayOwned(obj); set_commit(); } } }
     public final void set(StringEnumAbstractBase obj)
         { if (obj == null) setNil(); else { synchronized (monitor()) { set_prepare(); set_enum(obj); set_commit(); } } }
     public final void set(BigInteger obj)
@@ -1914,6 +2011,8 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
 
     protected void set_ByteArray(byte[] b)
         { throw new XmlValueOutOfRangeException(); }
+    protected void set_ByteArrayOwned(byte[] b)
+        { set_ByteArray(b); }
     protected void set_b64(byte[] b)
         { set_ByteArray(b); }
     protected void set_hex(byte[] b)
@@ -1960,7 +2059,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         return (t1.getPrimitiveType().equals(t2.getPrimitiveType()));
     }
 
-    private final boolean valueEqualsImpl(XmlObject xmlobj)
+    private final boolean valueEqualsImpl(XmlObject xmlobj, XmlOptions options)
     {
         check_dated();
 
@@ -1979,10 +2078,15 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         if (xmlobj.schemaType().getSimpleVariety() == SchemaType.UNION)
             return (underlying(xmlobj)).equal_to(this);
 
-        return equal_to(xmlobj);
+        return equal_to(xmlobj, options);
     }
 
     public final boolean valueEquals(XmlObject xmlobj)
+    {
+        return valueEquals(xmlobj, null);
+    }
+
+    public final boolean valueEquals(XmlObject xmlobj, XmlOptions options)
     {
         boolean acquired = false;
         try
@@ -1991,13 +2095,13 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
             {
                 if (xmlobj.isImmutable())
                 {
-                    return valueEqualsImpl(xmlobj);
+                    return valueEqualsImpl(xmlobj, options);
                 }
                 else
                 {
                     synchronized (xmlobj.monitor())
                     {
-                        return valueEqualsImpl(xmlobj);
+                        return valueEqualsImpl(xmlobj, options);
                     }
                 }
             }
@@ -2007,7 +2111,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                 {
                     synchronized (monitor())
                     {
-                        return valueEqualsImpl(xmlobj);
+                        return valueEqualsImpl(xmlobj, options);
                     }
                 }
                 else
@@ -2020,7 +2124,7 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
                         {
                             GlobalLock.release();
                             acquired = false;
-                            return valueEqualsImpl(xmlobj);
+                            return valueEqualsImpl(xmlobj, options);
                         }
                     }
                 }
@@ -2165,6 +2269,15 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
 
     protected abstract boolean equal_to(XmlObject xmlobj);
 
+    /**
+     * Compares as equal_to does, with options which loosen the comparison
+     * of complex content; simple values ignore them.
+     */
+    protected boolean equal_to(XmlObject xmlobj, XmlOptions options)
+    {
+        return equal_to(xmlobj);
+    }
+
     protected abstract int value_hash_code();
 
     public int valueHashCode()
@@ -2175,6 +2288,15 @@ public abstract class XmlObjectBase implements TypeStoreUser, Serializable, XmlO
         }
     }
 
+    public long contentFingerprint()
+    {
+        synchronized (monitor())
+        {
+            // A value object has to be given a store to be walked
+            return ((XmlObjectBase)ensureStore()).get_store().content_fingerprint();
+        }
+    }
+
 
     public boolean isInstanceOf(SchemaType type)
     {
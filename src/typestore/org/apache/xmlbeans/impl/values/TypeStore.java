@@ -78,6 +78,34 @@ public interface TypeStore extends NamespaceManager
     // BUGBUG (ericvas) 12111
     String fetch_text(int whitespaceRule);
 
+    /**
+     * A user of a TypeStore calls fetch_chars instead of fetch_text when
+     * he can parse the text without a String.  The TypeStore passes the
+     * text, exactly as it is stored with no whitespace processing, to the
+     * user's parse_chars and returns what that returns.  Returns false,
+     * without calling the user, if the text can't be handed out in place,
+     * in which case the user should call fetch_text.
+     */
+    boolean fetch_chars(TypeStoreUser user);
+
+    /**
+     * Returns true if the content under this store, and its attributes,
+     * are the same as under the other store.  Names are compared without
+     * their prefixes, and namespace declarations are not compared.  The
+     * flags are COMPARE_IGNORE_WHITESPACE and COMPARE_IGNORE_COMMENTS.
+     */
+    boolean content_equals(TypeStore other, int flags);
+
+    /**
+     * Returns a 64 bit hash of the content as content_equals compares it,
+     * with no flags.  It is only worked out again once the document has
+     * changed.
+     */
+    long content_fingerprint();
+
+    public static int COMPARE_IGNORE_WHITESPACE = 1;
+    public static int COMPARE_IGNORE_COMMENTS = 2;
+
     public static int WS_UNSPECIFIED = 0;
     public static int WS_PRESERVE = 1;
     public static int WS_REPLACE = 2;
@@ -120,6 +148,19 @@ public interface TypeStore extends NamespaceManager
      */
     boolean validate_on_set();
 
+    /**
+     * Tells if this store's document is frozen: it can no longer change,
+     * and may be read by many threads at once without holding the root
+     * object's lock.
+     */
+    boolean is_frozen();
+
+    /**
+     * Freezes this store's document.  Must be called while holding the
+     * root object's lock.
+     */
+    void freeze();
+
     /**
      * Here the typestore is resposible for finding the schema field for
      * this object. This is done by
@@ -197,6 +238,20 @@ public interface TypeStore extends NamespaceManager
      */
     void find_all_element_users(QNameSet name, List fillMeUp);
 
+    /**
+     * Hands the values of all the elements with the given name owned by
+     * this typestore to the visitor, in order, in one pass over the
+     * children, and returns how many there were.  Plain leaf elements
+     * are passed as text so that no TypeStoreUser need be made for them.
+     */
+    int find_all_element_values(QName name, TypeStoreArrayVisitor visitor);
+
+    /**
+     * Hands the values of all the elements with one of the names in the
+     * QNameSet to the visitor, and returns how many there were.
+     */
+    int find_all_element_values(QNameSet names, TypeStoreArrayVisitor visitor);
+
     /**
      * Inserts a new element at the position that will make it
      * the ith element with the given name owned by this textstore,
@@ -321,6 +376,23 @@ public interface TypeStore extends NamespaceManager
     
     void array_setter ( XmlObject[] sources, QName elementName );
 
+    /**
+     * Sets the values of all the elements with the given name under the
+     * current typestore in one pass.  First the last elements are removed,
+     * or new ones appended, so that there are exactly n of them; then
+     * each one is passed to the visitor, which supplies its text or sets
+     * its value through its TypeStoreUser.
+     */
+
+    void array_setter ( int n, QName elementName, TypeStoreArrayVisitor visitor );
+
+    /**
+     * Same as the above, but for all the elements with one of the names
+     * in the QNameSet.  Elements are appended with the given name.
+     */
+
+    void array_setter ( int n, QName elementName, QNameSet set, TypeStoreArrayVisitor visitor );
+
     /**
      * Visits all the elements immediately, using the given visitor.
      * A TypeStoreUser calls this when somebody has requested validation.
@@ -332,6 +404,7 @@ public interface TypeStore extends NamespaceManager
 
     /**
      * Returns the monitor object, used for synchronizing access to the doc.
+     * For a frozen document this is the user itself.
      */ 
     Object get_root_object();
 }
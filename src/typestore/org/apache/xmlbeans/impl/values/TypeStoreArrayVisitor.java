@@ -0,0 +1,52 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.values;
+
+/**
+ * This interface is used by the TypeStore to hand over the values of all
+ * the elements of one array property in a single pass over the children,
+ * without making a TypeStoreUser for each element where it can help it.
+ */
+public interface TypeStoreArrayVisitor
+{
+    /**
+     * Called by find_all_element_values with the text of the ith element,
+     * exactly as it is stored, when the element is a leaf with no
+     * attributes and no TypeStoreUser.  Returns false if the text can't
+     * be parsed in place, in which case get_value is called instead.
+     */
+    boolean get_chars(int i, char[] buf, int off, int cch);
+
+    /**
+     * Called by find_all_element_values when the value of the ith
+     * element has to come from its TypeStoreUser.
+     */
+    void get_value(int i, TypeStoreUser user);
+
+    /**
+     * Called by array_setter for the text to store as the entire content
+     * of the ith element, when the element has no attributes and no
+     * TypeStoreUser.  Returns null if the value has to be set through a
+     * TypeStoreUser, in which case set_value is called instead.
+     */
+    String set_text(int i);
+
+    /**
+     * Called by array_setter to set the value of the ith element through
+     * its TypeStoreUser.
+     */
+    void set_value(int i, TypeStoreUser user);
+}
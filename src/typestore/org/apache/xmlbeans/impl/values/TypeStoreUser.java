@@ -74,6 +74,13 @@ public interface TypeStoreUser
      */
     String build_text(NamespaceManager nsm);
 
+    /**
+     * A TypeStore calls this from fetch_chars with the text in the chars
+     * buf[off, off + cch), which must not be modified or kept.  Returns
+     * false if the user could not set its value from them.
+     */
+    boolean parse_chars(char[] buf, int off, int cch);
+
     /**
      * A store will call back on build_nil after you've called invalidate_nil
      * and it needs to know what the nil value is.
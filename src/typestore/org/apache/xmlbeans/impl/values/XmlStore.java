@@ -20,7 +20,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
+import java.util.Iterator;
 import java.util.Map;
+import javax.xml.namespace.QName;
 import org.apache.xmlbeans.xml.stream.XMLInputStream;
 import org.apache.xmlbeans.xml.stream.XMLStreamException;
 import org.apache.xmlbeans.XmlObject;
@@ -45,6 +47,8 @@ public interface XmlStore
     XmlObject loadXml ( XMLInputStream xis, SchemaType type, XmlOptions options ) throws XmlException, XMLStreamException;
     XmlObject loadXml ( Node node,          SchemaType type, XmlOptions options ) throws XmlException;
     
+    Iterator loadRecords ( InputStream in, QName recordName, SchemaType type, XmlOptions options ) throws XmlException, IOException;
+
     XmlSaxHandler newSaxHandler ( SchemaType type, XmlOptions options );
 
     XmlObject getObject ( );
@@ -19,8 +19,13 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Iterator;
 import java.util.Arrays;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.FileFilter;
@@ -28,6 +33,13 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
 
 public class CodeGenUtil
 {
@@ -257,6 +269,162 @@ public class CodeGenUtil
         return true;
     }
 
+    /**
+     * Compiles the source files with the javax.tools compiler running in
+     * this JVM, which saves starting a separate javac process.  Falls back
+     * to {@link #externalCompile} when this JVM has no system compiler
+     * (for example when running on a JRE, or before Java 6).
+     */
+    static public boolean internalCompile(List srcFiles, File outdir, File[] cp, boolean debug, boolean quiet, boolean verbose)
+    {
+        Object javac = systemJavaCompiler();
+
+        if (javac == null)
+        {
+            if (verbose)
+                System.out.println("No in-process java compiler; running " + DEFAULT_COMPILER);
+            return externalCompile(srcFiles, outdir, cp, debug, DEFAULT_COMPILER, DEFAULT_MEM_START, DEFAULT_MEM_MAX, quiet, verbose);
+        }
+
+        List args = new ArrayList();
+
+        if (outdir == null)
+        {
+            outdir = new File(".");
+        }
+        else
+        {
+            args.add("-d");
+            args.add(outdir.getAbsolutePath());
+        }
+
+        if (cp == null)
+        {
+            cp = systemClasspath();
+        }
+
+        // As for externalCompile, the output directory goes on the classpath
+        StringBuffer classPath = new StringBuffer(outdir.getAbsolutePath());
+        for (int i = 0; i < cp.length; i++)
+        {
+            classPath.append(File.pathSeparator);
+            classPath.append(cp[i].getAbsolutePath());
+        }
+
+        args.add("-classpath");
+        args.add(classPath.toString());
+
+        // The compiler is the running JVM's own.  Compilers from Java 9 on
+        // refuse -source 1.4, so they are left at their default level,
+        // which still accepts the generated code.
+        if (inProcessSourceLevelSupported())
+        {
+            args.add("-source");
+            args.add("1.4");
+        }
+
+        args.add(debug ? "-g" : "-g:none");
+
+        if (verbose)
+            args.add("-verbose");
+
+        // No command line, so no quoting and no length limit on the file list
+        List files = new ArrayList();
+        addAllJavaFiles(srcFiles, files);
+        for (Iterator i = files.iterator(); i.hasNext(); )
+            args.add(unquoteFilename((String)i.next()));
+
+        String[] strArgs = (String[]) args.toArray(new String[args.size()]);
+
+        if (verbose)
+        {
+            System.out.print("in-process compile:");
+            for (int i = 0; i < strArgs.length; i++)
+                System.out.print(" " + strArgs[i]);
+            System.out.println();
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ByteArrayOutputStream errors = new ByteArrayOutputStream();
+        int exitValue;
+
+        try
+        {
+            // Looked up on the public interface: from Java 9 on, the
+            // compiler's own class is in a package which is not exported
+            Method run = Class.forName("javax.tools.Tool").getMethod("run",
+                new Class[] { InputStream.class, OutputStream.class, OutputStream.class, String[].class });
+            exitValue = ((Integer)run.invoke(javac, new Object[] { null, output, errors, strArgs })).intValue();
+        }
+        catch (InvocationTargetException e)
+        {
+            e.getTargetException().printStackTrace(System.err);
+            return false;
+        }
+        catch (Exception e)
+        {
+            e.printStackTrace(System.err);
+            return false;
+        }
+
+        if (verbose || exitValue != 0)
+        {
+            if (output.size() > 0) {
+                System.out.println(output.toString());
+                System.out.flush();
+            }
+            if (errors.size() > 0) {
+                System.err.println(errors.toString());
+                System.err.flush();
+            }
+        }
+
+        return exitValue == 0;
+    }
+
+    /**
+     * Returns true if the running JVM's compiler accepts -source 1.4, which
+     * only those before Java 9 do.
+     */
+    private static boolean inProcessSourceLevelSupported()
+    {
+        try
+        {
+            String version = System.getProperty("java.specification.version");
+            return version != null && version.startsWith("1.");
+        }
+        catch (SecurityException e)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the javax.tools system java compiler, or null if there is
+     * none.  It is found reflectively since it is not part of every JVM
+     * that XMLBeans runs on.
+     */
+    private static Object systemJavaCompiler()
+    {
+        try
+        {
+            Class toolProvider = Class.forName("javax.tools.ToolProvider");
+            return toolProvider.getMethod("getSystemJavaCompiler", new Class[0]).invoke(null, new Object[0]);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    static private String unquoteFilename(String filename)
+    {
+        if (!filename.startsWith("\"") || !filename.endsWith("\""))
+            return filename;
+
+        return filename.substring(1, filename.length() - 1).replaceAll("\\\\\\\\", "\\\\");
+    }
+
     public static File[] systemClasspath()
     {
         List cp = new ArrayList();
@@ -334,6 +502,97 @@ public class CodeGenUtil
         return true;
     }
 
+    /**
+     * Writes the contents of the directory into a jar file, in this JVM,
+     * rather than running the jar tool.  Entries are written in name order,
+     * so the same classes always give the same jar.
+     */
+    static public boolean internalJar(File srcdir, File outfile, boolean quiet, boolean verbose)
+    {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Created-By"),
+            System.getProperty("java.vm.version") + " (" + System.getProperty("java.vm.vendor") + ")");
+
+        JarOutputStream jar = null;
+        try
+        {
+            if (outfile.getParentFile() != null)
+                outfile.getParentFile().mkdirs();
+
+            jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outfile)), manifest);
+            addJarEntries(jar, srcdir, "", verbose);
+            jar.close();
+            jar = null;
+        }
+        catch (IOException e)
+        {
+            System.err.println("IO Error " + e);
+            return false;
+        }
+        finally
+        {
+            if (jar != null)
+                try { jar.close(); } catch (IOException e) {}
+        }
+
+        return true;
+    }
+
+    private static void addJarEntries(JarOutputStream jar, File dir, String prefix, boolean verbose)
+        throws IOException
+    {
+        File[] files = dir.listFiles();
+        byte[] buffer = new byte[8192];
+
+        if (files == null)
+            throw new IOException("Cannot list " + dir);
+
+        Arrays.sort(files);
+
+        for (int i = 0; i < files.length; i++)
+        {
+            String name = prefix + files[i].getName();
+
+            // the manifest was written up front
+            if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME))
+                continue;
+
+            if (files[i].isDirectory())
+            {
+                JarEntry entry = new JarEntry(name + "/");
+                entry.setTime(files[i].lastModified());
+                jar.putNextEntry(entry);
+                jar.closeEntry();
+
+                addJarEntries(jar, files[i], name + "/", verbose);
+            }
+            else
+            {
+                if (verbose)
+                    System.out.println("adding: " + name);
+
+                JarEntry entry = new JarEntry(name);
+                entry.setTime(files[i].lastModified());
+                jar.putNextEntry(entry);
+
+                InputStream input = new FileInputStream(files[i]);
+                try
+                {
+                    // not IOUtil.copyCompletely, which would close the jar
+                    for (int n; (n = input.read(buffer)) >= 0; )
+                        jar.write(buffer, 0, n);
+                }
+                finally
+                {
+                    input.close();
+                }
+
+                jar.closeEntry();
+            }
+        }
+    }
+
     /**
      * Look for tool in current directory and ${JAVA_HOME}/../bin and
      * try with .exe file extension.
@@ -27,6 +27,7 @@ import java.lang.reflect.InvocationTargetException;
 
 import org.apache.xmlbeans.impl.schema.SchemaTypeCodePrinter;
 import org.apache.xmlbeans.impl.common.IOUtil;
+import org.apache.xmlbeans.impl.common.ParallelTasks;
 
 import repackage.Repackager;
 
@@ -34,7 +35,7 @@ public class SchemaCodeGenerator
 {
     // input directory, output dir filename
     // todo: output jar
-    public static boolean compileTypeSystem(SchemaTypeSystem saver, File sourcedir, File[] javasrc, Map sourcesToCopyMap, File[] classpath, File classesdir, File outputJar, boolean nojavac, boolean jaxb, XmlErrorWatcher errors, String repackage, boolean verbose, List sourcefiles )
+    public static boolean compileTypeSystem(SchemaTypeSystem saver, File sourcedir, File[] javasrc, Map sourcesToCopyMap, File[] classpath, File classesdir, File outputJar, boolean nojavac, boolean jaxb, XmlErrorWatcher errors, String repackage, boolean verbose, int threads, List sourcefiles )
     {
 
         if (sourcedir == null || classesdir == null)
@@ -101,7 +102,7 @@ public class SchemaCodeGenerator
         }
 
         if (! jaxb)
-            failure &= genTypes(saver, sourcefiles, sourcedir, repackager, verbose);
+            failure &= genTypes(saver, sourcefiles, sourcedir, repackager, verbose, threads);
         else
             failure &= jaxbCodeGenerator(saver, sourcefiles, sourcedir, classesdir, errors);
 
@@ -111,7 +112,7 @@ public class SchemaCodeGenerator
         return true;
     }
 
-    private static boolean genTypes(SchemaTypeSystem saver, List sourcefiles, File sourcedir, Repackager repackager, boolean verbose)
+    private static boolean genTypes(SchemaTypeSystem saver, List sourcefiles, final File sourcedir, final Repackager repackager, boolean verbose, int threads)
     {
         boolean failure = false;
 
@@ -120,90 +121,127 @@ public class SchemaCodeGenerator
         types.addAll(Arrays.asList(saver.documentTypes()));
         types.addAll(Arrays.asList(saver.attributeTypes()));
 
-        for (Iterator i = types.iterator(); i.hasNext(); )
-        {
-            SchemaType type = (SchemaType)i.next();
-            if (verbose)
-                System.err.println("Compiling type " + type);
-            if (type.isBuiltinType())
-                continue;
-            if (type.getFullJavaName() == null)
-                continue;
-            
-            String fjn = type.getFullJavaName();
+        // Each type is printed to its own pair of files, so the types can
+        // be printed in parallel; the files and messages of each type are
+        // collected in its own slot and reported in type order afterwards.
 
-            if (fjn.indexOf('$') > 0)
-            {
-                fjn =
-                    fjn.substring( 0, fjn.lastIndexOf( '.' ) ) + "." +
-                        fjn.substring( fjn.indexOf( '$' ) + 1 );
-            }
-            
-            String filename = fjn.replace('.', File.separatorChar) + ".java";
-            
-            Writer writer = null;
-            
-            try
-            {
-                File sourcefile = new File(sourcedir, filename);
-                sourcefile.getParentFile().mkdirs();
-                if (verbose)
-                    System.err.println("created " + sourcefile.getAbsolutePath());
-                writer =
-                    repackager == null
-                        ? (Writer) new FileWriter( sourcefile )
-                        : (Writer) new RepackagingWriter( sourcefile, repackager );
-                
+        final SchemaType[] typeArray = (SchemaType[])types.toArray(new SchemaType[types.size()]);
+        final File[][] generated = new File[typeArray.length][];
+        final String[] errors = new String[typeArray.length];
+        Runnable[] tasks = new Runnable[typeArray.length];
 
-                SchemaTypeCodePrinter.printType(writer, type);
-                
-                writer.close();
-                
-                sourcefiles.add(sourcefile);
-            }
-            catch (IOException e)
+        for (int i = 0; i < typeArray.length; i++)
+        {
+            final int index = i;
+            tasks[i] = new Runnable()
             {
-                System.err.println("IO Error " + e);
-                failure = true;
-            }
-            finally {
-                try { if (writer != null) writer.close(); } catch (IOException e) {}
-            }
+                public void run()
+                {
+                    genType(typeArray[index], sourcedir, repackager, generated, errors, index);
+                }
+            };
+        }
 
-            try
+        ParallelTasks.run(tasks, threads);
+
+        for (int i = 0; i < typeArray.length; i++)
+        {
+            if (verbose)
+                System.err.println("Compiling type " + typeArray[i]);
+
+            for (int j = 0; generated[i] != null && j < generated[i].length; j++)
             {
-                // Generate Implementation class
-                filename = type.getFullJavaImplName().replace('.', File.separatorChar) + ".java";
-                File implFile = new File(sourcedir,  filename);
+                if (generated[i][j] == null)
+                    continue;
                 if (verbose)
-                    System.err.println("created " + implFile.getAbsolutePath());
-                implFile.getParentFile().mkdirs();
-
-                
-                writer =
-                    repackager == null
-                        ? (Writer) new FileWriter( implFile )
-                        : (Writer) new RepackagingWriter( implFile, repackager );
-                
-                SchemaTypeCodePrinter.printTypeImpl(writer, type);
-                
-                writer.close();
-                
-                sourcefiles.add(implFile);
+                    System.err.println("created " + generated[i][j].getAbsolutePath());
+                sourcefiles.add(generated[i][j]);
             }
-            catch (IOException e)
+
+            if (errors[i] != null)
             {
-                System.err.println("IO Error " + e);
+                System.err.println(errors[i]);
                 failure = true;
             }
-            finally {
-                try { if (writer != null) writer.close(); } catch (IOException e) {}
-            }
         }
 
         return failure;
     }
 
+    private static void genType(SchemaType type, File sourcedir, Repackager repackager, File[][] generated, String[] errors, int index)
+    {
+        if (type.isBuiltinType())
+            return;
+        if (type.getFullJavaName() == null)
+            return;
+
+        generated[index] = new File[2];
+
+        String fjn = type.getFullJavaName();
+
+        if (fjn.indexOf('$') > 0)
+        {
+            fjn =
+                fjn.substring( 0, fjn.lastIndexOf( '.' ) ) + "." +
+                    fjn.substring( fjn.indexOf( '$' ) + 1 );
+        }
+
+        String filename = fjn.replace('.', File.separatorChar) + ".java";
+
+        Writer writer = null;
+
+        try
+        {
+            File sourcefile = new File(sourcedir, filename);
+            sourcefile.getParentFile().mkdirs();
+            writer =
+                repackager == null
+                    ? (Writer) new FileWriter( sourcefile )
+                    : (Writer) new RepackagingWriter( sourcefile, repackager );
+
+
+            SchemaTypeCodePrinter.printType(writer, type);
+
+            writer.close();
+
+            generated[index][0] = sourcefile;
+        }
+        catch (IOException e)
+        {
+            errors[index] = "IO Error " + e;
+        }
+        finally {
+            try { if (writer != null) writer.close(); } catch (IOException e) {}
+        }
+
+        try
+        {
+            // Generate Implementation class
+            filename = type.getFullJavaImplName().replace('.', File.separatorChar) + ".java";
+            File implFile = new File(sourcedir,  filename);
+            implFile.getParentFile().mkdirs();
+
+
+            writer =
+                repackager == null
+                    ? (Writer) new FileWriter( implFile )
+                    : (Writer) new RepackagingWriter( implFile, repackager );
+
+            SchemaTypeCodePrinter.printTypeImpl(writer, type);
+
+            writer.close();
+
+            generated[index][1] = implFile;
+        }
+        catch (IOException e)
+        {
+            errors[index] = "IO Error " + e;
+        }
+        finally {
+            try { if (writer != null) writer.close(); } catch (IOException e) {}
+        }
+    }
+
     private static class JaxbCodeGeneratorHolder
     {
         private static final Method _jaxbCodeGeneratorMethod = buildJaxbCodeGeneratorMethod();
@@ -396,7 +434,11 @@ public class SchemaCodeGenerator
             
             StringBuffer sb = getBuffer();
 
-            _repackager.repackage( sb );
+            // The repackager's matchers are not thread safe
+            synchronized ( _repackager )
+            {
+                _repackager.repackage( sb );
+            }
 
             FileWriter fw = new FileWriter( _file );
             fw.write( sb.toString() );
@@ -20,6 +20,7 @@ import org.apache.xmlbeans.impl.schema.PathResourceLoader;
 import org.apache.xmlbeans.impl.schema.ResourceLoader;
 import org.apache.xmlbeans.impl.schema.StscState;
 import org.apache.xmlbeans.impl.schema.SchemaTypeLoaderImpl;
+import org.apache.xmlbeans.impl.common.ParallelTasks;
 import org.apache.xmlbeans.impl.common.XmlErrorPrinter;
 import org.apache.xmlbeans.impl.common.XmlErrorWatcher;
 import org.apache.xmlbeans.impl.common.XmlErrorContext;
@@ -56,7 +57,10 @@ public class SchemaCompiler
             System.out.println("    -dl - permit network downloads for imports and includes (default is off)");
             System.out.println("    -noupa - do not enforce the unique particle attribution rule");
             System.out.println("    -nopvr - do not enforce the particle valid (restriction) rule");
+            System.out.println("    -packxsb - save the .xsb files as a single memory-mappable pack");
+            System.out.println("    -threads [n] - number of threads for parsing schemas and generating code (default one per processor)");
             System.out.println("    -compiler - path to external java compiler");
+            System.out.println("    -nofork - compile and jar inside this JVM instead of running javac and jar");
             System.out.println("    -jar - path to jar utility");
             System.out.println("    -ms - initial memory for external java compiler (default '" + CodeGenUtil.DEFAULT_MEM_START + "')");
             System.out.println("    -mx - maximum memory for external java compiler (default '" + CodeGenUtil.DEFAULT_MEM_MAX + "')");
@@ -91,6 +95,7 @@ public class SchemaCompiler
         opts.add("extension");
         opts.add("extensionParms");
         opts.add("allowmdef");
+        opts.add("threads");
         CommandLine cl = new CommandLine(args, opts);
 
         if (cl.getOpt("license") != null)
@@ -122,7 +127,23 @@ public class SchemaCompiler
         boolean download = (cl.getOpt("dl") != null);
         boolean noUpa = (cl.getOpt("noupa") != null);
         boolean noPvr = (cl.getOpt("nopvr") != null);
+        boolean packXsb = (cl.getOpt("packxsb") != null);
+        int threads = 0;
+        if (cl.getOpt("threads") != null)
+        {
+            try
+            {
+                threads = Integer.parseInt(cl.getOpt("threads"));
+            }
+            catch (NumberFormatException e)
+            {
+                System.err.println("Illegal number of threads: " + cl.getOpt("threads"));
+                System.exit(1);
+                return;
+            }
+        }
         boolean nojavac = (cl.getOpt("srconly") != null);
+        boolean noFork = (cl.getOpt("nofork") != null);
         boolean debug = (cl.getOpt("debug") != null);
         boolean jaxb = (cl.getOpt("jaxb") != null);
 
@@ -257,11 +278,14 @@ public class SchemaCompiler
         params.setMemoryInitialSize(memoryInitialSize);
         params.setMemoryMaximumSize(memoryMaximumSize);
         params.setNojavac(nojavac);
+        params.setNoFork(noFork);
         params.setQuiet(quiet);
         params.setVerbose(verbose);
         params.setDownload(download);
         params.setNoUpa(noUpa);
         params.setNoPvr(noPvr);
+        params.setPackXsb(packXsb);
+        params.setThreads(threads);
         params.setDebug(debug);
         params.setErrorListener(err);
         params.setRepackage(repackage);
@@ -303,6 +327,9 @@ public class SchemaCompiler
         private Collection errorListener;
         private boolean noUpa;
         private boolean noPvr;
+        private boolean packXsb;
+        private int threads;
+        private boolean noFork;
         private boolean debug;
         private String repackage;
         private List extensions = Collections.EMPTY_LIST;
@@ -469,6 +496,36 @@ public class SchemaCompiler
             this.noPvr = noPvr;
         }
 
+        public boolean isPackXsb()
+        {
+            return packXsb;
+        }
+
+        public void setPackXsb(boolean packXsb)
+        {
+            this.packXsb = packXsb;
+        }
+
+        public boolean isNoFork()
+        {
+            return noFork;
+        }
+
+        public void setNoFork(boolean noFork)
+        {
+            this.noFork = noFork;
+        }
+
+        public int getThreads()
+        {
+            return threads;
+        }
+
+        public void setThreads(int threads)
+        {
+            this.threads = threads;
+        }
+
         public boolean isDebug()
         {
             return debug;
@@ -570,10 +627,81 @@ public class SchemaCompiler
 
     }
 
+    /**
+     * Parses and validates the XSD files, using up to the given number of
+     * threads.  Each file collects its own messages, which are reported in
+     * file order, so the output does not depend on the number of threads.
+     */
+    private static List loadSchemaFiles(final File[] xsdFiles, final SchemaTypeLoader loader, Collection errorListener, int threads)
+    {
+        final SchemaDocument.Schema[] schemas = new SchemaDocument.Schema[xsdFiles.length];
+        final List[] messages = new List[xsdFiles.length];
+        Runnable[] tasks = new Runnable[xsdFiles.length];
+
+        for (int i = 0; i < xsdFiles.length; i++)
+        {
+            final int index = i;
+            tasks[i] = new Runnable()
+            {
+                public void run()
+                {
+                    messages[index] = new ArrayList();
+                    schemas[index] = loadSchemaFile(xsdFiles[index], loader, messages[index]);
+                }
+            };
+        }
+
+        ParallelTasks.run(tasks, threads);
+
+        List result = new ArrayList();
+
+        for (int i = 0; i < xsdFiles.length; i++)
+        {
+            errorListener.addAll(messages[i]);
+            if (schemas[i] != null)
+                result.add(schemas[i]);
+        }
+
+        return result;
+    }
+
+    private static SchemaDocument.Schema loadSchemaFile(File xsdFile, SchemaTypeLoader loader, Collection errorListener)
+    {
+        try
+        {
+            XmlOptions options = new XmlOptions();
+            options.setLoadLineNumbers();
+            options.setLoadMessageDigest();
+            options.setLoadSubstituteNamespaces(MAP_COMPATIBILITY_CONFIG_URIS);
+
+            XmlObject schemadoc = loader.parse(xsdFile, null, options);
+            if (!(schemadoc instanceof SchemaDocument))
+            {
+                StscState.addError(errorListener, "Document " + xsdFile + " is not a schema file", XmlErrorContext.CANNOT_LOAD_XSD_FILE, schemadoc);
+            }
+            else
+            {
+                StscState.addInfo(errorListener, "Loading schema file " + xsdFile);
+                XmlOptions opts = new XmlOptions().setErrorListener(errorListener);
+                if (schemadoc.validate(opts))
+                    return ((SchemaDocument)schemadoc).getSchema();
+            }
+        }
+        catch (XmlException e)
+        {
+            errorListener.add(e.getError());
+        }
+        catch (Exception e)
+        {
+            StscState.addError(errorListener, "Cannot load file " + xsdFile + ": " + e, XmlErrorContext.CANNOT_LOAD_XSD_FILE, xsdFile);
+        }
+        return null;
+    }
+
     private static SchemaTypeSystem loadTypeSystem(
         String name, File[] xsdFiles,
         File[] wsdlFiles, File[] configFiles, ResourceLoader cpResourceLoader,
-        boolean download, boolean noUpa, boolean noPvr, Set mdefNamespaces,
+        boolean download, boolean noUpa, boolean noPvr, boolean packXsb, int threads, Set mdefNamespaces,
         File baseDir, Map sourcesToCopyMap, Collection outerErrorListener)
     {
         XmlErrorWatcher errorListener = new XmlErrorWatcher(outerErrorListener);
@@ -586,42 +714,10 @@ public class SchemaCompiler
 
         SchemaTypeLoader loader = XmlBeans.typeLoaderForClassLoader(SchemaDocument.class.getClassLoader());
 
-        // step 1, parse all the XSD files.
+        // step 1, parse all the XSD files, several at a time.
         ArrayList scontentlist = new ArrayList();
         if (xsdFiles != null)
-        {
-            for (int i = 0; i < xsdFiles.length; i++)
-            {
-                try
-                {
-                    XmlOptions options = new XmlOptions();
-                    options.setLoadLineNumbers();
-                    options.setLoadMessageDigest();
-                    options.setLoadSubstituteNamespaces(MAP_COMPATIBILITY_CONFIG_URIS);
-
-                    XmlObject schemadoc = loader.parse(xsdFiles[i], null, options);
-                    if (!(schemadoc instanceof SchemaDocument))
-                    {
-                        StscState.addError(errorListener, "Document " + xsdFiles[i] + " is not a schema file", XmlErrorContext.CANNOT_LOAD_XSD_FILE, schemadoc);
-                    }
-                    else
-                    {
-                        StscState.addInfo(errorListener, "Loading schema file " + xsdFiles[i]);
-                        XmlOptions opts = new XmlOptions().setErrorListener(errorListener);
-                        if (schemadoc.validate(opts))
-                            scontentlist.add(((SchemaDocument)schemadoc).getSchema());
-                    }
-                }
-                catch (XmlException e)
-                {
-                    errorListener.add(e.getError());
-                }
-                catch (Exception e)
-                {
-                    StscState.addError(errorListener, "Cannot load file " + xsdFiles[i] + ": " + e, XmlErrorContext.CANNOT_LOAD_XSD_FILE, xsdFiles[i]);
-                }
-            }
-        }
+            scontentlist.addAll(loadSchemaFiles(xsdFiles, loader, errorListener, threads));
 
         // step 2, parse all WSDL files
         if (wsdlFiles != null)
@@ -730,6 +826,9 @@ public class SchemaCompiler
             opts.setCompileNoUpaRule();
         if (noPvr)
             opts.setCompileNoPvrRule();
+        if (packXsb)
+            opts.setCompilePackXsb();
+        opts.setCompileThreads(threads);
         if (mdefNamespaces != null)
             opts.setCompileMdefNamespaces(mdefNamespaces);
         opts.setCompileNoValidation(); // already validated here
@@ -771,6 +870,9 @@ public class SchemaCompiler
         boolean download = params.isDownload();
         boolean noUpa = params.isNoUpa();
         boolean noPvr = params.isNoPvr();
+        boolean packXsb = params.isPackXsb();
+        int threads = params.getThreads();
+        boolean noFork = params.isNoFork();
         Collection outerErrorListener = params.getErrorListener();
         String repackage = params.getRepackage();
         List extensions = params.getExtensions();
@@ -797,7 +899,7 @@ public class SchemaCompiler
 
         // build the in-memory type system
         XmlErrorWatcher errorListener = new XmlErrorWatcher(outerErrorListener);
-        SchemaTypeSystem system = loadTypeSystem(name, xsdFiles, wsdlFiles, configFiles, cpResourceLoader, download, noUpa, noPvr, mdefNamespaces, baseDir, sourcesToCopyMap, errorListener);
+        SchemaTypeSystem system = loadTypeSystem(name, xsdFiles, wsdlFiles, configFiles, cpResourceLoader, download, noUpa, noPvr, packXsb, threads, mdefNamespaces, baseDir, sourcesToCopyMap, errorListener);
         if (errorListener.hasError())
             result = false;
         long finish = System.currentTimeMillis();
@@ -811,7 +913,7 @@ public class SchemaCompiler
 
             // generate source and .xsb
             List sourcefiles = new ArrayList();
-            result &= SchemaCodeGenerator.compileTypeSystem(system, srcDir, javaFiles, sourcesToCopyMap, classpath, classesDir, outputJar, nojavac, jaxb, errorListener, repackage, verbose, sourcefiles);
+            result &= SchemaCodeGenerator.compileTypeSystem(system, srcDir, javaFiles, sourcesToCopyMap, classpath, classesDir, outputJar, nojavac, jaxb, errorListener, repackage, verbose, threads, sourcefiles);
             result &= !errorListener.hasError();
 
             if (result)
@@ -828,7 +930,12 @@ public class SchemaCompiler
 
                 if (javaFiles != null)
                     sourcefiles.addAll(java.util.Arrays.asList(javaFiles));
-                if (!CodeGenUtil.externalCompile(sourcefiles, classesDir, classpath, debug, compiler, memoryInitialSize, memoryMaximumSize, quiet, verbose))
+                if (noFork)
+                {
+                    if (!CodeGenUtil.internalCompile(sourcefiles, classesDir, classpath, debug, quiet, verbose))
+                        result = false;
+                }
+                else if (!CodeGenUtil.externalCompile(sourcefiles, classesDir, classpath, debug, compiler, memoryInitialSize, memoryMaximumSize, quiet, verbose))
                     result = false;
 
                 finish = System.currentTimeMillis();
@@ -838,7 +945,12 @@ public class SchemaCompiler
                 // jar classes and .xsb
                 if (result && outputJar != null)
                 {
-                    if (!CodeGenUtil.externalJar(classesDir, outputJar, jar, quiet, verbose))
+                    if (noFork)
+                    {
+                        if (!CodeGenUtil.internalJar(classesDir, outputJar, quiet, verbose))
+                            result = false;
+                    }
+                    else if (!CodeGenUtil.externalJar(classesDir, outputJar, jar, quiet, verbose))
                         result = false;
 
                     if (result && !params.isQuiet())
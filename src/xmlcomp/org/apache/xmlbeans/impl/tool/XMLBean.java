@@ -66,6 +66,7 @@ public class XMLBean extends MatchingTask
                         srconly,
                         noupa,
                         nopvr,
+                        packxsb,
                         failonerror = true,
                         fork = true,
                         includeAntRuntime = true,
@@ -78,6 +79,8 @@ public class XMLBean extends MatchingTask
                         memoryInitialSize,
                         memoryMaximumSize;
     
+    private int         threads;
+
     private List        extensions = new ArrayList();
 
     private HashMap     _extRouter = new HashMap(5);
@@ -225,6 +228,8 @@ public class XMLBean extends MatchingTask
             params.setMdefNamespaces(mdefnamespaces);
             params.setNoUpa(noupa);
             params.setNoPvr(nopvr);
+            params.setPackXsb(packxsb);
+            params.setThreads(threads);
             success = SchemaCompiler.compile(params);
 
             if (success && !srconly) {
@@ -524,7 +529,9 @@ public class XMLBean extends MatchingTask
     }
 
     /**
-     * If true, forks the javac compiler.
+     * If true, forks the javac compiler.  Defaults to true; set it to false
+     * to compile the generated sources inside Ant's own JVM, which saves
+     * starting a new one.  The jar is always written in-process.
      *
      * @param f "true|false|on|off|yes|no"
      */
@@ -704,6 +711,33 @@ public class XMLBean extends MatchingTask
         return nopvr;
     }
 
+    /**
+     * Save the .xsb files as a single pack, which is faster to load.
+     */
+    public void setPackXsb(boolean packxsb)
+    {
+        this.packxsb = packxsb;
+    }
+
+    public boolean isPackXsb()
+    {
+        return packxsb;
+    }
+
+    /**
+     * The number of threads used to parse schemas and generate code;
+     * zero, the default, means one per processor.
+     */
+    public void setThreads(int threads)
+    {
+        this.threads = threads;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
     private static URI uriFromFile(File f)
     {
         if (f == null)
@@ -23,6 +23,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.math.BigInteger;
 import java.math.BigDecimal;
 import java.util.Calendar;
@@ -106,6 +108,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         return underlyingXmlObject().isImmutable();
     }
 
+    public void freeze()
+    {
+        underlyingXmlObject().freeze();
+    }
+
+    public boolean isFrozen()
+    {
+        return underlyingXmlObject().isFrozen();
+    }
+
     public XmlObject set(XmlObject srcObj)
     {
         return underlyingXmlObject().set(srcObj);
@@ -121,11 +133,21 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         return underlyingXmlObject().valueEquals(obj);
     }
 
+    public boolean valueEquals(XmlObject obj, XmlOptions options)
+    {
+        return underlyingXmlObject().valueEquals(obj, options);
+    }
+
     public int valueHashCode()
     {
         return underlyingXmlObject().valueHashCode();
     }
 
+    public long contentFingerprint()
+    {
+        return underlyingXmlObject().contentFingerprint();
+    }
+
     public int compareTo(Object obj)
     {
         return underlyingXmlObject().compareTo(obj);
@@ -199,6 +221,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         underlyingXmlObject().save(w);
     }
 
+    public void save(WritableByteChannel channel) throws IOException
+    {
+        underlyingXmlObject().save(channel);
+    }
+
+    public void save(ByteBuffer buffer)
+    {
+        underlyingXmlObject().save(buffer);
+    }
+
     /**
      * @deprecated Superceded by JSR 173
      */
@@ -247,6 +279,16 @@ public abstract class FilterXmlObject implements XmlObject, SimpleValue, Delegat
         underlyingXmlObject().save(w, options);
     }
 
+    public void save(WritableByteChannel channel, XmlOptions options) throws IOException
+    {
+        underlyingXmlObject().save(channel, options);
+    }
+
+    public void save(ByteBuffer buffer, XmlOptions options)
+    {
+        underlyingXmlObject().save(buffer, options);
+    }
+
     public SchemaType instanceType()
     {
         return ((SimpleValue)underlyingXmlObject()).instanceType();
@@ -18,41 +18,39 @@ package org.apache.xmlbeans;
 import javax.xml.namespace.QName;
 
 /**
- * A cache that can be used to pool QName instances.  Each thread has one.
+ * A cache that can be used to pool QName instances.  It is safe for use
+ * by many threads at once; {@link XmlBeans#getQNameCache} returns the
+ * one shared by the whole process.
+ *
+ * The cache is split into independently locked segments.  Names already
+ * in a segment are found without locking.  A cache may be given a maximum
+ * size, in which case each segment keeps two generations of names: when
+ * the current generation fills up it becomes the previous one, and the
+ * old previous generation is dropped.  Names found in the previous
+ * generation move back into the current one, so names in steady use stay
+ * cached while names seen once are eventually forgotten.
  */ 
 public final class QNameCache
 {
     private static final float DEFAULT_LOAD = 0.70f;
-    private final float loadFactor;
-    private int numEntries = 0;
-    private int threshold;
-    private int hashmask;
-    private QName[] table;
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments;
 
     /**
-     * Creates a QNameCache with the given initialCapacity and loadFactor.
+     * Creates an unbounded QNameCache with the given initialCapacity and
+     * loadFactor.
      * 
      * @param initialCapacity the number of entries to initially make space for
      * @param loadFactor a number to control the density of the hashtable
      */ 
     public QNameCache(int initialCapacity, float loadFactor)
     {
-        assert initialCapacity > 0;
-        assert loadFactor > 0 && loadFactor < 1;
-
-        // Find a power of 2 >= initialCapacity
-        int capacity = 16;
-        while (capacity < initialCapacity) 
-            capacity <<= 1;
-    
-        this.loadFactor = loadFactor;
-        this.hashmask = capacity - 1;
-        threshold = (int)(capacity * loadFactor);
-        table = new QName[capacity];
+        this(initialCapacity, loadFactor, 0);
     }
 
     /**
-     * Creates a QNameCache with the given initialCapacity.
+     * Creates an unbounded QNameCache with the given initialCapacity.
      * 
      * @param initialCapacity the number of entries to initially make space for
      */ 
@@ -61,6 +59,33 @@ public final class QNameCache
         this(initialCapacity, DEFAULT_LOAD);
     }
 
+    /**
+     * Creates a QNameCache which holds roughly at most maxEntries names.
+     * 
+     * @param initialCapacity the number of entries to initially make space for
+     * @param loadFactor a number to control the density of the hashtable
+     * @param maxEntries the maximum number of names to keep, or a non
+     *        positive number for an unbounded cache
+     */ 
+    public QNameCache(int initialCapacity, float loadFactor, int maxEntries)
+    {
+        assert initialCapacity > 0;
+        assert loadFactor > 0 && loadFactor < 1;
+
+        // Each segment holds two generations, so a generation gets a
+        // half of the segment's share of maxEntries
+
+        int generationMax =
+            maxEntries <= 0 ? 0 : Math.max(16, maxEntries / (2 * SEGMENTS));
+
+        int segmentCapacity = (initialCapacity + SEGMENTS - 1) / SEGMENTS;
+
+        segments = new Segment[SEGMENTS];
+
+        for (int i = 0 ; i < SEGMENTS ; i++)
+            segments[i] = new Segment(segmentCapacity, loadFactor, generationMax);
+    }
+
     /**
      * Fetches a QName with the given namespace and localname.
      * Creates one if one is not found in the cache.
@@ -71,24 +96,67 @@ public final class QNameCache
      */ 
     public QName getName(String uri, String localName)
     {
-        /*
-        return new QName(uri, localName);
-        */
         assert localName != null;
         
         if (uri == null) uri = "";
 
-        int index = hash(uri, localName) & hashmask;
+        int hash = hash(uri, localName);
+        Segment segment = segmentFor(hash);
+
+        QName q = find(segment.table, hash, uri, localName);
+
+        if (q != null)
+            return q;
+
+        return segment.add(hash, uri, localName, null);
+    }
+
+    /**
+     * Returns the cached QName equal to the given one, caching the given
+     * instance if there is none.  Interning the names of a type system this
+     * way lets documents loaded later share the type system's instances.
+     * 
+     * @param name the name to intern
+     * @return the cached QName
+     */ 
+    public QName intern(QName name)
+    {
+        String uri = name.getNamespaceURI();
+        String localName = name.getLocalPart();
+
+        int hash = hash(uri, localName);
+        Segment segment = segmentFor(hash);
+
+        QName q = find(segment.table, hash, uri, localName);
+
+        if (q != null)
+            return q;
+
+        return segment.add(hash, uri, localName, name);
+    }
+
+    private Segment segmentFor(int hash)
+    {
+        // The low bits pick the slot within a segment; use the high ones here
+
+        int h = hash ^ (hash >>> 16);
+        return segments[(h >>> 8) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Looks a name up in a table.  This may be called without holding the
+     * segment lock, in which case a name being added concurrently may be
+     * missed; the caller then retries under the lock.
+     */
+    private static QName find(QName[] table, int hash, String uri, String localName)
+    {
+        int hashmask = table.length - 1;
+        int index = hash & hashmask;
+
         while (true) {
             QName q = table[index];
             if (q == null)
-            {
-                numEntries++;
-                if (numEntries >= threshold)
-                    rehash();
-
-                return table[index] = new QName(uri, localName);
-            }
+                return null;
             else if (equals(q, uri, localName))
                 return q;
             else 
@@ -96,28 +164,88 @@ public final class QNameCache
         }
     }
 
-    private void rehash()
+    private static final class Segment
     {
-        int newLength = table.length * 2;
-        QName[] newTable = new QName[newLength];
-        int newHashmask = newLength - 1;
+        private final float loadFactor;
+        private final int generationMax;
+        private volatile QName[] table;
+        private QName[] previous;
+        private int numEntries;
+        private int threshold;
+
+        Segment(int initialCapacity, float loadFactor, int generationMax)
+        {
+            // Find a power of 2 >= initialCapacity
+            int capacity = 16;
+            while (capacity < initialCapacity) 
+                capacity <<= 1;
 
-        for (int i = 0 ; i < table.length ; i++)
+            this.loadFactor = loadFactor;
+            this.generationMax = generationMax;
+            threshold = (int)(capacity * loadFactor);
+            table = new QName[capacity];
+        }
+
+        synchronized QName add(int hash, String uri, String localName, QName name)
         {
-            QName q = table[i];
+            QName q = find(table, hash, uri, localName);
+
             if (q != null)
+                return q;
+
+            if (previous != null)
+                q = find(previous, hash, uri, localName);
+
+            if (q == null)
+                q = name == null ? new QName(uri, localName) : name;
+
+            if (generationMax > 0 && numEntries >= generationMax)
             {
-                int newIndex = hash(q.getNamespaceURI(), q.getLocalPart()) & newHashmask;
-                while (newTable[newIndex] != null)
-                    newIndex = (newIndex - 1) & newHashmask;
-                newTable[newIndex] = q;
+                previous = table;
+                table = new QName[table.length];
+                numEntries = 0;
             }
+
+            QName[] t = table;
+            int hashmask = t.length - 1;
+            int index = hash & hashmask;
+
+            while (t[index] != null)
+                index = (index-1) & hashmask;
+
+            t[index] = q;
+
+            numEntries++;
+            if (numEntries >= threshold)
+                rehash();
+
+            return q;
         }
 
-        table = newTable;
-        hashmask = newHashmask;
-        threshold = (int)(newLength * loadFactor);
+        private void rehash()
+        {
+            QName[] oldTable = table;
+            int newLength = oldTable.length * 2;
+            QName[] newTable = new QName[newLength];
+            int newHashmask = newLength - 1;
+
+            for (int i = 0 ; i < oldTable.length ; i++)
+            {
+                QName q = oldTable[i];
+                if (q != null)
+                {
+                    int newIndex = hash(q.getNamespaceURI(), q.getLocalPart()) & newHashmask;
+                    while (newTable[newIndex] != null)
+                        newIndex = (newIndex - 1) & newHashmask;
+                    newTable[newIndex] = q;
+                }
+            }
+
+            threshold = (int)(newLength * loadFactor);
+            table = newTable;
+        }
     }
+
     private static int hash(String uri, String localName)
     {
         return (uri.hashCode() << 5) + localName.hashCode();
@@ -81,7 +81,8 @@ public interface SchemaComponent
         protected Ref(SchemaTypeSystem schemaTypeSystem, String handle)
             { assert(handle != null); _schemaTypeSystem = schemaTypeSystem; _handle = handle; }
 
-        private SchemaComponent _schemaComponent;
+        // volatile: refs are resolved lazily, by whichever thread gets there first
+        private volatile SchemaComponent _schemaComponent;
         private SchemaTypeSystem _schemaTypeSystem;
         public String _handle;
 
@@ -23,9 +23,11 @@ import java.io.File;
 import java.io.InputStream;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.Iterator;
 import java.net.URL;
 
 import org.w3c.dom.Node;
+import org.xml.sax.ContentHandler;
 
 /**
  * Represents a searchable set of XML Schema component definitions.
@@ -155,4 +157,21 @@ public interface SchemaTypeLoader
      * @deprecated Superceded by JSR 173
      */
     public XMLInputStream newValidatingXMLInputStream ( XMLInputStream xis, SchemaType type, XmlOptions options ) throws XmlException, XMLStreamException;
+    /** Returns a SAX ContentHandler which validates a document of the given type
+     * as it is parsed, without loading it.  Errors are added to the
+     * {@link XmlOptions#setErrorListener error listener}, or the first is thrown
+     * as a SAXParseException if there is none.  The parser must be namespace aware. */
+    public ContentHandler newValidatingContentHandler ( SchemaType type, XmlOptions options );
+
+    /** Returns an Iterator over the elements named recordName in the XML
+     * read from the stream, each loaded as an XmlObject of the given type,
+     * in a document of its own, only when the iterator reaches it.  This
+     * lets very large inputs made of repeated records be processed with
+     * little memory.  If type is null or a document type, each record is
+     * typed by its name as parse would; any other type is given to the
+     * content of the record, as with an xml-fragment.  next() is synchronized, so many
+     * threads may take records from one iterator.  Errors in the input are
+     * thrown from hasNext() and next() as XmlRuntimeException.
+     * @see XmlOptions#setLoadValidateRecords */
+    public Iterator parseIterator ( InputStream is, QName recordName, SchemaType type, XmlOptions options ) throws XmlException, IOException;
 }
@@ -43,6 +43,24 @@ public interface XmlBase64Binary extends XmlAnySimpleType
     /** Sets this value as a byte array. */
     void setByteArrayValue(byte[] ba);
 
+    /**
+     * Returns a stream of the bytes of this value, which reads them where
+     * they are held instead of copying them out as getByteArrayValue does.
+     * The stream goes on seeing the value as it was when the stream was
+     * made, whatever is set afterwards.  Returns null if the value is nil.
+     */
+    java.io.InputStream newInputStream();
+
+    /** Returns {@link #newInputStream} as a channel. */
+    java.nio.channels.ReadableByteChannel newReadableChannel();
+
+    /**
+     * Returns a stream to write a new value to.  The bytes written become
+     * the value of this object, without being copied again, when the
+     * stream is closed.
+     */
+    java.io.OutputStream newOutputStream();
+
 
     /**
      * A class with methods for creating instances
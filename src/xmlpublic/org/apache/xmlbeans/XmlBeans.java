@@ -19,7 +19,6 @@ import javax.xml.namespace.QName;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.lang.ref.SoftReference;
 
 
 /**
@@ -74,35 +73,46 @@ public final class XmlBeans
         return XMLBEANS_VERSION;
     }
 
+    private static final String QNAME_CACHE_SIZE = "xmlbean.qnameCacheSize";
+
+    private static final int DEFAULT_QNAME_CACHE_SIZE = 32768;
+
     /**
-     * Thread local QName cache for general use
+     * QName cache shared by all threads for general use
      */
-    private static final ThreadLocal _threadLocalLoaderQNameCache =
-        new ThreadLocal()
-        {
-            protected Object initialValue()
+    private static final QNameCache _qnameCache = buildQNameCache();
+
+    private static QNameCache buildQNameCache ( )
+    {
+        int maxEntries = DEFAULT_QNAME_CACHE_SIZE;
+
+        String size = null;
+        if ((size = System.getProperty(QNAME_CACHE_SIZE)) != null)
+            try
+            {
+                maxEntries = Integer.parseInt(size);
+            }
+            catch (Exception e)
             {
-                return new SoftReference(new QNameCache( 32 ));
             }
-        };
+
+        // A non positive size means the cache is unbounded
+
+        return new QNameCache( 256, 0.70f, maxEntries );
+    }
 
     /**
-     * Returns a thread local QNameCache
+     * Returns the QNameCache shared by all threads.  Its size is bounded
+     * by the xmlbean.qnameCacheSize system property, 32768 names by
+     * default; a non positive value makes it unbounded.
      */
     public static QNameCache getQNameCache ( )
     {
-        SoftReference softRef = (SoftReference)_threadLocalLoaderQNameCache.get();
-        QNameCache qnameCache = (QNameCache) (softRef).get();
-        if (qnameCache==null)
-        {
-            qnameCache = new QNameCache( 32 );
-            _threadLocalLoaderQNameCache.set(new SoftReference(qnameCache));
-        }
-        return qnameCache;
+        return _qnameCache;
     }
 
     /**
-     * Obtains a name from the thread local QNameCache
+     * Obtains a name from the shared QNameCache
      */
     public static QName getQName ( String localPart )
     {
@@ -110,7 +120,7 @@ public final class XmlBeans
     }
 
     /**
-     * Obtains a name from the thread local QNameCache
+     * Obtains a name from the shared QNameCache
      */
 
     public static QName getQName ( String namespaceUri, String localPart )
@@ -123,6 +133,9 @@ public final class XmlBeans
     private static final Method _getNoTypeMethod = buildGetNoTypeMethod();
     private static final Method _typeLoaderBuilderMethod = buildTypeLoaderBuilderMethod();
     private static final Method _compilationMethod = buildCompilationMethod();
+    private static final Method _setContextPoolSizeMethod = buildContextPoolMethod("setContextPoolSize", new Class[] { int.class });
+    private static final Method _warmContextPoolsMethod = buildContextPoolMethod("warmContextPools", new Class[] { int.class });
+    private static final Method _getContextPoolStatisticsMethod = buildContextPoolMethod("getContextPoolStatistics", new Class[0]);
 
     private static RuntimeException causedException(RuntimeException e, Throwable cause)
     {
@@ -202,6 +215,86 @@ public final class XmlBeans
         }
     }
 
+    private static final Method buildContextPoolMethod(String name, Class[] params)
+    {
+        try
+        {
+            return Class.forName("org.apache.xmlbeans.impl.store.Root", false, XmlBeans.class.getClassLoader()).getMethod(name, params);
+        }
+        catch (Exception e)
+        {
+            throw causedException(new IllegalStateException("Cannot load Root: verify that xbean.jar is on the classpath"), e);
+        }
+    }
+
+    private static Object invokeContextPoolMethod(Method method, Object[] args)
+    {
+        try
+        {
+            return method.invoke(null, args);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw causedException(new IllegalStateException("No access to Root." + method.getName() + "(): verify that version of xbean.jar is correct"), e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw causedException(new IllegalStateException(e.getMessage()), e.getCause());
+        }
+    }
+
+    /**
+     * Sets how many parsers, and the buffers and DOM builders that go with
+     * loading and saving, are kept for reuse.  These are shared by all
+     * threads, so that short lived threads don't each make their own.
+     * When more are in use at once than are kept, extra ones are made and
+     * then dropped.  The default is the value of the xmlbean.poolsize
+     * system property, or twice the number of processors.
+     */
+    public static void setParserPoolSize(int size)
+    {
+        invokeContextPoolMethod(_setContextPoolSizeMethod, new Object[] { new Integer(size) });
+    }
+
+    /**
+     * Makes up to count parsers, buffers and DOM builders ahead of time,
+     * for example at startup, so that the first loads and saves don't
+     * have to.
+     */
+    public static void warmParserPool(int count)
+    {
+        invokeContextPoolMethod(_warmContextPoolsMethod, new Object[] { new Integer(count) });
+    }
+
+    /**
+     * Returns the number of times a parser, buffer or DOM builder was
+     * reused from the pool.
+     */
+    public static long getParserPoolHits()
+    {
+        return ((long[])invokeContextPoolMethod(_getContextPoolStatisticsMethod, null))[0];
+    }
+
+    /**
+     * Returns the number of times a parser, buffer or DOM builder had to be
+     * made because none was free in the pool.
+     */
+    public static long getParserPoolMisses()
+    {
+        return ((long[])invokeContextPoolMethod(_getContextPoolStatisticsMethod, null))[1];
+    }
+
+    /**
+     * Returns the number of parsers, buffers and DOM builders dropped
+     * because the pool was full when they were given back, or because a
+     * parse failed part way.  Many drops mean the pool is too small for
+     * the number of threads loading at once.
+     */
+    public static long getParserPoolDrops()
+    {
+        return ((long[])invokeContextPoolMethod(_getContextPoolStatisticsMethod, null))[2];
+    }
+
     /**
      * Compiles an XPath, returning a String equal to that which was passed,
      * but whose identity is that of one which has been precompiled and cached.
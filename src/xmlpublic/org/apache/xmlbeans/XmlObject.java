@@ -369,6 +369,23 @@ public interface XmlObject extends XmlTokenSource
      */
     boolean isImmutable();
 
+    /**
+     * Makes the whole document containing this XmlObject read-only.  A
+     * frozen document may be read by any number of threads at once without
+     * their waiting on one another, and the nth child of an element is found
+     * without walking its siblings.  Any attempt to change a frozen document
+     * throws an IllegalStateException; to make changes, change a
+     * {@link #copy} of it instead.
+     *
+     * @see XmlOptions#setLoadConcurrentReads
+     */
+    void freeze();
+
+    /**
+     * True if this XmlObject is in a document which has been frozen.
+     */
+    boolean isFrozen();
+
     /**
      * Set the value/type of this XmlObject to be a copy of the source
      * XmlObject.  Because the type of the source may be different than this
@@ -419,8 +436,44 @@ public interface XmlObject extends XmlTokenSource
      */
     boolean valueEquals(XmlObject obj);
 
+    /**
+     * Compares values as valueEquals(obj) does, with options which
+     * loosen the comparison of complex content.
+     * <p>
+     * Objects of complex type are equal when they have the same type and
+     * the same attributes, child elements, text, comments and processing
+     * instructions, in the same order (apart from attributes, whose order
+     * does not matter).  Names are compared by namespace URI, so the
+     * prefixes a document happens to use make no difference, and
+     * namespace declarations are not themselves compared.  The objects'
+     * own element names are not compared either.
+     * <p>
+     * Options which may be used:
+     * <ul>
+     * <li>{@link XmlOptions#setCompareIgnoreWhitespace}</li>
+     * <li>{@link XmlOptions#setCompareIgnoreComments}</li>
+     * </ul>
+     * Options have no effect when comparing simple values.
+     */
+    boolean valueEquals(XmlObject obj, XmlOptions options);
+
     int valueHashCode();
 
+    /**
+     * Returns a 64 bit hash of the content under this object, in the
+     * terms of valueEquals: it does not depend on namespace prefixes, the
+     * order of attributes or the object's own element name.  The
+     * fingerprint of a document is kept with the document and only worked
+     * out again after the document changes, so it is a cheap way to tell
+     * whether a document has changed, or to look a document up in a
+     * cache, without saving it.
+     * <p>
+     * Objects with equal content have equal fingerprints.  Simple values
+     * are fingerprinted by their text, so, unlike valueHashCode, "1" and
+     * "1.0" have different fingerprints even as decimals.
+     */
+    long contentFingerprint();
+
     /**
      * Impelements the Comparable interface by comparing two simple
      * xml values based on their standard XML schema ordering.
@@ -446,6 +446,86 @@ public class XmlOptions implements java.io.Serializable
         return set( LOAD_MESSAGE_DIGEST ); 
     }
 
+    /**
+     * If this option is set, documents are loaded by scanning their text
+     * directly into the store rather than through a SAX parser, which is
+     * considerably faster and creates far less garbage.  The direct
+     * scanner does not apply attribute defaults declared in a DTD and
+     * does not support internal entities whose replacement text contains
+     * markup.
+     * 
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadUsePullParser () { 
+        return set( LOAD_USE_PULL_PARSER ); 
+    }
+
+    /**
+     * If this option is set, the loaded document keeps an index of its
+     * elements by name.  The index is built the first time it is needed
+     * and is then kept up to date as the document changes.  It speeds up
+     * paths of the form "//name" and "$this//name", and access by index
+     * to elements in very long runs of siblings, at the cost of some
+     * memory and of slower inserts and removes.
+     * 
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadElementIndex () { 
+        return set( LOAD_ELEMENT_INDEX ); 
+    }
+
+    /**
+     * If this option is set, the loaded document is read-only and may be
+     * read by any number of threads at once.  Reads do not take the
+     * document's lock, so getters, cursors, path queries and saving on
+     * one thread do not wait for those on another.  Any attempt to change
+     * the document throws an IllegalStateException.
+     * 
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadConcurrentReads () { 
+        return set( LOAD_CONCURRENT_READS ); 
+    }
+
+    /**
+     * Puts off loading the attributes and content of elements with any of
+     * the given names.  Their load events are kept in a compact form and
+     * the element is filled in the first time a cursor, getter, path or
+     * save reaches into it.  Useful for reading the header of a large
+     * document without paying for its body.  The document element is
+     * always loaded.
+     * 
+     * @param elementNames a Set of QNames
+     * 
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadLazyElements (Set elementNames) { 
+        return set( LOAD_LAZY_ELEMENTS, elementNames ); 
+    }
+
+    /**
+     * Validates each record read by {@link SchemaTypeLoader#parseIterator}.
+     * Invalid records are passed over and their errors added to the
+     * {@link #setErrorListener error listener}; with no listener the first
+     * invalid record is thrown as an XmlRuntimeException.
+     */
+    public XmlOptions setLoadValidateRecords () { 
+        return set( LOAD_VALIDATE_RECORDS ); 
+    }
+
+    /**
+     * Leaves elements with any of the given names, and all they contain,
+     * out of the loaded document altogether.  The document element is
+     * always loaded.
+     * 
+     * @param elementNames a Set of QNames
+     * 
+     * @see XmlObject.Factory#parse(java.io.File, XmlOptions)
+     */
+    public XmlOptions setLoadSkipElements (Set elementNames) { 
+        return set( LOAD_SKIP_ELEMENTS, elementNames ); 
+    }
+
     /**
      * Sets the name of the variable that represents
      * the current node in a query expression.
@@ -521,6 +601,31 @@ public class XmlOptions implements java.io.Serializable
     public XmlOptions setCompileNoUpaRule () { 
         return set( COMPILE_NO_UPA_RULE ); 
     }
+
+    /**
+     * If this option is set, a compiled <code>SchemaTypeSystem</code> saves
+     * all of its .xsb files as one packed resource, which can be memory
+     * mapped and is much faster to load than the individual files.
+     * 
+     * @see XmlBeans#compileXsd
+     * @see SchemaTypeSystem#saveToDirectory
+     */
+    public XmlOptions setCompilePackXsb () { 
+        return set( COMPILE_PACK_XSB ); 
+    }
+
+    /**
+     * Sets the number of threads used to validate the schema documents
+     * being compiled.  Zero, the default, uses the value of the
+     * xmlbean.compilethreads system property, or else one thread per
+     * processor.  The compiled type system and any errors reported are
+     * the same whatever the number of threads.
+     * 
+     * @see XmlBeans#compileXsd
+     */
+    public XmlOptions setCompileThreads (int threads) { 
+        return set( COMPILE_THREADS, threads ); 
+    }
     
     /**
      * If this option is set, the particle valid (restriciton) rule is not
@@ -575,6 +680,39 @@ public class XmlOptions implements java.io.Serializable
         return set( VALIDATE_ON_SET );
     }
 
+    /**
+     * Sets the number of key, keyref, unique, ID and IDREF values each
+     * identity constraint table holds in memory while validating.  Past
+     * this, values are written out to temporary files, so documents with
+     * more keys than fit in memory can still be validated.
+     *
+     * @see XmlObject#validate(XmlOptions)
+     */
+    public XmlOptions setValidateKeyTableLimit(int values) {
+        return set( VALIDATE_KEY_TABLE_LIMIT, values );
+    }
+
+    /**
+     * If this option is set when comparing complex content, text which
+     * is only whitespace (such as the indentation between elements) is
+     * not compared.
+     *
+     * @see XmlObject#valueEquals(XmlObject, XmlOptions)
+     */
+    public XmlOptions setCompareIgnoreWhitespace() {
+        return set( COMPARE_IGNORE_WHITESPACE );
+    }
+
+    /**
+     * If this option is set when comparing complex content, comments are
+     * not compared.
+     *
+     * @see XmlObject#valueEquals(XmlObject, XmlOptions)
+     */
+    public XmlOptions setCompareIgnoreComments() {
+        return set( COMPARE_IGNORE_COMMENTS );
+    }
+
     /**
      * If this option is set when compiling a schema, then the given
      * EntityResolver will be consulted in order to resolve any
@@ -642,6 +780,18 @@ public class XmlOptions implements java.io.Serializable
     public static final String LOAD_ADDITIONAL_NAMESPACES      =  "LOAD_ADDITIONAL_NAMESPACES";
     /** @exclude */
     public static final String LOAD_MESSAGE_DIGEST             =  "LOAD_MESSAGE_DIGEST";
+    /** @exclude */
+    public static final String LOAD_USE_PULL_PARSER            =  "LOAD_USE_PULL_PARSER";
+    /** @exclude */
+    public static final String LOAD_ELEMENT_INDEX              =  "LOAD_ELEMENT_INDEX";
+    /** @exclude */
+    public static final String LOAD_CONCURRENT_READS           =  "LOAD_CONCURRENT_READS";
+    /** @exclude */
+    public static final String LOAD_LAZY_ELEMENTS              =  "LOAD_LAZY_ELEMENTS";
+    /** @exclude */
+    public static final String LOAD_SKIP_ELEMENTS              =  "LOAD_SKIP_ELEMENTS";
+    /** @exclude */
+    public static final String LOAD_VALIDATE_RECORDS           =  "LOAD_VALIDATE_RECORDS";
 
     /** @exclude */
     public static final String XQUERY_CURRENT_NODE_VAR         =  "XQUERY_CURRENT_NODE_VAR";
@@ -665,12 +815,22 @@ public class XmlOptions implements java.io.Serializable
     /** @exclude */
     public static final String COMPILE_NO_PVR_RULE             =  "COMPILE_NO_PVR_RULE";
     /** @exclude */
+    public static final String COMPILE_PACK_XSB                =  "COMPILE_PACK_XSB";
+    /** @exclude */
+    public static final String COMPILE_THREADS                 =  "COMPILE_THREADS";
+    /** @exclude */
     public static final String COMPILE_DOWNLOAD_URLS           =  "COMPILE_DOWNLOAD_URLS";
     /** @exclude */
     public static final String COMPILE_MDEF_NAMESPACES         =  "COMPILE_MDEF_NAMESPACES";
     /** @exclude */
     public static final String VALIDATE_ON_SET                 =  "VALIDATE_ON_SET";
     /** @exclude */
+    public static final String VALIDATE_KEY_TABLE_LIMIT        =  "VALIDATE_KEY_TABLE_LIMIT";
+    /** @exclude */
+    public static final String COMPARE_IGNORE_WHITESPACE       =  "COMPARE_IGNORE_WHITESPACE";
+    /** @exclude */
+    public static final String COMPARE_IGNORE_COMMENTS         =  "COMPARE_IGNORE_COMMENTS";
+    /** @exclude */
     public static final String ENTITY_RESOLVER                 =  "ENTITY_RESOLVER";
     
 
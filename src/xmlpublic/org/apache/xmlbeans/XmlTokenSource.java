@@ -23,6 +23,8 @@ import java.io.Reader;
 import java.io.Writer;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 import org.w3c.dom.Node;
 
@@ -177,6 +179,19 @@ public interface XmlTokenSource
      */
     void save ( Writer w ) throws IOException;
 
+    /**
+     * Writes the XML represented by this source to the given channel.
+     */
+    void save ( WritableByteChannel channel ) throws IOException;
+
+    /**
+     * Writes the XML represented by this source into the given buffer,
+     * starting at its position and leaving the position after the XML.
+     * If the XML does not fit, a BufferOverflowException is thrown and the
+     * position of the buffer is left unchanged.
+     */
+    void save ( ByteBuffer buffer );
+
     /**
      * <p>Just like newXMLInputStream() but with any of a number of options. Use the 
      * <em>options</em> parameter to specify the following:</p>
@@ -316,4 +331,17 @@ public interface XmlTokenSource
      * Writes the XML represented by this source to the given writer.
      */
     void save ( Writer w, XmlOptions options ) throws IOException;
+
+    /**
+     * Writes the XML represented by this source to the given channel.
+     */
+    void save ( WritableByteChannel channel, XmlOptions options ) throws IOException;
+
+    /**
+     * Writes the XML represented by this source into the given buffer,
+     * starting at its position and leaving the position after the XML.
+     * If the XML does not fit, a BufferOverflowException is thrown and the
+     * position of the buffer is left unchanged.
+     */
+    void save ( ByteBuffer buffer, XmlOptions options );
 }
@@ -0,0 +1,219 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.QNameSet;
+
+import javax.xml.namespace.QName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The element children of every container in a frozen document, kept in
+ * arrays so that the nth child, or the nth child with a given name, is
+ * found without walking its siblings.  Built once when the document is
+ * frozen and never changed after, so any number of threads may read it.
+ */
+
+final class ChildIndex
+{
+    ChildIndex ( Root r )
+    {
+        _children = new HashMap();
+
+        ArrayList all = new ArrayList();
+
+        for ( Splay c = r._doc ; c != r ; c = c.nextSplay() )
+        {
+            if (!c.isContainer() || c.isLeaf())
+                continue;
+
+            all.clear();
+
+            for ( Splay s = c.nextSplay() ; !s.isFinish() ; s = s.nextSplay() )
+            {
+                if (s.isBegin())
+                {
+                    all.add( s );
+                    s = s.getFinishSplay();
+                }
+            }
+
+            if (!all.isEmpty())
+                _children.put( c, new Children( all ) );
+        }
+    }
+
+    /**
+     * Returns the nth child of c with the given name, or of any name if
+     * name is null, or null if there are n or fewer.
+     */
+
+    Splay findNth ( Splay c, QName name, int n )
+    {
+        Splay[] children = get( c, name );
+
+        return children == null || n >= children.length ? null : children[ n ];
+    }
+
+    /**
+     * Returns the nth child of c with a name in set, or null if there are n
+     * or fewer.
+     */
+
+    Splay findNth ( Splay c, QNameSet set, int n )
+    {
+        Splay[] children = get( c, null );
+
+        if (children != null)
+        {
+            for ( int i = 0 ; i < children.length ; i++ )
+            {
+                if (set.contains( children[ i ].getName() ) && n-- == 0)
+                    return children[ i ];
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the number of children of c with the given name, or of any
+     * name if name is null.
+     */
+
+    int count ( Splay c, QName name )
+    {
+        Splay[] children = get( c, name );
+
+        return children == null ? 0 : children.length;
+    }
+
+    int count ( Splay c, QNameSet set )
+    {
+        Splay[] children = get( c, null );
+
+        int n = 0;
+
+        if (children != null)
+        {
+            for ( int i = 0 ; i < children.length ; i++ )
+            {
+                if (set.contains( children[ i ].getName() ))
+                    n++;
+            }
+        }
+
+        return n;
+    }
+
+    private Splay[] get ( Splay c, QName name )
+    {
+        Children children = (Children) _children.get( c );
+
+        if (children == null)
+            return null;
+
+        return name == null ? children._all : children.named( name );
+    }
+
+    /**
+     * The element children of one container, all together and by name.
+     * Most containers have only a few distinct child names, which are
+     * searched in order; the rest look names up in a map.
+     */
+
+    private static final class Children
+    {
+        Children ( ArrayList all )
+        {
+            _all = (Splay[]) all.toArray( new Splay [ all.size() ] );
+
+            ArrayList names = new ArrayList();
+            HashMap lists = new HashMap();
+
+            for ( int i = 0 ; i < _all.length ; i++ )
+            {
+                QName name = _all[ i ].getName();
+
+                ArrayList list = (ArrayList) lists.get( name );
+
+                if (list == null)
+                {
+                    names.add( name );
+                    lists.put( name, list = new ArrayList() );
+                }
+
+                list.add( _all[ i ] );
+            }
+
+            if (names.size() > MAX_SCANNED_NAMES)
+            {
+                _names = null;
+                _named = null;
+                _map = new HashMap();
+
+                for ( int j = 0 ; j < names.size() ; j++ )
+                {
+                    ArrayList list = (ArrayList) lists.get( names.get( j ) );
+                    _map.put( names.get( j ), list.toArray( new Splay [ list.size() ] ) );
+                }
+
+                return;
+            }
+
+            _map = null;
+            _names = (QName[]) names.toArray( new QName [ names.size() ] );
+            _named = new Splay [ _names.length ] [];
+
+            if (_names.length == 1)
+            {
+                _named[ 0 ] = _all;
+                return;
+            }
+
+            for ( int j = 0 ; j < _names.length ; j++ )
+            {
+                ArrayList list = (ArrayList) lists.get( _names[ j ] );
+                _named[ j ] = (Splay[]) list.toArray( new Splay [ list.size() ] );
+            }
+        }
+
+        Splay[] named ( QName name )
+        {
+            if (_map != null)
+                return (Splay[]) _map.get( name );
+
+            for ( int j = 0 ; j < _names.length ; j++ )
+            {
+                if (_names[ j ].equals( name ))
+                    return _named[ j ];
+            }
+
+            return null;
+        }
+
+        private static final int MAX_SCANNED_NAMES = 8;
+
+        final Splay[]   _all;
+        final QName[]   _names;
+        final Splay[][] _named;
+        final HashMap   _map;
+    }
+
+    private final HashMap _children;
+}
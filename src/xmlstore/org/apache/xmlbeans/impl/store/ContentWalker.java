@@ -0,0 +1,653 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.impl.values.TypeStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import javax.xml.namespace.QName;
+
+/**
+ * Walks the content under a container, or the value of an attribute, as a
+ * stream of events which leaves out what does not make a difference to
+ * its value: namespace prefixes and declarations, the order of attributes,
+ * and the way text happens to be split among splays.  Two walks can be
+ * compared event by event, without saving either side, and a walk can be
+ * hashed into a fingerprint.
+ *
+ * The top container's own name is not part of the walk; its attributes
+ * are.  The value of an xsi:type attribute is walked as the QName it
+ * stands for.  Other QName valued text is walked as it is, prefixes and
+ * all.
+ */
+
+final class ContentWalker
+{
+    static final int DONE     = 0;
+    static final int BEGIN    = 1;
+    static final int END      = 2;
+    static final int TEXT     = 3;
+    static final int COMMENT  = 4;
+    static final int PROCINST = 5;
+
+    private static final int ATTR = 6;
+
+    /**
+     * Makes a walker over the content of top, first loading any deferred
+     * content under it and bringing invalid text up to date, so that the
+     * walk itself changes nothing.  When walking two places in the same
+     * document, make both walkers before walking either.
+     */
+
+    ContentWalker ( Root r, Splay top, int flags )
+    {
+        assert top.isContainer() || top.isNormalAttr();
+
+        _root = r;
+        _top = top;
+        _last = top.isContainer() ? null : top;
+        _flags = flags;
+
+        if (top.isContainer())
+        {
+            r.loadDeferredWithin( top );
+            _last = top.getFinishSplay();
+
+            // A leaf is its own finish, but its attributes come after it
+
+            if (top.isLeaf())
+            {
+                while ( _last.nextSplay() != null && _last.nextSplay().isAttr() )
+                    _last = _last.nextSplay();
+            }
+        }
+
+        for ( Splay s = top ; ; s = s.nextSplay() )
+        {
+            if (s.isInvalid())
+            {
+                if (s.isContainer())
+                    s.ensureContentValid();
+                else if (s.isNormalAttr())
+                    s.ensureValueValid();
+            }
+
+            if (s == _last)
+                break;
+        }
+
+        _s = top;
+        _cp = -1;
+    }
+
+    /**
+     * Returns true if the two walks have the same events.
+     */
+
+    static boolean equals ( ContentWalker a, ContentWalker b )
+    {
+        for ( ; ; )
+        {
+            int kind = a.next();
+
+            if (kind != b.next())
+                return false;
+
+            switch ( kind )
+            {
+            case DONE :
+                return true;
+
+            case BEGIN :
+            {
+                if (a._name == null ? b._name != null : !a._name.equals( b._name ))
+                    return false;
+
+                if (a._attrs.size() != b._attrs.size())
+                    return false;
+
+                for ( int i = 0 ; i < a._attrs.size() ; i++ )
+                {
+                    Attribute aa = (Attribute) a._attrs.get( i );
+                    Attribute ba = (Attribute) b._attrs.get( i );
+
+                    if (!aa._name.equals( ba._name ) || !aa._value.equals( ba._value ))
+                        return false;
+                }
+
+                break;
+            }
+
+            case PROCINST :
+            {
+                if (!a._name.equals( b._name ))
+                    return false;
+
+                // Fall through
+            }
+
+            case TEXT :
+            case COMMENT :
+            {
+                if (!sameChars( a._value, b._value ))
+                    return false;
+
+                break;
+            }
+            }
+        }
+    }
+
+    /**
+     * Returns a 64 bit hash of the walk's events.  Walks which are equal
+     * have the same fingerprint.
+     */
+
+    static long fingerprint ( ContentWalker w )
+    {
+        long h = 0xcbf29ce484222325L;
+
+        for ( ; ; )
+        {
+            int kind = w.next();
+
+            h = mix( h, kind );
+
+            if (kind == DONE)
+                break;
+
+            switch ( kind )
+            {
+            case BEGIN :
+            {
+                if (w._name != null)
+                    h = mix( h, w._name );
+
+                h = mix( h, w._attrs.size() );
+
+                for ( int i = 0 ; i < w._attrs.size() ; i++ )
+                {
+                    Attribute a = (Attribute) w._attrs.get( i );
+
+                    h = mix( h, a._name );
+                    h = mix( h, a._value );
+                }
+
+                break;
+            }
+
+            case PROCINST :
+                h = mix( h, w._name );
+
+                // Fall through
+
+            case TEXT :
+            case COMMENT :
+                h = mix( h, w._value );
+                break;
+            }
+        }
+
+        // Spread the bits, so that the low ones can pick a hash slot
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+
+        return h;
+    }
+
+    private static long mix ( long h, int n )
+    {
+        for ( int i = 0 ; i < 4 ; i++, n >>>= 8 )
+            h = (h ^ (n & 0xFF)) * 0x100000001b3L;
+
+        return h;
+    }
+
+    private static long mix ( long h, CharSequence s )
+    {
+        int n = s.length();
+
+        // The length keeps adjacent strings from running together
+
+        h = mix( h, n );
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            char ch = s.charAt( i );
+            h = (h ^ (ch & 0xFF)) * 0x100000001b3L;
+            h = (h ^ (ch >>> 8)) * 0x100000001b3L;
+        }
+
+        return h;
+    }
+
+    private static long mix ( long h, QName name )
+    {
+        return mix( mix( h, name.getNamespaceURI() ), name.getLocalPart() );
+    }
+
+    private static boolean sameChars ( StringBuffer a, StringBuffer b )
+    {
+        int n = a.length();
+
+        if (n != b.length())
+            return false;
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            if (a.charAt( i ) != b.charAt( i ))
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Moves to the next event and returns its kind.  For BEGIN, the name
+     * (null for the top) and sorted attributes are in _name and _attrs;
+     * for PROCINST the target is in _name.  The characters of TEXT,
+     * COMMENT and PROCINST are in _value.
+     */
+
+    int next ( )
+    {
+        for ( ; ; )
+        {
+            if (!pull())
+                return flushText() ? TEXT : DONE;
+
+            if (_rawKind == TEXT)
+            {
+                _root._text.fetch( _text, _rawCp, _rawCch );
+                continue;
+            }
+
+            if (_rawKind == COMMENT &&
+                    (_flags & TypeStore.COMPARE_IGNORE_COMMENTS) != 0)
+            {
+                continue;
+            }
+
+            if (flushText())
+            {
+                _pushed = true;
+                return TEXT;
+            }
+
+            switch ( _rawKind )
+            {
+            case BEGIN :
+            {
+                Splay container = _rawSplay;
+
+                _name = container == _top ? null : container.getName();
+                _attrs.clear();
+
+                // Attributes come right after their container.  Text after
+                // them is content, and is gathered up to be returned next.
+
+                while ( pull() )
+                {
+                    if (_rawKind == TEXT)
+                        _root._text.fetch( _text, _rawCp, _rawCch );
+                    else if (_rawKind == ATTR)
+                        _attrs.add( attribute( container, _rawSplay ) );
+                    else
+                    {
+                        _pushed = true;
+                        break;
+                    }
+                }
+
+                if (_attrs.size() > 1)
+                    Collections.sort( _attrs, _attributeOrder );
+
+                return BEGIN;
+            }
+
+            case END :
+                return END;
+
+            case PROCINST :
+                _name = _rawSplay.getName();
+
+                // Fall through
+
+            case COMMENT :
+                _value.setLength( 0 );
+                _root._text.fetch( _value, _rawCp, _rawCch );
+                return _rawKind;
+
+            default :
+                assert false: "Unexpected raw kind " + _rawKind;
+            }
+        }
+    }
+
+    private Attribute attribute ( Splay container, Splay attr )
+    {
+        String value = null;
+
+        if (attr.isXsiType())
+        {
+            QName typeName = container.getXsiTypeName( _root );
+
+            if (typeName != null)
+                value = typeName.toString();
+        }
+
+        if (value == null)
+            value = _root._text.fetch( _rawCp, _rawCch );
+
+        return new Attribute( attr.getName(), value );
+    }
+
+    /**
+     * Moves the gathered text to _value, returning false if there is none
+     * worth returning.
+     */
+
+    private boolean flushText ( )
+    {
+        if (_text.length() == 0)
+            return false;
+
+        if ((_flags & TypeStore.COMPARE_IGNORE_WHITESPACE) != 0 &&
+                Splay.isWhiteSpace( _text ))
+        {
+            _text.setLength( 0 );
+            return false;
+        }
+
+        StringBuffer value = _value;
+        _value = _text;
+        _text = value;
+        _text.setLength( 0 );
+
+        return true;
+    }
+
+    /**
+     * Moves to the next raw item, which is one piece of a splay, returning
+     * false when there are no more.
+     */
+
+    private boolean pull ( )
+    {
+        if (_pushed)
+        {
+            _pushed = false;
+            return true;
+        }
+
+        while ( _iRaw == _nRaw )
+        {
+            if (!fill())
+                return false;
+        }
+
+        _rawKind = _rawKinds[ _iRaw ];
+        _rawSplay = _rawSplays[ _iRaw ];
+        _rawCp = _rawCps[ _iRaw ];
+        _rawCch = _rawCchs[ _iRaw ];
+        _iRaw++;
+
+        return true;
+    }
+
+    /**
+     * Breaks the current splay into raw items and moves on to the next
+     * one, returning false if the walk is over.
+     */
+
+    private boolean fill ( )
+    {
+        Splay s = _s;
+
+        if (s == null)
+            return false;
+
+        // Found lazily, so that getting another walker ready in the same
+        // document can't leave it stale
+
+        if (_cp < 0)
+            _cp = _root.getCp( s );
+
+        int cp = _cp;
+        int cchValue = s.getCchValue();
+        int cchAfter = s.getCchAfter();
+
+        _iRaw = _nRaw = 0;
+
+        switch ( s.getKind() )
+        {
+        case Splay.DOC :
+        case Splay.BEGIN :
+        {
+            raw( BEGIN, s, cp, 0 );
+            raw( TEXT, s, cp, cchValue );
+
+            if (!s.isLeaf())
+            {
+                raw( TEXT, s, cp + cchValue, cchAfter );
+                break;
+            }
+
+            // A leaf holds both its value and the text after it, and its
+            // attributes follow it, so take them now, ahead of its END
+
+            Splay leaf = s;
+            int cpAttr = cp + s.getCch();
+
+            while ( s != _last && s.nextSplay().isAttr() )
+            {
+                s = s.nextSplay();
+
+                if (s.isNormalAttr())
+                    raw( ATTR, s, cpAttr, s.getCchValue() );
+
+                cpAttr += s.getCch();
+            }
+
+            raw( END, leaf, cp, 0 );
+
+            if (leaf != _top)
+                raw( TEXT, leaf, cp + cchValue, cchAfter );
+
+            // Move on from the last attribute as though it were the leaf
+
+            _cp = cpAttr - s.getCch();
+
+            break;
+        }
+
+        case Splay.ATTR :
+        {
+            if (s == _top)
+            {
+                raw( BEGIN, s, cp, 0 );
+                raw( TEXT, s, cp, cchValue );
+                raw( END, s, cp, 0 );
+                break;
+            }
+
+            if (s.isNormalAttr())
+                raw( ATTR, s, cp, cchValue );
+
+            raw( TEXT, s, cp + cchValue, cchAfter );
+
+            break;
+        }
+
+        case Splay.COMMENT :
+        {
+            // A fragment marker only holds text
+
+            if (s.isFragment())
+                raw( TEXT, s, cp, s.getCch() );
+            else
+            {
+                raw( COMMENT, s, cp, cchValue );
+                raw( TEXT, s, cp + cchValue, cchAfter );
+            }
+
+            break;
+        }
+
+        case Splay.PROCINST :
+        {
+            raw( PROCINST, s, cp, cchValue );
+            raw( TEXT, s, cp + cchValue, cchAfter );
+            break;
+        }
+
+        case Splay.ROOT :
+        case Splay.END :
+        {
+            raw( END, s, cp, 0 );
+
+            if (s != _last)
+                raw( TEXT, s, cp + cchValue, cchAfter );
+
+            break;
+        }
+
+        default :
+            assert false: "Unexpected splay kind " + s.getKind();
+        }
+
+        if (s == _last)
+            _s = null;
+        else
+        {
+            _cp += s.getCch();
+            _s = s.nextSplay();
+        }
+
+        return true;
+    }
+
+    private void raw ( int kind, Splay s, int cp, int cch )
+    {
+        if (kind == TEXT && cch == 0)
+            return;
+
+        if (_nRaw == _rawKinds.length)
+        {
+            int n = _nRaw * 2;
+
+            int[] kinds = new int [ n ];
+            Splay[] splays = new Splay [ n ];
+            int[] cps = new int [ n ];
+            int[] cchs = new int [ n ];
+
+            System.arraycopy( _rawKinds, 0, kinds, 0, _nRaw );
+            System.arraycopy( _rawSplays, 0, splays, 0, _nRaw );
+            System.arraycopy( _rawCps, 0, cps, 0, _nRaw );
+            System.arraycopy( _rawCchs, 0, cchs, 0, _nRaw );
+
+            _rawKinds = kinds;
+            _rawSplays = splays;
+            _rawCps = cps;
+            _rawCchs = cchs;
+        }
+
+        _rawKinds[ _nRaw ] = kind;
+        _rawSplays[ _nRaw ] = s;
+        _rawCps[ _nRaw ] = cp;
+        _rawCchs[ _nRaw ] = cch;
+        _nRaw++;
+    }
+
+    private static final class Attribute
+    {
+        Attribute ( QName name, String value )
+        {
+            _name = name;
+            _value = value;
+        }
+
+        final QName  _name;
+        final String _value;
+    }
+
+    private static final Comparator _attributeOrder =
+        new Comparator()
+        {
+            public int compare ( Object o1, Object o2 )
+            {
+                QName n1 = ((Attribute) o1)._name;
+                QName n2 = ((Attribute) o2)._name;
+
+                int c = n1.getNamespaceURI().compareTo( n2.getNamespaceURI() );
+
+                return c != 0 ? c : n1.getLocalPart().compareTo( n2.getLocalPart() );
+            }
+        };
+
+    /**
+     * A fingerprint together with the document version it was worked out
+     * for.  Replaced whole, so that threads reading a frozen document see
+     * a matching pair.
+     */
+
+    static final class Fingerprint
+    {
+        Fingerprint ( long version, long value )
+        {
+            _version = version;
+            _value = value;
+        }
+
+        final long _version;
+        final long _value;
+    }
+
+    private final Root  _root;
+    private final Splay _top;
+    private final int   _flags;
+    private Splay       _last;
+
+    // The splay to break up next, and its cp
+    private Splay _s;
+    private int   _cp;
+
+    // The raw items of the last splay broken up
+    private int[]   _rawKinds  = new int [ 4 ];
+    private Splay[] _rawSplays = new Splay [ 4 ];
+    private int[]   _rawCps    = new int [ 4 ];
+    private int[]   _rawCchs   = new int [ 4 ];
+    private int     _nRaw;
+    private int     _iRaw;
+
+    // The current raw item, and whether pull should return it again
+    private int     _rawKind;
+    private Splay   _rawSplay;
+    private int     _rawCp;
+    private int     _rawCch;
+    private boolean _pushed;
+
+    // Text gathered since the last event
+    private StringBuffer _text = new StringBuffer();
+
+    private QName        _name;
+    private ArrayList    _attrs = new ArrayList();
+    private StringBuffer _value = new StringBuffer();
+}
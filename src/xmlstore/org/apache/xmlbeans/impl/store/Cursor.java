@@ -41,6 +41,8 @@ import java.io.Reader;
 import java.io.File;
 import java.io.Writer;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
@@ -62,7 +64,12 @@ public final class Cursor implements XmlCursor, ChangeListener
 
     public Object monitor()
     {
-        return getRoot();
+        // A frozen document is read without its lock; a cursor need only
+        // guard itself
+
+        Root r = getRoot();
+
+        return r._frozen ? (Object) this : r;
     }
 
     Root  getRoot ( ) { return _data._goober.getRoot(); }
@@ -114,6 +121,11 @@ public final class Cursor implements XmlCursor, ChangeListener
     {
         if (c.isDisposed())
             throw new IllegalStateException( "Cursor has been disposed" );
+
+        // Whatever the cursor does next may look inside the element it is
+        // on, so load it if the loader put it off
+
+        c.getRoot().loadDeferred( c.getSplay() );
     }
     
     boolean isDisposed ( )
@@ -315,13 +327,15 @@ public final class Cursor implements XmlCursor, ChangeListener
                     int   p = getPos();
                     int   d = postCch;
     
-                    for ( Goober g = s.firstGoober() ; g != null ;
-                          g = s.nextGoober( g ) )
+                    Annotation[] marks = getAnnotations( s );
+
+                    for ( int i = 0 ; i < marks.length ; i++ )
                     {
+                        Annotation g = marks[ i ];
                         int dist;
                         XmlBookmark mark;
     
-                        if (g.isAnnotation() && (dist = g.getPos() - p) > 1 &&
+                        if ((dist = g.getPos() - p) > 1 &&
                                 dist < d && (mark = g.getBookmark()) != null &&
                                     mark.getKey().equals( key ))
                         {
@@ -402,13 +416,15 @@ public final class Cursor implements XmlCursor, ChangeListener
                     
                     int d = preCch;
     
-                    for ( Goober g = s.firstGoober() ; g != null ;
-                          g = s.nextGoober( g ) )
+                    Annotation[] marks = getAnnotations( s );
+
+                    for ( int i = 0 ; i < marks.length ; i++ )
                     {
+                        Annotation g = marks[ i ];
                         int dist;
                         XmlBookmark mark;
     
-                        if (g.isAnnotation() && (dist = p - g.getPos()) > 1 &&
+                        if ((dist = p - g.getPos()) > 1 &&
                                 dist < d && (mark = g.getBookmark()) != null &&
                                     mark.getKey().equals( key ))
                         {
@@ -1084,6 +1100,44 @@ public final class Cursor implements XmlCursor, ChangeListener
         }
     }
 
+    private static final Annotation[] _noAnnotations = new Annotation [ 0 ];
+
+    /**
+     * Returns the annotations on s.  Those of a frozen document are kept
+     * by the root rather than on the goober list.
+     */
+
+    private Annotation[] getAnnotations ( Splay s )
+    {
+        Root r = getRoot();
+
+        if (r._frozen)
+            return r.getFrozenAnnotations( s );
+
+        int n = 0;
+
+        for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+        {
+            if (g.isAnnotation())
+                n++;
+        }
+
+        if (n == 0)
+            return _noAnnotations;
+
+        Annotation[] annotations = new Annotation [ n ];
+
+        n = 0;
+
+        for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+        {
+            if (g.isAnnotation())
+                annotations[ n++ ] = (Annotation) g;
+        }
+
+        return annotations;
+    }
+
     public void setBookmark ( XmlBookmark annotation )
     {
         synchronized ( monitor() )
@@ -1117,11 +1171,13 @@ public final class Cursor implements XmlCursor, ChangeListener
             Splay s = getSplay();
             int   p = getPos();
     
-            for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+            Annotation[] marks = getAnnotations( s );
+
+            for ( int i = 0 ; i < marks.length ; i++ )
             {
-                if (g.getKind() == Splay.ANNOTATION && g.getPos() == p)
+                if (marks[ i ].getPos() == p)
                 {
-                    Annotation a = (Annotation) g;
+                    Annotation a = marks[ i ];
     
                     XmlBookmark xa = a.getXmlBookmark();
     
@@ -1146,17 +1202,19 @@ public final class Cursor implements XmlCursor, ChangeListener
             Splay s = getSplay();
             int   p = getPos();
     
-            for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+            Annotation[] marks = getAnnotations( s );
+
+            for ( int i = 0 ; i < marks.length ; i++ )
             {
-                if (g.getKind() == Splay.ANNOTATION && g.getPos() == p)
+                if (marks[ i ].getPos() == p)
                 {
-                    Annotation a = (Annotation) g;
+                    Annotation a = marks[ i ];
     
                     XmlBookmark xa = a.getXmlBookmark();
     
                     if (xa != null && a._key.equals( key ))
                     {
-                        g.set( null, 0 );
+                        a.set( null, 0 );
                         return;
                     }
                 }
@@ -1176,10 +1234,12 @@ public final class Cursor implements XmlCursor, ChangeListener
             Splay s = getSplay();
             int   p = getPos();
     
-            for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+            Annotation[] marks = getAnnotations( s );
+
+            for ( int i = 0 ; i < marks.length ; i++ )
             {
-                if (g.getKind() == Splay.ANNOTATION && g.getPos() == p)
-                    listToFill.add( ((Annotation) g).getXmlBookmark() );
+                if (marks[ i ].getPos() == p)
+                    listToFill.add( marks[ i ].getXmlBookmark() );
             }
         }
     }
@@ -2453,6 +2513,8 @@ public final class Cursor implements XmlCursor, ChangeListener
                     
         Root r = getRoot();
         Root rDst = cDst.getRoot();
+
+        r.loadDeferredWithin( s );
                     
         Splay copy = s.copySplay();
 
@@ -3046,6 +3108,16 @@ public final class Cursor implements XmlCursor, ChangeListener
         save( w, null );
     }
 
+    public void save ( WritableByteChannel channel ) throws IOException
+    {
+        save( channel, null );
+    }
+
+    public void save ( ByteBuffer buffer )
+    {
+        save( buffer, null );
+    }
+
     public void save ( ContentHandler ch, LexicalHandler lh, XmlOptions options)
         throws SAXException
     {
@@ -3083,25 +3155,28 @@ public final class Cursor implements XmlCursor, ChangeListener
         // document is modified while the save is in progress. If the user
         // wishes to protect against this, he can synchronize on the monitor
         // himself.
-        InputStream is = newInputStream( options );
-
-        try
-        {
-            byte[] bytes = new byte[ 8192 ];
+        newByteSaver( options ).save( os );
+    }
 
-            for ( ; ; )
-            {
-                int n = is.read( bytes );
+    public void save ( WritableByteChannel channel, XmlOptions options )
+        throws IOException
+    {
+        newByteSaver( options ).save( channel );
+    }
 
-                if (n < 0)
-                    break;
+    public void save ( ByteBuffer buffer, XmlOptions options )
+    {
+        newByteSaver( options ).save( buffer );
+    }
 
-                os.write( bytes, 0, n );
-            }
-        }
-        finally
+    private Saver.ByteSaver newByteSaver ( XmlOptions options )
+    {
+        synchronized ( monitor() )
         {
-            is.close();
+            checkDisposed();
+
+            return
+                new Saver.ByteSaver( getRoot(), getSplay(), getPos(), options );
         }
     }
     
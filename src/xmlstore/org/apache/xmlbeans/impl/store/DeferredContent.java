@@ -0,0 +1,294 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.XmlCursor.XmlBookmark;
+
+import javax.xml.namespace.QName;
+
+/**
+ * The load events for the attributes and content of one element whose
+ * loading was put off (see XmlOptions.setLoadLazyElements).  The events
+ * are kept in a few flat arrays, which take far less room than the splays
+ * they stand for, and are played back into a LoadContext when something
+ * first reaches into the element.
+ */
+
+final class DeferredContent
+{
+    private static final int BEGIN    = 0;
+    private static final int END      = 1;
+    private static final int ATTR     = 2;
+    private static final int XMLNS    = 3;
+    private static final int TEXT     = 4;
+    private static final int COMMENT  = 5;
+    private static final int PROCINST = 6;
+    private static final int ANNOTATE = 7;
+
+    DeferredContent ( )
+    {
+        _ops = new int [ 16 ];
+        _objs = new Object [ 8 ];
+        _chars = new char [ 64 ];
+    }
+
+    boolean isEmpty ( )
+    {
+        return _cops == 0;
+    }
+
+    /**
+     * Returns true if any elements were recorded.  Content with none is
+     * not worth putting off.
+     */
+
+    boolean hasElements ( )
+    {
+        return _hasElements;
+    }
+
+    void begin ( QName name )
+    {
+        _hasElements = true;
+        op( BEGIN );
+        obj( name );
+    }
+
+    void end ( )
+    {
+        op( END );
+    }
+
+    void attr ( QName name, char[] buf, int off, int cch )
+    {
+        op( ATTR );
+        obj( name );
+        chars( buf, off, cch );
+    }
+
+    void attr ( QName name, String value )
+    {
+        op( ATTR );
+        obj( name );
+        chars( value );
+    }
+
+    void xmlns ( QName name )
+    {
+        op( XMLNS );
+        obj( name );
+    }
+
+    void text ( char[] buf, int off, int cch )
+    {
+        op( TEXT );
+        chars( buf, off, cch );
+    }
+
+    void text ( String text )
+    {
+        op( TEXT );
+        chars( text );
+    }
+
+    void comment ( char[] buf, int off, int cch )
+    {
+        op( COMMENT );
+        chars( buf, off, cch );
+    }
+
+    void comment ( String value )
+    {
+        op( COMMENT );
+        chars( value );
+    }
+
+    void procinst ( String target, char[] buf, int off, int cch )
+    {
+        op( PROCINST );
+        obj( target );
+        chars( buf, off, cch );
+    }
+
+    void procinst ( String target, String value )
+    {
+        op( PROCINST );
+        obj( target );
+        chars( value );
+    }
+
+    void annotate ( XmlBookmark xmlBookmark )
+    {
+        op( ANNOTATE );
+        obj( xmlBookmark );
+    }
+
+    /**
+     * Drops the spare room left in the arrays once recording is done.
+     */
+
+    void trim ( )
+    {
+        if (_ops.length > _cops)
+        {
+            int[] ops = new int [ _cops ];
+            System.arraycopy( _ops, 0, ops, 0, _cops );
+            _ops = ops;
+        }
+
+        if (_objs.length > _cobjs)
+        {
+            Object[] objs = new Object [ _cobjs ];
+            System.arraycopy( _objs, 0, objs, 0, _cobjs );
+            _objs = objs;
+        }
+
+        if (_chars.length > _cchars)
+        {
+            char[] chars = new char [ _cchars ];
+            System.arraycopy( _chars, 0, chars, 0, _cchars );
+            _chars = chars;
+        }
+    }
+
+    /**
+     * Plays the recorded events into context, in the order they were
+     * recorded.
+     */
+
+    void replay ( Root.LoadContext context )
+    {
+        int iobj = 0;
+        int cp = 0;
+
+        for ( int i = 0 ; i < _cops ; )
+        {
+            int cch;
+
+            switch ( _ops[ i++ ] )
+            {
+            case BEGIN :
+                context.begin( (QName) _objs[ iobj++ ] );
+                break;
+
+            case END :
+                context.end();
+                break;
+
+            case ATTR :
+                cch = _ops[ i++ ];
+                context.attr( (QName) _objs[ iobj++ ], _chars, cp, cch );
+                cp += cch;
+                break;
+
+            case XMLNS :
+                context.xmlns( (QName) _objs[ iobj++ ] );
+                break;
+
+            case TEXT :
+                cch = _ops[ i++ ];
+                context.text( _chars, cp, cch );
+                cp += cch;
+                break;
+
+            case COMMENT :
+                cch = _ops[ i++ ];
+                context.comment( _chars, cp, cch );
+                cp += cch;
+                break;
+
+            case PROCINST :
+                cch = _ops[ i++ ];
+                context.procinst( (String) _objs[ iobj++ ], _chars, cp, cch );
+                cp += cch;
+                break;
+
+            case ANNOTATE :
+                context.annotate( (XmlBookmark) _objs[ iobj++ ] );
+                break;
+
+            default :
+                assert false;
+            }
+        }
+
+        assert iobj == _cobjs && cp == _cchars;
+    }
+
+    private void op ( int op )
+    {
+        if (_cops == _ops.length)
+        {
+            int[] ops = new int [ _cops * 2 ];
+            System.arraycopy( _ops, 0, ops, 0, _cops );
+            _ops = ops;
+        }
+
+        _ops[ _cops++ ] = op;
+    }
+
+    private void obj ( Object o )
+    {
+        if (_cobjs == _objs.length)
+        {
+            Object[] objs = new Object [ _cobjs * 2 ];
+            System.arraycopy( _objs, 0, objs, 0, _cobjs );
+            _objs = objs;
+        }
+
+        _objs[ _cobjs++ ] = o;
+    }
+
+    private void chars ( char[] buf, int off, int cch )
+    {
+        op( cch );
+        ensureChars( cch );
+        System.arraycopy( buf, off, _chars, _cchars, cch );
+        _cchars += cch;
+    }
+
+    private void chars ( String s )
+    {
+        int cch = s.length();
+        op( cch );
+        ensureChars( cch );
+        s.getChars( 0, cch, _chars, _cchars );
+        _cchars += cch;
+    }
+
+    private void ensureChars ( int cch )
+    {
+        if (_cchars + cch > _chars.length)
+        {
+            int newLength = _chars.length * 2;
+
+            if (newLength < _cchars + cch)
+                newLength = _cchars + cch;
+
+            char[] chars = new char [ newLength ];
+            System.arraycopy( _chars, 0, chars, 0, _cchars );
+            _chars = chars;
+        }
+    }
+
+    private int[]    _ops;
+    private int      _cops;
+    private Object[] _objs;
+    private int      _cobjs;
+    private char[]   _chars;
+    private int      _cchars;
+    private boolean  _hasElements;
+}
@@ -0,0 +1,245 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.impl.store.Splay.Container;
+
+import javax.xml.namespace.QName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An index of the elements in a document by name.  For each name, the
+ * Begin splays with that name are kept in document order, so that the
+ * elements with a given name under any container are a contiguous range
+ * which can be found with a binary search on the splays' document begin
+ * index.
+ *
+ * The index is kept up to date as elements are inserted, removed and
+ * renamed.  As a check against changes which bypass this, it also counts
+ * the elements it holds; if this ever differs from the number of
+ * containers in the document, the root throws the index away and builds
+ * a new one the next time it is asked for it.
+ */
+
+final class ElementIndex
+{
+    ElementIndex ( Root r )
+    {
+        _root = r;
+        _lists = new HashMap();
+
+        for ( Splay s = r._doc.nextSplay() ; s != r ; s = s.nextSplay() )
+        {
+            if (s.isBegin())
+            {
+                list( s.getName() ).add( s );
+                _size++;
+            }
+        }
+    }
+
+    /**
+     * Returns false if elements have been added to or removed from the
+     * document without the index knowing about it.
+     */
+
+    boolean isCurrent ( )
+    {
+        // The doc counts as a container, but isn't indexed
+
+        return _size + 1 == _root.getCdocBeginLeft();
+    }
+
+    /**
+     * Returns the elements with the given name, in document order, or null
+     * if there are none.  The list must not be modified.
+     */
+
+    ArrayList get ( QName name )
+    {
+        return (ArrayList) _lists.get( name );
+    }
+
+    /**
+     * Returns the index in list of the first element at or after the
+     * container c, excluding c itself.
+     */
+
+    int first ( ArrayList list, Splay c )
+    {
+        return lowerBound( list, docIndex( c ) + 1 );
+    }
+
+    /**
+     * Returns the index in list of the first element after the contents of
+     * the container c.
+     */
+
+    int end ( ArrayList list, Splay c )
+    {
+        if (c.isLeaf())
+            return first( list, c );
+
+        return lowerBound( list, docIndex( ((Container) c).getFinish() ) );
+    }
+
+    /**
+     * Returns the number of children of c with the given name.
+     */
+
+    int count ( Container c, QName name )
+    {
+        ArrayList list = get( name );
+
+        if (list == null || c.isLeaf())
+            return 0;
+
+        int n = 0;
+
+        for ( int i = first( list, c ), end = end( list, c ) ; i < end ; i++ )
+        {
+            if (((Splay) list.get( i )).getContainer() == c)
+                n++;
+        }
+
+        return n;
+    }
+
+    /**
+     * Returns the nth child of c with the given name, null if there are n
+     * or fewer.
+     */
+
+    Splay findNth ( Splay c, QName name, int n )
+    {
+        ArrayList list = get( name );
+
+        if (list == null || c.isLeaf())
+            return null;
+
+        for ( int i = first( list, c ), end = end( list, c ) ; i < end ; i++ )
+        {
+            Splay s = (Splay) list.get( i );
+
+            if (s.getContainer() == c && n-- == 0)
+                return s;
+        }
+
+        return null;
+    }
+
+    /**
+     * Adds the elements in [ first, last ], which have just been put in the
+     * document.
+     */
+
+    void insert ( Splay first, Splay last )
+    {
+        for ( Splay s = first ; ; s = s.nextSplay() )
+        {
+            if (s.isBegin())
+                add( s );
+
+            if (s == last)
+                break;
+        }
+    }
+
+    void add ( Splay s )
+    {
+        assert s.isBegin();
+
+        ArrayList list = list( s.getName() );
+
+        list.add( lowerBound( list, docIndex( s ) ), s );
+
+        _size++;
+    }
+
+    /**
+     * Removes an element which is about to be taken out of the document or
+     * renamed.
+     */
+
+    void remove ( Splay s )
+    {
+        assert s.isBegin();
+
+        ArrayList list = get( s.getName() );
+
+        if (list == null)
+            return;
+
+        int i = lowerBound( list, docIndex( s ) );
+
+        if (i >= list.size() || list.get( i ) != s)
+            i = list.indexOf( s );
+
+        if (i < 0)
+            return;
+
+        list.remove( i );
+
+        if (list.isEmpty())
+            _lists.remove( s.getName() );
+
+        _size--;
+    }
+
+    private ArrayList list ( QName name )
+    {
+        ArrayList list = (ArrayList) _lists.get( name );
+
+        if (list == null)
+            _lists.put( name, list = new ArrayList() );
+
+        return list;
+    }
+
+    private int docIndex ( Splay s )
+    {
+        return s == _root ? _root.getCdocBeginLeft() : _root.getDocBeginIndex( s );
+    }
+
+    /**
+     * Returns the index of the first element in list whose document begin
+     * index is at least docIndex.
+     */
+
+    private int lowerBound ( ArrayList list, int docIndex )
+    {
+        int lo = 0;
+        int hi = list.size();
+
+        while ( lo < hi )
+        {
+            int mid = (lo + hi) >>> 1;
+
+            if (docIndex( (Splay) list.get( mid ) ) < docIndex)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    private final Root    _root;
+    private final HashMap _lists;
+    private int           _size;
+}
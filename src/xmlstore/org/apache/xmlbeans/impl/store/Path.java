@@ -23,6 +23,10 @@ import org.apache.xmlbeans.impl.common.XPath;
 import org.apache.xmlbeans.impl.store.Cursor.PathEngine;
 import org.apache.xmlbeans.impl.store.Cursor.Selections;
 
+import javax.xml.namespace.QName;
+
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -41,6 +45,8 @@ public abstract class Path
     static PathEngine select (
         Root r, Splay s, int p, String pathExpr, XmlOptions options )
     {
+        r.loadDeferredWithin( s );
+
         Path path = getPath( pathExpr, options );
         return (path == null) ? null : path.execute( r, s, p, options );
     }
@@ -67,26 +73,14 @@ public abstract class Path
     {
         Object path = null;
         
-        synchronized ( _xbeanPathCache )
-        {
-            if (!xqrl)
-            {
-                path = _xbeanPathCache.get( pathExpr );
-            }
+        if (!xqrl)
+            path = _xbeanPathCache.get( pathExpr );
 
-            if (path == null)
-                path = _xqrlPathCache.get( pathExpr );
+        if (path == null)
+            path = _xqrlPathCache.get( pathExpr );
 
-            if (path == null)
-            {
-                String pathStr = getCompiledPath( pathExpr, xqrl, options );
-                
-                path =
-                    (pathStr == null)
-                        ? null
-                        : getPath( pathExpr, xqrl, options );
-            }
-        }
+        if (path == null)
+            path = compilePath( pathExpr, xqrl, options );
 
         return (Path) path;
     }
@@ -118,64 +112,67 @@ public abstract class Path
     }
     
     public static String getCompiledPath ( String pathExpr, boolean xqrl, XmlOptions options )
+    {
+        Path path = compilePath( pathExpr, xqrl, options );
+        
+        return path == null ? null : path.getPathExpr();
+    }
+
+    private static Path compilePath (
+        String pathExpr, boolean xqrl, final XmlOptions options )
     {
         Path path = null;
         
-        options = XmlOptions.maskNull( options );
+        final XmlOptions opts = XmlOptions.maskNull( options );
         
         // ensure options doesn't contain XQuery variable mapping.
         // someday we should implement this in all the pathing engines
         // but for now it only applies to the xqrl.
-        if (options.hasOption( XmlOptions.XQUERY_VARIABLE_MAP ))
+        if (opts.hasOption( XmlOptions.XQUERY_VARIABLE_MAP ))
         {
             throw
                 new XmlRuntimeException(
                     "XmlOptions.XQUERY_VARIABLE_MAP is not allowed in XPath expressions.");
         }
 
-        String currentNodeVar = getCurrentNodeVar( options );
-
-        synchronized ( _xbeanPathCache )
-        {
-            assert (xqrl |= options.hasOption( _useXqrlForXpath )) || true;
-
-            if (!xqrl || options.hasOption( _useXbeanForXpath ))
-            {
-                path = (Path) _xbeanPathCache.get( pathExpr );
-
-                if (path == null)
-                {
-                    path = XbeanPathImpl.create( pathExpr, currentNodeVar );
+        final String currentNodeVar = getCurrentNodeVar( opts );
 
-                    if (path != null)
-                        _xbeanPathCache.put( path.getPathExpr(), path );
-                }
-                if (path == null)
-                {
-                    path = JaxenPathImpl.create( pathExpr, currentNodeVar );
+        assert (xqrl |= opts.hasOption( _useXqrlForXpath )) || true;
 
-                    if (path != null)
-                        _xbeanPathCache.put( path.getPathExpr(), path );
-                }
-            }
+        if (!xqrl || opts.hasOption( _useXbeanForXpath ))
+        {
+            path =
+                (Path) _xbeanPathCache.get(
+                    pathExpr,
+                    new PathCache.Compiler ( ) {
+                        public Object compile ( String expr )
+                        {
+                            Path p = XbeanPathImpl.create( expr, currentNodeVar );
 
-            if (path == null)
-            {
-                assert ! options.hasOption( _useXbeanForXpath );
+                            if (p == null)
+                                p = JaxenPathImpl.create( expr, currentNodeVar );
 
-                path = (Path) _xqrlPathCache.get( pathExpr );
+                            return p;
+                        }
+                    } );
+        }
 
-                if (path == null)
-                {
-                    path = XqrlPathImpl.create( pathExpr, options );
+        if (path == null)
+        {
+            assert ! opts.hasOption( _useXbeanForXpath );
 
-                    if (path != null)
-                        _xqrlPathCache.put( path.getPathExpr(), path );
-                }
-            }
+            path =
+                (Path) _xqrlPathCache.get(
+                    pathExpr,
+                    new PathCache.Compiler ( ) {
+                        public Object compile ( String expr )
+                        {
+                            return XqrlPathImpl.create( expr, opts );
+                        }
+                    } );
         }
 
-        return path == null ? null : path.getPathExpr();
+        return path;
     }
 
     public interface Query
@@ -191,42 +188,22 @@ public abstract class Path
 //        return getQuery( queryExpr, null );
 //    }
     
-    public static Query getQuery ( String queryExpr, XmlOptions options )
+    public static Query getQuery ( String queryExpr, final XmlOptions options )
     {
-        Object query = null;
-        
-        synchronized ( _xqrlQueryCache )
-        {
-            query = _xqrlQueryCache.get( queryExpr );
-
-            if (query == null)
-            {
-                String queryStr = getCompiledQuery( queryExpr, options );
-                
-                query =
-                    (queryStr == null) ? null : getQuery( queryExpr, options );
-            }
-        }
-
-        return (Query) query;
+        return
+            (Query) _xqrlQueryCache.get(
+                queryExpr,
+                new PathCache.Compiler ( ) {
+                    public Object compile ( String expr )
+                    {
+                        return XqrlDelegate.compileQuery( expr, options );
+                    }
+                } );
     }
     
     public static String getCompiledQuery ( String queryExpr, XmlOptions options )
     {
-        Query query = null;
-        
-        synchronized ( _xqrlQueryCache )
-        {
-            query = (Query) _xqrlQueryCache.get( queryExpr );
-
-            if (query == null)
-            {
-                query = XqrlDelegate.compileQuery( queryExpr, options );
-
-                if (query != null)
-                    _xqrlQueryCache.put( query.getQueryExpr(), query );
-            }
-        }
+        Query query = getQuery( queryExpr, options );
 
         return query == null ? null : query.getQueryExpr();
     }
@@ -234,6 +211,8 @@ public abstract class Path
     public static XmlCursor query (
         Cursor c, String queryExpr, XmlOptions options )
     {
+        c.getRoot().loadDeferredWithin( c.getSplay() );
+
         Query query = getQuery( queryExpr, options );
         return (query == null) ? null : query.executeQuery( c, options );
     }
@@ -241,6 +220,8 @@ public abstract class Path
     public static XmlObject[] query (
         Type type, String queryExpr, XmlOptions options )
     {
+        type.getRoot().loadDeferredWithin( type.getSplay() );
+
         Query query = getQuery( queryExpr, options );
         return (query == null) ? null : query.executeQuery( type, options );
     }
@@ -315,10 +296,16 @@ public abstract class Path
 
             try
             {
-                return
-                    new XbeanPathImpl(
-                        XPath.compileXPath( pathExpr, currentNodeVar ),
-                        pathExpr, currentNodeVar );
+                XPath xpath = XPath.compileSelectPath( pathExpr, currentNodeVar );
+
+                // The engine can't generate the //. case, which is left to
+                // xqrl, and xqrl can't run absolute paths, so leave these to
+                // jaxen
+
+                if (xpath.isAbsolute() && xpath.sawDeepDot())
+                    return null;
+
+                return new XbeanPathImpl( xpath, pathExpr, currentNodeVar );
             }
             catch ( XPath.XPathCompileException e )
             {
@@ -331,6 +318,29 @@ public abstract class Path
         protected PathEngine execute (
             Root r, Splay s, int p, XmlOptions options )
         {
+            // Absolute paths start at the document, wherever the context is
+
+            if (_xpath.isAbsolute() && !_xpath.sawDeepDot())
+                s = r._doc;
+
+            // If the document keeps an index of its elements, pick the
+            // descendants with a given name straight out of it
+
+            if (p == 0 && s.isContainer() && _xpath.getDescendantName() != null)
+            {
+                ElementIndex index = r.getElementIndex();
+
+                if (index != null)
+                {
+                    return
+                        new IndexPathEngine(
+                            index, _xpath.getDescendantName(), r, s );
+                }
+            }
+
+            if (_xpath.isAbsolute() && !_xpath.sawDeepDot())
+                return new XBeanPathEngine( _xpath, r, s );
+
             // The builtin XPath engine works only on containers.  Delegate to
             // xqrl otherwise.  Also, if the path had a //. at the end, the
             // simple xpath engine can't do the generate case, it only handles
@@ -338,6 +348,18 @@ public abstract class Path
 
             if (p != 0 || !s.isContainer() || _xpath.sawDeepDot())
             {
+                // Paths with predicates used to be run by jaxen, which can
+                // start anywhere, so keep running them there in these cases
+
+                if (_xpath.hasPredicates())
+                {
+                    Path jaxenPath = JaxenPathImpl.create( _pathExpr, _currentNodeVar );
+
+                    if (jaxenPath != null)
+                        return jaxenPath.execute( r, s, p, options );
+                }
+
+
                 // If the xbean path compiler could could handle the path, then
                 // the xqrl compiler better be able to!
 
@@ -356,6 +378,44 @@ public abstract class Path
             return new XBeanPathEngine( _xpath, r, s );
         }
 
+        private static class IndexPathEngine implements PathEngine
+        {
+            IndexPathEngine ( ElementIndex index, QName name, Root r, Splay s )
+            {
+                assert s.isContainer();
+
+                _root = r;
+                _version = r.getVersion();
+                _list = index.get( name );
+
+                if (_list != null)
+                {
+                    _next = index.first( _list, s );
+                    _end = index.end( _list, s );
+                }
+            }
+
+            public boolean next ( Selections selections )
+            {
+                if (_root.getVersion() != _version)
+                    throw new IllegalStateException( "Document changed" );
+
+                if (_next >= _end)
+                    return false;
+
+                for ( ; _next < _end ; _next++ )
+                    selections.add( _root, (Splay) _list.get( _next ) );
+
+                return true;
+            }
+
+            private final Root      _root;
+            private final long      _version;
+            private final ArrayList _list;
+            private int             _next;
+            private int             _end;
+        }
+
 // TODO - because this xpath engine does not use a saver, any attributes in the
 // path which refer to namesapce attributes will require us to run the XQRL
 // path engine which is based on the saver.
@@ -444,7 +504,7 @@ public abstract class Path
 
                     if (_curr.isBegin())
                     {
-                        int ret = element( _curr.getName() );
+                        int ret = element( _curr.getName(), _curr );
 
                         if ((ret & HIT) != 0)
                             selections.add( _root, _curr );
@@ -468,6 +528,76 @@ public abstract class Path
                 }
             }
 
+            //
+            // Navigation for predicates.  Nodes are Begin splays, the Doc
+            // splay for a parent, and normal Attr splays.
+            //
+
+            protected Object parent ( Object node )
+            {
+                return ((Splay) node).getContainer();
+            }
+
+            protected Object firstChild ( Object node )
+            {
+                Splay s = (Splay) node;
+
+                return s.isLeaf() ? null : nextElement( s.nextSplay() );
+            }
+
+            protected Object nextSibling ( Object node )
+            {
+                return nextElement( ((Splay) node).getFinishSplay().nextSplay() );
+            }
+
+            protected Object firstAttr ( Object node )
+            {
+                return nextNormalAttr( ((Splay) node).nextSplay() );
+            }
+
+            protected Object nextAttr ( Object attr )
+            {
+                return nextNormalAttr( ((Splay) attr).nextSplay() );
+            }
+
+            protected QName name ( Object node )
+            {
+                return ((Splay) node).getName();
+            }
+
+            protected boolean valueEquals ( Object node, String value )
+            {
+                return ((Splay) node).textEquals( _root, value );
+            }
+
+            /**
+             * Returns the first element at or after s which is in the same
+             * container as s, null if the container finishes first.
+             */
+
+            private static Splay nextElement ( Splay s )
+            {
+                for ( ; ; s = s.nextSplay() )
+                {
+                    if (s.isBegin())
+                        return s;
+
+                    if (s.isFinish())
+                        return null;
+                }
+            }
+
+            private static Splay nextNormalAttr ( Splay s )
+            {
+                for ( ; s.isAttr() ; s = s.nextSplay() )
+                {
+                    if (s.isNormalAttr())
+                        return s;
+                }
+
+                return null;
+            }
+
             private Root  _root;
             private long  _version;
             private Splay _top;
@@ -560,32 +690,296 @@ public abstract class Path
         }
     }
 
-    private static Map _xqrlPathCache = new CacheMap();
-    private static Map _xbeanPathCache = new CacheMap();
-    private static Map _xqrlQueryCache = new CacheMap();
+    /**
+     * Returns the number of path and query lookups which were satisfied
+     * by an already compiled expression.
+     */
+    public static long getCacheHits ( )
+    {
+        return
+            _xbeanPathCache.getHits() + _xqrlPathCache.getHits() +
+                _xqrlQueryCache.getHits();
+    }
+
+    /**
+     * Returns the number of path and query lookups which required the
+     * expression to be compiled.
+     */
+    public static long getCacheMisses ( )
+    {
+        return
+            _xbeanPathCache.getMisses() + _xqrlPathCache.getMisses() +
+                _xqrlQueryCache.getMisses();
+    }
+
+    /**
+     * Returns the number of compiled expressions discarded to keep the
+     * caches within their size limit.
+     */
+    public static long getCacheEvictions ( )
+    {
+        return
+            _xbeanPathCache.getEvictions() + _xqrlPathCache.getEvictions() +
+                _xqrlQueryCache.getEvictions();
+    }
+
+    private static PathCache _xqrlPathCache = new PathCache();
+    private static PathCache _xbeanPathCache = new PathCache();
+    private static PathCache _xqrlQueryCache = new PathCache();
 
-    private static class CacheMap extends LinkedHashMap
+    /**
+     * A bounded, LRU cache of compiled expressions.  The cache is split into
+     * independently locked segments so that lookups from many threads do not
+     * serialize, and compilation happens outside of any lock.  Concurrent
+     * requests for an expression which is being compiled wait for that
+     * compilation rather than compiling it again.
+     */
+
+    private static final class PathCache
     {
+        interface Compiler
+        {
+            Object compile ( String expr );
+        }
+
         private static final String XPATH_CACHE_SIZE = "xmlbean.xpathCacheSize";
 
-        private static int MAX_ENTRIES = -1;
+        private static final int DEFAULT_MAX_ENTRIES = 1024;
 
-        CacheMap()
+        private static final int SEGMENTS = 16;
+
+        PathCache ( )
         {
+            int maxEntries = DEFAULT_MAX_ENTRIES;
+
             String size = null;
             if ((size = System.getProperty(XPATH_CACHE_SIZE)) != null)
                 try 
                 {
-                    MAX_ENTRIES = Integer.parseInt(size);
+                    maxEntries = Integer.parseInt(size);
                 }
                 catch (Exception e)
                 {
                 }
+
+            // A non positive size means the cache is unbounded
+
+            int segmentMax =
+                maxEntries <= 0 ? -1 : (maxEntries + SEGMENTS - 1) / SEGMENTS;
+
+            _segments = new Segment [ SEGMENTS ];
+
+            for ( int i = 0 ; i < SEGMENTS ; i++ )
+                _segments[ i ] = new Segment( segmentMax );
         }
 
-        protected boolean removeEldestEntry(Map.Entry eldest)
+        private Segment segmentFor ( String expr )
         {
-            return MAX_ENTRIES > 0 && size() > MAX_ENTRIES;
+            int h = expr.hashCode();
+
+            h ^= (h >>> 20) ^ (h >>> 12);
+            h ^= (h >>> 7) ^ (h >>> 4);
+
+            return _segments[ h & (SEGMENTS - 1) ];
+        }
+
+        /**
+         * Returns the compiled form of expr if it is cached, null otherwise.
+         */
+        Object get ( String expr )
+        {
+            Segment seg = segmentFor( expr );
+
+            synchronized ( seg )
+            {
+                Object result = seg.get( expr );
+
+                if (result != null)
+                    seg._hits++;
+
+                return result;
+            }
         }
+
+        /**
+         * Returns the compiled form of expr, compiling it with compiler
+         * if it is not cached.  Null results are not cached.
+         */
+        Object get ( String expr, Compiler compiler )
+        {
+            Segment seg = segmentFor( expr );
+
+            Pending pending;
+            boolean owner = false;
+
+            synchronized ( seg )
+            {
+                Object result = seg.get( expr );
+
+                if (result != null)
+                {
+                    seg._hits++;
+                    return result;
+                }
+
+                pending = (Pending) seg._pending.get( expr );
+
+                if (pending == null)
+                {
+                    pending = new Pending();
+                    seg._pending.put( expr, pending );
+                    seg._misses++;
+                    owner = true;
+                }
+                else
+                    seg._hits++;
+            }
+
+            if (!owner)
+                return pending.await();
+
+            Object result = null;
+            RuntimeException exception = null;
+            Error error = null;
+
+            try
+            {
+                result = compiler.compile( expr );
+            }
+            catch ( RuntimeException e )
+            {
+                exception = e;
+            }
+            catch ( Error e )
+            {
+                error = e;
+            }
+
+            synchronized ( seg )
+            {
+                seg._pending.remove( expr );
+
+                if (result != null)
+                    seg.put( expr, result );
+            }
+
+            pending.complete( result, exception, error );
+
+            if (exception != null)
+                throw exception;
+
+            if (error != null)
+                throw error;
+
+            return result;
+        }
+
+        long getHits ( )
+        {
+            long n = 0;
+
+            for ( int i = 0 ; i < _segments.length ; i++ )
+                synchronized ( _segments[ i ] ) { n += _segments[ i ]._hits; }
+
+            return n;
+        }
+
+        long getMisses ( )
+        {
+            long n = 0;
+
+            for ( int i = 0 ; i < _segments.length ; i++ )
+                synchronized ( _segments[ i ] ) { n += _segments[ i ]._misses; }
+
+            return n;
+        }
+
+        long getEvictions ( )
+        {
+            long n = 0;
+
+            for ( int i = 0 ; i < _segments.length ; i++ )
+                synchronized ( _segments[ i ] ) { n += _segments[ i ]._evictions; }
+
+            return n;
+        }
+
+        private static final class Segment extends LinkedHashMap
+        {
+            Segment ( int maxEntries )
+            {
+                super( 16, 0.75f, true );
+
+                _maxEntries = maxEntries;
+            }
+
+            protected boolean removeEldestEntry ( Map.Entry eldest )
+            {
+                if (_maxEntries > 0 && size() > _maxEntries)
+                {
+                    _evictions++;
+                    return true;
+                }
+
+                return false;
+            }
+
+            private final int _maxEntries;
+
+            private final HashMap _pending = new HashMap();
+
+            private long _hits;
+            private long _misses;
+            private long _evictions;
+        }
+
+        private static final class Pending
+        {
+            synchronized void complete (
+                Object result, RuntimeException exception, Error error )
+            {
+                _result = result;
+                _exception = exception;
+                _error = error;
+                _done = true;
+
+                notifyAll();
+            }
+
+            synchronized Object await ( )
+            {
+                boolean interrupted = false;
+
+                while ( !_done )
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch ( InterruptedException e )
+                    {
+                        interrupted = true;
+                    }
+                }
+
+                if (interrupted)
+                    Thread.currentThread().interrupt();
+
+                if (_exception != null)
+                    throw _exception;
+
+                if (_error != null)
+                    throw _error;
+
+                return _result;
+            }
+
+            private boolean          _done;
+            private Object           _result;
+            private RuntimeException _exception;
+            private Error            _error;
+        }
+
+        private final Segment[] _segments;
     }
 }
@@ -0,0 +1,1840 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.SchemaTypeLoader;
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlRuntimeException;
+import org.apache.xmlbeans.impl.common.ObjectPool;
+import org.apache.xmlbeans.impl.common.XMLChar;
+import org.apache.xmlbeans.impl.common.XmlEncodingSniffer;
+import org.apache.xmlbeans.impl.store.Root.LoadContext;
+
+import org.xml.sax.InputSource;
+
+import javax.xml.namespace.QName;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.HashMap;
+
+/**
+ * Loads a document by scanning its text directly into a LoadContext rather
+ * than through the callbacks of a SAX parser.  Names are interned in a
+ * symbol table keyed on their characters, attribute values are gathered
+ * into one reusable buffer and text is handed to the LoadContext straight
+ * out of the input buffer, so very few objects are created per document.
+ *
+ * This loader is used when XmlOptions.LOAD_USE_PULL_PARSER is set.  It
+ * checks well-formedness and namespaces, but does not read external DTDs
+ * or entities (references to external entities load as empty, as they do
+ * with the SAX loader), does not apply attribute defaults declared in a
+ * DTD, and rejects internal entities whose replacement text contains
+ * markup.  Surrogates are let through without checking that they pair up.
+ */
+final class PullLoader
+{
+    private static final int BUFFER_SIZE = 8192;
+
+    // Past these sizes, buffers and name tables are not kept for the next
+    // load, so that one unusual document doesn't hold memory from then on
+    private static final int MAX_POOLED_BUFFER = 1 << 16;
+    private static final int MAX_POOLED_NAMES  = 1 << 12;
+
+    /**
+     * The input and value buffers and the name table a load scans with,
+     * which are kept in a pool between loads.  Names in the table are not
+     * tied to any one document, so a table which is reused saves interning
+     * the same names again.
+     */
+    static final class Buffers
+    {
+        char[]    _buf     = new char [ BUFFER_SIZE ];
+        char[]    _values  = new char [ 256 ];
+        char[]    _scratch = new char [ 256 ];
+        NameTable _names   = new NameTable();
+    }
+
+    static final ObjectPool _buffers =
+        new ObjectPool( ObjectPool.defaultSize() )
+        {
+            protected Object create ( )
+            {
+                return new Buffers();
+            }
+
+            protected boolean reset ( Object o )
+            {
+                Buffers b = (Buffers) o;
+
+                if (b._buf.length > MAX_POOLED_BUFFER)
+                    b._buf = new char [ BUFFER_SIZE ];
+
+                if (b._values.length > MAX_POOLED_BUFFER)
+                    b._values = new char [ 256 ];
+
+                if (b._scratch.length > MAX_POOLED_BUFFER)
+                    b._scratch = new char [ 256 ];
+
+                if (b._names._count > MAX_POOLED_NAMES)
+                    b._names = new NameTable();
+
+                return true;
+            }
+        };
+
+    private PullLoader (
+        Reader reader, LoadContext context, XmlOptions options, Buffers buffers )
+    {
+        _reader = reader;
+        _context = context;
+
+        _wantLineNumbers = options.hasOption( XmlOptions.LOAD_LINE_NUMBERS );
+        _sourceName = (String) options.get( XmlOptions.DOCUMENT_SOURCE_NAME );
+
+        _inUse = buffers;
+        _buf = buffers._buf;
+        _mark = -1;
+        _line = 1;
+
+        _names = buffers._names;
+        _attrNames = new Name [ 8 ];
+        _attrOffsets = new int [ 8 ];
+        _attrLengths = new int [ 8 ];
+        _attrUris = new String [ 8 ];
+        _values = buffers._values;
+        _scratch = buffers._scratch;
+
+        _nsPrefixes = new String [ 16 ];
+        _nsUris = new String [ 16 ];
+        _elements = new Name [ 16 ];
+        _nsMarks = new int [ 16 ];
+        _chars = new char [ 2 ];
+    }
+
+    /**
+     * Loads the document read from the given source into the root.
+     */
+    static void load ( Root r, InputSource source, XmlOptions options )
+        throws IOException, XmlException
+    {
+        options = XmlOptions.maskNull( options );
+
+        Reader reader = source.getCharacterStream();
+        String encoding = null;
+
+        if (reader == null)
+        {
+            InputStream stream = source.getByteStream();
+
+            XmlEncodingSniffer sniffer = new XmlEncodingSniffer( stream, null );
+
+            encoding = sniffer.getXmlEncoding();
+            reader = sniffer.getReader();
+        }
+
+        LoadContext context = new LoadContext( r, options );
+
+        Buffers buffers = (Buffers) _buffers.acquire();
+        PullLoader loader = null;
+
+        try
+        {
+            assert r.disableStoreValidation();
+
+            loader = new PullLoader( reader, context, options, buffers );
+
+            loader.parseDocument();
+
+            r._props.setEncoding( encoding == null ? loader._encoding : encoding );
+            r._props.setVersion( loader._version );
+
+            context.finish();
+        }
+        catch ( XmlRuntimeException e )
+        {
+            context.abort();
+            throw new XmlException( e );
+        }
+        catch ( XmlException e )
+        {
+            context.abort();
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            context.abort();
+            throw e;
+        }
+        catch ( RuntimeException e )
+        {
+            context.abort();
+            throw e;
+        }
+        finally
+        {
+            assert r.enableStoreValidation();
+
+            // Plain buffers are fit for reuse however the load ended.  Keep
+            // the ones the loader grew to.
+
+            if (loader != null)
+                loader.keepBuffers();
+
+            _buffers.release( buffers );
+        }
+    }
+
+    private void keepBuffers ( )
+    {
+        _inUse._buf = _buf;
+        _inUse._values = _values;
+        _inUse._scratch = _scratch;
+    }
+
+    //
+    // Document structure
+    //
+
+    /**
+     * Returns a loader which loads each element with the given name, where
+     * ever it is in the document read from source, as a document of its
+     * own.  Everything outside of those elements is checked but not kept.
+     */
+    static PullLoader forRecords (
+        InputSource source, QName recordName, SchemaTypeLoader stl, XmlOptions options )
+            throws IOException
+    {
+        options = XmlOptions.maskNull( options );
+
+        Reader reader = source.getCharacterStream();
+
+        if (reader == null)
+            reader = new XmlEncodingSniffer( source.getByteStream(), null ).getReader();
+
+        // A record loader may be dropped part way through, so it has
+        // buffers of its own rather than pooled ones
+
+        PullLoader loader = new PullLoader( reader, null, options, new Buffers() );
+
+        loader._recordName = recordName;
+        loader._stl = stl;
+        loader._options = options;
+
+        return loader;
+    }
+
+    /**
+     * Reads on to the end of the next record and returns the root it was
+     * loaded into, or null if the document has no more.
+     */
+    Root nextRecord ( ) throws IOException, XmlException
+    {
+        assert _recordName != null;
+
+        assert Root.disableStoreValidation();
+
+        try
+        {
+            if (!_started)
+            {
+                _started = true;
+                parseProlog();
+            }
+
+            while ( _record == null && _depth > 0 )
+                parseContentItem();
+
+            if (_record == null)
+            {
+                if (!_ended)
+                {
+                    _ended = true;
+                    parseEpilog();
+                }
+
+                return null;
+            }
+
+            Root r = _record;
+            _record = null;
+            return r;
+        }
+        finally
+        {
+            assert Root.enableStoreValidation();
+        }
+    }
+
+    private void beginRecord ( )
+    {
+        _recordRoot = new Root( _stl, null, _options );
+        _context = new LoadContext( _recordRoot, _options );
+        _recordDepth = _depth;
+    }
+
+    /**
+     * A record is a document of its own, so it takes along the namespace
+     * declarations in scope from the elements around it.
+     */
+    private void declareOuterNamespaces ( int nsMark )
+    {
+        outer:
+        for ( int i = nsMark - 1 ; i >= 0 ; i-- )
+        {
+            String prefix = _nsPrefixes[ i ];
+
+            for ( int j = i + 1 ; j < _nsCount ; j++ )
+            {
+                if (_nsPrefixes[ j ].equals( prefix ))
+                    continue outer;
+            }
+
+            if (prefix.length() > 0 || _nsUris[ i ].length() > 0)
+                _context.xmlns( prefix, _nsUris[ i ] );
+        }
+    }
+
+    private void endRecord ( ) throws XmlException
+    {
+        _context.finish();
+        _context = null;
+        _recordDepth = -1;
+
+        _record = _recordRoot;
+        _recordRoot = null;
+    }
+
+    private void parseDocument ( ) throws IOException, XmlException
+    {
+        parseProlog();
+
+        if (_depth > 0)
+            parseContent();
+
+        parseEpilog();
+    }
+
+    /**
+     * Parses up to and including the start tag of the document element.
+     */
+    private void parseProlog ( ) throws IOException, XmlException
+    {
+        if (peek() == '\uFEFF')
+            _pos++;
+
+        if (lookingAt( "<?xml" ) && ensure( 6 ) && XMLChar.isSpace( _buf[ _pos + 5 ] ))
+        {
+            _pos += 5;
+            parseXmlDecl();
+        }
+
+        boolean sawDoctype = false;
+
+        for ( ; ; )
+        {
+            skipWhitespace();
+
+            if (lookingAt( "<!--" ))
+                parseComment();
+            else if (lookingAt( "<?" ))
+                parseProcinst();
+            else if (!sawDoctype && lookingAt( "<!DOCTYPE" ))
+            {
+                parseDoctype();
+                sawDoctype = true;
+            }
+            else
+                break;
+        }
+
+        int ch = peek();
+
+        if (ch < 0)
+            throw error( "Premature end of file" );
+
+        if (ch != '<' || !ensure( 2 ) || !XMLChar.isNameStart( _buf[ _pos + 1 ] ))
+            throw error( "Content is not allowed in prolog" );
+
+        _pos++;
+
+        parseStartTag();
+    }
+
+    private void parseEpilog ( ) throws IOException, XmlException
+    {
+        for ( ; ; )
+        {
+            skipWhitespace();
+
+            if (peek() < 0)
+                break;
+
+            if (lookingAt( "<!--" ))
+                parseComment();
+            else if (lookingAt( "<?" ))
+                parseProcinst();
+            else
+                throw error( "Content is not allowed in trailing section" );
+        }
+    }
+
+    private static final String[] XML_DECL_ATTRS = { "version", "encoding", "standalone" };
+
+    private void parseXmlDecl ( ) throws IOException, XmlException
+    {
+        // The version comes first and must be there, then the encoding and
+        // standalone if they are there, each at most once
+
+        int seen = -1;
+
+        for ( ; ; )
+        {
+            boolean sawSpace = skipWhitespace();
+
+            if (lookingAt( "?>" ))
+            {
+                if (seen < 0)
+                    throw error( "The version is required in the XML declaration" );
+
+                _pos += 2;
+                break;
+            }
+
+            if (!sawSpace)
+                throw error( "White space is required between the attributes of the XML declaration" );
+
+            Name name = scanName();
+
+            skipWhitespace();
+            expect( '=' );
+            skipWhitespace();
+
+            String value = scanLiteral();
+
+            int kind = XML_DECL_ATTRS.length - 1;
+
+            while ( kind >= 0 && !XML_DECL_ATTRS[ kind ].equals( name._qname ) )
+                kind--;
+
+            if (kind < 0)
+                throw error( "Unexpected attribute in XML declaration: " + name._qname );
+
+            if (seen < 0 && kind > 0)
+                throw error( "The version is required in the XML declaration" );
+
+            if (kind <= seen)
+                throw error( "Attribute \"" + name._qname + "\" is out of order in the XML declaration" );
+
+            seen = kind;
+
+            if (kind == 0)
+            {
+                if (!value.equals( "1.0" ))
+                {
+                    throw error(
+                        "XML version \"" + value + "\" is not supported, only XML 1.0 is supported" );
+                }
+
+                _version = value;
+            }
+            else if (kind == 1)
+            {
+                if (!XMLChar.isValidIANAEncoding( value ))
+                    throw error( "Invalid encoding name \"" + value + "\"" );
+
+                _encoding = value;
+            }
+            else if (!value.equals( "yes" ) && !value.equals( "no" ))
+                throw error( "The standalone document declaration value must be \"yes\" or \"no\"" );
+        }
+    }
+
+    private void parseContent ( ) throws IOException, XmlException
+    {
+        while ( _depth > 0 )
+            parseContentItem();
+    }
+
+    /**
+     * Parses the text up to the next piece of markup, and that markup.
+     */
+    private void parseContentItem ( ) throws IOException, XmlException
+    {
+        parseText();
+
+        // parseText stops at '<'
+
+        if (!ensure( 2 ))
+            throw error( "Unexpected end of document" );
+
+        char ch = _buf[ _pos + 1 ];
+
+        if (ch == '/')
+        {
+            _pos += 2;
+            parseEndTag();
+        }
+        else if (ch == '?')
+            parseProcinst();
+        else if (ch == '!')
+        {
+            if (lookingAt( "<!--" ))
+                parseComment();
+            else if (lookingAt( "<![CDATA[" ))
+                parseCdata();
+            else
+                throw error( "Markup not allowed in content" );
+        }
+        else
+        {
+            _pos++;
+            parseStartTag();
+        }
+    }
+
+    //
+    // Elements and attributes
+    //
+
+    private void parseStartTag ( ) throws IOException, XmlException
+    {
+        Name name = scanName();
+
+        _attrCount = 0;
+        _valuesEnd = 0;
+
+        boolean isEmpty;
+
+        for ( ; ; )
+        {
+            boolean sawSpace = skipWhitespace();
+
+            int ch = peek();
+
+            if (ch == '>')
+            {
+                _pos++;
+                isEmpty = false;
+                break;
+            }
+
+            if (ch == '/')
+            {
+                _pos++;
+                expect( '>' );
+                isEmpty = true;
+                break;
+            }
+
+            if (ch < 0)
+                throw error( "Unexpected end of document in start tag" );
+
+            if (!sawSpace)
+                throw error( "Element type \"" + name._qname + "\" must be followed by attributes, \">\" or \"/>\"" );
+
+            Name attrName = scanName();
+
+            skipWhitespace();
+            expect( '=' );
+            skipWhitespace();
+
+            int quote = next();
+
+            if (quote != '"' && quote != '\'')
+                throw error( "Expected a quoted value for attribute \"" + attrName._qname + "\"" );
+
+            int off = _valuesEnd;
+
+            scanAttrValue( (char) quote );
+
+            for ( int i = 0 ; i < _attrCount ; i++ )
+            {
+                if (_attrNames[ i ] == attrName)
+                {
+                    throw error(
+                        "Attribute \"" + attrName._qname +
+                            "\" was already specified for element \"" + name._qname + "\"" );
+                }
+            }
+
+            addAttr( attrName, off, _valuesEnd - off );
+        }
+
+        // Namespace declarations apply to the element's own name and
+        // attributes, so process them all before resolving any prefix
+
+        int nsMark = _nsCount;
+
+        for ( int i = 0 ; i < _attrCount ; i++ )
+        {
+            Name attrName = _attrNames[ i ];
+
+            if (attrName._isXmlns)
+            {
+                if (!attrName._isQName)
+                    throw error( "Invalid qualified name: " + attrName._qname );
+
+                String uri = new String( _values, _attrOffsets[ i ], _attrLengths[ i ] );
+
+                checkXmlns( attrName, uri );
+
+                _attrUris[ i ] = uri;
+
+                declareNamespace( attrName._prefix.length() == 0 ? "" : attrName._local, uri );
+            }
+        }
+
+        String uri = namespaceFor( name );
+
+        if (_context == null && _recordName != null &&
+                _recordName.getLocalPart().equals( name._local ) &&
+                    _recordName.getNamespaceURI().equals( uri ))
+        {
+            beginRecord();
+        }
+
+        if (_context == null)
+        {
+            // Outside of any record, only check the attribute names
+
+            for ( int i = 0 ; i < _attrCount ; i++ )
+            {
+                if (!_attrNames[ i ]._isXmlns && _attrNames[ i ]._prefix.length() > 0)
+                    namespaceFor( _attrNames[ i ] );
+            }
+
+            if (!isEmpty)
+                pushElement( name, nsMark );
+            else
+                _nsCount = nsMark;
+
+            return;
+        }
+
+        _context.begin( name._local, uri );
+
+        if (_recordDepth == _depth)
+            declareOuterNamespaces( nsMark );
+
+        if (_wantLineNumbers)
+        {
+            syncLine();
+            _context.lineNumberAnnotation( _line, _pos - _lineStart + 1, -1 );
+        }
+
+        for ( int i = 0 ; i < _attrCount ; i++ )
+        {
+            Name attrName = _attrNames[ i ];
+
+            if (attrName._isXmlns)
+            {
+                _context.xmlns(
+                    attrName._prefix.length() == 0 ? "" : attrName._local, _attrUris[ i ] );
+
+                continue;
+            }
+
+            String attrUri =
+                attrName._prefix.length() == 0 ? "" : namespaceFor( attrName );
+
+            for ( int j = 0 ; j < i ; j++ )
+            {
+                if (!_attrNames[ j ]._isXmlns &&
+                        _attrNames[ j ]._local.equals( attrName._local ) &&
+                            _attrUris[ j ].equals( attrUri ))
+                {
+                    throw error(
+                        "Attribute \"" + attrName._local + "\" bound to namespace \"" +
+                            attrUri + "\" was already specified for element \"" +
+                                name._qname + "\"" );
+                }
+            }
+
+            _attrUris[ i ] = attrUri;
+
+            _context.attr(
+                attrName._local, attrUri, _values, _attrOffsets[ i ], _attrLengths[ i ] );
+        }
+
+        if (isEmpty)
+        {
+            _context.end();
+            _nsCount = nsMark;
+
+            if (_recordDepth == _depth)
+                endRecord();
+        }
+        else
+            pushElement( name, nsMark );
+    }
+
+    private void parseEndTag ( ) throws IOException, XmlException
+    {
+        Name name = scanName();
+
+        skipWhitespace();
+        expect( '>' );
+
+        Name expected = _elements[ _depth - 1 ];
+
+        if (name != expected)
+        {
+            throw error(
+                "The element type \"" + expected._qname +
+                    "\" must be terminated by the matching end-tag \"</" + expected._qname + ">\"" );
+        }
+
+        _depth--;
+        _nsCount = _nsMarks[ _depth ];
+
+        if (_context != null)
+        {
+            _context.end();
+
+            if (_recordDepth == _depth)
+                endRecord();
+        }
+    }
+
+    private void addAttr ( Name name, int off, int cch )
+    {
+        if (_attrCount == _attrNames.length)
+        {
+            int n = _attrCount * 2;
+
+            Name[] names = new Name [ n ];
+            int[] offsets = new int [ n ];
+            int[] lengths = new int [ n ];
+
+            System.arraycopy( _attrNames, 0, names, 0, _attrCount );
+            System.arraycopy( _attrOffsets, 0, offsets, 0, _attrCount );
+            System.arraycopy( _attrLengths, 0, lengths, 0, _attrCount );
+
+            _attrNames = names;
+            _attrOffsets = offsets;
+            _attrLengths = lengths;
+            _attrUris = new String [ n ];
+        }
+
+        _attrNames[ _attrCount ] = name;
+        _attrOffsets[ _attrCount ] = off;
+        _attrLengths[ _attrCount ] = cch;
+        _attrCount++;
+    }
+
+    private void pushElement ( Name name, int nsMark )
+    {
+        if (_depth == _elements.length)
+        {
+            Name[] elements = new Name [ _depth * 2 ];
+            int[] marks = new int [ _depth * 2 ];
+
+            System.arraycopy( _elements, 0, elements, 0, _depth );
+            System.arraycopy( _nsMarks, 0, marks, 0, _depth );
+
+            _elements = elements;
+            _nsMarks = marks;
+        }
+
+        _elements[ _depth ] = name;
+        _nsMarks[ _depth ] = nsMark;
+        _depth++;
+    }
+
+    //
+    // Namespaces
+    //
+
+    private void checkXmlns ( Name name, String uri ) throws XmlException
+    {
+        String prefix = name._prefix.length() == 0 ? "" : name._local;
+
+        // The xml namespace belongs to the xml prefix alone, and the xmlns
+        // namespace and prefix are never declared
+
+        if (uri.equals( Splay._xmlnsUri ))
+            throw error( "The namespace \"" + uri + "\" can't be declared" );
+
+        if (uri.equals( Splay._xml1998Uri ) != prefix.equals( "xml" ))
+        {
+            throw error(
+                "The prefix \"xml\" can only be bound to the namespace \"" +
+                    Splay._xml1998Uri + "\", and no other prefix can be" );
+        }
+
+        if (prefix.length() == 0)
+            return;
+
+        if (uri.length() == 0)
+            throw error( "Prefix can't be mapped to no namespace: " + prefix );
+
+        if (Splay.beginsWithXml( prefix ) && !prefix.equals( "xml" ))
+            throw error( "Prefix can't begin with XML: " + prefix );
+    }
+
+    private void declareNamespace ( String prefix, String uri )
+    {
+        if (_nsCount == _nsPrefixes.length)
+        {
+            String[] prefixes = new String [ _nsCount * 2 ];
+            String[] uris = new String [ _nsCount * 2 ];
+
+            System.arraycopy( _nsPrefixes, 0, prefixes, 0, _nsCount );
+            System.arraycopy( _nsUris, 0, uris, 0, _nsCount );
+
+            _nsPrefixes = prefixes;
+            _nsUris = uris;
+        }
+
+        _nsPrefixes[ _nsCount ] = prefix;
+        _nsUris[ _nsCount ] = uri;
+        _nsCount++;
+    }
+
+    private String namespaceFor ( Name name ) throws XmlException
+    {
+        if (!name._isQName)
+            throw error( "Invalid qualified name: " + name._qname );
+
+        String prefix = name._prefix;
+
+        for ( int i = _nsCount - 1 ; i >= 0 ; i-- )
+        {
+            if (_nsPrefixes[ i ].equals( prefix ))
+                return _nsUris[ i ];
+        }
+
+        if (prefix.length() == 0)
+            return "";
+
+        if (prefix.equals( "xml" ))
+            return Splay._xml1998Uri;
+
+        throw error( "Use of undefined namespace prefix: " + prefix );
+    }
+
+    //
+    // Character data
+    //
+
+    private void parseText ( ) throws IOException, XmlException
+    {
+        int start = _pos;
+
+        for ( ; ; )
+        {
+            if (_pos >= _end)
+            {
+                flushText( start );
+
+                if (!fill())
+                    throw error( "Unexpected end of document" );
+
+                start = _pos;
+                continue;
+            }
+
+            char ch = _buf[ _pos ];
+
+            if (ch == '<')
+            {
+                flushText( start );
+                return;
+            }
+            else if (ch == '&')
+            {
+                flushText( start );
+                _pos++;
+                parseReference( false );
+                start = _pos;
+            }
+            else if (ch == '\r')
+            {
+                flushText( start );
+                _pos++;
+                skipLineFeed();
+                _chars[ 0 ] = '\n';
+
+                if (_context != null)
+                    _context.text( _chars, 0, 1 );
+                start = _pos;
+            }
+            else if (ch == ']')
+            {
+                flushText( start );
+
+                if (lookingAt( "]]>" ))
+                    throw error( "The character sequence \"]]>\" must not appear in content" );
+
+                start = _pos++;
+            }
+            else
+            {
+                if (!isChar( ch ))
+                    throw invalidChar( ch, "the element content" );
+
+                _pos++;
+            }
+        }
+    }
+
+    private void parseCdata ( ) throws IOException, XmlException
+    {
+        _pos += 9;
+
+        int start = _pos;
+
+        for ( ; ; )
+        {
+            if (_pos >= _end)
+            {
+                flushText( start );
+
+                if (!fill())
+                    throw error( "The CDATA section must end with \"]]>\"" );
+
+                start = _pos;
+                continue;
+            }
+
+            char ch = _buf[ _pos ];
+
+            if (ch == ']')
+            {
+                flushText( start );
+
+                if (lookingAt( "]]>" ))
+                {
+                    _pos += 3;
+                    return;
+                }
+
+                start = _pos++;
+            }
+            else if (ch == '\r')
+            {
+                flushText( start );
+                _pos++;
+                skipLineFeed();
+                _chars[ 0 ] = '\n';
+
+                if (_context != null)
+                    _context.text( _chars, 0, 1 );
+                start = _pos;
+            }
+            else
+            {
+                if (!isChar( ch ))
+                    throw invalidChar( ch, "a CDATA section" );
+
+                _pos++;
+            }
+        }
+    }
+
+    private void flushText ( int start )
+    {
+        if (_pos > start && _context != null)
+            _context.text( _buf, start, _pos - start );
+    }
+
+    private void scanAttrValue ( char quote ) throws IOException, XmlException
+    {
+        for ( ; ; )
+        {
+            if (_pos >= _end && !fill())
+                throw error( "Unexpected end of document in attribute value" );
+
+            char ch = _buf[ _pos++ ];
+
+            if (ch == quote)
+                return;
+
+            switch ( ch )
+            {
+            case '<' :
+                throw error( "The value of an attribute must not contain '<'" );
+
+            case '&' :
+                parseReference( true );
+                break;
+
+            case '\r' :
+                skipLineFeed();
+                appendValue( ' ' );
+                break;
+
+            case '\n' :
+            case '\t' :
+                appendValue( ' ' );
+                break;
+
+            default :
+                if (!isChar( ch ))
+                    throw invalidChar( ch, "an attribute value" );
+
+                appendValue( ch );
+                break;
+            }
+        }
+    }
+
+    /**
+     * Whether the character may appear in a document.  Surrogates are let
+     * through, paired or not.
+     */
+    private static boolean isChar ( int ch )
+    {
+        return ch >= 0x20 ? ch < 0xFFFE : XMLChar.isValid( ch );
+    }
+
+    private XmlException invalidChar ( int ch, String where )
+    {
+        return
+            error(
+                "An invalid XML character (Unicode: 0x" + Integer.toHexString( ch ) +
+                    ") was found in " + where );
+    }
+
+    private void parseReference ( boolean inAttr ) throws IOException, XmlException
+    {
+        if (peek() == '#')
+        {
+            _pos++;
+
+            int ch = scanCharRef();
+
+            if (ch >= 0x10000)
+            {
+                emitChar( XMLChar.highSurrogate( ch ), inAttr );
+                emitChar( XMLChar.lowSurrogate( ch ), inAttr );
+            }
+            else
+                emitChar( (char) ch, inAttr );
+
+            return;
+        }
+
+        Name name = scanName();
+
+        expect( ';' );
+
+        String entity = name._qname;
+
+        if (entity.equals( "lt" ))
+            emitChar( '<', inAttr );
+        else if (entity.equals( "gt" ))
+            emitChar( '>', inAttr );
+        else if (entity.equals( "amp" ))
+            emitChar( '&', inAttr );
+        else if (entity.equals( "apos" ))
+            emitChar( '\'', inAttr );
+        else if (entity.equals( "quot" ))
+            emitChar( '"', inAttr );
+        else
+        {
+            if (_entities == null || !_entities.containsKey( entity ))
+            {
+                throw error(
+                    "The entity \"" + entity + "\" was referenced, but not declared" );
+            }
+
+            String value = (String) _entities.get( entity );
+
+            // External entities load as empty
+
+            if (value == null)
+                return;
+
+            if (value.indexOf( '<' ) >= 0 || value.indexOf( '&' ) >= 0)
+            {
+                throw error(
+                    "The entity \"" + entity + "\" contains markup, which the " +
+                        "pull parser does not support" );
+            }
+
+            if (inAttr)
+            {
+                for ( int i = 0 ; i < value.length() ; i++ )
+                {
+                    char ch = value.charAt( i );
+                    appendValue( XMLChar.isSpace( ch ) ? ' ' : ch );
+                }
+            }
+            else if (_context != null)
+                _context.text( value );
+        }
+    }
+
+    private int scanCharRef ( ) throws IOException, XmlException
+    {
+        int radix = 10;
+
+        if (peek() == 'x')
+        {
+            _pos++;
+            radix = 16;
+        }
+
+        int value = 0;
+        int digits = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch == ';')
+                break;
+
+            int digit;
+
+            if (ch >= '0' && ch <= '9')
+                digit = ch - '0';
+            else if (radix == 16 && ch >= 'a' && ch <= 'f')
+                digit = ch - 'a' + 10;
+            else if (radix == 16 && ch >= 'A' && ch <= 'F')
+                digit = ch - 'A' + 10;
+            else
+                throw error( "Invalid character reference" );
+
+            value = value * radix + digit;
+            digits++;
+
+            if (value > 0x10FFFF)
+                throw error( "Invalid character reference" );
+        }
+
+        if (digits == 0 || !XMLChar.isValid( value ))
+            throw error( "Invalid character reference" );
+
+        return value;
+    }
+
+    private void emitChar ( char ch, boolean inAttr )
+    {
+        if (inAttr)
+            appendValue( ch );
+        else if (_context != null)
+        {
+            _chars[ 0 ] = ch;
+            _context.text( _chars, 0, 1 );
+        }
+    }
+
+    private void appendValue ( char ch )
+    {
+        if (_valuesEnd == _values.length)
+        {
+            char[] values = new char [ _valuesEnd * 2 ];
+            System.arraycopy( _values, 0, values, 0, _valuesEnd );
+            _values = values;
+        }
+
+        _values[ _valuesEnd++ ] = ch;
+    }
+
+    //
+    // Comments, processing instructions and the doctype
+    //
+
+    private void parseComment ( ) throws IOException, XmlException
+    {
+        _pos += 4;
+
+        _scratchEnd = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch < 0)
+                throw error( "The comment must end with \"-->\"" );
+
+            if (ch == '-' && peek() == '-')
+            {
+                _pos++;
+
+                if (next() != '>')
+                    throw error( "The string \"--\" is not permitted within comments" );
+
+                break;
+            }
+
+            if (ch == '\r')
+            {
+                skipLineFeed();
+                ch = '\n';
+            }
+            else if (!isChar( ch ))
+                throw invalidChar( ch, "a comment" );
+
+            appendScratch( ch );
+        }
+
+        if (_context != null)
+            _context.comment( _scratch, 0, _scratchEnd );
+    }
+
+    private void parseProcinst ( ) throws IOException, XmlException
+    {
+        _pos += 2;
+
+        Name target = scanName();
+
+        if (target._qname.equalsIgnoreCase( "xml" ))
+            throw error( "The processing instruction target \"xml\" is reserved" );
+
+        boolean sawSpace = skipWhitespace();
+
+        _scratchEnd = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch < 0)
+                throw error( "The processing instruction must end with \"?>\"" );
+
+            if (ch == '?' && peek() == '>')
+            {
+                _pos++;
+                break;
+            }
+
+            if (!sawSpace)
+                throw error( "White space is required after the processing instruction target" );
+
+            if (ch == '\r')
+            {
+                skipLineFeed();
+                ch = '\n';
+            }
+            else if (!isChar( ch ))
+                throw invalidChar( ch, "a processing instruction" );
+
+            appendScratch( ch );
+        }
+
+        if (_context != null)
+            _context.procinst( target._qname, _scratch, 0, _scratchEnd );
+    }
+
+    private void parseDoctype ( ) throws IOException, XmlException
+    {
+        _pos += 9;
+
+        if (!skipWhitespace())
+            throw error( "White space is required after \"<!DOCTYPE\"" );
+
+        Name name = scanName();
+
+        skipWhitespace();
+
+        String publicId = null;
+        String systemId = null;
+
+        if (lookingAt( "PUBLIC" ))
+        {
+            _pos += 6;
+            skipWhitespace();
+            publicId = scanLiteral();
+            skipWhitespace();
+            systemId = scanLiteral();
+        }
+        else if (lookingAt( "SYSTEM" ))
+        {
+            _pos += 6;
+            skipWhitespace();
+            systemId = scanLiteral();
+        }
+
+        skipWhitespace();
+
+        if (peek() == '[')
+        {
+            _pos++;
+            parseInternalSubset();
+            skipWhitespace();
+        }
+
+        expect( '>' );
+
+        if (_context != null)
+            _context.doctype( name._qname, publicId, systemId );
+    }
+
+    private void parseInternalSubset ( ) throws IOException, XmlException
+    {
+        for ( ; ; )
+        {
+            skipWhitespace();
+
+            int ch = peek();
+
+            if (ch == ']')
+            {
+                _pos++;
+                return;
+            }
+
+            if (ch == '%')
+            {
+                _pos++;
+                scanName();
+                expect( ';' );
+            }
+            else if (lookingAt( "<!--" ))
+            {
+                _pos += 4;
+
+                while ( !lookingAt( "-->" ) )
+                {
+                    if (next() < 0)
+                        throw error( "The comment must end with \"-->\"" );
+                }
+
+                _pos += 3;
+            }
+            else if (lookingAt( "<?" ))
+            {
+                _pos += 2;
+
+                while ( !lookingAt( "?>" ) )
+                {
+                    if (next() < 0)
+                        throw error( "The processing instruction must end with \"?>\"" );
+                }
+
+                _pos += 2;
+            }
+            else if (lookingAt( "<!ENTITY" ))
+            {
+                _pos += 8;
+                parseEntityDecl();
+            }
+            else if (lookingAt( "<!" ))
+            {
+                _pos += 2;
+                skipDecl();
+            }
+            else
+                throw error( "Invalid markup in the document type declaration" );
+        }
+    }
+
+    private void parseEntityDecl ( ) throws IOException, XmlException
+    {
+        skipWhitespace();
+
+        if (peek() == '%')
+        {
+            // Parameter entities are never expanded here
+
+            skipDecl();
+            return;
+        }
+
+        String name = scanName()._qname;
+
+        skipWhitespace();
+
+        int quote = peek();
+
+        if (quote != '"' && quote != '\'')
+        {
+            // An external entity
+
+            skipDecl();
+
+            if (_entities == null)
+                _entities = new HashMap();
+
+            if (!_entities.containsKey( name ))
+                _entities.put( name, null );
+
+            return;
+        }
+
+        _pos++;
+
+        _scratchEnd = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch < 0)
+                throw error( "Unexpected end of document in entity declaration" );
+
+            if (ch == quote)
+                break;
+
+            if (ch == '&' && peek() == '#')
+            {
+                _pos++;
+
+                int value = scanCharRef();
+
+                if (value >= 0x10000)
+                {
+                    appendScratch( XMLChar.highSurrogate( value ) );
+                    appendScratch( XMLChar.lowSurrogate( value ) );
+                }
+                else
+                    appendScratch( value );
+            }
+            else if (ch == '\r')
+            {
+                skipLineFeed();
+                appendScratch( '\n' );
+            }
+            else
+                appendScratch( ch );
+        }
+
+        skipWhitespace();
+        expect( '>' );
+
+        if (_entities == null)
+            _entities = new HashMap();
+
+        // The first declaration of an entity is binding
+
+        if (!_entities.containsKey( name ))
+            _entities.put( name, new String( _scratch, 0, _scratchEnd ) );
+    }
+
+    private void skipDecl ( ) throws IOException, XmlException
+    {
+        int quote = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch < 0)
+                throw error( "Unexpected end of document in the document type declaration" );
+
+            if (quote != 0)
+            {
+                if (ch == quote)
+                    quote = 0;
+            }
+            else if (ch == '"' || ch == '\'')
+                quote = ch;
+            else if (ch == '>')
+                return;
+        }
+    }
+
+    private String scanLiteral ( ) throws IOException, XmlException
+    {
+        int quote = next();
+
+        if (quote != '"' && quote != '\'')
+            throw error( "Expected a quoted string" );
+
+        _scratchEnd = 0;
+
+        for ( ; ; )
+        {
+            int ch = next();
+
+            if (ch < 0)
+                throw error( "Unexpected end of document in quoted string" );
+
+            if (ch == quote)
+                return new String( _scratch, 0, _scratchEnd );
+
+            appendScratch( ch );
+        }
+    }
+
+    private void appendScratch ( int ch )
+    {
+        if (_scratchEnd == _scratch.length)
+        {
+            char[] scratch = new char [ _scratchEnd * 2 ];
+            System.arraycopy( _scratch, 0, scratch, 0, _scratchEnd );
+            _scratch = scratch;
+        }
+
+        _scratch[ _scratchEnd++ ] = (char) ch;
+    }
+
+    //
+    // Scanning primitives
+    //
+
+    private Name scanName ( ) throws IOException, XmlException
+    {
+        if (!ensure( 1 ) || !XMLChar.isNameStart( _buf[ _pos ] ))
+            throw error( "Expected a name" );
+
+        _mark = _pos++;
+
+        for ( ; ; )
+        {
+            if (_pos >= _end && !fill())
+                break;
+
+            if (!XMLChar.isName( _buf[ _pos ] ))
+                break;
+
+            _pos++;
+        }
+
+        int start = _mark;
+
+        _mark = -1;
+
+        return _names.get( _buf, start, _pos - start );
+    }
+
+    private boolean skipWhitespace ( ) throws IOException
+    {
+        boolean skipped = false;
+
+        for ( ; ; )
+        {
+            if (_pos >= _end && !fill())
+                return skipped;
+
+            char ch = _buf[ _pos ];
+
+            if (ch != ' ' && ch != '\n' && ch != '\t' && ch != '\r')
+                return skipped;
+
+            _pos++;
+            skipped = true;
+        }
+    }
+
+    private void skipLineFeed ( ) throws IOException
+    {
+        if (peek() == '\n')
+            _pos++;
+    }
+
+    private void expect ( char ch ) throws IOException, XmlException
+    {
+        if (next() != ch)
+            throw error( "Expected '" + ch + "'" );
+    }
+
+    private boolean lookingAt ( String s ) throws IOException
+    {
+        int n = s.length();
+
+        if (!ensure( n ))
+            return false;
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            if (_buf[ _pos + i ] != s.charAt( i ))
+                return false;
+        }
+
+        return true;
+    }
+
+    private int peek ( ) throws IOException
+    {
+        if (_pos >= _end && !fill())
+            return -1;
+
+        return _buf[ _pos ];
+    }
+
+    private int next ( ) throws IOException
+    {
+        if (_pos >= _end && !fill())
+            return -1;
+
+        return _buf[ _pos++ ];
+    }
+
+    private boolean ensure ( int n ) throws IOException
+    {
+        while ( _end - _pos < n )
+        {
+            if (!fill())
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Reads more input, first moving any unconsumed characters (and the
+     * token starting at _mark, if any) to the front of the buffer.  Returns
+     * false at the end of the input.
+     */
+    private boolean fill ( ) throws IOException
+    {
+        if (_eof)
+            return false;
+
+        int keep = _mark >= 0 ? _mark : _pos;
+
+        if (keep > 0)
+        {
+            syncLine();
+
+            System.arraycopy( _buf, keep, _buf, 0, _end - keep );
+
+            _end -= keep;
+            _pos -= keep;
+            _lineScan -= keep;
+            _lineStart -= keep;
+
+            if (_mark >= 0)
+                _mark -= keep;
+        }
+
+        if (_end == _buf.length)
+        {
+            char[] buf = new char [ _buf.length * 2 ];
+            System.arraycopy( _buf, 0, buf, 0, _end );
+            _buf = buf;
+        }
+
+        int n;
+
+        do
+        {
+            n = _reader.read( _buf, _end, _buf.length - _end );
+        }
+        while ( n == 0 );
+
+        if (n < 0)
+        {
+            _eof = true;
+            return false;
+        }
+
+        _end += n;
+
+        return true;
+    }
+
+    /**
+     * Brings the line number up to date with the current position.  Lines
+     * are only counted when a location is needed, keeping the scanning
+     * loops free of line bookkeeping.
+     */
+    private void syncLine ( )
+    {
+        for ( int i = _lineScan ; i < _pos ; i++ )
+        {
+            char ch = _buf[ i ];
+
+            if (ch == '\n')
+            {
+                if (!_sawCr)
+                    _line++;
+
+                _lineStart = i + 1;
+                _sawCr = false;
+            }
+            else if (ch == '\r')
+            {
+                _line++;
+                _lineStart = i + 1;
+                _sawCr = true;
+            }
+            else
+                _sawCr = false;
+        }
+
+        if (_pos > _lineScan)
+            _lineScan = _pos;
+    }
+
+    private XmlException error ( String message )
+    {
+        syncLine();
+
+        XmlError err =
+            XmlError.forLocation(
+                message, _sourceName, _line, _pos - _lineStart + 1, -1 );
+
+        return new XmlException( err.toString(), null, err );
+    }
+
+    //
+    // Symbol table for names, keyed on their characters
+    //
+
+    private static final class Name
+    {
+        Name ( String qname, int hash )
+        {
+            _qname = qname;
+            _hash = hash;
+
+            int colon = qname.indexOf( ':' );
+
+            if (colon < 0)
+            {
+                _prefix = "";
+                _local = qname;
+                _isQName = true;
+            }
+            else
+            {
+                _prefix = qname.substring( 0, colon );
+                _local = qname.substring( colon + 1 );
+                _isQName =
+                    colon > 0 && _local.length() > 0 && _local.indexOf( ':' ) < 0;
+            }
+
+            _isXmlns =
+                _prefix.length() == 0 ? _local.equals( "xmlns" ) : _prefix.equals( "xmlns" );
+        }
+
+        final String  _qname;
+        final String  _prefix;
+        final String  _local;
+        final int     _hash;
+        final boolean _isQName;
+        final boolean _isXmlns;
+
+        Name _next;
+    }
+
+    private static final class NameTable
+    {
+        NameTable ( )
+        {
+            _table = new Name [ 64 ];
+        }
+
+        Name get ( char[] buf, int off, int cch )
+        {
+            int hash = 0;
+
+            for ( int i = 0 ; i < cch ; i++ )
+                hash = 31 * hash + buf[ off + i ];
+
+            int index = hash & (_table.length - 1);
+
+        search:
+            for ( Name n = _table[ index ] ; n != null ; n = n._next )
+            {
+                if (n._hash != hash || n._qname.length() != cch)
+                    continue;
+
+                for ( int i = 0 ; i < cch ; i++ )
+                {
+                    if (n._qname.charAt( i ) != buf[ off + i ])
+                        continue search;
+                }
+
+                return n;
+            }
+
+            Name n = new Name( new String( buf, off, cch ), hash );
+
+            n._next = _table[ index ];
+            _table[ index ] = n;
+
+            if (++_count > _table.length)
+                rehash();
+
+            return n;
+        }
+
+        private void rehash ( )
+        {
+            Name[] table = new Name [ _table.length * 2 ];
+
+            for ( int i = 0 ; i < _table.length ; i++ )
+            {
+                for ( Name n = _table[ i ] ; n != null ; )
+                {
+                    Name next = n._next;
+                    int index = n._hash & (table.length - 1);
+                    n._next = table[ index ];
+                    table[ index ] = n;
+                    n = next;
+                }
+            }
+
+            _table = table;
+        }
+
+        private Name[] _table;
+        private int    _count;
+    }
+
+    private Reader      _reader;
+    private LoadContext _context;
+    private Buffers     _inUse;
+    private boolean     _wantLineNumbers;
+    private String      _sourceName;
+
+    private String      _version = "1.0";
+    private String      _encoding;
+
+    private char[]      _buf;
+    private int         _pos;
+    private int         _end;
+    private int         _mark;
+    private boolean     _eof;
+
+    private int         _line;
+    private int         _lineStart;
+    private int         _lineScan;
+    private boolean     _sawCr;
+
+    private NameTable   _names;
+    private HashMap     _entities;
+
+    private Name[]      _attrNames;
+    private int[]       _attrOffsets;
+    private int[]       _attrLengths;
+    private String[]    _attrUris;
+    private int         _attrCount;
+    private char[]      _values;
+    private int         _valuesEnd;
+    private char[]      _scratch;
+    private int         _scratchEnd;
+    private char[]      _chars;
+
+    private String[]    _nsPrefixes;
+    private String[]    _nsUris;
+    private int         _nsCount;
+
+    private Name[]      _elements;
+    private int[]       _nsMarks;
+    private int         _depth;
+
+    // Only used when loading records
+
+    private QName            _recordName;
+    private SchemaTypeLoader _stl;
+    private XmlOptions       _options;
+    private int              _recordDepth = -1;
+    private Root             _recordRoot;
+    private Root             _record;
+    private boolean          _started;
+    private boolean          _ended;
+}
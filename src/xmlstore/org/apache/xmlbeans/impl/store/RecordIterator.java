@@ -0,0 +1,177 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package org.apache.xmlbeans.impl.store;
+
+import org.apache.xmlbeans.SchemaType;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.XmlRuntimeException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the records of a document, loading each one only when it
+ * is asked for.  Only the record being handed out is held, so memory does
+ * not grow with the document, and the reader can get no further ahead of
+ * the consumer than one record.  next() and hasNext() are synchronized, so
+ * a pool of threads may share one iterator; each record is a document of
+ * its own and may be worked on without regard to the others.
+ */
+
+final class RecordIterator implements Iterator
+{
+    RecordIterator ( PullLoader loader, SchemaType type, XmlOptions options )
+    {
+        _loader = loader;
+        _type = type;
+        _options = XmlOptions.maskNull( options );
+
+        _validate = _options.hasOption( XmlOptions.LOAD_VALIDATE_RECORDS );
+        _errorListener = (Collection) _options.get( XmlOptions.ERROR_LISTENER );
+
+        // Records are validated with the caller's options, but their errors
+        // are gathered first to learn whether each one is valid
+
+        if (_validate)
+            _validateOptions = new XmlOptions( _options ).setErrorListener( _errors );
+    }
+
+    public synchronized boolean hasNext ( )
+    {
+        if (_next == null && _loader != null)
+            _next = loadNext();
+
+        return _next != null;
+    }
+
+    public synchronized Object next ( )
+    {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        XmlObject next = _next;
+        _next = null;
+        return next;
+    }
+
+    public void remove ( )
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    private XmlObject loadNext ( )
+    {
+        try
+        {
+            for ( ; ; )
+            {
+                Root r = _loader.nextRecord();
+
+                if (r == null)
+                {
+                    _loader = null;
+                    return null;
+                }
+
+                XmlObject record = recordOf( r );
+
+                if (!_validate || isValid( record ))
+                    return record;
+            }
+        }
+        catch ( XmlException e )
+        {
+            _loader = null;
+            throw new XmlRuntimeException( e );
+        }
+        catch ( IOException e )
+        {
+            _loader = null;
+            throw new XmlRuntimeException( e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Returns the record element of r, typed as asked for.  A document type
+     * (or none) types the record by its name, as parse does.  Any other type
+     * is given to the document itself, which holds just the content of the
+     * record element.
+     */
+
+    private XmlObject recordOf ( Root r ) throws XmlException
+    {
+        if (_type != null && !_type.isDocumentType())
+            return r.autoTypedDocument( _type, _options );
+
+        XmlObject doc = r.autoTypedDocument( _type, _options );
+
+        XmlCursor c = doc.newCursor();
+
+        try
+        {
+            c.toFirstChild();
+            return c.getObject();
+        }
+        finally
+        {
+            c.dispose();
+        }
+    }
+
+    /**
+     * Invalid records are passed over, their errors going to the error
+     * listener.  With no listener, the first invalid record ends the
+     * iteration with an exception.
+     */
+
+    private boolean isValid ( XmlObject record )
+    {
+        ArrayList errors = _errors;
+
+        errors.clear();
+
+        if (record.validate( _validateOptions ))
+            return true;
+
+        if (_errorListener == null)
+        {
+            _loader = null;
+
+            throw
+                new XmlRuntimeException(
+                    "Invalid record: " + errors.get( 0 ), null, new ArrayList( errors ) );
+        }
+
+        _errorListener.addAll( errors );
+
+        return false;
+    }
+
+    private PullLoader _loader;
+    private SchemaType _type;
+    private XmlOptions _options;
+    private boolean    _validate;
+    private Collection _errorListener;
+    private XmlOptions _validateOptions;
+    private ArrayList  _errors = new ArrayList();
+    private XmlObject  _next;
+}
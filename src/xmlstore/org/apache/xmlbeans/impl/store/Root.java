@@ -16,10 +16,11 @@
 package org.apache.xmlbeans.impl.store;
 
 import java.lang.reflect.Method;
-import java.lang.ref.SoftReference;
 
 import org.apache.xmlbeans.impl.common.EncodingMap;
+import org.apache.xmlbeans.impl.common.ObjectPool;
 import org.apache.xmlbeans.impl.common.QNameHelper;
+import org.apache.xmlbeans.impl.common.StripedMap;
 import org.apache.xmlbeans.impl.common.XMLNameHelper;
 import org.apache.xmlbeans.impl.store.Splay.Finish;
 import org.apache.xmlbeans.impl.values.NamespaceManager;
@@ -77,8 +78,12 @@ import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 public final class Root extends Finish implements XmlStore
 {
@@ -117,6 +122,8 @@ public final class Root extends Finish implements XmlStore
 
         _validateOnSet = options.hasOption( XmlOptions.VALIDATE_ON_SET );
 
+        _indexElements = options.hasOption( XmlOptions.LOAD_ELEMENT_INDEX );
+
         _factory = (TypeStoreFactory) options.get( TypeStoreFactory.KEY );
 
         _doc.setType( this, sType );
@@ -166,6 +173,9 @@ public final class Root extends Finish implements XmlStore
         if (!isEmpty())
             _doc.removeContent( this, true );
 
+        _deferred = null;
+        _deferredAncestors = null;
+
         assert isEmpty();
         assert validate();
         assert _leftOnly;
@@ -214,6 +224,174 @@ public final class Root extends Finish implements XmlStore
         return s.getCdocBeginLeft();
     }
     
+    /**
+     * Returns the index of the elements in this document by name, building
+     * it if need be, or null if this document does not keep one.
+     */
+
+    ElementIndex getElementIndex ( )
+    {
+        if (!_indexElements)
+            return null;
+
+        if (_elementIndex == null || !_elementIndex.isCurrent())
+            _elementIndex = new ElementIndex( this );
+
+        return _elementIndex;
+    }
+
+    /**
+     * Records the content of s, an empty element, as put off until it is
+     * first needed.  Called by the loader.
+     */
+
+    void defer ( Splay s, DeferredContent content, XmlOptions options )
+    {
+        assert s.isBegin() && s.isLeaf() && !s.nextSplay().isAttr();
+
+        if (_deferred == null)
+        {
+            _deferred = new HashMap();
+            _deferredAncestors = new HashSet();
+        }
+
+        _deferred.put( s, content );
+        _deferredOptions = options;
+
+        for ( Splay c = s.getContainer() ; c != null ; c = c.getContainer() )
+        {
+            if (!_deferredAncestors.add( c ))
+                break;
+        }
+    }
+
+    /**
+     * Loads the content of s if it was put off.  Called before anything
+     * looks inside s.
+     */
+
+    void loadDeferred ( Splay s )
+    {
+        if (_deferred == null)
+            return;
+
+        DeferredContent content = (DeferredContent) _deferred.remove( s );
+
+        if (content != null)
+            load( s, content );
+    }
+
+    /**
+     * Loads the content put off anywhere in or under s.  Called before
+     * anything walks the whole of s.
+     */
+
+    void loadDeferredWithin ( Splay s )
+    {
+        if (_deferred == null)
+            return;
+
+        loadDeferred( s );
+
+        if (_deferred != null && _deferredAncestors.remove( s ))
+        {
+            Splay[] deferred = deferredWithin( s );
+
+            DeferredContent[] contents = new DeferredContent [ deferred.length ];
+
+            for ( int i = 0 ; i < deferred.length ; i++ )
+                contents[ i ] = (DeferredContent) _deferred.remove( deferred[ i ] );
+
+            for ( int i = 0 ; i < deferred.length ; i++ )
+                load( deferred[ i ], contents[ i ] );
+        }
+    }
+
+    /**
+     * Forgets the content put off in or under s, which is about to be
+     * removed along with it.
+     */
+
+    void discardDeferredWithin ( Splay s )
+    {
+        if (_deferred == null)
+            return;
+
+        _deferred.remove( s );
+
+        if (_deferredAncestors.remove( s ))
+        {
+            Splay[] deferred = deferredWithin( s );
+
+            for ( int i = 0 ; i < deferred.length ; i++ )
+                _deferred.remove( deferred[ i ] );
+        }
+
+        if (_deferred.isEmpty())
+        {
+            _deferred = null;
+            _deferredAncestors = null;
+        }
+    }
+
+    private Splay[] deferredWithin ( Splay s )
+    {
+        ArrayList within = new ArrayList();
+
+        for ( Iterator i = _deferred.keySet().iterator() ; i.hasNext() ; )
+        {
+            Splay d = (Splay) i.next();
+
+            for ( Splay c = d.getContainer() ; c != null ; c = c.getContainer() )
+            {
+                if (c == s)
+                {
+                    within.add( d );
+                    break;
+                }
+            }
+        }
+
+        return (Splay[]) within.toArray( new Splay [ within.size() ] );
+    }
+
+    private void load ( Splay s, DeferredContent content )
+    {
+        if (_deferred != null && _deferred.isEmpty())
+        {
+            _deferred = null;
+            _deferredAncestors = null;
+        }
+
+        // Play the content into a document of its own, then move it in
+        // place of the empty element
+
+        Root r = new Root( _schemaTypeSystem, null, null );
+
+        assert r.disableStoreValidation();
+
+        try
+        {
+            LoadContext context = new LoadContext( r, _deferredOptions );
+
+            context.begin( s.getName() );
+            content.replay( context );
+            context.end();
+            context.finish();
+        }
+        catch ( XmlException e )
+        {
+            assert false: "Deferred content should be well formed";
+            throw new XmlRuntimeException( e );
+        }
+        finally
+        {
+            assert r.enableStoreValidation();
+        }
+
+        s.replaceContents( this, r._doc.nextSplay(), r, false, false );
+    }
+
     Begin findNthBegin ( Splay parent, QName name, QNameSet set, int n )
     {
         // only one of (set or name) is not null
@@ -224,9 +402,41 @@ public final class Root extends Finish implements XmlStore
         if (parent == null || parent.isLeaf())
             return null;
 
+        // A frozen document has its children in arrays
+
+        if (_frozen)
+        {
+            return
+                (Begin) (set == null
+                    ? _childIndex.findNth( parent, name, n )
+                    : _childIndex.findNth( parent, set, n ));
+        }
+
         int da = _nthCache_A.distance( parent, name, set, n );
         int db = _nthCache_B.distance( parent, name, set, n );
 
+        // If neither cache is closer to the nth child than the first child
+        // is, find it with the index instead of walking the children
+
+        ElementIndex index;
+
+        if (name != null && set == null && n > 0 && da > n && db > n &&
+                (index = getElementIndex()) != null)
+        {
+            Begin b = (Begin) index.findNth( parent, name, n );
+
+            if (b != null)
+            {
+                _nthCache_B.seed( parent, name, b, n );
+
+                nthCache temp = _nthCache_A;
+                _nthCache_A = _nthCache_B;
+                _nthCache_B = temp;
+            }
+
+            return b;
+        }
+
         Begin b =
             da <= db
                 ? _nthCache_A.fetch( parent, name, set, n )
@@ -244,6 +454,19 @@ public final class Root extends Finish implements XmlStore
 
     int count ( Container parent, QName name, QNameSet set )
     {
+        if (_frozen)
+        {
+            return
+                set == null
+                    ? _childIndex.count( parent, name )
+                    : _childIndex.count( parent, set );
+        }
+
+        ElementIndex index;
+
+        if (set == null && name != null && (index = getElementIndex()) != null)
+            return index.count( parent, name );
+
         Splay s = findNthBegin( parent, name, set, 0 );
 
         if (s == null)
@@ -438,9 +661,196 @@ public final class Root extends Finish implements XmlStore
                 new XmlException( "XML object is not of type " + factoryType );
         }
 
+        if (XmlOptions.maskNull( options ).hasOption( XmlOptions.LOAD_CONCURRENT_READS ))
+            freeze();
+
         return getObject();
     }
 
+    /**
+     * Makes this document read-only so that any number of threads may read
+     * it at once without holding its lock.  Everything a read would
+     * otherwise do to the store is done here, up front: invalid text is
+     * brought up to date, the splay tree is laid out left only so that
+     * nothing need be splayed to find a position, the text gap is closed
+     * and cursors are taken off the goober lists.  From then on Types are
+     * kept in a map rather than on the goober lists, and the element
+     * children of each container are kept in arrays, so that the nth child
+     * is found without walking its siblings or caching where the last walk
+     * ended.  Must be called while holding the monitor.
+     */
+
+    void freeze ( )
+    {
+        if (_frozen)
+            return;
+
+        loadDeferredWithin( _doc );
+
+        startChange();
+
+        for ( Splay s = _doc ; s != null ; s = s.nextSplay() )
+        {
+            if (!s.isInvalid())
+                continue;
+
+            if (s.isContainer())
+                s.ensureContentValid();
+            else if (s.isNormalAttr())
+                s.ensureValueValid();
+        }
+
+        ArrayList splays = new ArrayList();
+
+        for ( Splay s = _doc ; s != null ; s = s.nextSplay() )
+            splays.add( s );
+
+        if (!_leftOnly)
+        {
+            Splay prev = null;
+            int cch = 0;
+            int cbegin = 0;
+
+            for ( int i = 0 ; i < splays.size() ; i++ )
+            {
+                Splay s = (Splay) splays.get( i );
+
+                s._leftSplay = prev;
+                s._rightSplay = null;
+
+                if (prev != null)
+                    prev._parentSplay = s;
+
+                s.adjustCchLeft( cch - s.getCchLeft() );
+                s.adjustCdocBeginLeft( cbegin - s.getCdocBeginLeft() );
+
+                cch += s.getCch();
+                cbegin += s.getCdocBegin();
+
+                prev = s;
+            }
+
+            assert prev == this && _parentSplay == null;
+
+            _leftOnly = true;
+
+            assert validateSplayTree();
+        }
+
+        _text.trim();
+
+        if (_indexElements)
+            getElementIndex();
+
+        ArrayList goobers = new ArrayList();
+
+        for ( int i = 0 ; i < splays.size() ; i++ )
+        {
+            Splay s = (Splay) splays.get( i );
+
+            for ( Goober g = s.firstGoober() ; g != null ; g = s.nextGoober( g ) )
+                goobers.add( g );
+        }
+
+        _frozenTypes = new StripedMap();
+        _frozenAnnotations = new StripedMap();
+
+        _childIndex = new ChildIndex( this );
+
+        // Cursors must leave the goober lists, which no longer change, and
+        // annotations go to the root's map, so that bookmarks can still be
+        // set and cleared
+
+        for ( int i = 0 ; i < goobers.size() ; i++ )
+        {
+            Goober g = (Goober) goobers.get( i );
+
+            if (g.getKind() == CURSOR)
+                g.unlist();
+            else if (g.getKind() == ANNOTATION)
+            {
+                g.unlist();
+                addFrozenAnnotation( (Annotation) g );
+            }
+        }
+
+        // Written last of all the frozen state.  It is volatile, so a thread
+        // which sees it set, and so reads without the lock, also sees the
+        // tree, the index and the maps as they were built above.
+
+        _frozen = true;
+
+        // Users made before now must learn that the document is frozen
+
+        for ( int i = 0 ; i < goobers.size() ; i++ )
+        {
+            Goober g = (Goober) goobers.get( i );
+
+            if (g.getKind() == TYPE)
+                ((Type) g).reattachUser();
+        }
+    }
+
+    boolean isFrozen ( ) { return _frozen; }
+
+    private static final Annotation[] _noAnnotations = new Annotation [ 0 ];
+
+    /**
+     * Returns the annotations on a splay of a frozen document.  The array
+     * is replaced, never changed, when bookmarks are set or cleared, so
+     * it can be read while other threads do so.
+     */
+
+    Annotation[] getFrozenAnnotations ( Splay s )
+    {
+        Annotation[] annotations = (Annotation[]) _frozenAnnotations.get( s );
+
+        return annotations == null ? _noAnnotations : annotations;
+    }
+
+    void addFrozenAnnotation ( Annotation a )
+    {
+        synchronized ( _frozenAnnotations )
+        {
+            Annotation[] old = getFrozenAnnotations( a.getSplay() );
+            Annotation[] annotations = new Annotation [ old.length + 1 ];
+
+            System.arraycopy( old, 0, annotations, 0, old.length );
+            annotations[ old.length ] = a;
+
+            _frozenAnnotations.put( a.getSplay(), annotations );
+        }
+    }
+
+    void removeFrozenAnnotation ( Annotation a )
+    {
+        synchronized ( _frozenAnnotations )
+        {
+            Annotation[] old = getFrozenAnnotations( a.getSplay() );
+
+            int i = old.length - 1;
+
+            while ( i >= 0 && old[ i ] != a )
+                i--;
+
+            if (i < 0)
+                return;
+
+            if (old.length == 1)
+            {
+                _frozenAnnotations.remove( a.getSplay() );
+                return;
+            }
+
+            Annotation[] annotations = new Annotation [ old.length - 1 ];
+
+            System.arraycopy( old, 0, annotations, 0, i );
+            System.arraycopy( old, i + 1, annotations, i, old.length - i - 1 );
+
+            _frozenAnnotations.put( a.getSplay(), annotations );
+        }
+    }
+
     private void verifyDocumentType ( QName docElemName )
         throws XmlException
     {
@@ -579,12 +989,21 @@ public final class Root extends Finish implements XmlStore
     //
     //
 
-    private static ThreadLocal tl_SaxLoaders =
-        new ThreadLocal()
+    // SAX loaders, each with its parser, are costly to make, so they are
+    // kept for reuse in a pool shared by all threads
+
+    private static final ObjectPool _saxLoaders =
+        new ObjectPool( ObjectPool.defaultSize() )
         {
-            protected Object initialValue()
+            protected Object create ( )
+            {
+                return createSaxLoader();
+            }
+
+            protected boolean reset ( Object o )
             {
-                return new SoftReference(createSaxLoader());
+                ((SaxLoader) o).setContext( null, null );
+                return true;
             }
         };
 
@@ -601,19 +1020,48 @@ public final class Root extends Finish implements XmlStore
         return sl;
     }
 
-    private static SaxLoader getSaxLoader ( )
+    /**
+     * Sets how many SAX loaders, pull parser buffers and DOM builders are
+     * kept for reuse, of each kind.
+     */
+    public static void setContextPoolSize ( int size )
+    {
+        _saxLoaders.setSize( size );
+        PullLoader._buffers.setSize( size );
+        Saver._documentBuilders.setSize( size );
+    }
+
+    /**
+     * Makes up to count SAX loaders, pull parser buffers and DOM builders
+     * ahead of their first use.
+     */
+    public static void warmContextPools ( int count )
     {
-        SoftReference softRef = (SoftReference)tl_SaxLoaders.get();
-        SaxLoader saxLoader = (SaxLoader) softRef.get();
-        if (saxLoader==null)
+        _saxLoaders.warm( count );
+        PullLoader._buffers.warm( count );
+        Saver._documentBuilders.warm( count );
+    }
+
+    /**
+     * Returns the hits, misses and drops of the context pools, summed over
+     * the kinds of context.
+     */
+    public static long[] getContextPoolStatistics ( )
+    {
+        ObjectPool[] pools =
+            { _saxLoaders, PullLoader._buffers, Saver._documentBuilders };
+
+        long[] stats = new long [ 3 ];
+
+        for ( int i = 0 ; i < pools.length ; i++ )
         {
-            saxLoader = createSaxLoader();
-            tl_SaxLoaders.set(new SoftReference(saxLoader));
+            stats[ 0 ] += pools[ i ].getHits();
+            stats[ 1 ] += pools[ i ].getMisses();
+            stats[ 2 ] += pools[ i ].getDrops();
         }
-        return saxLoader;
 
+        return stats;
     }
-    
 
     private static class PiccoloSaxLoader extends SaxLoader
     {
@@ -1036,6 +1484,39 @@ public final class Root extends Finish implements XmlStore
         return loadXml( new InputSource( in ), type, options );
     }
 
+    public Iterator loadRecords (
+        InputStream in, QName recordName, SchemaType type, XmlOptions options )
+            throws XmlException, IOException
+    {
+        InputSource is = new InputSource( in );
+
+        String encodingOverride =
+            (String) XmlOptions.safeGet( options, XmlOptions.CHARACTER_ENCODING );
+
+        if (encodingOverride != null)
+        {
+            String javaEncoding = EncodingMap.getIANA2JavaMapping( encodingOverride );
+
+            if (javaEncoding == null)
+                javaEncoding = encodingOverride;
+
+            is = new InputSource( new InputStreamReader( in, javaEncoding ) );
+        }
+
+        // A record of a non-document type is its content, as with an
+        // xml-fragment, so the record element itself is not kept
+
+        XmlOptions loadOptions = options;
+
+        if (type != null && !type.isDocumentType())
+            loadOptions = new XmlOptions( options ).setLoadReplaceDocumentElement( null );
+
+        return
+            new RecordIterator(
+                PullLoader.forRecords( is, recordName, _schemaTypeSystem, loadOptions ),
+                type, options );
+    }
+
     public XmlObject loadXml ( Reader r, SchemaType type, XmlOptions options )
         throws IOException, XmlException
     {
@@ -1047,7 +1528,34 @@ public final class Root extends Finish implements XmlStore
     {
         is.setSystemId( "file://" );
 
-        getSaxLoader().load( this, is, options );
+        if (XmlOptions.maskNull( options ).hasOption( XmlOptions.LOAD_USE_PULL_PARSER ) &&
+                (is.getCharacterStream() != null || is.getByteStream() != null))
+        {
+            PullLoader.load( this, is, options );
+            associateSourceName( options );
+        }
+        else
+        {
+            SaxLoader loader = (SaxLoader) _saxLoaders.acquire();
+
+            // A parser which failed may be left mid document, so it is
+            // not given back
+
+            boolean done = false;
+
+            try
+            {
+                loader.load( this, is, options );
+                done = true;
+            }
+            finally
+            {
+                if (done)
+                    _saxLoaders.release( loader );
+                else
+                    _saxLoaders.discard( loader );
+            }
+        }
 
         return autoTypedDocument( type, options );
     }
@@ -1186,9 +1694,16 @@ public final class Root extends Finish implements XmlStore
             _additionalNamespaces =
                 (Map) options.get(XmlOptions.LOAD_ADDITIONAL_NAMESPACES);
 
+            _lazyElements = (Set) options.get( XmlOptions.LOAD_LAZY_ELEMENTS );
+            _skipElements = (Set) options.get( XmlOptions.LOAD_SKIP_ELEMENTS );
+
             _root = root;
             _root.ensureEmpty();
 
+            // The loader doesn't maintain the index, so build it again when
+            // it is next needed
+            _root._elementIndex = null;
+
             _lastNonAttr = _root._doc;
             _lastSplay = _root._doc;
             _lastPos = 0;
@@ -1316,6 +1831,8 @@ public final class Root extends Finish implements XmlStore
             if (_frontier != _root._doc)
                 throw new XmlException( "Document not ended" );
 
+            assert _deferring == null && _skipDepth == 0;
+
             assert _root._leftOnly;
 
             _finished = true;
@@ -1449,6 +1966,26 @@ public final class Root extends Finish implements XmlStore
 
         private void insertBegin ( QName name )
         {
+            if (_skipDepth > 0)
+            {
+                _skipDepth++;
+                return;
+            }
+
+            if (_deferring != null)
+            {
+                _deferringDepth++;
+                _deferring.begin( name );
+                return;
+            }
+
+            if (_skipElements != null && !_frontier.isDoc() &&
+                    _skipElements.contains( name ))
+            {
+                _skipDepth = 1;
+                return;
+            }
+
             if (_stripWhitespace)
                 stripLeadingWhitespace();
 
@@ -1475,7 +2012,60 @@ public final class Root extends Finish implements XmlStore
                 name = _replaceDocElem;
             }
 
+            boolean defer =
+                _lazyElements != null && !_frontier.isDoc() &&
+                    _lazyElements.contains( name );
+
             insert( _frontier = new Begin( name, _frontier ) );
+
+            if (defer)
+            {
+                _deferring = new DeferredContent();
+                _deferringDepth = 0;
+            }
+        }
+
+        /**
+         * Called at the end of an element whose content was being recorded.
+         * Returns the content to put off, or null if it had no elements in
+         * it, in which case it is loaded now as there is nothing to save.
+         */
+
+        private DeferredContent endDeferring ( )
+        {
+            DeferredContent content = _deferring;
+
+            _deferring = null;
+
+            if (content.hasElements())
+            {
+                content.trim();
+
+                if (_replayOptions == null)
+                {
+                    _replayOptions = new XmlOptions();
+
+                    if (_stripWhitespace)
+                        _replayOptions.setLoadStripWhitespace();
+
+                    if (_stripComments)
+                        _replayOptions.setLoadStripComments();
+
+                    if (_stripProcinsts)
+                        _replayOptions.setLoadStripProcinsts();
+                }
+
+                return content;
+            }
+
+            // The names were substituted as they were recorded
+
+            Map substituteNamespaces = _substituteNamespaces;
+            _substituteNamespaces = null;
+            content.replay( this );
+            _substituteNamespaces = substituteNamespaces;
+
+            return null;
         }
 
         void begin ( String local, String uri )
@@ -1490,6 +2080,28 @@ public final class Root extends Finish implements XmlStore
 
         void end ( )
         {
+            if (_skipDepth > 0)
+            {
+                _skipDepth--;
+                return;
+            }
+
+            Splay deferred = null;
+            DeferredContent content = null;
+
+            if (_deferring != null)
+            {
+                if (_deferringDepth > 0)
+                {
+                    _deferringDepth--;
+                    _deferring.end();
+                    return;
+                }
+
+                deferred = _frontier;
+                content = endDeferring();
+            }
+
             if (_stripWhitespace)
                 stripLeadingWhitespace();
 
@@ -1522,23 +2134,67 @@ public final class Root extends Finish implements XmlStore
 
                 _frontier = _frontier.getContainer();
             }
+
+            if (content != null)
+                _root.defer( deferred, content, _replayOptions );
         }
 
         void attr ( QName name, char[] buf, int off, int cch )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.attr( checkNameAttr( name ), buf, off, cch );
+                return;
+            }
+
             insert( new Attr( checkNameAttr( name ) ), buf, off, cch );
         }
 
         void attr ( QName name, String value )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.attr( checkNameAttr( name ), value );
+                return;
+            }
+
             insert( new Attr( checkNameAttr( name ) ), value );
         }
 
         void attr ( String local, String uri, String value )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.attr( checkNameAttr( local, uri ), value );
+                return;
+            }
+
             insert( new Attr( checkNameAttr( local, uri ) ), value );
         }
 
+        void attr ( String local, String uri, char[] buf, int off, int cch )
+        {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.attr( checkNameAttr( local, uri ), buf, off, cch );
+                return;
+            }
+
+            insert( new Attr( checkNameAttr( local, uri ) ), buf, off, cch );
+        }
+
         private boolean discardXmlns ( QName name )
         {
             return
@@ -1548,6 +2204,15 @@ public final class Root extends Finish implements XmlStore
 
         void xmlns ( String prefix, String uri )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.xmlns( checkName( prefix, uri ) );
+                return;
+            }
+
             QName name = checkName( prefix, uri );
 
             if (!discardXmlns( name ))
@@ -1556,6 +2221,15 @@ public final class Root extends Finish implements XmlStore
 
         void xmlns ( QName name )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.xmlns( checkName( name ) );
+                return;
+            }
+
             name = checkName( name );
 
             if (!discardXmlns( name ))
@@ -1564,24 +2238,60 @@ public final class Root extends Finish implements XmlStore
 
         void comment ( char[] buf, int off, int cch )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.comment( buf, off, cch );
+                return;
+            }
+
             if (!_stripComments)
                 insert( new Comment(), buf, off, cch );
         }
 
         void comment ( String value )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.comment( value );
+                return;
+            }
+
             if (!_stripComments)
                 insert( new Comment(), value );
         }
 
         void procinst ( String target, char[] buf, int off, int cch )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.procinst( target, buf, off, cch );
+                return;
+            }
+
             if (!_stripProcinsts)
                 insert( new Procinst( target ), buf, off, cch );
         }
 
         void procinst ( String target, String value )
         {
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.procinst( target, value );
+                return;
+            }
+
             if (!_stripProcinsts)
                 insert( new Procinst( target ), value );
         }
@@ -1633,6 +2343,15 @@ public final class Root extends Finish implements XmlStore
         {
             assert !_finished;
 
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.text( buf, off, cch );
+                return;
+            }
+
             int start = off;
             int end = off + cch;
 
@@ -1662,6 +2381,15 @@ public final class Root extends Finish implements XmlStore
         {
             assert !_finished;
 
+            if (_skipDepth > 0)
+                return;
+
+            if (_deferring != null)
+            {
+                _deferring.text( text );
+                return;
+            }
+
             int start = 0;
             int end = text.length();
 
@@ -1690,6 +2418,19 @@ public final class Root extends Finish implements XmlStore
         // Annotates the last thing inserted
         void annotate ( XmlBookmark xmlBookmark )
         {
+            if (_skipDepth > 0)
+                return;
+
+            // Annotations on the deferred element itself come before any of
+            // its content, and stay with it
+
+            if (_deferring != null &&
+                    (_deferringDepth > 0 || !_deferring.isEmpty()))
+            {
+                _deferring.annotate( xmlBookmark );
+                return;
+            }
+
             new Annotation( _root, xmlBookmark ).
                 set( _lastSplay, _lastPos );
         }
@@ -1732,6 +2473,13 @@ public final class Root extends Finish implements XmlStore
         private Map        _additionalNamespaces;
         private QNameCache _qnameCache;
         private XmlOptions _options;
+
+        private Set             _lazyElements;
+        private Set             _skipElements;
+        private int             _skipDepth;
+        private DeferredContent _deferring;
+        private int             _deferringDepth;
+        private XmlOptions      _replayOptions;
     }
 
     private void loadNodeChildren ( Node n, LoadContext context )
@@ -3203,6 +3951,11 @@ public final class Root extends Finish implements XmlStore
 
     void registerForChange ( ChangeListener listener )
     {
+        // A frozen document never changes, so there is nothing to listen for
+
+        if (_frozen)
+            return;
+
         assert validateChangeListenerState();
 
         // See if this listener is the first one on the list.  Easy but not
@@ -3220,6 +3973,9 @@ public final class Root extends Finish implements XmlStore
 
     void startChange ( )
     {
+        if (_frozen)
+            throw new IllegalStateException( "Document is frozen" );
+
         assert validateChangeListenerState();
 
         long currentVersion = 0;
@@ -3302,6 +4058,23 @@ public final class Root extends Finish implements XmlStore
             return n > _n ? n - _n : _n - n;
         }
 
+        /**
+         * Points this cache at child, the nth child of parent with the
+         * given name, found by other means.
+         */
+
+        void seed ( Splay parent, QName name, Splay child, int n )
+        {
+            assert child != null;
+
+            _version = Root.this.getVersion();
+            _parent = parent;
+            _name = name;
+            _set = null;
+            _child = child;
+            _n = n;
+        }
+
         Begin fetch ( Splay parent, QName name, QNameSet set, int n )
         {
             assert n >= 0;
@@ -3416,6 +4189,32 @@ public final class Root extends Finish implements XmlStore
     Text    _text;
     boolean _validateOnSet;
 
+    // Only kept if the document was loaded with LOAD_ELEMENT_INDEX, and then
+    // only once something has asked for it
+    boolean      _indexElements;
+    ElementIndex _elementIndex;
+
+    // Set by freeze(), after which the document never changes.  Types made
+    // after that are kept in _frozenTypes, and all annotations in
+    // _frozenAnnotations, keyed by their splay, instead of on the splay's
+    // goober list.  Readers which find _frozen set go on without the lock,
+    // so it is volatile and set only once the rest is in place.
+    volatile boolean _frozen;
+    StripedMap       _frozenTypes;
+    StripedMap       _frozenAnnotations;
+    ChildIndex       _childIndex;
+
+    // Elements loaded with LOAD_LAZY_ELEMENTS whose content has not been
+    // needed yet, keyed by their begin splay, and the containers they are
+    // in.  Null once there are none.
+    HashMap    _deferred;
+    HashSet    _deferredAncestors;
+    XmlOptions _deferredOptions;
+
+    // The fingerprint of the whole document, with the version it is for.
+    // Worked out again only when asked for after the version has moved on.
+    volatile ContentWalker.Fingerprint _fingerprint;
+
     //
     // Document version.  These numbers get incremented when the document
     // changes in a variety of ways.
@@ -17,6 +17,7 @@ package org.apache.xmlbeans.impl.store;
 
 import org.apache.xmlbeans.impl.common.Chars;
 import org.apache.xmlbeans.impl.common.EncodingMap;
+import org.apache.xmlbeans.impl.common.ObjectPool;
 import org.apache.xmlbeans.impl.common.GenericXmlInputStream;
 import org.apache.xmlbeans.impl.common.ValidatorListener;
 import org.apache.xmlbeans.impl.common.XmlEventBase;
@@ -41,7 +42,13 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.ConcurrentModificationException;
-import java.lang.ref.SoftReference;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.DocumentBuilder;
@@ -79,7 +86,8 @@ public abstract class Saver implements NamespaceManager
     
     private final Object monitor()
     {
-        return _root;
+        // A frozen document is read without its lock
+        return _root._frozen ? (Object) this : _root;
     }
 
     Saver ( Root r, Splay s, int p, XmlOptions options )
@@ -89,6 +97,8 @@ public abstract class Saver implements NamespaceManager
         // Input s and p must be normalized already
         assert p < s.getEndPos();
 
+        r.loadDeferredWithin( p == 0 ? s : s.getContainer( p ) );
+
         _root = r;
         _top = _splay = s;
         _pos = p;
@@ -2223,6 +2233,42 @@ public abstract class Saver implements NamespaceManager
             return charsAvailable;
         }
 
+        /**
+         * Hands the text in the buffer to the saver to encode, straight out
+         * of the buffer, making some more available first if need be.
+         * Returns the number of chars the saver took, or -1 if there is no
+         * more text.
+         */
+
+        public int encode ( ByteSaver saver )
+        {
+            int available;
+
+            if ((available = ensure( 2048 )) == 0)
+                return -1;
+
+            int n;
+
+            if (_out < _in)
+                n = saver.encode( _buf, _out, available );
+            else
+            {
+                int chunk = _buf.length - _out;
+
+                n = saver.encode( _buf, _out, chunk );
+
+                if (n == chunk && _in > 0)
+                    n += saver.encode( _buf, 0, _in );
+            }
+
+            _out = (_out + n) % _buf.length;
+            _free += n;
+
+            assert _free >= 0;
+
+            return n;
+        }
+
         /**
          * Ensure all text and return it as a string.
          */
@@ -2287,6 +2333,50 @@ public abstract class Saver implements NamespaceManager
         private TextSaver _textSaver;
     }
 
+    /**
+     * Returns the IANA name of the encoding to save with: the one in the
+     * options if there is one, else the one the document was loaded with,
+     * else UTF-8.
+     */
+
+    static String getEncoding ( Root r, XmlOptions options )
+    {
+        String encoding = null;
+
+        if (r._props.getEncoding() != null)
+        {
+            encoding =
+                EncodingMap.getIANA2JavaMapping( r._props.getEncoding() );
+        }
+
+        if (options.hasOption(XmlOptions.CHARACTER_ENCODING))
+        {
+            encoding =
+                (String) options.get(XmlOptions.CHARACTER_ENCODING);
+        }
+
+        if (encoding != null)
+        {
+            String ianaEncoding =
+                EncodingMap.getJava2IANAMapping( encoding );
+
+            if (ianaEncoding != null)
+                encoding = ianaEncoding;
+        }
+
+        if (encoding == null)
+            encoding = EncodingMap.getJava2IANAMapping( "UTF8" );
+
+        if (EncodingMap.getIANA2JavaMapping( encoding ) == null)
+        {
+            throw
+                new IllegalStateException(
+                    "Unknown encoding: " + encoding );
+        }
+
+        return encoding;
+    }
+
     /**
      *
      */
@@ -2299,41 +2389,9 @@ public abstract class Saver implements NamespaceManager
             options = XmlOptions.maskNull(options);
             _byteBuffer = new OutputStreamImpl();
 
-            String encoding = null;
-            
-            if (r._props.getEncoding() != null)
-            {
-                encoding =
-                    EncodingMap.getIANA2JavaMapping( r._props.getEncoding() );
-            }
-
-            if (options.hasOption(XmlOptions.CHARACTER_ENCODING))
-            {
-                encoding =
-                    (String) options.get(XmlOptions.CHARACTER_ENCODING);
-            }
-
-            if (encoding != null)
-            {
-                String ianaEncoding =
-                    EncodingMap.getJava2IANAMapping( encoding );
-
-                if (ianaEncoding != null)
-                    encoding = ianaEncoding;
-            }
-
-            if (encoding == null)
-                encoding = EncodingMap.getJava2IANAMapping( "UTF8" );
-
+            String encoding = getEncoding( r, options );
             String javaEncoding = EncodingMap.getIANA2JavaMapping( encoding );
 
-            if (javaEncoding == null)
-            {
-                throw
-                    new IllegalStateException(
-                        "Unknown encoding: " + encoding );
-            }
-
             try
             {
                 _converter = new OutputStreamWriter( _byteBuffer, javaEncoding);
@@ -2391,7 +2449,7 @@ public abstract class Saver implements NamespaceManager
 
                 assert getAvailable() > 0;
 
-                int bite = _buf[ _out ];
+                int bite = _buf[ _out ] & 0xFF;
 
                 _out = (_out + 1) % _buf.length;
                 _free++;
@@ -2549,6 +2607,392 @@ public abstract class Saver implements NamespaceManager
         private OutputStreamWriter _converter;
     }
 
+    /**
+     * Saves the text of a part of the tree as bytes, encoding the chars as
+     * they come out of a TextSaver without going through a Writer.  UTF-8,
+     * US-ASCII and ISO-8859-1 are encoded by hand; other encodings use a
+     * CharsetEncoder.  As with an OutputStreamWriter, chars which can't be
+     * encoded are saved as '?'.
+     */
+
+    static final class ByteSaver
+    {
+        ByteSaver ( Root r, Splay s, int p, XmlOptions options )
+        {
+            options = XmlOptions.maskNull( options );
+
+            String encoding = getEncoding( r, options );
+
+            Charset charset;
+
+            try
+            {
+                charset =
+                    Charset.forName(
+                        EncodingMap.getIANA2JavaMapping( encoding ) );
+            }
+            catch ( IllegalArgumentException e )
+            {
+                throw new RuntimeException( e );
+            }
+
+            String name = charset.name();
+
+            if (name.equals( "UTF-8" ))
+                _kind = UTF8;
+            else if (name.equals( "US-ASCII" ))
+                _kind = ASCII;
+            else if (name.equals( "ISO-8859-1" ))
+                _kind = LATIN1;
+            else
+            {
+                _kind = OTHER;
+
+                _encoder =
+                    charset.newEncoder().
+                        onMalformedInput( CodingErrorAction.REPLACE ).
+                        onUnmappableCharacter( CodingErrorAction.REPLACE );
+
+                _chars = CharBuffer.allocate( 2048 );
+            }
+
+            _textSaver = new TextSaver( r, s, p, options, encoding );
+        }
+
+        void save ( OutputStream os ) throws IOException
+        {
+            _os = os;
+            _buf = new byte [ _bufSize ];
+            _end = _buf.length;
+
+            save();
+        }
+
+        void save ( WritableByteChannel channel ) throws IOException
+        {
+            _channel = channel;
+            _buf = new byte [ _bufSize ];
+            _end = _buf.length;
+
+            save();
+        }
+
+        /**
+         * Saves into target, leaving its position after the text.  If the
+         * text doesn't fit, throws BufferOverflowException and leaves the
+         * position where it was.
+         */
+
+        void save ( ByteBuffer target )
+        {
+            int position = target.position();
+
+            if (target.hasArray())
+            {
+                // Encode straight into the target's array
+
+                _buf = target.array();
+                _pos = target.arrayOffset() + position;
+                _end = target.arrayOffset() + target.limit();
+            }
+            else
+            {
+                _target = target;
+                _buf = new byte [ _bufSize ];
+                _end = _buf.length;
+            }
+
+            try
+            {
+                save();
+            }
+            catch ( BufferOverflowException e )
+            {
+                target.position( position );
+                throw e;
+            }
+            catch ( IOException e )
+            {
+                // Can't happen, there's no stream or channel
+
+                throw new RuntimeException( e );
+            }
+
+            if (_target == null)
+                target.position( _pos - target.arrayOffset() );
+        }
+
+        private void save ( ) throws IOException
+        {
+            for ( int n ; (n = _textSaver.encode( this )) >= 0 ; )
+            {
+                if (n == 0)
+                    flush();
+            }
+
+            // A high surrogate left over at the end has no pair
+
+            if (_high != 0 && _kind == UTF8)
+            {
+                if (_pos == _end)
+                    flush();
+
+                _buf[ _pos++ ] = '?';
+            }
+
+            if (_kind == OTHER)
+            {
+                _chars.flip();
+
+                for ( ; ; )
+                {
+                    boolean overflow =
+                        _encoder.encode( _chars, bytes(), true ).isOverflow();
+
+                    _pos = _bytes.position();
+
+                    if (!overflow)
+                        break;
+
+                    flush();
+                }
+
+                for ( ; ; )
+                {
+                    boolean overflow = _encoder.flush( bytes() ).isOverflow();
+
+                    _pos = _bytes.position();
+
+                    if (!overflow)
+                        break;
+
+                    flush();
+                }
+            }
+
+            // When encoding straight into the caller's buffer, the bytes are
+            // already where they belong
+
+            if (_os != null || _channel != null || _target != null)
+                flush();
+        }
+
+        /**
+         * Writes out the bytes encoded so far, to make room for more.
+         */
+
+        private void flush ( ) throws IOException
+        {
+            if (_os != null)
+                _os.write( _buf, 0, _pos );
+            else if (_channel != null)
+            {
+                ByteBuffer bb = ByteBuffer.wrap( _buf, 0, _pos );
+
+                while ( bb.hasRemaining() )
+                    _channel.write( bb );
+            }
+            else if (_target != null)
+            {
+                if (_target.remaining() < _pos)
+                    throw new BufferOverflowException();
+
+                _target.put( _buf, 0, _pos );
+            }
+            else
+            {
+                // Encoding straight into the caller's buffer, which is full
+
+                throw new BufferOverflowException();
+            }
+
+            _pos = 0;
+        }
+
+        private ByteBuffer bytes ( )
+        {
+            if (_bytes == null || _bytes.array() != _buf)
+                _bytes = ByteBuffer.wrap( _buf );
+
+            _bytes.limit( _end ).position( _pos );
+
+            return _bytes;
+        }
+
+        /**
+         * Encodes as many of the given chars as there is room for.  Returns
+         * the number of chars taken.
+         */
+
+        int encode ( char[] cbuf, int off, int cch )
+        {
+            switch ( _kind )
+            {
+            case UTF8   : return encodeUtf8( cbuf, off, cch );
+            case ASCII  : return encodeSingleByte( cbuf, off, cch, 0x80 );
+            case LATIN1 : return encodeSingleByte( cbuf, off, cch, 0x100 );
+            default     : return encodeOther( cbuf, off, cch );
+            }
+        }
+
+        private int encodeUtf8 ( char[] cbuf, int off, int cch )
+        {
+            byte[] buf = _buf;
+            int pos = _pos;
+            int end = _end;
+
+            int i = off;
+
+            for ( int last = off + cch ; i < last ; i++ )
+            {
+                char ch = cbuf[ i ];
+
+                // A high surrogate is held until the char after it is seen,
+                // which may be in the next chunk
+
+                if (_high != 0)
+                {
+                    if (ch >= 0xDC00 && ch < 0xE000)
+                    {
+                        if (end - pos < 4)
+                            break;
+
+                        int cp = 0x10000 + ((_high - 0xD800) << 10) + (ch - 0xDC00);
+
+                        buf[ pos++ ] = (byte) (0xF0 | (cp >> 18));
+                        buf[ pos++ ] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                        buf[ pos++ ] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                        buf[ pos++ ] = (byte) (0x80 | (cp & 0x3F));
+
+                        _high = 0;
+
+                        continue;
+                    }
+
+                    if (pos == end)
+                        break;
+
+                    buf[ pos++ ] = '?';
+                    _high = 0;
+                }
+
+                if (ch < 0x80)
+                {
+                    if (pos == end)
+                        break;
+
+                    buf[ pos++ ] = (byte) ch;
+                }
+                else if (ch < 0x800)
+                {
+                    if (end - pos < 2)
+                        break;
+
+                    buf[ pos++ ] = (byte) (0xC0 | (ch >> 6));
+                    buf[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+                }
+                else if (ch >= 0xD800 && ch < 0xDC00)
+                    _high = ch;
+                else if (ch >= 0xDC00 && ch < 0xE000)
+                {
+                    if (pos == end)
+                        break;
+
+                    buf[ pos++ ] = '?';
+                }
+                else
+                {
+                    if (end - pos < 3)
+                        break;
+
+                    buf[ pos++ ] = (byte) (0xE0 | (ch >> 12));
+                    buf[ pos++ ] = (byte) (0x80 | ((ch >> 6) & 0x3F));
+                    buf[ pos++ ] = (byte) (0x80 | (ch & 0x3F));
+                }
+            }
+
+            _pos = pos;
+
+            return i - off;
+        }
+
+        private int encodeSingleByte ( char[] cbuf, int off, int cch, int max )
+        {
+            byte[] buf = _buf;
+            int pos = _pos;
+
+            int i = off;
+            int last = off + Math.min( cch, _end - pos );
+
+            for ( ; i < last ; i++ )
+            {
+                char ch = cbuf[ i ];
+
+                if (ch < max)
+                {
+                    buf[ pos++ ] = (byte) ch;
+                    _high = 0;
+                }
+                else if (ch >= 0xDC00 && ch < 0xE000 && _high != 0)
+                {
+                    // The second half of a pair which has already been
+                    // saved as '?'
+
+                    _high = 0;
+                }
+                else
+                {
+                    buf[ pos++ ] = '?';
+                    _high = ch >= 0xD800 && ch < 0xDC00 ? ch : 0;
+                }
+            }
+
+            _pos = pos;
+
+            return i - off;
+        }
+
+        private int encodeOther ( char[] cbuf, int off, int cch )
+        {
+            int n = Math.min( cch, _chars.remaining() );
+
+            _chars.put( cbuf, off, n );
+            _chars.flip();
+
+            _encoder.encode( _chars, bytes(), false );
+
+            _pos = _bytes.position();
+
+            _chars.compact();
+
+            return n;
+        }
+
+        private static final int UTF8   = 0;
+        private static final int ASCII  = 1;
+        private static final int LATIN1 = 2;
+        private static final int OTHER  = 3;
+
+        private static final int _bufSize = 8192;
+
+        private final TextSaver _textSaver;
+        private final int       _kind;
+
+        private CharsetEncoder _encoder;
+        private CharBuffer     _chars;
+        private ByteBuffer     _bytes;
+
+        private char _high;
+
+        private OutputStream        _os;
+        private WritableByteChannel _channel;
+        private ByteBuffer          _target;
+
+        private byte[] _buf;
+        private int    _pos;
+        private int    _end;
+    }
+
     /**
      *
      */
@@ -4422,12 +4866,16 @@ public abstract class Saver implements NamespaceManager
     //
     //
 
-    private static ThreadLocal _threadDocumentBuilderFactory =
-        new ThreadLocal()
+    // A DOM builder is only needed long enough to make an empty document,
+    // but is costly to make, so builders are kept for reuse in a pool
+    // shared by all threads
+
+    static final ObjectPool _documentBuilders =
+        new ObjectPool( ObjectPool.defaultSize() )
         {
-            protected Object initialValue()
+            protected Object create ( )
             {
-                return new SoftReference(createDocumentBuilder());
+                return createDocumentBuilder();
             }
         };
 
@@ -4443,16 +4891,18 @@ public abstract class Saver implements NamespaceManager
         }
     }
 
-    public static DocumentBuilder getThreadLocalDocumentBuilder() {
+    static Document newDocument ( )
+    {
+        DocumentBuilder builder = (DocumentBuilder) _documentBuilders.acquire();
 
-        SoftReference softRef = (SoftReference)_threadDocumentBuilderFactory.get();
-        DocumentBuilder documentBuilder = (DocumentBuilder) softRef.get();
-        if (documentBuilder==null)
+        try
+        {
+            return builder.newDocument();
+        }
+        finally
         {
-            documentBuilder = createDocumentBuilder();
-            _threadDocumentBuilderFactory.set(new SoftReference(documentBuilder));
+            _documentBuilders.release( builder );
         }
-        return documentBuilder;
     }
 
     static final class DomSaver extends Saver
@@ -4469,7 +4919,7 @@ public abstract class Saver implements NamespaceManager
             // TODO - add an options which specifies a Document with which
             // to create the fragment
 
-            _doc = getThreadLocalDocumentBuilder().newDocument();
+            _doc = newDocument();
 
             Node result;
 
@@ -325,8 +325,16 @@ public abstract class Splay extends Goobers
         {
             r.startChange();
 
+            boolean indexed = isBegin() && r._elementIndex != null;
+
+            if (indexed)
+                r._elementIndex.remove( this );
+
             ((QNameSplay) this).changeName( newName );
 
+            if (indexed)
+                r._elementIndex.add( this );
+
             if (!isProcinst() && !isXmlns())
             {
                 assert isAttr() || isBegin();
@@ -668,6 +676,14 @@ public abstract class Splay extends Goobers
             rDst == null ||
                 (true || checkInsertionValidity( 0, sDst, pDst, false ));
 
+        // Content put off by the loader goes along with a move, but is
+        // simply dropped by a remove
+
+        if (rDst == null)
+            r.discardDeferredWithin( this );
+        else
+            r.loadDeferredWithin( this );
+
         r.startChange();
 
         if (rDst != null)
@@ -753,6 +769,9 @@ public abstract class Splay extends Goobers
 
             cch += s.getCch();
 
+            if (s.isBegin() && r._elementIndex != null)
+                r._elementIndex.remove( s );
+
             Goober nextGoober;
             for ( Goober g = s.firstGoober() ; g != null ; g = nextGoober )
             {
@@ -1063,6 +1082,17 @@ public abstract class Splay extends Goobers
                 insertingText = true;
         }
 
+        // If the document keeps an index of its elements, note the last
+        // splay to insert so that the new elements can be found afterwards
+
+        Splay lastInsert = null;
+
+        if (insertingElements && r._elementIndex != null)
+        {
+            for ( lastInsert = sInsert ; lastInsert.nextSplay() != null ; )
+                lastInsert = lastInsert.nextSplay();
+        }
+
         // Now, insert the text (if any)
 
         r._text.insert( r.getCp( s ), txt, offTxt, cchTxt );
@@ -1071,6 +1101,9 @@ public abstract class Splay extends Goobers
 
         r.insertSplay( rootInsert, s.prevSplay() );
 
+        if (lastInsert != null)
+            r._elementIndex.insert( sInsert, lastInsert );
+
         // If the first splay to isnert was a fragment, remove it, leaving
         // the text it carried in the tree.  Don't perform invalidation.
 
@@ -1450,6 +1483,9 @@ public abstract class Splay extends Goobers
     {
         assert !isFinish() && !isXmlns();
 
+        if (isContainer())
+            r.loadDeferredWithin( this );
+
         if (isContainer())
             ensureContentValid();
         else if (isNormalAttr())
@@ -1596,6 +1632,8 @@ public abstract class Splay extends Goobers
     {
         assert Root.dv > 0 || getRootSlow() == r;
 
+        r.discardDeferredWithin( this );
+
         r.startChange();
 
         if (isInvalid())
@@ -2226,6 +2264,9 @@ public abstract class Splay extends Goobers
 
     final String getText ( Root r, int ws )
     {
+        if (isContainer())
+            r.loadDeferredWithin( this );
+
         if (isInvalid())
         {
             if (isNormalAttr())
@@ -2294,6 +2335,76 @@ public abstract class Splay extends Goobers
         return sb.toString();
     }
 
+    /**
+     * Returns true if getText( r ) would return value, without building
+     * the text.
+     */
+
+    final boolean textEquals ( Root r, String value )
+    {
+        if (isInvalid())
+        {
+            if (isNormalAttr())
+                ensureValueValid();
+            else if (isLeaf())
+                ensureContentValid();
+        }
+
+        int cp = r.getCp( this );
+
+        if (isNormalAttr() || isComment() || isProcinst() || isLeaf())
+        {
+            int cch = getCchValue();
+
+            return cch == value.length() && r._text.regionMatches( cp, cch, value, 0 );
+        }
+
+        if (!isContainer())
+            return false;
+
+        Splay last = getFinishSplay();
+
+        int off = 0;
+
+        for ( Splay s = this ; s != last ; s = s.nextSplay() )
+        {
+            if (s.isBegin())
+            {
+                if (s.isInvalid())
+                    s.ensureContentValid();
+
+                int cch = s.getCch();
+
+                if (off + cch > value.length() ||
+                        !r._text.regionMatches( cp, cch, value, off ))
+                {
+                    return false;
+                }
+
+                off += cch;
+            }
+            else
+            {
+                // It's ok for an attr to be invalid here, gets text after
+
+                int cchAfter = s.getCchAfter();
+
+                if (off + cchAfter > value.length() ||
+                        !r._text.regionMatches(
+                            cp + s.getCchValue(), cchAfter, value, off ))
+                {
+                    return false;
+                }
+
+                off += cchAfter;
+            }
+
+            cp += s.getCch();
+        }
+
+        return off == value.length();
+    }
+
     /**
      * Gets an attr splay for a given container, null otherwise.
      */
@@ -3222,6 +3333,11 @@ public abstract class Splay extends Goobers
 
         if (!isDoc() && type == null)
         {
+            if (r._frozen)
+                return getFrozenType( r );
+
+            r.loadDeferred( this );
+
             Type parentType = getContainer().getType( r );
 
             assert parentType != null;
@@ -3230,33 +3346,73 @@ public abstract class Splay extends Goobers
             if (parentType == null)
                 return null;
 
-            TypeStoreUser newUser;
+            type = newType( r, parentType );
+        }
 
-            if (isBegin())
-            {
-                newUser =
-                    parentType.create_element_user(
-                        getName(), getXsiTypeName( r ) );
-            }
-            else
+        assert type != null;
+
+        return type;
+    }
+
+    /**
+     * Get the Type for this splay in a frozen document, where many threads
+     * may be asking at once.  Types made after the freeze are kept in the
+     * root's map instead of on the goober list.
+     */
+
+    private final Type getFrozenType ( Root r )
+    {
+        Type type = (Type) r._frozenTypes.get( this );
+
+        if (type != null)
+            return type;
+
+        Type parentType = getContainer().getType( r );
+
+        // Defensive
+        if (parentType == null)
+            return null;
+
+        synchronized ( this )
+        {
+            type = (Type) r._frozenTypes.get( this );
+
+            if (type == null)
             {
-                assert isNormalAttr();
+                type = newType( r, parentType );
 
-                newUser = parentType.create_attribute_user( getName() );
+                if (type != null)
+                    r._frozenTypes.put( this, type );
             }
+        }
 
-            assert newUser != null;
+        return type;
+    }
 
-            // Defensive
-            if (newUser == null)
-                return null;
+    private final Type newType ( Root r, Type parentType )
+    {
+        TypeStoreUser newUser;
 
-            type = new Type( r, newUser, this );
+        if (isBegin())
+        {
+            newUser =
+                parentType.create_element_user(
+                    getName(), getXsiTypeName( r ) );
         }
+        else
+        {
+            assert isNormalAttr();
 
-        assert type != null;
+            newUser = parentType.create_attribute_user( getName() );
+        }
 
-        return type;
+        assert newUser != null;
+
+        // Defensive
+        if (newUser == null)
+            return null;
+
+        return new Type( r, newUser, this );
     }
 
     /**
@@ -3853,15 +4009,39 @@ public abstract class Splay extends Goobers
             assert Root.dv > 0 || _splay == null || _root == _splay.getRootSlow();
 //            assert Root.dv > 0 || _root == r || _splay.getRootSlow() != s.getRootSlow();
 
+            Root old = _root;
+
             _root = r;
 
             if (_splay != s)
             {
+                // The goober lists of a frozen document do not change, so
+                // cursors and types float free of them, and annotations are
+                // kept by the root instead
+
                 if (_splay != null)
-                    remove();
+                {
+                    if (old._frozen && getKind() == ANNOTATION)
+                        old.removeFrozenAnnotation( (Annotation) this );
+
+                    if (_parent == null)
+                        _splay = null;
+                    else
+                        remove();
+                }
 
                 if (s != null)
-                    append( s );
+                {
+                    if (r._frozen)
+                    {
+                        _splay = s;
+
+                        if (getKind() == ANNOTATION)
+                            r.addFrozenAnnotation( (Annotation) this );
+                    }
+                    else
+                        append( s );
+                }
             }
 
             assert p >= 0;
@@ -3892,6 +4072,18 @@ public abstract class Splay extends Goobers
             _root = null;
         }
 
+        /**
+         * Takes this goober off its splay's goober list, leaving it on the
+         * splay.  Used when the document is frozen.
+         */
+
+        final void unlist ( )
+        {
+            Splay s = _splay;
+            remove();
+            _splay = s;
+        }
+
         private final void append ( Splay s )
         {
             assert s != null;
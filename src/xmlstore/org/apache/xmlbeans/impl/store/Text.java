@@ -302,6 +302,25 @@ public final class Text
         }
     }
 
+    /**
+     * Returns true if the cch chars at pos are the same as the chars in s
+     * starting at off.
+     */
+
+    boolean regionMatches ( int pos, int cch, String s, int off )
+    {
+        assert pos >= 0 && pos + cch <= length();
+        assert off >= 0 && off + cch <= s.length();
+
+        for ( int i = 0 ; i < cch ; i++, pos++ )
+        {
+            if (_buf[ pos < _gap ? pos : pos + _gapLen ] != s.charAt( off + i ))
+                return false;
+        }
+
+        return true;
+    }
+
     public String toString ( )
     {
         return fetch( 0, length() );
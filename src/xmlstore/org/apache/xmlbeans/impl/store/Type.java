@@ -23,6 +23,7 @@ import org.apache.xmlbeans.impl.store.Splay.CopyContext;
 import org.apache.xmlbeans.impl.store.Splay.Goober;
 import org.apache.xmlbeans.impl.values.NamespaceManager;
 import org.apache.xmlbeans.impl.values.TypeStore;
+import org.apache.xmlbeans.impl.values.TypeStoreArrayVisitor;
 import org.apache.xmlbeans.impl.values.TypeStoreUser;
 import org.apache.xmlbeans.impl.values.TypeStoreUserFactory;
 import org.apache.xmlbeans.impl.values.TypeStoreVisitor;
@@ -57,11 +58,16 @@ public final class Type extends Goober implements TypeStore
         
         set( s, 0 );
 
-        if (user.uses_invalidate_value())
-            r._cInvalidatableTypes++;
+        // A frozen document never invalidates, so these are not kept
 
-        if (user.is_child_element_order_sensitive())
-            r._cElemOrderSensitiveTypes++;
+        if (!r._frozen)
+        {
+            if (user.uses_invalidate_value())
+                r._cInvalidatableTypes++;
+
+            if (user.is_child_element_order_sensitive())
+                r._cElemOrderSensitiveTypes++;
+        }
         
         user.attach_store( this );
     }
@@ -270,6 +276,25 @@ public final class Type extends Goober implements TypeStore
         return getRoot().validateOnSet();
     }
 
+    public boolean is_frozen()
+    {
+        return getRoot().isFrozen();
+    }
+
+    public void freeze()
+    {
+        getRoot().freeze();
+    }
+
+    /**
+     * Called when the document is frozen, to let a user made before then
+     * know it.  The user is put back in its freshly attached state.
+     */
+    void reattachUser ( )
+    {
+        _user.attach_store( this );
+    }
+
     public XmlCursor new_cursor ( )
     {
         return new Cursor( getRoot(), getSplay() );
@@ -312,21 +337,37 @@ public final class Type extends Goober implements TypeStore
     
     public void invalidate_text ( )
     {
+        if (getRoot()._frozen)
+            throw new IllegalStateException( "Document is frozen" );
+
         Splay s = getSplay();
 
         assert s.isTypeable();
 
+        Root r = getRoot();
+
+        // The user's value is changing, so the document is, even when
+        // the text was already given over to the user.  The version has
+        // to say so, or a fingerprint taken earlier would still pass.
+
         if (s.isInvalid())
+        {
+            r.startChange();
+            r.invalidateVersion();
             return;
+        }
         
         _inhibitUserInvalidate++;
 
-        s.removeContent( getRoot(), false );
+        s.removeContent( r, false );
 
         s.toggleIsInvalid();
         assert s.isInvalid();
         
         _inhibitUserInvalidate--;
+
+        r.startChange();
+        r.invalidateVersion();
     }
     
     public String fetch_text ( int whitespaceRule )
@@ -340,6 +381,77 @@ public final class Type extends Goober implements TypeStore
 
         return s.getText( getRoot(), whitespaceRule );
     }
+
+    public boolean fetch_chars ( TypeStoreUser user )
+    {
+        Splay s = getSplay();
+
+        assert !s.isInvalid();
+
+        if (s.isInvalid())
+            throw new RuntimeException( "Can't fetch text when invalid" );
+
+        // Only the value of an attribute or a leaf element is one run of
+        // text; otherwise it has to be pieced together
+
+        if (!s.isNormalAttr() && !s.isLeaf())
+            return false;
+
+        Root r = getRoot();
+        Text text = r._text;
+
+        int cch = s.getCchValue();
+
+        // Move the gap if it splits the text
+
+        int off = text.unObscure( r.getCp( s ), cch );
+
+        return user.parse_chars( text._buf, off, cch );
+    }
+    
+    public boolean content_equals ( TypeStore other, int flags )
+    {
+        Type that = (Type) other;
+
+        Splay s = getSplay();
+        Splay sThat = that.getSplay();
+
+        if (s.isContainer() != sThat.isContainer())
+            return false;
+
+        ContentWalker walker = new ContentWalker( getRoot(), s, flags );
+
+        ContentWalker walkerThat =
+            new ContentWalker( that.getRoot(), sThat, flags );
+
+        return ContentWalker.equals( walker, walkerThat );
+    }
+
+    public long content_fingerprint ( )
+    {
+        Root r = getRoot();
+        Splay s = getSplay();
+
+        // The document's fingerprint is kept on the root, so that it
+        // outlives this type
+
+        ContentWalker.Fingerprint f = s.isDoc() ? r._fingerprint : _fingerprint;
+
+        if (f != null && f._version == r.getVersion())
+            return f._value;
+
+        long value =
+            ContentWalker.fingerprint( new ContentWalker( r, s, 0 ) );
+
+        f = new ContentWalker.Fingerprint( r.getVersion(), value );
+
+        if (s.isDoc())
+            r._fingerprint = f;
+        else
+            _fingerprint = f;
+
+        return value;
+    }
     
     public void store_text ( String text )
     {
@@ -560,6 +672,87 @@ public final class Type extends Goober implements TypeStore
             fillMeUp.set( j, ((Type) fillMeUp.get( j ))._user );
     }
 
+    public int find_all_element_values ( QName name, TypeStoreArrayVisitor visitor )
+    {
+        return findAllElementValues( name, null, visitor );
+    }
+
+    public int find_all_element_values ( QNameSet names, TypeStoreArrayVisitor visitor )
+    {
+        return findAllElementValues( null, names, visitor );
+    }
+
+    private int findAllElementValues (
+        QName name, QNameSet set, TypeStoreArrayVisitor visitor )
+    {
+        Splay s = getSplay();
+
+        assert s.isContainer();
+
+        if (!s.isContainer())
+            throw new IllegalStateException();
+
+        if (s.isLeaf())
+            return 0;
+
+        Root r = getRoot();
+        Text text = r._text;
+
+        // The values of the children are read straight from the text, so
+        // any the loader put off have to be loaded first
+
+        r.loadDeferredWithin( s );
+
+        int i = 0;
+
+        loop:
+        for ( s = s.nextSplay() ; ; s = s.nextSplay() )
+        {
+            switch ( s.getKind() )
+            {
+            case Splay.END  :
+            case Splay.ROOT :
+            {
+                break loop;
+            }
+            case Splay.BEGIN :
+            {
+                if (set == null ? s.getName().equals( name ) : set.contains( s.getName() ))
+                {
+                    // A leaf with no attributes and no user holds nothing but
+                    // its value, so its text can be handed out in place
+
+                    boolean parsed = false;
+
+                    if (s.isLeaf() && s.peekType() == null && !s.nextSplay().isAttr())
+                    {
+                        int cch = s.getCchValue();
+                        int off = text.unObscure( r.getCp( s ), cch );
+
+                        parsed = visitor.get_chars( i, text._buf, off, cch );
+                    }
+
+                    if (!parsed)
+                    {
+                        Type type = s.getType( r );
+
+                        assert type != null;
+
+                        visitor.get_value( i, type._user );
+                    }
+
+                    i++;
+                }
+
+                s = s.getFinishSplay();
+                break;
+            }
+            }
+        }
+
+        return i;
+    }
+
     public TypeStoreUser find_attribute_user ( QName name )
     {
         assert getSplay().isContainer();
@@ -731,6 +924,17 @@ public final class Type extends Goober implements TypeStore
     
 // TODO - consolidate names, this fcn is very expensive in creating names
     public TypeStoreUser add_element_user ( QName qname )
+    {
+        Begin b = addElement( qname );
+
+        Type t = b.getType( getRoot() );
+
+        assert t != null;
+
+        return t._user;
+    }
+
+    private Begin addElement ( QName qname )
     {
         Splay s = getSplay();
 
@@ -787,17 +991,24 @@ public final class Type extends Goober implements TypeStore
             }
         }
         
-        return insertElement( qname, candidateSplay, candidatePos );
+        return insertBegin( qname, candidateSplay, candidatePos );
     }
 
-    private TypeStoreUser insertElement ( QName name, Splay s, int p )
+    private Begin insertBegin ( QName name, Splay s, int p )
     {
-        Root r = getRoot();
-        
         Begin b = new Begin( name, null );
         b.toggleIsLeaf();
         
-        s.insert( r, p, b, null, 0, 0, true );
+        s.insert( getRoot(), p, b, null, 0, 0, true );
+
+        return b;
+    }
+
+    private TypeStoreUser insertElement ( QName name, Splay s, int p )
+    {
+        Root r = getRoot();
+        
+        Begin b = insertBegin( name, s, p );
         
         Type t = b.getType( r );
 
@@ -989,6 +1200,87 @@ public final class Type extends Goober implements TypeStore
         }
     }
     
+    public void array_setter (
+        int n, QName elementName, TypeStoreArrayVisitor visitor )
+    {
+        array_setter( n, elementName, null, visitor );
+    }
+
+    public void array_setter (
+        int n, QName elementName, QNameSet set, TypeStoreArrayVisitor visitor )
+    {
+        Splay s = getSplay();
+
+        assert s.isContainer();
+
+        if (!s.isContainer())
+            throw new IllegalStateException();
+
+        int m = set == null ? count_elements( elementName ) : count_elements( set );
+
+        for ( ; m > n ; m-- )
+        {
+            if (set == null)
+                remove_element( elementName, m - 1 );
+            else
+                remove_element( set, m - 1 );
+        }
+
+        // New elements get no user here; they take their text like any
+        // other plain element below
+
+        for ( ; m < n ; m++ )
+            addElement( elementName );
+
+        if (n == 0)
+            return;
+
+        Root r = getRoot();
+
+        int i = 0;
+
+        loop:
+        for ( s = s.nextSplay() ; ; s = s.nextSplay() )
+        {
+            switch ( s.getKind() )
+            {
+            case Splay.END  :
+            case Splay.ROOT :
+            {
+                break loop;
+            }
+            case Splay.BEGIN :
+            {
+                if (set == null ? s.getName().equals( elementName ) : set.contains( s.getName() ))
+                {
+                    String text = null;
+
+                    if (s.peekType() == null && !s.nextSplay().isAttr())
+                        text = visitor.set_text( i );
+
+                    if (text != null)
+                        s.setText( r, text, 0, text.length() );
+                    else
+                    {
+                        Type type = s.getType( r );
+
+                        assert type != null;
+
+                        visitor.set_value( i, type._user );
+                    }
+
+                    i++;
+                }
+
+                s = s.getFinishSplay();
+                break;
+            }
+            }
+        }
+
+        assert i == n;
+    }
+
     public void visit_elements ( TypeStoreVisitor visitor )
     {
        Splay s = getSplay();
@@ -1031,9 +1323,17 @@ public final class Type extends Goober implements TypeStore
      */
     public Object get_root_object()
     {
-        return getRoot();
+        // A frozen document is read without its lock, so objects in it need
+        // only guard themselves
+
+        Root r = getRoot();
+
+        return r._frozen ? (Object) _user : r;
     }
 
     private final TypeStoreUser _user;
     private int _inhibitUserInvalidate;
+
+    // The fingerprint of this type's content, with the version it is for
+    private volatile ContentWalker.Fingerprint _fingerprint;
 }
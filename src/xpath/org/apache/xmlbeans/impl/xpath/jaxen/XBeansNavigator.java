@@ -792,14 +792,20 @@ public class XBeansNavigator
 
     static JaxenNode getBookmarkInThisPlace(XmlCursor xc)
     {
-        JaxenNode rez = (JaxenNode)xc.getBookmark(JaxenNode.class);
-        if (rez==null)
+        // Threads reading a frozen document share its bookmarks, so looking
+        // for a node and setting one must not interleave, or one thread
+        // could replace the node another is using
+        synchronized (JaxenNode.class)
         {
-            rez = new JaxenNode();
-            xc.setBookmark(rez);
-        }
+            JaxenNode rez = (JaxenNode)xc.getBookmark(JaxenNode.class);
+            if (rez==null)
+            {
+                rez = new JaxenNode();
+                xc.setBookmark(rez);
+            }
 
-        return rez;
+            return rez;
+        }
     }
 
     XmlCursor getCursor()
@@ -60,8 +60,10 @@ public class XBeansXPath extends BaseXPath
      *
      *  @see #selectSingleNode
      */
-    public List selectNodes(Object node) throws JaxenException
+    public synchronized List selectNodes(Object node) throws JaxenException
     {
+        // The navigator works through one cursor, so a compiled path, which
+        // may be shared by threads, runs one selection at a time
         XmlCursor xc;
         if (node instanceof XmlObject)
         {
@@ -19,7 +19,11 @@ import junit.framework.TestCase;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.framework.Assert;
+import org.apache.xmlbeans.XmlBase64Binary;
+import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlHexBinary;
 import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlRuntimeException;
 import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlOptions;
@@ -28,7 +32,12 @@ import com.easypo.XmlPurchaseOrderDocumentBean;
 import com.easypo.XmlCustomerBean;
 import com.easypo.XmlLineItemBean;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import javax.xml.namespace.QName;
 
 import org.w3.x2001.xmlSchema.SchemaDocument;
 import xint.test.PositionDocument;
@@ -230,4 +239,310 @@ public class AssortedTests extends TestCase
     }
 
     
+    private static String lineItems ( int n, int invalid )
+    {
+        StringBuffer sb = new StringBuffer();
+
+        sb.append( "<?xml version='1.0'?><!-- feed -->" );
+        sb.append( "<feed xmlns:po='http://openuri.org/easypo'><header>ignored</header>" );
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            sb.append( "<po:line-item>" );
+            sb.append( "<po:description>Item " + i + "</po:description>" );
+            sb.append( "<po:per-unit-ounces>1.5</po:per-unit-ounces>" );
+            sb.append( "<po:price>2</po:price>" );
+            sb.append( "<po:quantity>" + (i == invalid ? "many" : "" + i) + "</po:quantity>" );
+            sb.append( "</po:line-item>\n" );
+        }
+
+        return sb.append( "</feed>" ).toString();
+    }
+
+    public static void testParseIterator() throws Exception
+    {
+        QName record = new QName( "http://openuri.org/easypo", "line-item" );
+
+        Iterator i =
+            XmlBeans.getContextTypeLoader().parseIterator(
+                new ByteArrayInputStream( lineItems( 100, -1 ).getBytes( "UTF-8" ) ),
+                record, XmlLineItemBean.type, null );
+
+        int n = 0;
+
+        while ( i.hasNext() )
+        {
+            XmlLineItemBean item = (XmlLineItemBean) i.next();
+
+            Assert.assertEquals( "Item " + n, item.getDescription() );
+            Assert.assertEquals( BigInteger.valueOf( n ), item.getQuantity() );
+            Assert.assertTrue( item.validate() );
+
+            n++;
+        }
+
+        Assert.assertEquals( 100, n );
+
+        // Invalid records are passed over when there is a listener ...
+
+        ArrayList errors = new ArrayList();
+
+        i =
+            XmlBeans.getContextTypeLoader().parseIterator(
+                new ByteArrayInputStream( lineItems( 10, 3 ).getBytes( "UTF-8" ) ),
+                record, XmlLineItemBean.type,
+                new XmlOptions().setLoadValidateRecords().setErrorListener( errors ) );
+
+        for ( n = 0 ; i.hasNext() ; n++ )
+            Assert.assertTrue( !"Item 3".equals( ((XmlLineItemBean) i.next()).getDescription() ) );
+
+        Assert.assertEquals( 9, n );
+        Assert.assertTrue( errors.size() > 0 );
+
+        // ... and end the iteration when there is none
+
+        i =
+            XmlBeans.getContextTypeLoader().parseIterator(
+                new ByteArrayInputStream( lineItems( 10, 3 ).getBytes( "UTF-8" ) ),
+                record, XmlLineItemBean.type,
+                new XmlOptions().setLoadValidateRecords() );
+
+        i.next();
+        i.next();
+        i.next();
+
+        try
+        {
+            i.next();
+            Assert.fail( "Expected an invalid record" );
+        }
+        catch ( XmlRuntimeException e )
+        {
+        }
+
+        // Badly formed input is reported when it is reached
+
+        i =
+            XmlBeans.getContextTypeLoader().parseIterator(
+                new ByteArrayInputStream( "<feed><a></b></feed>".getBytes( "UTF-8" ) ),
+                record, null, null );
+
+        try
+        {
+            i.hasNext();
+            Assert.fail( "Expected a parse error" );
+        }
+        catch ( XmlRuntimeException e )
+        {
+        }
+    }
+
+    public static void testParseIteratorThreads() throws Exception
+    {
+        final Iterator i =
+            XmlBeans.getContextTypeLoader().parseIterator(
+                new ByteArrayInputStream( lineItems( 1000, -1 ).getBytes( "UTF-8" ) ),
+                new QName( "http://openuri.org/easypo", "line-item" ),
+                XmlLineItemBean.type, null );
+
+        final long[] sums = new long [ 4 ];
+        final Throwable[] failures = new Throwable [ 4 ];
+
+        Thread[] threads = new Thread [ 4 ];
+
+        for ( int t = 0 ; t < threads.length ; t++ )
+        {
+            final int thread = t;
+
+            threads[ t ] = new Thread()
+            {
+                public void run ( )
+                {
+                    try
+                    {
+                        for ( ; ; )
+                        {
+                            XmlLineItemBean item;
+
+                            try
+                            {
+                                item = (XmlLineItemBean) i.next();
+                            }
+                            catch ( NoSuchElementException e )
+                            {
+                                break;
+                            }
+
+                            sums[ thread ] += item.getQuantity().longValue();
+                        }
+                    }
+                    catch ( Throwable e )
+                    {
+                        failures[ thread ] = e;
+                    }
+                }
+            };
+
+            threads[ t ].start();
+        }
+
+        long sum = 0;
+
+        for ( int t = 0 ; t < threads.length ; t++ )
+        {
+            threads[ t ].join();
+            Assert.assertNull( failures[ t ] );
+            sum += sums[ t ];
+        }
+
+        Assert.assertEquals( 999 * 1000 / 2, sum );
+    }
+
+    private static byte[] readAll(java.io.InputStream in) throws java.io.IOException
+    {
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        byte[] chunk = new byte[7];
+        for (int n; (n = in.read(chunk)) >= 0; )
+            out.write(chunk, 0, n);
+        return out.toByteArray();
+    }
+
+    public static void testBinaryStreams() throws Exception
+    {
+        byte[] bytes = new byte[1000];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte)(i * 37);
+
+        // Line wrapped base64, decoded straight from the store's text
+        String b64 = new String(org.apache.xmlbeans.impl.util.Base64.encode(bytes));
+        StringBuffer wrapped = new StringBuffer();
+        for (int i = 0; i < b64.length(); i += 76)
+            wrapped.append(b64.substring(i, Math.min(i + 76, b64.length()))).append("\n  ");
+
+        XmlBase64Binary b = XmlBase64Binary.Factory.parse(
+            "<xml-fragment>" + wrapped + "</xml-fragment>");
+        Assert.assertTrue(java.util.Arrays.equals(bytes, readAll(b.newInputStream())));
+        Assert.assertTrue(java.util.Arrays.equals(bytes, b.getByteArrayValue()));
+
+        // A reader goes on seeing the value it started with
+        java.io.InputStream before = b.newInputStream();
+
+        java.io.OutputStream out = b.newOutputStream();
+        out.write(new byte[] { 1, 2, 3 });
+        out.write(4);
+        out.close();
+
+        Assert.assertEquals("AQIDBA==", b.getStringValue());
+        Assert.assertTrue(java.util.Arrays.equals(bytes, readAll(before)));
+
+        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.allocate(10);
+        Assert.assertEquals(4, b.newReadableChannel().read(buffer));
+
+        XmlHexBinary h = XmlHexBinary.Factory.parse("<xml-fragment> 0aFF10 </xml-fragment>");
+        Assert.assertTrue(java.util.Arrays.equals(new byte[] { 10, -1, 16 }, readAll(h.newInputStream())));
+
+        out = h.newOutputStream();
+        out.write(bytes);
+        out.close();
+        Assert.assertEquals(2000, h.getStringValue().length());
+
+        // Equal values hash alike
+        XmlHexBinary h2 = XmlHexBinary.Factory.newInstance();
+        h2.setByteArrayValue(bytes);
+        Assert.assertTrue(h.valueEquals(h2));
+        Assert.assertEquals(h.valueHashCode(), h2.valueHashCode());
+
+        // Bad text still fails as it did
+        try
+        {
+            XmlBase64Binary.Factory.parse("<xml-fragment>AB=C</xml-fragment>").getByteArrayValue();
+            Assert.fail("Expected an invalid value");
+        }
+        catch (org.apache.xmlbeans.impl.values.XmlValueOutOfRangeException e)
+        {
+        }
+    }
+
+    public static void testContentEquals() throws Exception
+    {
+        String po =
+            "<customer><name>David Bau</name><address>100 Main Street</address></customer>" +
+            "<line-item><description>Red Candy</description><quantity>4</quantity></line-item>";
+
+        XmlPurchaseOrderDocumentBean a = XmlPurchaseOrderDocumentBean.Factory.parse(
+            "<purchase-order xmlns='http://openuri.org/easypo' x='1' y='2'>" + po +
+            "<!-- note --></purchase-order>");
+        XmlPurchaseOrderDocumentBean b = XmlPurchaseOrderDocumentBean.Factory.parse(
+            "<ep:purchase-order xmlns:ep='http://openuri.org/easypo' y='2' x='1'>" +
+            po.replaceAll("<(/?)", "<$1ep:") + "<!-- note --></ep:purchase-order>");
+
+        // Prefixes and attribute order make no difference
+        Assert.assertTrue(a.valueEquals(b));
+        Assert.assertEquals(a.contentFingerprint(), b.contentFingerprint());
+        Assert.assertEquals(a.valueHashCode(), b.valueHashCode());
+        Assert.assertTrue(a.getPurchaseOrder().getCustomer().valueEquals(b.getPurchaseOrder().getCustomer()));
+
+        // Whitespace and comments do unless asked not to
+        XmlPurchaseOrderDocumentBean c = XmlPurchaseOrderDocumentBean.Factory.parse(
+            "<purchase-order xmlns='http://openuri.org/easypo' x='1' y='2'>\n  " +
+            po.replaceAll("><", ">\n  <") +
+            "\n</purchase-order>");
+        Assert.assertTrue(!a.valueEquals(c));
+        Assert.assertTrue(!a.valueEquals(c, new XmlOptions().setCompareIgnoreWhitespace()));
+        Assert.assertTrue(a.valueEquals(c,
+            new XmlOptions().setCompareIgnoreWhitespace().setCompareIgnoreComments()));
+
+        // The fingerprint follows changes, through the store and through
+        // typed values set one after another
+        long before = a.contentFingerprint();
+        XmlCustomerBean customer = a.getPurchaseOrder().getCustomer();
+        customer.setName("Someone Else");
+        long changed = a.contentFingerprint();
+        Assert.assertTrue(changed != before);
+        customer.setName("Someone Other");
+        Assert.assertTrue(a.contentFingerprint() != changed);
+        Assert.assertTrue(!a.valueEquals(b));
+        customer.setName("David Bau");
+        Assert.assertEquals(before, a.contentFingerprint());
+        Assert.assertTrue(a.valueEquals(b));
+
+        XmlCursor cur = b.newCursor();
+        cur.toFirstChild();
+        cur.toEndToken();
+        cur.insertElementWithText("date", "http://openuri.org/easypo", "2003-05-18T11:50:00");
+        cur.dispose();
+        Assert.assertTrue(!a.valueEquals(b));
+        Assert.assertTrue(a.contentFingerprint() != b.contentFingerprint());
+
+        // Attributes of leaf and text only elements count too
+        String[][] differ = {
+            { "<a b='1'>t</a>", "<a b='2'>t</a>" },
+            { "<a><b x='1'/></a>", "<a><b y='1'/></a>" },
+            { "<a><b x='1'>t</b></a>", "<a><b x='2'>t</b></a>" },
+            { "<a><b x='1'/>t</a>", "<a><b/>t</a>" },
+        };
+        for (int i = 0; i < differ.length; i++)
+        {
+            XmlObject x = XmlObject.Factory.parse(differ[i][0]);
+            XmlObject y = XmlObject.Factory.parse(differ[i][1]);
+            Assert.assertTrue(differ[i][0], !x.valueEquals(y));
+            Assert.assertTrue(differ[i][0], x.contentFingerprint() != y.contentFingerprint());
+            Assert.assertTrue(x.valueEquals(XmlObject.Factory.parse(differ[i][0])));
+
+            // And walked from the leaf itself
+            XmlCursor cx = x.newCursor();
+            XmlCursor cy = y.newCursor();
+            cx.toFirstChild();
+            cy.toFirstChild();
+            Assert.assertTrue(differ[i][0], !cx.getObject().valueEquals(cy.getObject()));
+            cx.dispose();
+            cy.dispose();
+        }
+
+        XmlObject x = XmlObject.Factory.parse("<a><b x='1' y='2'>t</b>u</a>");
+        XmlObject y = XmlObject.Factory.parse("<a><b y='2' x='1'>t</b>u</a>");
+        Assert.assertTrue(x.valueEquals(y));
+        Assert.assertEquals(x.contentFingerprint(), y.contentFingerprint());
+        Assert.assertEquals(x.valueHashCode(), y.valueHashCode());
+    }
 }
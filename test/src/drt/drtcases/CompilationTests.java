@@ -21,13 +21,19 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.apache.xmlbeans.impl.tool.SchemaCompiler;
 import org.apache.xmlbeans.impl.tool.CodeGenUtil;
+import org.apache.xmlbeans.impl.common.IOUtil;
 import org.w3.x2001.xmlSchema.SchemaDocument;
 import org.apache.xmlbeans.XmlBeans;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlException;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.jar.JarFile;
 import java.util.List;
 import java.util.Arrays;
 
@@ -158,6 +164,101 @@ public class CompilationTests extends TestCase
         Assert.assertTrue("Cannout find " + outputjar, outputjar.exists());
     }
 
+    public void testPricequoteNoFork() throws Throwable
+    {
+        TestEnv.deltree(TestEnv.xbeanOutput("schema/pricequotenofork"));
+        // Compile and jar without running javac or jar
+        File srcdir = TestEnv.xbeanOutput("schema/pricequotenofork/src");
+        File classesdir = TestEnv.xbeanOutput("schema/pricequotenofork/classes");
+        File outputjar = TestEnv.xbeanOutput("schema/pricequotenofork/pricequote.jar");
+        SchemaCompiler.Parameters params = new SchemaCompiler.Parameters();
+        params.setXsdFiles(new File[] { TestEnv.xbeanCase("schema/pricequote/PriceQuote.xsd") });
+        params.setSrcDir(srcdir);
+        params.setClassesDir(classesdir);
+        params.setOutputJar(outputjar);
+        params.setNoFork(true);
+        Assert.assertTrue("Build failed", SchemaCompiler.compile(params));
+        Assert.assertTrue("Cannout find " + outputjar, outputjar.exists());
+
+        JarFile jar = new JarFile(outputjar);
+        try
+        {
+            Assert.assertNotNull(jar.getManifest());
+            Assert.assertNotNull(jar.getEntry("noNamespace/PriceQuoteDocument.class"));
+            Assert.assertNotNull(jar.getEntry("noNamespace/impl/PriceQuoteDocumentImpl.class"));
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+
+    public void testParallelCompile() throws Throwable
+    {
+        TestEnv.deltree(TestEnv.xbeanOutput("schema/parallel"));
+        File[] xsdFiles = new File[] {
+            TestEnv.xbeanCase("schema/appview/Add_AcctSiebel7.xsd"),
+            TestEnv.xbeanCase("schema/appview/DBMS1_AddCustomer_request.xsd"),
+            TestEnv.xbeanCase("schema/appview/Headers.xsd"),
+            TestEnv.xbeanCase("schema/XmlSignature/xmldsig-core-schema.xsd"),
+            TestEnv.xbeanCase("schema/pricequote/PriceQuote.xsd"),
+        };
+
+        // The same schemas compiled on one thread and on several must
+        // give exactly the same sources and metadata
+        File[] outputs = new File[2];
+        int[] threads = new int[] { 1, 4 };
+        for (int i = 0; i < threads.length; i++)
+        {
+            outputs[i] = TestEnv.xbeanOutput("schema/parallel/threads" + threads[i]);
+            SchemaCompiler.Parameters params = new SchemaCompiler.Parameters();
+            params.setXsdFiles(xsdFiles);
+            params.setSrcDir(new File(outputs[i], "src"));
+            params.setClassesDir(new File(outputs[i], "classes"));
+            params.setNojavac(true);
+            params.setThreads(threads[i]);
+            Assert.assertTrue("Build failed", SchemaCompiler.compile(params));
+        }
+
+        assertSameFiles(outputs[0], outputs[1]);
+    }
+
+    private static void assertSameFiles(File expected, File actual) throws IOException
+    {
+        Assert.assertEquals(actual.toString(), expected.isDirectory(), actual.isDirectory());
+
+        if (expected.isDirectory())
+        {
+            String[] expectedNames = expected.list();
+            String[] actualNames = actual.list();
+            Arrays.sort(expectedNames);
+            Arrays.sort(actualNames);
+            Assert.assertEquals(expected.toString(), Arrays.asList(expectedNames), Arrays.asList(actualNames));
+
+            for (int i = 0; i < expectedNames.length; i++)
+                assertSameFiles(new File(expected, expectedNames[i]), new File(actual, actualNames[i]));
+        }
+        else
+        {
+            Assert.assertTrue("Different contents: " + actual, Arrays.equals(readFile(expected), readFile(actual)));
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream(file);
+        try
+        {
+            IOUtil.copyCompletely(input, bytes);
+        }
+        finally
+        {
+            input.close();
+        }
+        return bytes.toByteArray();
+    }
+
     static String [] invalidSchemas = {
         "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>\n" +
         "  <xs:complexType name='base' final='extension'/>\n" +
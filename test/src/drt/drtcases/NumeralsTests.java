@@ -20,11 +20,23 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.framework.Assert;
 import org.openuri.testNumerals.DocDocument;
+import org.apache.xmlbeans.XmlAnySimpleType;
+import org.apache.xmlbeans.XmlBoolean;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlDate;
+import org.apache.xmlbeans.XmlDateTime;
+import org.apache.xmlbeans.XmlDecimal;
+import org.apache.xmlbeans.XmlDouble;
 import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlInt;
+import org.apache.xmlbeans.XmlLong;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.impl.values.XmlValueOutOfRangeException;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Arrays;
 
 /**
  * Author: Cezar Andrei (cezar.andrei at bea.com)
@@ -269,4 +281,349 @@ public class NumeralsTests extends TestCase
     {
         Assert.assertTrue(new BigInteger("1000000000").equals(doc.getIntegerArray(0)));
     }
+
+    private static final String[] LEXICALS =
+    {
+        "5", "  +12\n", "-0", "007", "2147483647", "2147483648", "-2147483648",
+        "123456789012345678", "-1234567890123456789", "00000000000000000000001",
+        "1.50", "-.5", "5.", ".", "1e3", "1.5E-7", "-0.0", "3.14159265358979",
+        "0.1234567890123456789", "1e23", "1e-22", "123456789012345e7",
+        "INF", "-INF", "NaN", "1 2", "", "  ", "abc", "true", " false ", "0", "1",
+        "2004-02-29", " 2004-02-30", "2004-02-29T12:30:00.5Z", "12:30:00-08:00"
+    };
+
+    private static String valueOf(XmlAnySimpleType x, int kind)
+    {
+        try
+        {
+            switch (kind)
+            {
+                case 0: return Integer.toString(((XmlInt)x).getIntValue());
+                case 1: return Long.toString(((XmlLong)x).getLongValue());
+                case 2: return Long.toString(Double.doubleToLongBits(((XmlDouble)x).getDoubleValue()));
+                case 3:
+                    BigDecimal d = ((XmlDecimal)x).getBigDecimalValue();
+                    return d.unscaledValue() + "/" + d.scale();
+                case 4: return String.valueOf(((XmlBoolean)x).getBooleanValue());
+                case 5: return ((XmlDate)x).getGDateValue().toString();
+                default: return ((XmlDateTime)x).getGDateValue().toString();
+            }
+        }
+        catch (XmlValueOutOfRangeException e)
+        {
+            return "invalid";
+        }
+    }
+
+    private static XmlAnySimpleType parse(String xml, int kind) throws XmlException
+    {
+        switch (kind)
+        {
+            case 0: return XmlInt.Factory.parse(xml);
+            case 1: return XmlLong.Factory.parse(xml);
+            case 2: return XmlDouble.Factory.parse(xml);
+            case 3: return XmlDecimal.Factory.parse(xml);
+            case 4: return XmlBoolean.Factory.parse(xml);
+            case 5: return XmlDate.Factory.parse(xml);
+            default: return XmlDateTime.Factory.parse(xml);
+        }
+    }
+
+    public void testParseFromChars() throws XmlException
+    {
+        // Values which are a single run of text are parsed where they lie in
+        // the store; a trailing comment makes the store build a String
+        // instead.  Both must give the same value.
+
+        for (int i = 0; i < LEXICALS.length; i++)
+        {
+            for (int kind = 0; kind <= 6; kind++)
+            {
+                String fast = valueOf(parse(
+                    "<xml-fragment>" + LEXICALS[i] + "</xml-fragment>", kind), kind);
+
+                String slow = valueOf(parse(
+                    "<xml-fragment>" + LEXICALS[i] + "<!----></xml-fragment>", kind), kind);
+
+                Assert.assertEquals("'" + LEXICALS[i] + "' as type " + kind, slow, fast);
+            }
+        }
+    }
+
+    public void testBulkArrays() throws XmlException
+    {
+        // The array getters and setters for int, long and double go to the
+        // store in one pass.  Plain leaves are read and written as text;
+        // the rest go through their XmlObjects.
+
+        DocDocument dd = DocDocument.Factory.parse(
+            "<doc xmlns='http://openuri.org/testNumerals'" +
+            " xmlns:xsi='http://www.w3.org/2001/XMLSchema-instance'>" +
+            "<int>1</int><int xsi:nil='false'> 2 </int><long>3</long>" +
+            "<int>4<!---->0</int><double>0.5</double><double>INF</double>" +
+            "</doc>");
+        DocDocument.Doc d = dd.getDoc();
+
+        Assert.assertTrue(Arrays.equals(new int[] { 1, 2, 40 }, d.getIntArray()));
+        Assert.assertTrue(Arrays.equals(new long[] { 3 }, d.getLongArray()));
+        Assert.assertTrue(Arrays.equals(
+            new double[] { 0.5, Double.POSITIVE_INFINITY }, d.getDoubleArray()));
+
+        XmlInt second = d.xgetIntArray(1);
+
+        d.setIntArray(new int[] { 7, 8, 9, 10 });
+        d.setLongArray(new long[0]);
+        d.setDoubleArray(new double[] { -1.25 });
+
+        Assert.assertEquals(8, second.getIntValue());
+        Assert.assertTrue(Arrays.equals(new int[] { 7, 8, 9, 10 }, d.getIntArray()));
+        Assert.assertEquals(0, d.sizeOfLongArray());
+        Assert.assertEquals(-1.25, d.getDoubleArray(0), 0);
+
+        DocDocument.Doc copy = DocDocument.Factory.parse(dd.xmlText()).getDoc();
+
+        Assert.assertTrue(Arrays.equals(d.getIntArray(), copy.getIntArray()));
+        Assert.assertTrue(Arrays.equals(d.getDoubleArray(), copy.getDoubleArray()));
+    }
+
+    public void testConcurrentReads() throws Exception
+    {
+        // A document loaded for concurrent reads is read by many threads
+        // at once without its lock, and can not be changed.
+
+        StringBuffer sb = new StringBuffer();
+        sb.append("<doc xmlns='http://openuri.org/testNumerals'>");
+        for (int i = 0; i < 200; i++)
+            sb.append("<int>").append(i).append("</int>");
+        sb.append("<double>0.5</double></doc>");
+
+        final DocDocument dd = DocDocument.Factory.parse(
+            sb.toString(), new XmlOptions().setLoadConcurrentReads());
+        final String text = dd.xmlText();
+        final Throwable[] failure = new Throwable[1];
+
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++)
+        {
+            final int start = t * 25;
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int pass = 0; pass < 20; pass++)
+                        {
+                            DocDocument.Doc d = dd.getDoc();
+                            for (int i = start; i < 200; i += 7)
+                            {
+                                Assert.assertEquals(i, d.getIntArray(i));
+                                Assert.assertEquals(i, d.xgetIntArray(i).getIntValue());
+                            }
+                            Assert.assertEquals(200, d.getIntArray().length);
+                            Assert.assertEquals(0.5, d.getDoubleArray(0), 0);
+
+                            XmlCursor c = d.newCursor();
+                            Assert.assertTrue(c.toFirstChild());
+                            int n = 1;
+                            while (c.toNextSibling())
+                                n++;
+                            c.dispose();
+                            Assert.assertEquals(201, n);
+
+                            XmlObject[] found = d.selectPath(
+                                "declare namespace n='http://openuri.org/testNumerals' n:int");
+                            Assert.assertEquals(200, found.length);
+                            Assert.assertEquals(text, dd.xmlText());
+                        }
+                    }
+                    catch (Throwable e)
+                    {
+                        synchronized (failure)
+                        {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+
+        for (int t = 0; t < threads.length; t++)
+            threads[t].start();
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+
+        if (failure[0] != null)
+            throw new RuntimeException(failure[0].toString());
+
+        try
+        {
+            dd.getDoc().setIntArray(0, 7);
+            Assert.fail("Frozen document was changed");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+
+        XmlCursor c = dd.getDoc().newCursor();
+        try
+        {
+            c.toFirstChild();
+            c.removeXml();
+            Assert.fail("Frozen document was changed");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+        c.dispose();
+
+        Assert.assertEquals(text, dd.xmlText());
+    }
+
+    public void testFreeze() throws Exception
+    {
+        DocDocument dd = DocDocument.Factory.parse(
+            "<doc xmlns='http://openuri.org/testNumerals'>" +
+            "<int>1</int><long>2</long><int>3</int></doc>");
+        DocDocument.Doc d = dd.getDoc();
+
+        // Change it first, so the freeze has a well used store to lay out
+        XmlInt first = d.xgetIntArray(0);
+        for (int i = 0; i < 50; i++)
+        {
+            d.insertInt(1, 100 + i);
+            d.insertLong(0, i);
+        }
+        first.setIntValue(-1);
+        d.removeInt(2);
+
+        String text = dd.xmlText();
+        int[] ints = d.getIntArray();
+
+        Assert.assertTrue(!dd.isFrozen());
+        d.freeze();
+        Assert.assertTrue(dd.isFrozen());
+        Assert.assertTrue(first.isFrozen());
+
+        Assert.assertEquals(text, dd.xmlText());
+        Assert.assertTrue(Arrays.equals(ints, d.getIntArray()));
+        Assert.assertEquals(ints.length, d.sizeOfIntArray());
+        Assert.assertEquals(51, d.sizeOfLongArray());
+        for (int i = 0; i < ints.length; i++)
+            Assert.assertEquals(ints[i], d.getIntArray(i));
+        Assert.assertEquals(-1, first.getIntValue());
+        Assert.assertEquals(2, d.getLongArray(50));
+
+        try
+        {
+            first.setIntValue(5);
+            Assert.fail("Frozen document was changed");
+        }
+        catch (IllegalStateException e)
+        {
+        }
+
+        // A copy can be changed
+        DocDocument copy = (DocDocument) dd.copy();
+        Assert.assertTrue(!copy.isFrozen());
+        copy.getDoc().setIntArray(0, 5);
+        Assert.assertEquals(5, copy.getDoc().getIntArray(0));
+        Assert.assertEquals(text, dd.xmlText());
+    }
+
+    private static class Mark extends XmlCursor.XmlBookmark
+    {
+    }
+
+    public void testFreezeBookmarks() throws Exception
+    {
+        String xml = "<r><a><q>1</q><d>x</d></a><a><q>2</q><d>y</d></a><a><q>2</q><d>z</d></a></r>";
+
+        final XmlObject x = XmlObject.Factory.parse(xml);
+
+        // A bookmark set before the freeze is still there after it
+        XmlCursor c = x.newCursor();
+        c.toFirstChild();
+        Mark before = new Mark();
+        c.setBookmark(before);
+        c.dispose();
+
+        x.freeze();
+
+        // Paths which only Jaxen can run set bookmarks of their own
+        final String[] paths = { "//a[q=2]/d", "//a[count(q)=1]/q", "//d[. = 'y']" };
+        final String[] expected = new String[paths.length];
+        XmlObject unfrozen = XmlObject.Factory.parse(xml);
+        for (int i = 0; i < paths.length; i++)
+            expected[i] = results(unfrozen, paths[i]);
+
+        for (int i = 0; i < paths.length; i++)
+            Assert.assertEquals(expected[i], results(x, paths[i]));
+        Assert.assertEquals(2, x.selectPath("//a[q=2]/d").length);
+
+        c = x.newCursor();
+        Assert.assertTrue(c.toBookmark(before));
+        Assert.assertEquals("r", c.getName().getLocalPart());
+        Assert.assertSame(before, c.getBookmark(Mark.class));
+
+        // Bookmarks can be set and cleared on a frozen document
+        c.toFirstChild();
+        Mark after = new Mark();
+        c.setBookmark(after);
+        c.toParent();
+        Assert.assertSame(after, c.toNextBookmark(Mark.class));
+        Assert.assertEquals("a", c.getName().getLocalPart());
+        c.clearBookmark(Mark.class);
+        Assert.assertNull(c.getBookmark(Mark.class));
+        c.toParent();
+        Assert.assertSame(before, c.getBookmark(Mark.class));
+        c.dispose();
+
+        // And by many threads running Jaxen paths at once
+        Thread[] threads = new Thread[4];
+        final Throwable[] failure = new Throwable[1];
+        for (int t = 0; t < threads.length; t++)
+        {
+            threads[t] = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        for (int n = 0; n < 200; n++)
+                            for (int i = 0; i < paths.length; i++)
+                                Assert.assertEquals(expected[i], results(x, paths[i]));
+                    }
+                    catch (Throwable e)
+                    {
+                        synchronized (failure)
+                        {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+        }
+
+        for (int t = 0; t < threads.length; t++)
+            threads[t].start();
+        for (int t = 0; t < threads.length; t++)
+            threads[t].join();
+
+        if (failure[0] != null)
+            throw new RuntimeException(failure[0].toString());
+
+        Assert.assertEquals(xml, x.xmlText());
+    }
+
+    private static String results(XmlObject x, String path)
+    {
+        XmlCursor c = x.newCursor();
+        c.selectPath(path);
+        StringBuffer sb = new StringBuffer();
+        while (c.toNextSelection())
+            sb.append(c.xmlText()).append(';');
+        c.dispose();
+        return sb.toString();
+    }
 }
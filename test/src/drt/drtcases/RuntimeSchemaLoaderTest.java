@@ -20,6 +20,10 @@ import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlCursor;
 import org.apache.xmlbeans.SchemaTypeLoader;
+import org.apache.xmlbeans.SchemaTypeSystem;
+import org.apache.xmlbeans.impl.schema.FileResourceLoader;
+import org.apache.xmlbeans.impl.schema.SchemaTypeLoaderImpl;
+import org.apache.xmlbeans.impl.schema.SchemaTypeSystemImpl;
 
 import javax.xml.namespace.QName;
 
@@ -65,4 +69,54 @@ public class RuntimeSchemaLoaderTest extends TestCase
         XmlObject obj = cur.getObject();
         Assert.assertEquals(Schema.type, obj.schemaType());
     }
+
+    public void testPackedTypeSystem() throws Throwable
+    {
+        File inputfile1 = TestEnv.xbeanCase("schema/dynamic/dyntest.xsd");
+        SchemaTypeSystem system = XmlBeans.compileXsd(
+            new XmlObject[] { XmlObject.Factory.parse(inputfile1) },
+            XmlBeans.getContextTypeLoader(), new XmlOptions().setCompilePackXsb());
+
+        File outputdir = TestEnv.xbeanOutput("schema/packed");
+        TestEnv.deltree(outputdir);
+        system.saveToDirectory(outputdir);
+
+        File pack = new File(outputdir, system.getName().replace('.', '/') + "/packed.xsbp");
+        Assert.assertTrue("Should have saved a pack", pack.isFile());
+
+        SchemaTypeLoader loader = SchemaTypeLoaderImpl.build(
+            new SchemaTypeLoader[] { XmlBeans.getContextTypeLoader() }, new FileResourceLoader(outputdir), null);
+        XmlObject result = loader.parse(TestEnv.xbeanCase("schema/dynamic/dyntest.xml"), null, null);
+        Assert.assertEquals("D=wrappedinstance@http://openuri.org/test/dyntest", result.schemaType().toString());
+        Assert.assertTrue(result.validate());
+    }
+
+    public void testWarmUp() throws Throwable
+    {
+        File inputfile1 = TestEnv.xbeanCase("schema/dynamic/dyntest.xsd");
+        SchemaTypeSystem system = XmlBeans.compileXsd(
+            new XmlObject[] { XmlObject.Factory.parse(inputfile1) },
+            XmlBeans.getContextTypeLoader(), null);
+
+        File outputdir = TestEnv.xbeanOutput("schema/warmup");
+        TestEnv.deltree(outputdir);
+        system.saveToDirectory(outputdir);
+
+        SchemaTypeSystemImpl loaded = new SchemaTypeSystemImpl(
+            new FileResourceLoader(outputdir), system.getName(), XmlBeans.getContextTypeLoader());
+
+        Thread warmUp = loaded.warmUp();
+        Assert.assertNotNull(warmUp);
+
+        // Components may be asked for while the warm-up is going
+        QName name = new QName("http://openuri.org/test/dyntest", "wrappedinstance");
+        Assert.assertSame(loaded.findDocumentType(name), loaded.findDocumentType(name));
+
+        warmUp.join();
+
+        Assert.assertNull("Already resolved", loaded.warmUp());
+        Assert.assertEquals(system.globalTypes().length, loaded.globalTypes().length);
+        Assert.assertEquals("D=wrappedinstance@http://openuri.org/test/dyntest",
+                            loaded.findDocumentType(name).toString());
+    }
 }
@@ -22,17 +22,27 @@ import org.apache.xmlbeans.XmlSaxHandler;
 import org.apache.xmlbeans.XmlLineNumber;
 import org.apache.xmlbeans.XmlBeans;
 import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlException;
 import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.impl.common.XmlNameImpl;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
+import java.util.Set;
 import java.util.Iterator;
 import java.util.TreeSet;
 import javax.xml.namespace.QName;
@@ -2607,4 +2617,472 @@ public class StoreTests extends TestCase
         Assert.assertEquals( expect, x1.xmlText() );
     }
 
+    public void testPathCache()
+        throws Exception
+    {
+        XmlObject x = XmlObject.Factory.parse( "<a><b/><b/><c/></a>" );
+
+        String path = "$this/a/b";
+
+        XmlObject[] first = x.selectPath( path );
+        long hits = org.apache.xmlbeans.impl.store.Path.getCacheHits();
+        long misses = org.apache.xmlbeans.impl.store.Path.getCacheMisses();
+
+        XmlObject[] second = x.selectPath( path );
+
+        Assert.assertEquals( 2, first.length );
+        Assert.assertEquals( 2, second.length );
+        Assert.assertTrue( org.apache.xmlbeans.impl.store.Path.getCacheHits() > hits );
+        Assert.assertEquals( misses, org.apache.xmlbeans.impl.store.Path.getCacheMisses() );
+    }
+
+    private void dotestPathPredicate ( XmlObject x, String path, String expect )
+        throws Exception
+    {
+        // Make sure the path is run natively, not by jaxen
+
+        org.apache.xmlbeans.impl.common.XPath.compileSelectPath( path, "this" );
+
+        XmlCursor c = x.newCursor();
+        c.selectPath( path );
+
+        StringBuffer sb = new StringBuffer();
+
+        while ( c.toNextSelection() )
+        {
+            if (sb.length() > 0)
+                sb.append( ' ' );
+
+            sb.append( c.getTextValue() );
+        }
+
+        c.dispose();
+
+        Assert.assertEquals( path, expect, sb.toString() );
+    }
+
+    public void testPathPredicates ( )
+        throws Exception
+    {
+        XmlObject x =
+            XmlObject.Factory.parse(
+                "<doc><a id='1' k='x'><b>1</b><b>2</b><c/></a>" +
+                    "<a id='2'><b>3</b></a>" +
+                    "<a id='3' k='y'><b>4</b><b>5</b><x><b>6</b></x></a></doc>" );
+
+        dotestPathPredicate( x, "$this//a[@id='2']", "3" );
+        dotestPathPredicate( x, "$this//b[2]", "2 5" );
+        dotestPathPredicate( x, "$this//b[last()]", "2 3 5 6" );
+        dotestPathPredicate( x, "$this/doc/a[2]/b", "3" );
+        dotestPathPredicate( x, "$this//a[count(b)=2]/@id", "1 3" );
+        dotestPathPredicate( x, "$this//a[b='5' or @id='1']/@id", "1 3" );
+        dotestPathPredicate( x, "$this//a[@id!='1' and not(@k)]/@id", "2" );
+        dotestPathPredicate( x, "$this//b[.='6']", "6" );
+        dotestPathPredicate( x, "$this//a[position()>=2]/@id", "2 3" );
+        dotestPathPredicate( x, "$this//a/*", "1 2  3 4 5 6" );
+        dotestPathPredicate( x, "/doc/a[last()]/x/b", "6" );
+
+        // Absolute paths start at the document from anywhere in it
+
+        XmlCursor c = x.newCursor();
+        c.toFirstChild();
+        c.toFirstChild();
+
+        c.selectPath( "//b[1]" );
+        Assert.assertEquals( 4, c.getSelectionCount() );
+        c.dispose();
+    }
+
+    private String selectNames ( XmlObject x, String path )
+    {
+        XmlCursor c = x.newCursor();
+        c.toFirstChild();
+        c.selectPath( path );
+
+        StringBuffer sb = new StringBuffer();
+
+        while ( c.toNextSelection() )
+        {
+            sb.append( c.getName().getLocalPart() );
+            sb.append( c.getAttributeText( new QName( "id" ) ) );
+            sb.append( ' ' );
+        }
+
+        c.dispose();
+
+        return sb.toString();
+    }
+
+    private void dotestElementIndex ( XmlObject x1, XmlObject x2 )
+    {
+        String[] paths = { "//a", "//b", "$this//a", "$this//b", "$this//c" };
+
+        for ( int i = 0 ; i < paths.length ; i++ )
+        {
+            Assert.assertEquals(
+                paths[ i ], selectNames( x1, paths[ i ] ),
+                selectNames( x2, paths[ i ] ) );
+        }
+    }
+
+    public void testElementIndex ( )
+        throws Exception
+    {
+        String xml =
+            "<doc><a id='1'><b id='2'/><a id='3'><b id='4'/></a></a>" +
+                "<b id='5'/><a id='6'/></doc>";
+
+        XmlObject x1 = XmlObject.Factory.parse( xml );
+        XmlObject x2 =
+            XmlObject.Factory.parse(
+                xml, new XmlOptions().setLoadElementIndex() );
+
+        dotestElementIndex( x1, x2 );
+
+        XmlObject[] xs = { x1, x2 };
+
+        for ( int i = 0 ; i < xs.length ; i++ )
+        {
+            XmlCursor c = xs[ i ].newCursor();
+
+            // Insert a fragment holding elements ahead of the first a
+
+            c.toFirstChild();
+            c.toFirstChild();
+            XmlObject frag =
+                XmlObject.Factory.parse( "<a id='7'><b id='8'/></a>" );
+            XmlCursor f = frag.newCursor();
+            f.toFirstChild();
+            f.copyXml( c );
+            f.dispose();
+
+            // Rename the b with id 5 and remove the a with id 3
+
+            c.toParent();
+            c.selectPath( "$this//b[@id='5']" );
+            c.toNextSelection();
+            c.setName( new QName( "c" ) );
+
+            c.toParent();
+            c.selectPath( "$this//a[@id='3']" );
+            c.toNextSelection();
+            c.removeXml();
+
+            c.dispose();
+        }
+
+        dotestElementIndex( x1, x2 );
+
+        Assert.assertEquals( "a7 a1 a6 ", selectNames( x2, "//a" ) );
+        Assert.assertEquals( "b8 b2 ", selectNames( x2, "//b" ) );
+        Assert.assertEquals( "c5 ", selectNames( x2, "//c" ) );
+    }
+
+    private byte[] readAll ( InputStream is )
+        throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+
+        for ( int ch ; (ch = is.read()) >= 0 ; )
+            bos.write( ch );
+
+        return bos.toByteArray();
+    }
+
+    private void dotestByteSave ( String xml, String encoding )
+        throws Exception
+    {
+        XmlObject x = XmlObject.Factory.parse( xml );
+
+        XmlOptions options = new XmlOptions();
+
+        if (encoding != null)
+            options.setCharacterEncoding( encoding );
+
+        byte[] expect = readAll( x.newInputStream( options ) );
+
+        // Stream
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        x.save( bos, options );
+        Assert.assertTrue( Arrays.equals( expect, bos.toByteArray() ) );
+
+        // Channel
+
+        bos = new ByteArrayOutputStream();
+        x.save( Channels.newChannel( bos ), options );
+        Assert.assertTrue( Arrays.equals( expect, bos.toByteArray() ) );
+
+        // Heap and direct buffers, with room to spare
+
+        ByteBuffer[] bbs =
+            {
+                ByteBuffer.allocate( expect.length + 10 ),
+                ByteBuffer.allocateDirect( expect.length + 10 )
+            };
+
+        for ( int i = 0 ; i < bbs.length ; i++ )
+        {
+            ByteBuffer bb = bbs[ i ];
+
+            bb.position( 3 );
+            x.save( bb, options );
+            Assert.assertEquals( expect.length + 3, bb.position() );
+
+            byte[] bytes = new byte [ expect.length ];
+            bb.position( 3 );
+            bb.get( bytes );
+            Assert.assertTrue( Arrays.equals( expect, bytes ) );
+        }
+
+        // Heap and direct buffers, one byte short
+
+        bbs =
+            new ByteBuffer[]
+            {
+                ByteBuffer.allocate( expect.length - 1 ),
+                ByteBuffer.allocateDirect( expect.length - 1 )
+            };
+
+        for ( int i = 0 ; i < bbs.length ; i++ )
+        {
+            try
+            {
+                x.save( bbs[ i ], options );
+                Assert.fail( "Saved into too small a buffer" );
+            }
+            catch ( BufferOverflowException e )
+            {
+                Assert.assertEquals( 0, bbs[ i ].position() );
+            }
+        }
+    }
+
+    public void testByteSave ( )
+        throws Exception
+    {
+        String[] encodings = { null, "UTF-8", "US-ASCII", "ISO-8859-1", "UTF-16" };
+
+        StringBuffer sb = new StringBuffer( "<a b='&lt;\u00e9\ud834\udd1e'>" );
+
+        for ( int i = 0 ; i < 3000 ; i++ )
+            sb.append( "<c>x\u00e9\u4e2d\ud834\udd1e&amp;" + i + "</c>" );
+
+        String big = sb.append( "</a>" ).toString();
+
+        for ( int i = 0 ; i < encodings.length ; i++ )
+        {
+            dotestByteSave( "<a/>", encodings[ i ] );
+            dotestByteSave( "<a x='\u00e9'><!--c-->\u4e2d<?p d?></a>", encodings[ i ] );
+            dotestByteSave( big, encodings[ i ] );
+        }
+    }
+
+    private void dotestPullParser ( String xml )
+        throws Exception
+    {
+        XmlOptions options = new XmlOptions().setLoadUsePullParser();
+        
+        XmlObject x1 = XmlObject.Factory.parse( xml );
+        XmlObject x2 = XmlObject.Factory.parse( xml, options );
+
+        Assert.assertEquals( x1.xmlText(), x2.xmlText() );
+
+        x2 = XmlObject.Factory.parse( new ByteArrayInputStream( xml.getBytes( "UTF-8" ) ), options );
+
+        Assert.assertEquals( x1.xmlText(), x2.xmlText() );
+    }
+
+    private void dotestPullParserErrors ( String xml )
+    {
+        try
+        {
+            XmlObject.Factory.parse( xml, new XmlOptions().setLoadUsePullParser() );
+        }
+        catch ( XmlException e )
+        {
+            return;
+        }
+        
+        Assert.assertTrue( false );
+    }
+
+    public void testPullParser ( )
+        throws Exception
+    {
+        dotestPullParser( "<a x='y' xmlns:p='u' p:z='1'><!---->x<b/><c p='q'>z</c></a>" );
+        dotestPullParser( "<?xml version='1.0' encoding='UTF-8'?><?pi data?><a>&lt;&#x1D11E;&amp;</a>" );
+        dotestPullParser( "<!DOCTYPE a [<!ENTITY e 'e&#65;'>]><a b='&e;\r\n'>&e;<![CDATA[<&]]></a>" );
+        dotestPullParser( "<a xmlns='u'><b xmlns=''>\r\n\u00e9</b></a>" );
+
+        StringBuffer sb = new StringBuffer( "<a>" );
+
+        for ( int i = 0 ; i < 5000 ; i++ )
+            sb.append( "<b" + (i % 10) + " c='" + i + "'>text " + i + "</b" + (i % 10) + ">" );
+
+        dotestPullParser( sb.append( "</a>" ).toString() );
+
+        dotestPullParserErrors( "" );
+        dotestPullParserErrors( "<foo></moo>" );
+        dotestPullParserErrors( "<a/><b/>" );
+        dotestPullParserErrors( "<a b='1' b='2'/>" );
+        dotestPullParserErrors( "<p:a/>" );
+        dotestPullParserErrors( "<a>&undefined;</a>" );
+        dotestPullParserErrors( "<foo><!-- -- --></foo>" );
+        dotestPullParserErrors( "<foo><!-- ---></foo>" );
+        dotestPullParserErrors( "<a>\u0001</a>" );
+        dotestPullParserErrors( "<a b='\u0001'/>" );
+        dotestPullParserErrors( "<a><![CDATA[\uFFFF]]></a>" );
+        dotestPullParserErrors( "<?xml encoding='UTF-8'?><a/>" );
+        dotestPullParserErrors( "<?xml standalone='yes' version='1.0'?><a/>" );
+        dotestPullParserErrors( "<?xml version='1.0' standalone='maybe'?><a/>" );
+        dotestPullParserErrors( "<a xmlns='http://www.w3.org/XML/1998/namespace'/>" );
+        dotestPullParserErrors( "<a xmlns:p='http://www.w3.org/XML/1998/namespace'/>" );
+        dotestPullParserErrors( "<a xmlns:xml='u'/>" );
+        dotestPullParserErrors( "<a xmlns:xmlns='http://www.w3.org/2000/xmlns/'/>" );
+
+        dotestPullParser( "<?xml version='1.0' standalone='yes'?><a xmlns:xml='http://www.w3.org/XML/1998/namespace'>\t</a>" );
+    }
+
+
+    private void dotestLazyElements ( String xml, Set lazy )
+        throws Exception
+    {
+        XmlObject x = XmlObject.Factory.parse( xml );
+        XmlObject y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        Assert.assertEquals( x.xmlText(), y.xmlText() );
+
+        // Walk both token by token
+
+        x = XmlObject.Factory.parse( xml );
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        XmlCursor cx = x.newCursor();
+        XmlCursor cy = y.newCursor();
+
+        for ( ; ; )
+        {
+            TokenType tt = cx.toNextToken();
+
+            Assert.assertEquals( tt, cy.toNextToken() );
+
+            if (tt.isNone())
+                break;
+
+            Assert.assertEquals( cx.getName(), cy.getName() );
+            Assert.assertEquals( cx.getChars(), cy.getChars() );
+        }
+
+        cx.dispose();
+        cy.dispose();
+
+        // Text, paths and copies from the top
+
+        x = XmlObject.Factory.parse( xml );
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        cx = x.newCursor();
+        cy = y.newCursor();
+
+        Assert.assertEquals( cx.getTextValue(), cy.getTextValue() );
+
+        cx.selectPath( "$this//*" );
+        cy.selectPath( "$this//*" );
+
+        Assert.assertEquals( cx.getSelectionCount(), cy.getSelectionCount() );
+
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        Assert.assertEquals( x.xmlText(), y.copy().xmlText() );
+
+        // Changes around, and removal of, put off elements
+
+        x = XmlObject.Factory.parse( xml );
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        cx = x.newCursor();
+        cy = y.newCursor();
+
+        cx.toFirstChild();
+        cy.toFirstChild();
+        cx.toEndToken();
+        cy.toEndToken();
+        cx.insertElementWithText( "added", "text" );
+        cy.insertElementWithText( "added", "text" );
+
+        Assert.assertEquals( x.xmlText(), y.xmlText() );
+
+        x = XmlObject.Factory.parse( xml );
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        cx = x.newCursor();
+        cy = y.newCursor();
+
+        cx.toFirstChild();
+        cy.toFirstChild();
+        cx.removeXmlContents();
+        cy.removeXmlContents();
+
+        Assert.assertEquals( x.xmlText(), y.xmlText() );
+
+        x = XmlObject.Factory.parse( xml );
+        y = XmlObject.Factory.parse( xml, new XmlOptions().setLoadLazyElements( lazy ) );
+
+        y.freeze();
+
+        Assert.assertEquals( x.xmlText(), y.xmlText() );
+    }
+
+    public void testLazyElements ( )
+        throws Exception
+    {
+        Set lazy = new HashSet();
+        lazy.add( new QName( "u", "body" ) );
+        lazy.add( new QName( "", "item" ) );
+
+        dotestLazyElements(
+            "<e:env xmlns:e='u'><e:header id='1'>h</e:header>" +
+            "<e:body a='b' xmlns:p='v'><p:c>text<d/>more</p:c><!--c--><?pi x?><e/></e:body>" +
+            "after</e:env>", lazy );
+
+        dotestLazyElements( "<a><item><b x='1'/></item><item>text</item><item/></a>", lazy );
+
+        StringBuffer sb = new StringBuffer( "<a>" );
+
+        for ( int i = 0 ; i < 100 ; i++ )
+            sb.append( "<item n='" + i + "'><b>" + i + "</b><c/></item>\n" );
+
+        dotestLazyElements( sb.append( "</a>" ).toString(), lazy );
+
+        // Reading into one put off element leaves the others alone
+
+        XmlObject y =
+            XmlObject.Factory.parse(
+                sb.toString(), new XmlOptions().setLoadLazyElements( lazy ) );
+
+        XmlCursor c = y.newCursor();
+        c.toFirstChild();
+        c.toChild( 50 );
+
+        Assert.assertEquals( "50", c.getAttributeText( new QName( "n" ) ) );
+        Assert.assertEquals( "50", c.getTextValue() );
+
+        c.dispose();
+
+        // Skipped elements are not loaded at all
+
+        Set skip = new HashSet();
+        skip.add( new QName( "u", "body" ) );
+
+        XmlObject x =
+            XmlObject.Factory.parse(
+                "<e:env xmlns:e='u'><e:header>h</e:header>" +
+                "<e:body><x/></e:body>after</e:env>",
+                new XmlOptions().setLoadSkipElements( skip ) );
+
+        Assert.assertEquals(
+            "<e:env xmlns:e=\"u\"><e:header>h</e:header>after</e:env>", x.xmlText() );
+    }
+
 }
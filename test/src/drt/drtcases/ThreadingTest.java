@@ -19,12 +19,16 @@ import junit.framework.Test;
 import junit.framework.TestSuite;
 import junit.framework.TestCase;
 import junit.framework.Assert;
+import org.apache.xmlbeans.QNameCache;
 import org.apache.xmlbeans.SchemaTypeLoader;
 import org.apache.xmlbeans.XmlBeans;
 import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 
 import javax.xml.namespace.QName;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
 
 public class ThreadingTest extends TestCase
 {
@@ -93,4 +97,147 @@ public class ThreadingTest extends TestCase
             Assert.assertTrue("Thread " + i + " didn't succeed", threads[i].getResult());
         }
     }
+
+    public void testSharedContextTypeLoader() throws Throwable
+    {
+        final SchemaTypeLoader[] loaders = new SchemaTypeLoader[THREAD_COUNT];
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int n = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    loaders[n] = XmlBeans.getContextTypeLoader();
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i].join();
+            Assert.assertNotNull(loaders[i]);
+            Assert.assertSame(XmlBeans.getContextTypeLoader(), loaders[i]);
+        }
+    }
+
+    public void testSharedContextTypeLoaderReleased() throws Throwable
+    {
+        ClassLoader cl = new URLClassLoader(new URL[0], getClass().getClassLoader());
+        WeakReference ref = new WeakReference(cl);
+
+        Thread thread = Thread.currentThread();
+        ClassLoader old = thread.getContextClassLoader();
+        thread.setContextClassLoader(cl);
+        try
+        {
+            SchemaTypeLoader stl = XmlBeans.getContextTypeLoader();
+            Assert.assertSame(stl, XmlBeans.getContextTypeLoader());
+            Assert.assertNull(stl.findDocumentType(new QName("urn:nowhere", "none")));
+        }
+        finally
+        {
+            thread.setContextClassLoader(old);
+        }
+
+        // The shared loader for a class loader must not keep it from being
+        // collected once nothing else refers to it
+        cl = null;
+        for (int i = 0; i < 50 && ref.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        Assert.assertNull(ref.get());
+    }
+
+    public void testSharedQNameCache() throws Throwable
+    {
+        final QName[] names = new QName[THREAD_COUNT];
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < threads.length; i++)
+        {
+            final int n = i;
+            threads[i] = new Thread()
+            {
+                public void run()
+                {
+                    names[n] = XmlBeans.getQName("urn:threading", "shared");
+                }
+            };
+            threads[i].start();
+        }
+
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i].join();
+            Assert.assertSame(XmlBeans.getQName("urn:threading", "shared"), names[i]);
+        }
+
+        // A name in steady use survives eviction from a bounded cache
+        QNameCache cache = new QNameCache(32, 0.70f, 1024);
+        QName hot = cache.getName("urn:threading", "hot");
+        for (int i = 0; i < 100000; i++)
+        {
+            cache.getName("urn:threading", "cold" + i);
+            Assert.assertSame(hot, cache.getName("urn:threading", "hot"));
+        }
+        Assert.assertEquals(new QName("urn:threading", "cold0"), cache.getName("urn:threading", "cold0"));
+    }
+
+    public void testParserPool() throws Throwable
+    {
+        XmlBeans.setParserPoolSize(THREAD_COUNT);
+        XmlBeans.warmParserPool(THREAD_COUNT);
+
+        final Throwable[] failures = new Throwable[1];
+        final XmlOptions pull = new XmlOptions().setLoadUsePullParser();
+        long misses = XmlBeans.getParserPoolMisses();
+        long hits = XmlBeans.getParserPoolHits();
+
+        // Each load runs on a thread of its own, as on an executor which
+        // doesn't keep its threads, yet reuses what the last one made
+        for (int i = 0; i < 3 * THREAD_COUNT; i++)
+        {
+            final int n = i;
+            Thread t = new Thread()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        XmlObject x = XmlObject.Factory.parse("<a n='" + n + "'><b/></a>");
+                        XmlObject y = XmlObject.Factory.parse("<a n='" + n + "'><b/></a>", pull);
+                        Assert.assertTrue(x.valueEquals(y));
+                        Assert.assertNotNull(x.newDomNode());
+                    }
+                    catch (Throwable e)
+                    {
+                        failures[0] = e;
+                    }
+                }
+            };
+            t.start();
+            t.join();
+        }
+
+        Assert.assertNull(failures[0]);
+        Assert.assertEquals(misses, XmlBeans.getParserPoolMisses());
+        Assert.assertEquals(hits + 3 * 3 * THREAD_COUNT, XmlBeans.getParserPoolHits());
+
+        // A failed parse drops its parser rather than reuse it
+        long drops = XmlBeans.getParserPoolDrops();
+        try
+        {
+            XmlObject.Factory.parse("<a><b></a>");
+            Assert.fail("Expected a parse error");
+        }
+        catch (org.apache.xmlbeans.XmlException e)
+        {
+        }
+        Assert.assertEquals(drops + 1, XmlBeans.getParserPoolDrops());
+        Assert.assertNotNull(XmlObject.Factory.parse("<a/>"));
+    }
 }
@@ -16,6 +16,7 @@
 package drtcases;
 
 import javax.xml.namespace.QName;
+import javax.xml.parsers.SAXParserFactory;
 import org.apache.xmlbeans.impl.store.Root;
 import org.apache.xmlbeans.SchemaType;
 import org.apache.xmlbeans.SchemaTypeLoader;
@@ -26,8 +27,11 @@ import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
 import org.apache.xmlbeans.XMLStreamValidationException;
 import org.apache.xmlbeans.XmlDecimal;
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.impl.validator.ValidatingContentHandler;
 import org.apache.xmlbeans.impl.values.XmlValueOutOfRangeException;
 import java.io.File;
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -36,6 +40,9 @@ import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
 import org.apache.xmlbeans.xml.stream.XMLInputStream;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.XMLReader;
 import javax.xml.namespace.QName;
 
 public class ValidationTests extends TestCase
@@ -185,6 +192,9 @@ public class ValidationTests extends TestCase
             }
             
             Assert.assertTrue( isValid );
+
+            if (startOnDocument)
+                Assert.assertTrue( streamValidate( stl, validInstances[ i ], options ) );
         }
 
         for ( int i = 0 ; i < invalidInstances.length ; i++ )
@@ -219,6 +229,92 @@ public class ValidationTests extends TestCase
             catch ( XmlException e )
             {
             }
+
+            if (startOnDocument)
+                Assert.assertTrue( !streamValidate( stl, invalidInstances[ i ], options ) );
+        }
+    }
+
+    // Validates the instance as it is parsed, without loading it
+
+    public boolean streamValidate (
+        SchemaTypeLoader stl, String xml, XmlOptions options )
+            throws Exception
+    {
+        XmlOptions streamOptions = new XmlOptions();
+
+        if (options.hasOption( XmlOptions.DOCUMENT_TYPE ))
+            streamOptions.put( XmlOptions.DOCUMENT_TYPE, options.get( XmlOptions.DOCUMENT_TYPE ) );
+
+        streamOptions.setErrorListener( new ArrayList() );
+
+        ValidatingContentHandler handler =
+            (ValidatingContentHandler)
+                stl.newValidatingContentHandler( null, streamOptions );
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware( true );
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler( handler );
+
+        try
+        {
+            reader.parse( new InputSource( new StringReader( xml ) ) );
+        }
+        catch ( SAXParseException e )
+        {
+            return false;
+        }
+
+        return handler.isValid();
+    }
+
+    public void testStreamingErrors ( )
+        throws Exception
+    {
+        String[] schemas = {
+            "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema' targetNamespace='urn:s' xmlns='urn:s' elementFormDefault='qualified'>" +
+            "  <xs:element name='a'><xs:complexType><xs:sequence>" +
+            "    <xs:element name='b' type='xs:int' maxOccurs='unbounded'/>" +
+            "  </xs:sequence></xs:complexType></xs:element>" +
+            "</xs:schema>"
+        };
+
+        SchemaTypeLoader stl = makeSchemaTypeLoader( schemas );
+
+        String xml = "<a xmlns='urn:s'>\n<b>1</b>\n<b>x</b>\n</a>";
+
+        List errors = new ArrayList();
+
+        ValidatingContentHandler handler =
+            (ValidatingContentHandler)
+                stl.newValidatingContentHandler(
+                    null, new XmlOptions().setErrorListener( errors ) );
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware( true );
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler( handler );
+        reader.parse( new InputSource( new StringReader( xml ) ) );
+
+        Assert.assertTrue( !handler.isValid() );
+        Assert.assertTrue( errors.size() == 1 );
+        Assert.assertTrue( ((XmlError) errors.get( 0 )).getLine() == 3 );
+
+        // Without a listener, the first error stops the parse
+
+        reader.setContentHandler( stl.newValidatingContentHandler( null, null ) );
+
+        try
+        {
+            reader.parse( new InputSource( new StringReader( xml ) ) );
+            Assert.fail( "Expected a SAXParseException" );
+        }
+        catch ( SAXParseException e )
+        {
+            Assert.assertTrue( e.getLineNumber() == 3 );
         }
     }
 
@@ -1599,6 +1695,124 @@ public class ValidationTests extends TestCase
         doTest(schemas, null, valid, invalid);
     }
 
+    private static String keyTableRows ( int n, int dupId, int badRef, String badXref )
+    {
+        StringBuffer sb = new StringBuffer( "<db>" );
+
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            sb.append( "<row id='" + (i == n - 1 && dupId >= 0 ? dupId : i) + "'" );
+            sb.append( " ref='" + (i == 0 && badRef >= 0 ? badRef : (i * 7) % n) + "'" );
+            sb.append( " xid='x" + i + "'" );
+            sb.append( " xref='" + (i == 0 && badXref != null ? badXref : "x" + ((i * 3) % n)) + "'/>" );
+        }
+
+        return sb.append( "</db>" ).toString();
+    }
+
+    private static boolean hasError ( List errors, String text )
+    {
+        for ( int i = 0 ; i < errors.size() ; i++ )
+            if (errors.get( i ).toString().indexOf( text ) >= 0)
+                return true;
+
+        return false;
+    }
+
+    public void testKeyTableSpill ( )
+        throws Exception
+    {
+        String[] schemas = {
+            "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>" +
+            "  <xs:element name='db'>" +
+            "    <xs:complexType>" +
+            "      <xs:sequence>" +
+            "        <xs:element name='row' maxOccurs='unbounded'>" +
+            "          <xs:complexType>" +
+            "            <xs:attribute name='id' type='xs:int'/>" +
+            "            <xs:attribute name='ref' type='xs:decimal'/>" +
+            "            <xs:attribute name='xid' type='xs:ID'/>" +
+            "            <xs:attribute name='xref' type='xs:IDREF'/>" +
+            "          </xs:complexType>" +
+            "        </xs:element>" +
+            "      </xs:sequence>" +
+            "    </xs:complexType>" +
+            "    <xs:key name='rowKey'>" +
+            "      <xs:selector xpath='row'/>" +
+            "      <xs:field xpath='@id'/>" +
+            "    </xs:key>" +
+            "    <xs:keyref name='rowRef' refer='rowKey'>" +
+            "      <xs:selector xpath='row'/>" +
+            "      <xs:field xpath='@ref'/>" +
+            "    </xs:keyref>" +
+            "  </xs:element>" +
+            "</xs:schema>",
+        };
+
+        SchemaTypeLoader stl = makeSchemaTypeLoader( schemas );
+
+        // With a limit of 4, the 40 rows spill to several files per table
+        int[] limits = { 0, 4 };
+
+        for ( int i = 0 ; i < limits.length ; i++ )
+        {
+            XmlOptions options = new XmlOptions().setValidateKeyTableLimit( limits[ i ] );
+            List errors = new ArrayList();
+            options.setErrorListener( errors );
+
+            Assert.assertTrue(
+                stl.parse( keyTableRows( 40, -1, -1, null ), null, null ).validate( options ) );
+
+            Assert.assertTrue(
+                !stl.parse( keyTableRows( 40, 0, -1, null ), null, null ).validate( options ) );
+            Assert.assertTrue( hasError( errors, "Duplicate key" ) );
+
+            errors.clear();
+            Assert.assertTrue(
+                !stl.parse( keyTableRows( 40, -1, 1000, null ), null, null ).validate( options ) );
+            Assert.assertTrue( hasError( errors, "Key '1000' not found" ) );
+
+            errors.clear();
+            Assert.assertTrue(
+                !stl.parse( keyTableRows( 40, -1, -1, "nope" ), null, null ).validate( options ) );
+            Assert.assertTrue( hasError( errors, "ID not found for IDRef value 'nope'" ) );
+
+            // The same, streamed through a validating content handler
+
+            errors.clear();
+            Assert.assertTrue( streamKeyTable( stl, keyTableRows( 40, -1, -1, null ), options ) );
+            Assert.assertTrue( errors.isEmpty() );
+
+            Assert.assertTrue( !streamKeyTable( stl, keyTableRows( 40, 0, -1, null ), options ) );
+            Assert.assertTrue( hasError( errors, "Duplicate key" ) );
+
+            errors.clear();
+            Assert.assertTrue( !streamKeyTable( stl, keyTableRows( 40, -1, 1000, null ), options ) );
+            Assert.assertTrue( hasError( errors, "Key '1000' not found" ) );
+            Assert.assertTrue( ((XmlError) errors.get( 0 )).getLine() > 0 );
+
+            errors.clear();
+            Assert.assertTrue( !streamKeyTable( stl, keyTableRows( 40, -1, -1, "nope" ), options ) );
+            Assert.assertTrue( hasError( errors, "ID not found for IDRef value 'nope'" ) );
+        }
+    }
+
+    private static boolean streamKeyTable ( SchemaTypeLoader stl, String xml, XmlOptions options )
+        throws Exception
+    {
+        ValidatingContentHandler handler =
+            (ValidatingContentHandler) stl.newValidatingContentHandler( null, options );
+
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        factory.setNamespaceAware( true );
+
+        XMLReader reader = factory.newSAXParser().getXMLReader();
+        reader.setContentHandler( handler );
+        reader.parse( new InputSource( new StringReader( xml ) ) );
+
+        return handler.isValid();
+    }
+
     public void testValidateNestedGroups ( )
         throws Exception
     {
@@ -1655,4 +1869,79 @@ public class ValidationTests extends TestCase
         doTest(schemas, null, valid, invalid);
     }
 
+    public void testValidatePatterns() throws Exception {
+        String schemas[] = {
+            "<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema'>\n" +
+            "<xsd:element name='iban'>\n" +
+            "  <xsd:simpleType>\n" +
+            "    <xsd:restriction base='xsd:string'>\n" +
+            "      <xsd:pattern value='[A-Z]{2}[0-9]{2}[A-Z0-9]{1,30}'/>\n" +
+            "      <xsd:pattern value='(ab|a)*b?'/>\n" +
+            "    </xsd:restriction>\n" +
+            "  </xsd:simpleType>\n" +
+            "</xsd:element>\n" +
+            "</xsd:schema>\n",
+        };
+
+        String[] valid = {
+            "<iban>DE44500105175407324931</iban>",
+            "<iban>abaab</iban>",
+            "<iban></iban>",
+        };
+
+        String[] invalid = {
+            "<iban>DE4450010517540732493X!</iban>",
+            "<iban>de44500105175407324931</iban>",
+            "<iban>abbb</iban>",
+        };
+
+        doTest(schemas, null, valid, invalid);
+    }
+
+    public void testValidateContentModels() throws Exception {
+        String schemas[] = {
+            "<xsd:schema xmlns:xsd='http://www.w3.org/2001/XMLSchema'>\n" +
+            "<xsd:element name='doc'>\n" +
+            "  <xsd:complexType>\n" +
+            "    <xsd:sequence>\n" +
+            "      <xsd:element name='a' minOccurs='2' maxOccurs='unbounded'/>\n" +
+            "      <xsd:choice maxOccurs='2'>\n" +
+            "        <xsd:element name='b'/>\n" +
+            "        <xsd:element name='c'/>\n" +
+            "      </xsd:choice>\n" +
+            "      <xsd:element name='d' minOccurs='0'>\n" +
+            "        <xsd:complexType>\n" +
+            "          <xsd:all>\n" +
+            "            <xsd:element name='x' minOccurs='0'/>\n" +
+            "            <xsd:element name='y'/>\n" +
+            "          </xsd:all>\n" +
+            "        </xsd:complexType>\n" +
+            "      </xsd:element>\n" +
+            "      <xsd:any namespace='##other' processContents='skip' minOccurs='0'/>\n" +
+            "    </xsd:sequence>\n" +
+            "  </xsd:complexType>\n" +
+            "</xsd:element>\n" +
+            "</xsd:schema>\n",
+        };
+
+        String[] valid = {
+            "<doc><a/><a/><b/></doc>",
+            "<doc><a/><a/><a/><a/><c/><b/></doc>",
+            "<doc><a/><a/><b/><d><y/></d></doc>",
+            "<doc><a/><a/><b/><d><y/><x/></d></doc>",
+            "<doc><a/><a/><c/><w xmlns='urn:other'/></doc>",
+        };
+
+        String[] invalid = {
+            "<doc><a/><b/></doc>",
+            "<doc><a/><a/></doc>",
+            "<doc><a/><a/><b/><c/><b/></doc>",
+            "<doc><a/><a/><b/><d><x/></d></doc>",
+            "<doc><a/><a/><b/><d><y/><y/></d></doc>",
+            "<doc><a/><a/><b/><w/></doc>",
+        };
+
+        doTest(schemas, null, valid, invalid);
+    }
+
 }
@@ -0,0 +1,63 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package perf;
+
+/**
+ * One measured operation.  The runner calls setUp once, then calls run
+ * over and over, timing how many calls complete in a fixed interval.
+ *
+ * run returns something computed from its work so that the runner can
+ * consume it, and the JIT cannot throw the work away.
+ */
+public abstract class Benchmark
+{
+    private final String _name;
+    private final String _fixture;
+
+    protected Benchmark ( String name, String fixture )
+    {
+        _name = name;
+        _fixture = fixture;
+    }
+
+    public String getName ( )
+    {
+        return _name;
+    }
+
+    /**
+     * The name of the input the benchmark runs against, e.g. "easypo".
+     */
+    public String getFixture ( )
+    {
+        return _fixture;
+    }
+
+    public String getId ( )
+    {
+        return _name + ":" + _fixture;
+    }
+
+    public void setUp ( ) throws Exception
+    {
+    }
+
+    public abstract Object run ( ) throws Exception;
+
+    public void tearDown ( ) throws Exception
+    {
+    }
+}
@@ -0,0 +1,326 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package perf;
+
+import org.apache.xmlbeans.impl.tool.CommandLine;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks and reports the throughput of each, in operations
+ * per second, as a table and optionally as a CSV file.  Given the CSV file
+ * of an earlier run as a baseline, it also reports the change against it.
+ *
+ * Each benchmark is warmed up for a number of timed iterations, which are
+ * discarded, and then measured for a number of timed iterations; the score
+ * is the mean of the measured iterations and the error their standard
+ * deviation.
+ */
+public final class BenchmarkRunner
+{
+    private static final String CSV_HEADER =
+        "\"Benchmark\",\"Fixture\",\"Mode\",\"Cnt\",\"Score\",\"Error\",\"Unit\"";
+
+    // Results are folded in here so that the JIT cannot discard the work
+    private static volatile int _sink;
+
+    private final int _warmups;
+    private final int _iterations;
+    private final long _millis;
+
+    private BenchmarkRunner ( int warmups, int iterations, long millis )
+    {
+        _warmups = warmups;
+        _iterations = iterations;
+        _millis = millis;
+    }
+
+    public static void main ( String[] args ) throws Exception
+    {
+        CommandLine cl = new CommandLine( args, Arrays.asList(
+            new String[] { "i", "wi", "time", "size", "csv", "baseline", "root" } ) );
+
+        if (cl.getOpt( "?" ) != null || cl.getOpt( "help" ) != null)
+        {
+            System.out.println( "Usage: perf [-i iterations] [-wi warmup iterations] [-time ms per iteration]" );
+            System.out.println( "            [-size line items in large fixtures] [-csv results.csv]" );
+            System.out.println( "            [-baseline earlier.csv] [-root source dir] [benchmark names]*" );
+            return;
+        }
+
+        int iterations = intOpt( cl, "i", 5 );
+        int warmups = intOpt( cl, "wi", 3 );
+        long millis = intOpt( cl, "time", 1000 );
+        int size = intOpt( cl, "size", 10000 );
+
+        if (cl.getOpt( "root" ) != null)
+            Fixtures.setRoot( new File( cl.getOpt( "root" ) ) );
+
+        Map baseline = cl.getOpt( "baseline" ) == null ? null : readCsv( new File( cl.getOpt( "baseline" ) ) );
+
+        Benchmark[] benchmarks = select( Benchmarks.all( size ), cl.args() );
+
+        BenchmarkRunner runner = new BenchmarkRunner( warmups, iterations, millis );
+
+        List results = new ArrayList();
+
+        for ( int i = 0 ; i < benchmarks.length ; i++ )
+        {
+            double[] scores = runner.measure( benchmarks[ i ] );
+            Result result = new Result( benchmarks[ i ], scores );
+            results.add( result );
+            System.out.println( result.format( baseline ) );
+        }
+
+        if (cl.getOpt( "csv" ) != null)
+            writeCsv( new File( cl.getOpt( "csv" ) ), results );
+    }
+
+    private static int intOpt ( CommandLine cl, String name, int defaultValue )
+    {
+        String value = cl.getOpt( name );
+        return value == null ? defaultValue : Integer.parseInt( value );
+    }
+
+    private static Benchmark[] select ( Benchmark[] benchmarks, String[] names )
+    {
+        if (names.length == 0)
+            return benchmarks;
+
+        List selected = new ArrayList();
+
+        for ( int i = 0 ; i < benchmarks.length ; i++ )
+        {
+            for ( int j = 0 ; j < names.length ; j++ )
+            {
+                if (benchmarks[ i ].getId().indexOf( names[ j ] ) >= 0)
+                {
+                    selected.add( benchmarks[ i ] );
+                    break;
+                }
+            }
+        }
+
+        return (Benchmark[]) selected.toArray( new Benchmark [ selected.size() ] );
+    }
+
+    /**
+     * Returns the throughput, in operations per second, of each measured
+     * iteration.
+     */
+    private double[] measure ( Benchmark benchmark ) throws Exception
+    {
+        benchmark.setUp();
+
+        try
+        {
+            for ( int i = 0 ; i < _warmups ; i++ )
+                iteration( benchmark );
+
+            double[] scores = new double [ _iterations ];
+
+            for ( int i = 0 ; i < _iterations ; i++ )
+                scores[ i ] = iteration( benchmark );
+
+            return scores;
+        }
+        finally
+        {
+            benchmark.tearDown();
+        }
+    }
+
+    private double iteration ( Benchmark benchmark ) throws Exception
+    {
+        System.gc();
+
+        long start = System.currentTimeMillis();
+        long end = start + _millis;
+        long now;
+        int ops = 0;
+        int sink = 0;
+
+        do
+        {
+            sink ^= System.identityHashCode( benchmark.run() );
+            ops++;
+            now = System.currentTimeMillis();
+        }
+        while ( now < end );
+
+        _sink ^= sink;
+
+        return ops * 1000.0 / (now - start);
+    }
+
+    static final class Result
+    {
+        final String _name;
+        final String _fixture;
+        final int _count;
+        final double _score;
+        final double _error;
+
+        Result ( Benchmark benchmark, double[] scores )
+        {
+            _name = benchmark.getName();
+            _fixture = benchmark.getFixture();
+            _count = scores.length;
+
+            double sum = 0;
+            for ( int i = 0 ; i < scores.length ; i++ )
+                sum += scores[ i ];
+            _score = sum / scores.length;
+
+            double squares = 0;
+            for ( int i = 0 ; i < scores.length ; i++ )
+                squares += (scores[ i ] - _score) * (scores[ i ] - _score);
+            _error = scores.length > 1 ? Math.sqrt( squares / (scores.length - 1) ) : 0;
+        }
+
+        String getId ( )
+        {
+            return _name + ":" + _fixture;
+        }
+
+        String format ( Map baseline )
+        {
+            StringBuffer sb = new StringBuffer();
+
+            sb.append( pad( _name, 14 ) );
+            sb.append( pad( _fixture, 10 ) );
+            sb.append( pad( round( _score ), 14, true ) );
+            sb.append( " +- " );
+            sb.append( pad( round( _error ), 12 ) );
+            sb.append( "ops/s" );
+
+            Double base = baseline == null ? null : (Double) baseline.get( getId() );
+
+            if (base != null && base.doubleValue() > 0)
+            {
+                double change = (_score - base.doubleValue()) * 100 / base.doubleValue();
+                sb.append( "  " );
+                sb.append( change >= 0 ? "+" : "" );
+                sb.append( round( change ) );
+                sb.append( "% vs baseline" );
+            }
+
+            return sb.toString();
+        }
+
+        String toCsv ( )
+        {
+            return
+                "\"" + _name + "\",\"" + _fixture + "\",\"thrpt\"," + _count + "," +
+                    _score + "," + _error + ",\"ops/s\"";
+        }
+    }
+
+    private static String round ( double value )
+    {
+        return Double.toString( Math.round( value * 100 ) / 100.0 );
+    }
+
+    private static String pad ( String s, int width )
+    {
+        return pad( s, width, false );
+    }
+
+    private static String pad ( String s, int width, boolean left )
+    {
+        StringBuffer sb = new StringBuffer();
+
+        for ( int i = s.length() ; i < width ; i++ )
+            sb.append( ' ' );
+
+        return left ? sb + s : s + sb;
+    }
+
+    private static void writeCsv ( File file, List results ) throws IOException
+    {
+        PrintWriter out = new PrintWriter( new FileWriter( file ) );
+
+        try
+        {
+            out.println( CSV_HEADER );
+
+            for ( int i = 0 ; i < results.size() ; i++ )
+                out.println( ((Result) results.get( i )).toCsv() );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the scores out of a CSV file written by an earlier run.
+     */
+    private static Map readCsv ( File file ) throws IOException
+    {
+        Map scores = new HashMap();
+        BufferedReader in = new BufferedReader( new FileReader( file ) );
+
+        try
+        {
+            for ( String line ; (line = in.readLine()) != null ; )
+            {
+                if (line.equals( CSV_HEADER ))
+                    continue;
+
+                String[] fields = line.split( "," );
+
+                if (fields.length < 5)
+                    continue;
+
+                String id = unquote( fields[ 0 ] ) + ":" + unquote( fields[ 1 ] );
+
+                try
+                {
+                    scores.put( id, Double.valueOf( fields[ 4 ] ) );
+                }
+                catch ( NumberFormatException e )
+                {
+                    // not a result line
+                }
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return scores;
+    }
+
+    private static String unquote ( String s )
+    {
+        if (s.length() >= 2 && s.startsWith( "\"" ) && s.endsWith( "\"" ))
+            return s.substring( 1, s.length() - 1 );
+
+        return s;
+    }
+}
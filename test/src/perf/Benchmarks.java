@@ -0,0 +1,350 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package perf;
+
+import org.apache.xmlbeans.XmlBeans;
+import org.apache.xmlbeans.XmlCursor;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.tool.SchemaCompiler;
+
+import com.easypo.XmlLineItemBean;
+import com.easypo.XmlPurchaseOrderDocumentBean;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The benchmark suite: parse, cursor navigation, selectPath, validate,
+ * save, generated array accessors, and schema compilation.
+ */
+public final class Benchmarks
+{
+    private static final String PO_PATH =
+        "declare namespace po='" + Fixtures.EASYPO_NS + "' $this//po:line-item";
+
+    private Benchmarks ( )
+    {
+    }
+
+    /**
+     * Returns every benchmark, with "large" fixtures of the given number
+     * of line items.
+     */
+    public static Benchmark[] all ( int lineItems ) throws Exception
+    {
+        byte[] small = Fixtures.easypoInstance();
+        byte[] large = Fixtures.purchaseOrder( lineItems );
+
+        List list = new ArrayList();
+
+        list.add( new Parse( "easypo", small, false ) );
+        list.add( new Parse( "large", large, false ) );
+        list.add( new Parse( "large", large, true ) );
+        list.add( new Navigate( "large", large ) );
+        list.add( new SelectPath( "large", large ) );
+        list.add( new Validate( "easypo", small ) );
+        list.add( new Validate( "large", large ) );
+        list.add( new Save( "large", large ) );
+        list.add( new XmlText( "large", large ) );
+        list.add( new GetArray( "large", large ) );
+        list.add( new SetArray( "large", large ) );
+        list.add( new CompileXsd( "easypo" ) );
+        list.add( new Scomp( "easypo" ) );
+
+        return (Benchmark[]) list.toArray( new Benchmark [ list.size() ] );
+    }
+
+    static XmlObject parse ( byte[] bytes ) throws Exception
+    {
+        return XmlObject.Factory.parse( new ByteArrayInputStream( bytes ) );
+    }
+
+    static final class Parse extends Benchmark
+    {
+        private final byte[] _bytes;
+        private final XmlOptions _options;
+
+        Parse ( String fixture, byte[] bytes, boolean pull )
+        {
+            super( pull ? "parsePull" : "parse", fixture );
+            _bytes = bytes;
+            _options = pull ? new XmlOptions().setLoadUsePullParser() : null;
+        }
+
+        public Object run ( ) throws Exception
+        {
+            return XmlObject.Factory.parse( new ByteArrayInputStream( _bytes ), _options );
+        }
+    }
+
+    static final class Navigate extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlObject _doc;
+
+        Navigate ( String fixture, byte[] bytes )
+        {
+            super( "cursorWalk", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = parse( _bytes );
+        }
+
+        public Object run ( )
+        {
+            XmlCursor c = _doc.newCursor();
+            int tokens = 0;
+
+            try
+            {
+                while ( !c.toNextToken().isNone() )
+                    tokens++;
+            }
+            finally
+            {
+                c.dispose();
+            }
+
+            return new Integer( tokens );
+        }
+    }
+
+    static final class SelectPath extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlObject _doc;
+
+        SelectPath ( String fixture, byte[] bytes )
+        {
+            super( "selectPath", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = parse( _bytes );
+        }
+
+        public Object run ( )
+        {
+            return _doc.selectPath( PO_PATH );
+        }
+    }
+
+    static final class Validate extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlObject _doc;
+
+        Validate ( String fixture, byte[] bytes )
+        {
+            super( "validate", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = parse( _bytes );
+
+            if (!_doc.validate())
+                throw new IllegalStateException( "Fixture " + getFixture() + " is not valid" );
+        }
+
+        public Object run ( )
+        {
+            return _doc.validate() ? Boolean.TRUE : Boolean.FALSE;
+        }
+    }
+
+    static final class Save extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlObject _doc;
+
+        Save ( String fixture, byte[] bytes )
+        {
+            super( "save", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = parse( _bytes );
+        }
+
+        public Object run ( ) throws Exception
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream( _bytes.length );
+            _doc.save( out );
+            return out;
+        }
+    }
+
+    static final class XmlText extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlObject _doc;
+
+        XmlText ( String fixture, byte[] bytes )
+        {
+            super( "xmlText", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = parse( _bytes );
+        }
+
+        public Object run ( )
+        {
+            return _doc.xmlText();
+        }
+    }
+
+    static final class GetArray extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlPurchaseOrderDocumentBean _doc;
+
+        GetArray ( String fixture, byte[] bytes )
+        {
+            super( "getArray", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _doc = XmlPurchaseOrderDocumentBean.Factory.parse( new ByteArrayInputStream( _bytes ) );
+        }
+
+        public Object run ( )
+        {
+            XmlLineItemBean[] items = _doc.getPurchaseOrder().getLineItemArray();
+            BigDecimal total = new BigDecimal( 0 );
+
+            for ( int i = 0 ; i < items.length ; i++ )
+                total = total.add( items[ i ].getPrice() );
+
+            return total;
+        }
+    }
+
+    static final class SetArray extends Benchmark
+    {
+        private final byte[] _bytes;
+        private XmlLineItemBean[] _items;
+
+        SetArray ( String fixture, byte[] bytes )
+        {
+            super( "setArray", fixture );
+            _bytes = bytes;
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _items = XmlPurchaseOrderDocumentBean.Factory.parse(
+                new ByteArrayInputStream( _bytes ) ).getPurchaseOrder().getLineItemArray();
+        }
+
+        public Object run ( )
+        {
+            XmlPurchaseOrderDocumentBean doc = XmlPurchaseOrderDocumentBean.Factory.newInstance();
+            doc.addNewPurchaseOrder().setLineItemArray( _items );
+            return doc;
+        }
+    }
+
+    static final class CompileXsd extends Benchmark
+    {
+        private XmlObject[] _schemas;
+
+        CompileXsd ( String fixture )
+        {
+            super( "compileXsd", fixture );
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _schemas = new XmlObject[] { XmlObject.Factory.parse( Fixtures.easypoSchema() ) };
+        }
+
+        public Object run ( ) throws Exception
+        {
+            return XmlBeans.compileXsd( _schemas, XmlBeans.getBuiltinTypeSystem(), null );
+        }
+    }
+
+    /**
+     * Runs scomp up to, but not including, javac: parsing, compiling, and
+     * writing the .xsb files and generated sources.
+     */
+    static final class Scomp extends Benchmark
+    {
+        private File _outputDir;
+
+        Scomp ( String fixture )
+        {
+            super( "scomp", fixture );
+        }
+
+        public void setUp ( ) throws Exception
+        {
+            _outputDir = File.createTempFile( "xbeanperf", "" );
+            _outputDir.delete();
+            _outputDir.mkdirs();
+        }
+
+        public Object run ( )
+        {
+            SchemaCompiler.Parameters params = new SchemaCompiler.Parameters();
+            params.setXsdFiles( new File[] { Fixtures.easypoSchema() } );
+            params.setConfigFiles( new File[] { Fixtures.easypoConfig() } );
+            params.setSrcDir( new File( _outputDir, "src" ) );
+            params.setClassesDir( new File( _outputDir, "classes" ) );
+            params.setNojavac( true );
+            params.setQuiet( true );
+
+            if (!SchemaCompiler.compile( params ))
+                throw new IllegalStateException( "scomp failed" );
+
+            return params;
+        }
+
+        public void tearDown ( )
+        {
+            delete( _outputDir );
+        }
+
+        private static void delete ( File file )
+        {
+            File[] children = file.listFiles();
+
+            for ( int i = 0 ; children != null && i < children.length ; i++ )
+                delete( children[ i ] );
+
+            file.delete();
+        }
+    }
+}
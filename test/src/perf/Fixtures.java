@@ -0,0 +1,125 @@
+/*   Copyright 2004 The Apache Software Foundation
+ *
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package perf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The inputs the benchmarks run against: the easypo schema and instance
+ * from test/src/easypo, and synthetic purchase orders of any size, built
+ * the same way every time so that runs can be compared.
+ */
+public final class Fixtures
+{
+    public static final String EASYPO_NS = "http://openuri.org/easypo";
+
+    private static File _root = new File(".");
+
+    private Fixtures ( )
+    {
+    }
+
+    /**
+     * Sets the directory the test sources are found under; defaults to
+     * the current directory, which is right when run from the build.
+     */
+    public static void setRoot ( File root )
+    {
+        _root = root;
+    }
+
+    public static File easypoSchema ( )
+    {
+        return new File( _root, "test/src/easypo/easypo.xsd" );
+    }
+
+    public static File easypoConfig ( )
+    {
+        return new File( _root, "test/src/easypo/easypo.xsdconfig" );
+    }
+
+    public static byte[] easypoInstance ( ) throws IOException
+    {
+        return readFile( new File( _root, "test/src/easypo/easypo.xml" ) );
+    }
+
+    /**
+     * Builds a valid purchase order with the given number of line items.
+     */
+    public static byte[] purchaseOrder ( int lineItems ) throws IOException
+    {
+        StringBuffer sb = new StringBuffer( 200 + lineItems * 220 );
+
+        sb.append( "<purchase-order xmlns=\"" + EASYPO_NS + "\">\n" );
+        sb.append( "  <customer age=\"34\">\n" );
+        sb.append( "    <name>Gladys Kravitz</name>\n" );
+        sb.append( "    <address>Anytown, PA</address>\n" );
+        sb.append( "  </customer>\n" );
+        sb.append( "  <date>2003-01-07T14:16:00-05:00</date>\n" );
+
+        for ( int i = 0 ; i < lineItems ; i++ )
+        {
+            sb.append( "  <line-item>\n" );
+            sb.append( "    <description>Burnham's Celestial Handbook, Vol " );
+            sb.append( i );
+            sb.append( "</description>\n" );
+            sb.append( "    <per-unit-ounces>" );
+            sb.append( 1 + i % 9 );
+            sb.append( "</per-unit-ounces>\n" );
+            sb.append( "    <price>" );
+            sb.append( 10 + i % 90 );
+            sb.append( "." );
+            sb.append( 10 + i % 89 );
+            sb.append( "</price>\n" );
+            sb.append( "    <quantity>" );
+            sb.append( 1 + i % 7 );
+            sb.append( "</quantity>\n" );
+            sb.append( "  </line-item>\n" );
+        }
+
+        sb.append( "  <shipper>\n" );
+        sb.append( "    <name>ZipShip</name>\n" );
+        sb.append( "    <per-ounce-rate>0.74</per-ounce-rate>\n" );
+        sb.append( "  </shipper>\n" );
+        sb.append( "</purchase-order>\n" );
+
+        return sb.toString().getBytes( "UTF-8" );
+    }
+
+    public static byte[] readFile ( File file ) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream input = new FileInputStream( file );
+
+        try
+        {
+            byte[] buffer = new byte [ 8192 ];
+
+            for ( int n ; (n = input.read( buffer )) >= 0 ; )
+                bytes.write( buffer, 0, n );
+        }
+        finally
+        {
+            input.close();
+        }
+
+        return bytes.toByteArray();
+    }
+}
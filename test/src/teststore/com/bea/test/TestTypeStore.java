@@ -17,6 +17,7 @@ package com.bea.test;
 
 import org.apache.xmlbeans.values.TypeStore;
 import org.apache.xmlbeans.values.TypeStoreUser;
+import org.apache.xmlbeans.values.TypeStoreArrayVisitor;
 import org.apache.xmlbeans.values.TypeStoreVisitor;
 import org.apache.xmlbeans.xml.stream.XMLName;
 
@@ -51,6 +52,31 @@ public class TestTypeStore implements TypeStore
         assert(!hasElements());
     }
 
+    public boolean fetch_chars(TypeStoreUser user)
+    {
+        return false;
+    }
+
+    public boolean content_equals(TypeStore other, int flags)
+    {
+        throw new RuntimeException("Not implemented");
+    }
+
+    public long content_fingerprint()
+    {
+        throw new RuntimeException("Not implemented");
+    }
+
+    public boolean is_frozen()
+    {
+        return false;
+    }
+
+    public void freeze()
+    {
+        throw new UnsupportedOperationException();
+    }
+
     public String fetch_text(int whitespaceRule)
     {
         assert(!hasElements());
@@ -323,6 +349,35 @@ public class TestTypeStore implements TypeStore
         throw new ArrayIndexOutOfBoundsException();
     }
 
+    public int find_all_element_values(XMLName name, TypeStoreArrayVisitor visitor)
+    {
+        int count = 0;
+
+        for (Iterator i = _childElementTypeStores.iterator(); i.hasNext(); )
+        {
+            TestTypeStore store = (TestTypeStore)i.next();
+
+            if (store._name.equals(name))
+                visitor.get_value(count++, store._user);
+        }
+
+        return count;
+    }
+
+    public void array_setter(int n, XMLName name, TypeStoreArrayVisitor visitor)
+    {
+        int m = count_elements(name);
+
+        for ( ; m > n ; m--)
+            remove_element(name, m - 1);
+
+        for ( ; m < n ; m++)
+            add_element_user(name);
+
+        for (int i = 0; i < n; i++)
+            visitor.set_value(i, find_element_user(name, i));
+    }
+
     public TypeStoreUser find_attribute_user(XMLName name)
     {
         if (_childAttributeTypeStores == null)